@@ -25,6 +25,7 @@ import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Timer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -53,6 +54,8 @@ import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
+import com.cloud.agent.transport.WireCodec;
+import com.cloud.agent.transport.WireCodecs;
 import com.cloud.exception.AgentControlChannelException;
 import com.cloud.resource.ServerResource;
 import com.cloud.utils.PropertiesUtil;
@@ -107,6 +110,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     ServerResource _resource;
     Link _link;
     Long _id;
+    // codec agreed on with the management server for the requests we send, null for Gson JSON
+    volatile WireCodec _wireCodec;
 
     Timer _timer = new Timer("Agent Timer");
 
@@ -120,6 +125,10 @@ public class Agent implements HandlerFactory, IAgentControl {
     long _startupWaitDefault = 180000;
     long _startupWait = _startupWaitDefault;
     boolean _reconnectAllowed = true;
+    // spreads the reconnects of agents told to back off at the same time
+    private static final Random s_random = new Random();
+    // pending reconnect after a backoff, guarded by this
+    ReconnectTask _reconnect;
     //For time sentitive task, e.g. PingTask
     private ThreadPoolExecutor _ugentTaskPool;
     ExecutorService _executor;
@@ -232,11 +241,18 @@ public class Agent implements HandlerFactory, IAgentControl {
 
     public void stop(final String reason, final String detail) {
         s_logger.info("Stopping the agent: Reason = " + reason + (detail != null ? ": Detail = " + detail : ""));
+        synchronized (this) {
+            if (_reconnect != null) {
+                _reconnect.cancel();
+                _reconnect = null;
+            }
+        }
         if (_connection != null) {
             final ShutdownCommand cmd = new ShutdownCommand(reason, detail);
             try {
                 if (_link != null) {
                     Request req = new Request((_id != null ? _id : -1), -1, cmd, false);
+                    req.setWireCodec(_wireCodec);
                     _link.send(req.toBytes());
                 }
             } catch (final ClosedChannelException e) {
@@ -301,6 +317,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     }
 
     public void sendStartup(Link link) {
+        // the server we are connecting to may not speak what the previous one did
+        _wireCodec = null;
         final StartupCommand[] startup = _resource.initialize();
         if (startup != null) {
             final Command[] commands = new Command[startup.length];
@@ -346,6 +364,8 @@ public class Agent implements HandlerFactory, IAgentControl {
         startup.setGuid(getResourceGuid());
         startup.setResourceName(getResourceName());
         startup.setVersion(getVersion());
+        startup.setWireFormats(WireCodecs.getNames());
+        startup.setBackoffSupported(true);
     }
 
     @Override
@@ -358,6 +378,10 @@ public class Agent implements HandlerFactory, IAgentControl {
             return;
         }
         synchronized (this) {
+            if (_reconnect != null) {
+                s_logger.debug("Already waiting out a backoff before reconnecting");
+                return;
+            }
             if (_startup != null) {
                 _startup.cancel();
                 _startup = null;
@@ -394,6 +418,7 @@ public class Agent implements HandlerFactory, IAgentControl {
         } catch (IOException e) {
             s_logger.warn("Fail to clean up old connection. " + e);
         }
+
         _connection = new NioClient("Agent", _shell.getHost(), _shell.getPort(), _shell.getWorkers(), this);
         do {
             s_logger.info("Reconnecting...");
@@ -403,6 +428,15 @@ public class Agent implements HandlerFactory, IAgentControl {
         s_logger.info("Connected to the server");
     }
 
+    /**
+     * @return milliseconds to wait before reconnecting when the management server asked
+     * for a backoff, spread over half as long again so agents told at once do not return at once.
+     */
+    static long getReconnectDelay(int backoffSeconds, Random random) {
+        long backoff = backoffSeconds * 1000L;
+        return backoff + (long)(random.nextDouble() * backoff / 2);
+    }
+
     public void processStartupAnswer(Answer answer, Response response, Link link) {
         boolean cancelled = false;
         synchronized (this) {
@@ -415,6 +449,16 @@ public class Agent implements HandlerFactory, IAgentControl {
         }
         final StartupAnswer startup = (StartupAnswer)answer;
         if (!startup.getResult()) {
+            if (startup.getBackoff() > 0) {
+                long delay = getReconnectDelay(startup.getBackoff(), s_random);
+                s_logger.info("Management server is busy: " + answer.getDetails() + ", reconnecting in " + delay + "ms");
+                // the reconnect runs off the timer, this handler thread must not wait out the backoff
+                synchronized (this) {
+                    _reconnect = new ReconnectTask(link);
+                    _timer.schedule(_reconnect, delay);
+                }
+                return;
+            }
             s_logger.error("Not allowed to connect to the server: " + answer.getDetails());
             System.exit(1);
         }
@@ -427,6 +471,10 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setId(startup.getHostId());
         _pingInterval = (long)startup.getPingInterval() * 1000; // change to ms.
+        _wireCodec = WireCodecs.get(startup.getWireFormat());
+        if (_wireCodec != null) {
+            s_logger.info("Using " + _wireCodec.getName() + " wire format with the management server");
+        }
 
         setLastPingResponseTime();
         scheduleWatch(link, response, _pingInterval, _pingInterval);
@@ -585,6 +633,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.setWireCodec(_wireCodec);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -678,6 +727,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     }
 
     private void postRequest(Request request) throws AgentControlChannelException {
+        request.setWireCodec(_wireCodec);
         if (_link != null) {
             try {
                 _link.send(request.toBytes());
@@ -796,6 +846,26 @@ public class Agent implements HandlerFactory, IAgentControl {
         }
     }
 
+    public class ReconnectTask extends ManagedContextTimerTask {
+        protected Link _link;
+
+        public ReconnectTask(final Link link) {
+            _link = link;
+        }
+
+        @Override
+        protected void runInContext() {
+            synchronized (Agent.this) {
+                if (_reconnect != this) {
+                    return;
+                }
+                _reconnect = null;
+            }
+            s_logger.info("Reconnecting after the backoff asked by the management server");
+            reconnect(_link);
+        }
+    }
+
     public class AgentRequestHandler extends Task {
         public AgentRequestHandler(Task.Type type, Link link, Request req) {
             super(type, link, req);
@@ -0,0 +1,49 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AgentTest {
+
+    @Test
+    public void testReconnectDelayIsSpread() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long delay = Agent.getReconnectDelay(20, random);
+            assertTrue(delay >= 20000);
+            assertTrue(delay < 30000);
+        }
+    }
+
+    @Test
+    public void testReconnectDelayBounds() {
+        Random low = Mockito.mock(Random.class);
+        Mockito.when(low.nextDouble()).thenReturn(0.0);
+        assertEquals(60000, Agent.getReconnectDelay(60, low));
+
+        Random high = Mockito.mock(Random.class);
+        Mockito.when(high.nextDouble()).thenReturn(0.999);
+        assertEquals(89970, Agent.getReconnectDelay(60, high));
+    }
+}
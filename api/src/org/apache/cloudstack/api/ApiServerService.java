@@ -38,5 +38,13 @@ public interface ApiServerService {
 
     public String handleRequest(Map params, String responseType, StringBuilder auditTrailSb) throws ServerApiException;
 
+    /**
+     * Dispatches the request like handleRequest, but returns the response unserialized so
+     * the caller can stream it. Returns null for the login and logout commands.
+     */
+    public ResponseObject executeRequest(Map params, String responseType, StringBuilder auditTrailSb) throws ServerApiException;
+
+    public String serializeResponse(Map params, ResponseObject response, String responseType, StringBuilder auditTrailSb);
+
     public Class<?> getCmdClass(String cmdName);
 }
@@ -40,6 +40,12 @@ public abstract class BaseListCmd extends BaseCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, description = "List the page after the one that returned this nextpagetoken, instead of the page given by page", since = "4.6")
+    private String pageToken;
+
+    @Parameter(name = ApiConstants.SKIP_COUNT, type = CommandType.BOOLEAN, description = "Don't count all matching items, count is then left out of the response", since = "4.6")
+    private Boolean skipCount;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -55,6 +61,14 @@ public abstract class BaseListCmd extends BaseCmd {
         return page;
     }
 
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    public boolean isSkipCount() {
+        return skipCount != null && skipCount;
+    }
+
     public Integer getPageSize() {
         if (pageSize != null && s_maxPageSize.longValue() != s_pageSizeUnlimited && pageSize.longValue() > s_maxPageSize.longValue()) {
             throw new InvalidParameterValueException("Page size can't exceed max allowed page size value: " + s_maxPageSize.longValue());
@@ -103,7 +117,7 @@ public abstract class BaseListCmd extends BaseCmd {
 
         if (pageSizeVal == null) {
             startIndex = null;
-        } else if (page != null) {
+        } else if (page != null && pageToken == null) {
             final int pageNum = page.intValue();
             if (pageNum > 0) {
                 startIndex = Long.valueOf(pageSizeVal * (pageNum - 1));
@@ -126,7 +140,11 @@ public abstract class BaseListCmd extends BaseCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
-        if (params.get(ApiConstants.PAGE) == null &&
+        if (params.get(ApiConstants.PAGE) != null && params.get(ApiConstants.PAGE_TOKEN) != null) {
+            throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Specify either \"page\" or \"pagetoken\" but not both parameters");
+        }
+
+        if (params.get(ApiConstants.PAGE) == null && params.get(ApiConstants.PAGE_TOKEN) == null &&
                 pageSize != null &&
                 !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
             final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
@@ -22,6 +22,8 @@ package com.cloud.agent.api;
 public class StartupAnswer extends Answer {
     long hostId;
     int pingInterval;
+    String wireFormat;
+    int backoff;
 
     protected StartupAnswer() {
     }
@@ -43,4 +45,26 @@ public class StartupAnswer extends Answer {
     public int getPingInterval() {
         return pingInterval;
     }
+
+    /**
+     * @return name of the wire codec the agent should send its requests with, null for Gson JSON.
+     */
+    public String getWireFormat() {
+        return wireFormat;
+    }
+
+    public void setWireFormat(String wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * @return seconds the agent should wait before connecting again, 0 if the failed startup is final.
+     */
+    public int getBackoff() {
+        return backoff;
+    }
+
+    public void setBackoff(int backoff) {
+        this.backoff = backoff;
+    }
 }
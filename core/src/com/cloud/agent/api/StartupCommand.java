@@ -46,6 +46,8 @@ public class StartupCommand extends Command {
     String agentTag;
     String resourceName;
     String gatewayIpAddress;
+    String[] wireFormats;
+    boolean backoffSupported;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -281,6 +283,28 @@ public class StartupCommand extends Command {
         this.gatewayIpAddress = gatewayIpAddress;
     }
 
+    /**
+     * @return names of the wire codecs the agent can speak besides Gson JSON, null for older agents.
+     */
+    public String[] getWireFormats() {
+        return wireFormats;
+    }
+
+    public void setWireFormats(String[] wireFormats) {
+        this.wireFormats = wireFormats;
+    }
+
+    /**
+     * @return true if the agent reconnects after the delay given in a StartupAnswer instead of giving up on a failed startup.
+     */
+    public boolean isBackoffSupported() {
+        return backoffSupported;
+    }
+
+    public void setBackoffSupported(boolean backoffSupported) {
+        this.backoffSupported = backoffSupported;
+    }
+
     @Override
     public boolean executeInSequence() {
         return false;
@@ -0,0 +1,338 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import com.cloud.agent.api.Command;
+
+/**
+ * Compact binary encoding of the Gson tree of the commands.  Marshalling
+ * still goes through Gson so the type adaptors registered in GsonHelper keep
+ * working unchanged, but the text layer is replaced by a tagged format where
+ * numbers are varints and every field name, and every short string value, is
+ * sent once per message and referred to by index afterwards.  Field names
+ * such as the ones repeated for every VM in a host report, and the class
+ * names written by the type adaptors, are where most of the JSON bytes go.
+ *
+ * The payload is a format version byte followed by a single value:
+ *   value := NULL | TRUE | FALSE | LONG varlong | DOUBLE 8 bytes | STRING str
+ *          | NUMBER str | ARRAY varint value* | OBJECT varint (str value)*
+ *   str   := varint (index << 1 | 1)          reference to a previous string
+ *          | varint (length << 1) utf8 bytes  new string
+ * Only strings up to MAX_INTERNED_LENGTH chars are added to the string table,
+ * longer ones are always sent inline.
+ */
+public class BinaryWireCodec implements WireCodec {
+    public static final byte ID = 1;
+    public static final String NAME = "binary-1";
+
+    protected static final byte FORMAT_VERSION = 1;
+
+    protected static final byte TAG_NULL = 0;
+    protected static final byte TAG_TRUE = 1;
+    protected static final byte TAG_FALSE = 2;
+    protected static final byte TAG_LONG = 3;
+    protected static final byte TAG_DOUBLE = 4;
+    protected static final byte TAG_STRING = 5;
+    protected static final byte TAG_NUMBER = 6;
+    protected static final byte TAG_ARRAY = 7;
+    protected static final byte TAG_OBJECT = 8;
+
+    protected static final int MAX_INTERNED_LENGTH = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected final Gson _gson;
+
+    public BinaryWireCodec(Gson gson) {
+        _gson = gson;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Command[] cmds) {
+        return encode(_gson.toJsonTree(cmds, cmds.getClass()));
+    }
+
+    @Override
+    public Command[] decode(byte[] bytes, int offset, int length, Class<? extends Command[]> type) {
+        return _gson.fromJson(decode(bytes, offset, length), type);
+    }
+
+    public static byte[] encode(JsonElement element) {
+        Encoder encoder = new Encoder();
+        encoder.writeByte(FORMAT_VERSION);
+        encoder.writeValue(element);
+        return encoder.toByteArray();
+    }
+
+    public static JsonElement decode(byte[] bytes, int offset, int length) {
+        Decoder decoder = new Decoder(bytes, offset, length);
+        byte version = decoder.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new JsonParseException("Unsupported binary wire format version " + version);
+        }
+        JsonElement element = decoder.readValue();
+        if (decoder._pos != decoder._end) {
+            throw new JsonParseException("Trailing bytes after the binary wire content at " + decoder._pos);
+        }
+        return element;
+    }
+
+    protected static class Encoder {
+        private byte[] _buf = new byte[1024];
+        private int _pos;
+        private final Map<String, Integer> _strings = new HashMap<String, Integer>();
+
+        private void ensure(int size) {
+            if (_pos + size > _buf.length) {
+                _buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _pos + size));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            _buf[_pos++] = (byte)b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                _buf[_pos++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_pos++] = (byte)value;
+        }
+
+        void writeString(String str) {
+            boolean intern = str.length() <= MAX_INTERNED_LENGTH;
+            if (intern) {
+                Integer index = _strings.get(str);
+                if (index != null) {
+                    writeVarLong(((long)index << 1) | 1);
+                    return;
+                }
+                _strings.put(str, _strings.size());
+            }
+            byte[] bytes = str.getBytes(UTF8);
+            writeVarLong((long)bytes.length << 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _pos, bytes.length);
+            _pos += bytes.length;
+        }
+
+        void writeValue(JsonElement element) {
+            if (element == null || element.isJsonNull()) {
+                writeByte(TAG_NULL);
+            } else if (element.isJsonPrimitive()) {
+                writePrimitive(element.getAsJsonPrimitive());
+            } else if (element.isJsonArray()) {
+                JsonArray array = element.getAsJsonArray();
+                writeByte(TAG_ARRAY);
+                writeVarLong(array.size());
+                for (JsonElement item : array) {
+                    writeValue(item);
+                }
+            } else {
+                JsonObject obj = element.getAsJsonObject();
+                Set<Map.Entry<String, JsonElement>> entries = obj.entrySet();
+                writeByte(TAG_OBJECT);
+                writeVarLong(entries.size());
+                for (Map.Entry<String, JsonElement> entry : entries) {
+                    writeString(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            }
+        }
+
+        void writePrimitive(JsonPrimitive primitive) {
+            if (primitive.isBoolean()) {
+                writeByte(primitive.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            } else if (primitive.isNumber()) {
+                Number number = primitive.getAsNumber();
+                if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+                    long value = number.longValue();
+                    writeByte(TAG_LONG);
+                    writeVarLong((value << 1) ^ (value >> 63));
+                } else if (number instanceof Double || number instanceof Float) {
+                    long bits = Double.doubleToRawLongBits(number.doubleValue());
+                    writeByte(TAG_DOUBLE);
+                    ensure(8);
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        _buf[_pos++] = (byte)(bits >>> shift);
+                    }
+                } else {
+                    // BigDecimal, BigInteger or Gson's lazily parsed numbers, keep the exact text
+                    writeByte(TAG_NUMBER);
+                    writeString(number.toString());
+                }
+            } else {
+                writeByte(TAG_STRING);
+                writeString(primitive.getAsString());
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _pos);
+        }
+    }
+
+    protected static class Decoder {
+        private final byte[] _buf;
+        private int _pos;
+        private final int _end;
+        private final List<String> _strings = new ArrayList<String>();
+
+        Decoder(byte[] buf, int offset, int length) {
+            _buf = buf;
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        byte readByte() {
+            if (_pos >= _end) {
+                throw new JsonParseException("Unexpected end of the binary wire content");
+            }
+            return _buf[_pos++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new JsonParseException("Malformed varint at " + _pos);
+        }
+
+        int readLength() {
+            long length = readVarLong();
+            if (length < 0 || length > _end - _pos) {
+                throw new JsonParseException("Invalid length " + length + " at " + _pos);
+            }
+            return (int)length;
+        }
+
+        String readString() {
+            long ref = readVarLong();
+            if ((ref & 1) != 0) {
+                long index = ref >>> 1;
+                if (index >= _strings.size()) {
+                    throw new JsonParseException("Invalid string reference " + index + " at " + _pos);
+                }
+                return _strings.get((int)index);
+            }
+            long length = ref >>> 1;
+            if (length > _end - _pos) {
+                throw new JsonParseException("Invalid string length " + length + " at " + _pos);
+            }
+            String str = new String(_buf, _pos, (int)length, UTF8);
+            _pos += length;
+            if (str.length() <= MAX_INTERNED_LENGTH) {
+                _strings.add(str);
+            }
+            return str;
+        }
+
+        JsonElement readValue() {
+            byte tag = readByte();
+            switch (tag) {
+            case TAG_NULL:
+                return new JsonNull();
+            case TAG_TRUE:
+                return new JsonPrimitive(Boolean.TRUE);
+            case TAG_FALSE:
+                return new JsonPrimitive(Boolean.FALSE);
+            case TAG_LONG: {
+                long zigzag = readVarLong();
+                return new JsonPrimitive((zigzag >>> 1) ^ -(zigzag & 1));
+            }
+            case TAG_DOUBLE: {
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | (readByte() & 0xFF);
+                }
+                return new JsonPrimitive(Double.longBitsToDouble(bits));
+            }
+            case TAG_STRING:
+                return new JsonPrimitive(readString());
+            case TAG_NUMBER: {
+                String number = readString();
+                try {
+                    if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                        return new JsonPrimitive(new BigInteger(number));
+                    }
+                    return new JsonPrimitive(new BigDecimal(number));
+                } catch (NumberFormatException e) {
+                    throw new JsonParseException("Invalid number " + number + " at " + _pos, e);
+                }
+            }
+            case TAG_ARRAY: {
+                int size = readLength();
+                JsonArray array = new JsonArray();
+                for (int i = 0; i < size; i++) {
+                    array.add(readValue());
+                }
+                return array;
+            }
+            case TAG_OBJECT: {
+                int size = readLength();
+                JsonObject obj = new JsonObject();
+                for (int i = 0; i < size; i++) {
+                    String name = readString();
+                    obj.add(name, readValue());
+                }
+                return obj;
+            }
+            default:
+                throw new JsonParseException("Unknown tag " + tag + " at " + (_pos - 1));
+            }
+        }
+    }
+}
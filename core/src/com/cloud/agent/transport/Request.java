@@ -26,6 +26,7 @@ import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -65,7 +66,8 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *
  * A request looks as follows:
  * 1. Version - 1 byte;
- * 2. Flags - 3 bytes;
+ * 2. Flags - 3 bytes, the first of which is the id of the WireCodec the
+ *    data package is encoded with, 0 for Gson JSON;
  * 3. Sequence - 8 bytes;
  * 4. Length - 4 bytes;
  * 5. ManagementServerId - 8 bytes;
@@ -112,6 +114,8 @@ public class Request {
     protected long _agentId;
     protected Command[] _cmds;
     protected String _content;
+    protected WireCodec _codec;
+    protected byte[] _payload;
     protected String _agentName;
 
     protected Request() {
@@ -137,6 +141,12 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final WireCodec codec, final byte[] payload) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _codec = codec;
+        _payload = payload;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -177,6 +187,7 @@ public class Request {
         _mgmtId = that._mgmtId;
         _via = that._via;
         _agentId = that._agentId;
+        _codec = that._codec;
         setFromServer(!that.isFromServer());
     }
 
@@ -216,6 +227,24 @@ public class Request {
         return _ver;
     }
 
+    /**
+     * @return codec the content is sent with, null for Gson JSON.
+     */
+    public WireCodec getWireCodec() {
+        return _codec;
+    }
+
+    /**
+     * Sends this request with the given codec, the peer must have advertised
+     * it during startup.  Responses to this request use the same codec.
+     * Has to be called before the request is serialized.
+     *
+     * @param codec codec to use, null for Gson JSON.
+     */
+    public void setWireCodec(WireCodec codec) {
+        _codec = codec;
+    }
+
     public void setAgentId(long agentId) {
         _agentId = agentId;
     }
@@ -243,17 +272,28 @@ public class Request {
 
     public Command[] getCommands() {
         if (_cmds == null) {
-            try {
-                StringReader reader = new StringReader(_content);
-                JsonReader jsonReader = new JsonReader(reader);
-                jsonReader.setLenient(true);
-                _cmds = s_gson.fromJson(jsonReader, (Type)Command[].class);
-            } catch (RuntimeException e) {
+            _cmds = decodeContent(Command[].class);
+        }
+        return _cmds;
+    }
+
+    protected Command[] decodeContent(Class<? extends Command[]> type) {
+        try {
+            if (_codec != null) {
+                return _codec.decode(_payload, 0, _payload.length, type);
+            }
+            StringReader reader = new StringReader(_content);
+            JsonReader jsonReader = new JsonReader(reader);
+            jsonReader.setLenient(true);
+            return s_gson.fromJson(jsonReader, (Type)type);
+        } catch (RuntimeException e) {
+            if (_codec != null) {
+                s_logger.error("Caught problem with " + _payload.length + " bytes of " + _codec.getName() + " content", e);
+            } else {
                 s_logger.error("Caught problem with " + _content, e);
-                throw e;
             }
+            throw e;
         }
-        return _cmds;
     }
 
     protected String getType() {
@@ -263,7 +303,7 @@ public class Request {
     protected ByteBuffer serializeHeader(final int contentSize) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
         buffer.put(getVersionInByte());
-        buffer.put((byte)0);
+        buffer.put(_codec != null ? _codec.getId() : 0);
         buffer.putShort(getFlags());
         buffer.putLong(_seq);
         // The size here is uncompressed size, if the data is compressed.
@@ -325,10 +365,17 @@ public class Request {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        if (_codec != null) {
+            if (_payload == null) {
+                _payload = _codec.encode(_cmds);
+            }
+            tmp = ByteBuffer.wrap(_payload);
+        } else {
+            if (_content == null) {
+                _content = s_gson.toJson(_cmds, _cmds.getClass());
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
         if (capacity >= 8192) {
@@ -395,12 +442,7 @@ public class Request {
         StringBuilder content = new StringBuilder();
         if (logContent) {
             if (_cmds == null) {
-                try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
-                } catch (RuntimeException e) {
-                    s_logger.error("Unable to convert to json: " + _content);
-                    throw e;
-                }
+                _cmds = decodeContent(this instanceof Response ? Answer[].class : Command[].class);
             }
             try {
                 s_gogger.toJson(_cmds, content);
@@ -418,7 +460,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = decodeContent(this instanceof Response ? Answer[].class : Command[].class);
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -440,6 +482,9 @@ public class Request {
             buf.append(", MgmtId: ").append(_mgmtId).append(", via: ").append(_via);
         }
         buf.append(", Ver: ").append(_ver.toString());
+        if (_codec != null) {
+            buf.append(", Codec: ").append(_codec.getName());
+        }
         buf.append(", Flags: ").append(Integer.toBinaryString(getFlags())).append(", ");
         String cleanContent = content.toString();
         if(cleanContent.contains("password")) {
@@ -488,7 +533,14 @@ public class Request {
         if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
-        buff.get();
+        final byte codecId = buff.get();
+        WireCodec codec = null;
+        if (codecId != 0) {
+            codec = WireCodecs.get(codecId);
+            if (codec == null) {
+                throw new UnsupportedVersionException("Unknown wire codec: " + codecId, UnsupportedVersionException.IncompatibleVersion);
+            }
+        }
         final short flags = buff.getShort();
         final boolean isRequest = (flags & FLAG_REQUEST) > 0;
 
@@ -520,6 +572,15 @@ public class Request {
             offset = 0;
         }
 
+        if (codec != null) {
+            final byte[] payload = Arrays.copyOfRange(command, offset, command.length);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, codec, payload);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, codec, payload);
+            }
+        }
+
         final String content = new String(command, offset, command.length - offset);
 
         if (isRequest) {
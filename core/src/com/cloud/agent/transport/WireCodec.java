@@ -0,0 +1,46 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import com.cloud.agent.api.Command;
+
+/**
+ * WireCodec marshalls the commands and answers carried by a Request.  The
+ * codec used for a request is identified by the second byte of the request
+ * header; id 0 is the original Gson JSON format that every agent understands
+ * and is handled by Request itself.  Any other codec is only used with peers
+ * that advertised it during startup, see {@link WireCodecs}.
+ */
+public interface WireCodec {
+    /**
+     * @return id written into the request header, unique among registered codecs and never 0.
+     */
+    byte getId();
+
+    /**
+     * @return name advertised in the startup handshake.  A new, incompatible
+     *         revision of a format must use a new name and id.
+     */
+    String getName();
+
+    byte[] encode(Command[] cmds);
+
+    Command[] decode(byte[] bytes, int offset, int length, Class<? extends Command[]> type);
+}
@@ -0,0 +1,87 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.serializer.GsonHelper;
+
+/**
+ * Registry of the wire codecs this side of the agent connection can speak.
+ */
+public final class WireCodecs {
+    private static final WireCodec[] s_codecs = new WireCodec[] {new BinaryWireCodec(GsonHelper.getGson())};
+
+    private WireCodecs() {
+    }
+
+    public static WireCodec get(byte id) {
+        for (WireCodec codec : s_codecs) {
+            if (codec.getId() == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    public static WireCodec get(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (WireCodec codec : s_codecs) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return names of the supported codecs, most preferred first.
+     */
+    public static String[] getNames() {
+        List<String> names = new ArrayList<String>(s_codecs.length);
+        for (WireCodec codec : s_codecs) {
+            names.add(codec.getName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Picks the most preferred codec both sides support.
+     *
+     * @param offered codec names advertised by the peer, null for peers that predate codecs.
+     * @return the codec to use or null to fall back to Gson JSON.
+     */
+    public static WireCodec negotiate(String[] offered) {
+        if (offered == null) {
+            return null;
+        }
+        for (WireCodec codec : s_codecs) {
+            for (String name : offered) {
+                if (codec.getName().equals(name)) {
+                    return codec;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,147 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.google.gson.Gson;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.StartupAnswer;
+import com.cloud.agent.api.StartupCommand;
+import com.cloud.exception.UnsupportedVersionException;
+import com.cloud.host.Host;
+import com.cloud.serializer.GsonHelper;
+
+public class BinaryWireCodecTest extends TestCase {
+    private final Gson _gson = GsonHelper.getGson();
+    private final WireCodec _codec = WireCodecs.get(BinaryWireCodec.NAME);
+
+    public void testRoundTripMatchesJson() throws Exception {
+        for (Map.Entry<String, Command[]> sample : WireCodecSamples.getSamples().entrySet()) {
+            Command[] cmds = sample.getValue();
+            boolean isAnswer = cmds[0] instanceof Answer;
+
+            Request sreq = new Request(2, 3, cmds, true, true);
+            sreq.setSequence(892403719);
+            sreq.setWireCodec(_codec);
+            if (isAnswer) {
+                sreq = new Response(sreq, toAnswers(cmds));
+            }
+
+            Request creq = Request.parse(sreq.getBytes());
+            assertEquals(sample.getKey(), isAnswer, creq instanceof Response);
+            assertSame(sample.getKey(), _codec, creq.getWireCodec());
+            Command[] decoded = isAnswer ? ((Response)creq).getAnswers() : creq.getCommands();
+            assertEquals(sample.getKey(), _gson.toJson(cmds, cmds.getClass()), _gson.toJson(decoded, decoded.getClass()));
+        }
+    }
+
+    public void testBinaryIsSmaller() {
+        for (Map.Entry<String, Command[]> sample : WireCodecSamples.getSamples().entrySet()) {
+            Command[] cmds = sample.getValue();
+            int json = _gson.toJson(cmds, cmds.getClass()).getBytes().length;
+            int binary = _codec.encode(cmds).length;
+            assertTrue(sample.getKey() + " " + binary + " >= " + json, binary < json);
+        }
+    }
+
+    public void testResponseUsesRequestCodec() throws Exception {
+        Command cmd = WireCodecSamples.getSamples().get("StopCommand")[0];
+        Request sreq = new Request(2, 3, cmd, true);
+        sreq.setWireCodec(_codec);
+        Request creq = Request.parse(sreq.getBytes());
+
+        Response cresp = new Response(creq, new Answer(cmd, true, "done"));
+        Response sresp = Response.parse(cresp.getBytes());
+        assertSame(_codec, sresp.getWireCodec());
+        assertEquals("done", sresp.getAnswer().getDetails());
+        assertTrue(sresp.toString().contains(BinaryWireCodec.NAME));
+    }
+
+    public void testCompressedPayload() throws Exception {
+        Command[] cmds = new Command[200];
+        for (int i = 0; i < cmds.length; i++) {
+            cmds[i] = WireCodecSamples.getSamples().get("PingRoutingCommand")[0];
+        }
+        Request sreq = new Request(2, 3, cmds, true, true);
+        sreq.setWireCodec(_codec);
+        byte[] bytes = sreq.getBytes();
+        assertTrue((bytes[3] & Request.FLAG_COMPRESSED) != 0);
+
+        Request creq = Request.parse(bytes);
+        assertEquals(_gson.toJson(cmds, cmds.getClass()), _gson.toJson(creq.getCommands(), Command[].class));
+    }
+
+    public void testJsonRemainsDefault() throws Exception {
+        Command cmd = WireCodecSamples.getSamples().get("StopCommand")[0];
+        Request sreq = new Request(2, 3, cmd, true);
+        byte[] bytes = sreq.getBytes();
+        assertEquals(0, bytes[1]);
+        Request creq = Request.parse(bytes);
+        assertNull(creq.getWireCodec());
+        assertEquals(cmd.getClass(), creq.getCommand().getClass());
+    }
+
+    public void testUnknownCodec() {
+        Command cmd = WireCodecSamples.getSamples().get("StopCommand")[0];
+        Request sreq = new Request(2, 3, cmd, true);
+        sreq.setWireCodec(_codec);
+        byte[] bytes = sreq.getBytes();
+        bytes[1] = 99;
+        try {
+            Request.parse(bytes);
+            fail("Unknown codecs must be rejected");
+        } catch (UnsupportedVersionException e) {
+            assertEquals(UnsupportedVersionException.IncompatibleVersion, e.getReason());
+        } catch (ClassNotFoundException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testNegotiation() throws Exception {
+        assertNull(WireCodecs.negotiate(null));
+        assertNull(WireCodecs.negotiate(new String[] {"binary-0"}));
+        assertSame(_codec, WireCodecs.negotiate(new String[] {"binary-0", BinaryWireCodec.NAME}));
+
+        // the handshake itself always goes out as json and old peers simply ignore the new fields
+        StartupCommand startup = new StartupCommand(Host.Type.Routing);
+        startup.setWireFormats(WireCodecs.getNames());
+        Request creq = Request.parse(new Request(-1, -1, startup, false).getBytes());
+        assertNull(creq.getWireCodec());
+        assertSame(_codec, WireCodecs.negotiate(((StartupCommand)creq.getCommand()).getWireFormats()));
+
+        StartupAnswer answer = new StartupAnswer(startup, 42, 60);
+        answer.setWireFormat(_codec.getName());
+        Response cresp = Response.parse(new Response(creq, answer).getBytes());
+        assertSame(_codec, WireCodecs.get(((StartupAnswer)cresp.getAnswer()).getWireFormat()));
+    }
+
+    private static Answer[] toAnswers(Command[] cmds) {
+        Answer[] answers = new Answer[cmds.length];
+        for (int i = 0; i < cmds.length; i++) {
+            answers[i] = (Answer)cmds[i];
+        }
+        return answers;
+    }
+}
@@ -0,0 +1,102 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.Map;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+
+/**
+ * Compares the Gson JSON and binary wire formats on the samples in
+ * WireCodecSamples: serialize and deserialize throughput of whole requests,
+ * and bytes on the wire.  Not run as part of the build, start it with
+ *   mvn -pl core test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.cloud.agent.transport.WireCodecBenchmark
+ * and optionally pass the measurement time per sample in milliseconds.
+ */
+public class WireCodecBenchmark {
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        WireCodec binary = WireCodecs.get(BinaryWireCodec.NAME);
+
+        System.out.println(String.format("%-30s %10s %10s %12s %12s %12s %12s", "sample", "json B", "binary B", "json ser/s", "bin ser/s", "json de/s",
+            "bin de/s"));
+        for (Map.Entry<String, Command[]> sample : WireCodecSamples.getSamples().entrySet()) {
+            Command[] cmds = sample.getValue();
+            byte[] json = toBytes(cmds, null);
+            byte[] bin = toBytes(cmds, binary);
+
+            // warm up
+            measureSerialize(cmds, null, millis / 2);
+            measureSerialize(cmds, binary, millis / 2);
+            measureDeserialize(json, millis / 2);
+            measureDeserialize(bin, millis / 2);
+
+            System.out.println(String.format("%-30s %10d %10d %12.0f %12.0f %12.0f %12.0f", sample.getKey(), json.length, bin.length,
+                measureSerialize(cmds, null, millis), measureSerialize(cmds, binary, millis), measureDeserialize(json, millis), measureDeserialize(bin, millis)));
+        }
+    }
+
+    private static byte[] toBytes(Command[] cmds, WireCodec codec) {
+        Request request = new Request(2, 3, cmds, true, true);
+        if (cmds[0] instanceof Answer) {
+            Answer[] answers = new Answer[cmds.length];
+            System.arraycopy(cmds, 0, answers, 0, cmds.length);
+            request = new Response(request, answers);
+        }
+        request.setWireCodec(codec);
+        return request.getBytes();
+    }
+
+    private static double measureSerialize(Command[] cmds, WireCodec codec, long millis) {
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                toBytes(cmds, codec);
+            }
+            count += 100;
+            now = System.nanoTime();
+        } while (now < end);
+        return count * 1e9 / (now - start);
+    }
+
+    private static double measureDeserialize(byte[] bytes, long millis) throws Exception {
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                Request request = Request.parse(bytes);
+                if (request instanceof Response) {
+                    ((Response)request).getAnswers();
+                } else {
+                    request.getCommands();
+                }
+            }
+            count += 100;
+            now = System.nanoTime();
+        } while (now < end);
+        return count * 1e9 / (now - start);
+    }
+}
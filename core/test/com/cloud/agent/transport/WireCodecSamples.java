@@ -0,0 +1,176 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.Mockito;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CheckHealthCommand;
+import com.cloud.agent.api.CheckRouterCommand;
+import com.cloud.agent.api.CheckVirtualMachineCommand;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetDomRVersionCmd;
+import com.cloud.agent.api.GetHostStatsAnswer;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetStorageStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.GetVncPortCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.MaintainCommand;
+import com.cloud.agent.api.NetworkRulesSystemVmCommand;
+import com.cloud.agent.api.NetworkUsageCommand;
+import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.ReadyCommand;
+import com.cloud.agent.api.SecStorageFirewallCfgCommand;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.api.SecurityGroupRulesCmd.IpPortAndProto;
+import com.cloud.agent.api.StartAnswer;
+import com.cloud.agent.api.StartCommand;
+import com.cloud.agent.api.StopAnswer;
+import com.cloud.agent.api.StopCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.api.storage.ListTemplateCommand;
+import com.cloud.agent.api.to.NfsTO;
+import com.cloud.agent.api.to.NicTO;
+import com.cloud.agent.api.to.VirtualMachineTO;
+import com.cloud.host.Host;
+import com.cloud.network.Networks.BroadcastDomainType;
+import com.cloud.network.Networks.TrafficType;
+import com.cloud.storage.DataStoreRole;
+import com.cloud.template.VirtualMachineTemplate.BootloaderType;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+/**
+ * Commands and answers of the types most often exchanged with agents, shaped
+ * like the ones of a host running a few dozen VMs.
+ */
+public class WireCodecSamples {
+    private static final int VM_COUNT = 40;
+
+    public static Map<String, Command[]> getSamples() {
+        Map<String, Command[]> samples = new LinkedHashMap<String, Command[]>();
+
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 0; i < VM_COUNT; i++) {
+            report.put(vmName(i), new HostVmStateReportEntry(i % 5 == 0 ? PowerState.PowerOff : PowerState.PowerOn, "kvm-host-01.example.com"));
+        }
+        samples.put("PingRoutingCommand", new Command[] {new PingRoutingCommand(Host.Type.Routing, 42, report)});
+        samples.put("PingCommand", new Command[] {new PingCommand(Host.Type.SecondaryStorage, 42)});
+
+        GetHostStatsCommand hostStats = new GetHostStatsCommand("6a2fb4be-2c2e-4b56-a4a2-84b52ddf7e5b-LibvirtComputingResource", "kvm-host-01", 42);
+        samples.put("GetHostStatsCommand", new Command[] {hostStats});
+        samples.put("GetHostStatsAnswer", new Command[] {new GetHostStatsAnswer(hostStats, 12.5, 1024.0 * 1024 * 28, 1024.0 * 1024 * 64, 3345.25, 1290.75, "host")});
+
+        List<String> vmNames = new ArrayList<String>();
+        HashMap<String, VmStatsEntry> vmStats = new HashMap<String, VmStatsEntry>();
+        for (int i = 0; i < VM_COUNT; i++) {
+            vmNames.add(vmName(i));
+            vmStats.put(vmName(i), new VmStatsEntry(i * 1.5, i * 120.25, i * 80.5, i * 10.0, i * 20.0, 2, "vm"));
+        }
+        GetVmStatsCommand getVmStats = new GetVmStatsCommand(vmNames, "6a2fb4be-2c2e-4b56-a4a2-84b52ddf7e5b-LibvirtComputingResource", "kvm-host-01");
+        samples.put("GetVmStatsCommand", new Command[] {getVmStats});
+        samples.put("GetVmStatsAnswer", new Command[] {new GetVmStatsAnswer(getVmStats, vmStats)});
+
+        samples.put("CheckHealthCommand", new Command[] {new CheckHealthCommand()});
+        samples.put("ReadyCommand", new Command[] {new ReadyCommand(1L, 42L)});
+
+        StartCommand start = new StartCommand(getVirtualMachineTO(), getHost(), true);
+        samples.put("StartCommand", new Command[] {start});
+        samples.put("StartAnswer", new Command[] {new StartAnswer(start)});
+
+        StopCommand stop = new StopCommand(vmName(3), true, true);
+        samples.put("StopCommand", new Command[] {stop});
+        samples.put("StopAnswer", new Command[] {new StopAnswer(stop, "Stop VM " + vmName(3) + " Succeed", true)});
+
+        IpPortAndProto[] ingress = new IpPortAndProto[10];
+        for (int i = 0; i < ingress.length; i++) {
+            ingress[i] = new IpPortAndProto("tcp", 1000 + i, 1000 + i, new String[] {"10.1." + i + ".0/24", "192.168." + i + ".0/24", "172.16.0." + i + "/32"});
+        }
+        IpPortAndProto[] egress = new IpPortAndProto[] {new IpPortAndProto("all", 0, 65535, new String[] {"0.0.0.0/0"})};
+        samples.put("SecurityGroupRulesCmd", new Command[] {new SecurityGroupRulesCmd("10.1.1.33", "02:00:4c:5e:00:21", vmName(5), 5L, null, 1234L, ingress, egress)});
+
+        samples.put("NetworkUsageCommand", new Command[] {new NetworkUsageCommand("169.254.3.12", "r-4-VM", false, "10.1.1.1")});
+        samples.put("CheckVirtualMachineCommand", new Command[] {new CheckVirtualMachineCommand(vmName(7))});
+        samples.put("GetStorageStatsCommand", new Command[] {new GetStorageStatsCommand("nfs://192.168.56.10/export/secondary")});
+        samples.put("MaintainCommand", new Command[] {new MaintainCommand()});
+        samples.put("GetVncPortCommand", new Command[] {new GetVncPortCommand(7, vmName(7))});
+        samples.put("CheckRouterCommand", new Command[] {new CheckRouterCommand()});
+        samples.put("GetDomRVersionCmd", new Command[] {new GetDomRVersionCmd()});
+        samples.put("NetworkRulesSystemVmCommand", new Command[] {new NetworkRulesSystemVmCommand("s-1-VM", VirtualMachine.Type.SecondaryStorageVm)});
+
+        SecStorageFirewallCfgCommand firewall = new SecStorageFirewallCfgCommand();
+        for (int i = 0; i < 10; i++) {
+            firewall.addPortConfig("10.1." + i + ".0/24", "80", true, "eth2");
+        }
+        samples.put("SecStorageFirewallCfgCommand", new Command[] {firewall});
+        samples.put("ListTemplateCommand", new Command[] {new ListTemplateCommand(new NfsTO("nfs://192.168.56.10/export/secondary", DataStoreRole.Image))});
+        samples.put("Answer", new Command[] {new Answer(stop, true, "success")});
+        return samples;
+    }
+
+    private static String vmName(int i) {
+        return "i-2-" + (100 + i) + "-VM";
+    }
+
+    private static Host getHost() {
+        Host host = Mockito.mock(Host.class);
+        Mockito.when(host.getPrivateIpAddress()).thenReturn("192.168.56.21");
+        return host;
+    }
+
+    private static VirtualMachineTO getVirtualMachineTO() {
+        VirtualMachineTO vm = new VirtualMachineTO(105, vmName(5), VirtualMachine.Type.User, 2, 1000, 2000, 1024L * 1024 * 1024, 2048L * 1024 * 1024,
+            BootloaderType.HVM, "CentOS 6.5 (64-bit)", true, false, "a1b2c3d4e5");
+        NicTO[] nics = new NicTO[2];
+        for (int i = 0; i < nics.length; i++) {
+            NicTO nic = new NicTO();
+            nic.setDeviceId(i);
+            nic.setDefaultNic(i == 0);
+            nic.setIp("10.1.1." + (33 + i));
+            nic.setNetmask("255.255.255.0");
+            nic.setGateway("10.1.1.1");
+            nic.setMac("02:00:4c:5e:00:2" + i);
+            nic.setDns1("8.8.8.8");
+            nic.setBroadcastType(BroadcastDomainType.Vlan);
+            nic.setBroadcastUri(URI.create("vlan://" + (100 + i)));
+            nic.setType(TrafficType.Guest);
+            nic.setUuid("3f1c0b7a-8f5d-4f3e-9a1b-00000000000" + i);
+            nics[i] = nic;
+        }
+        vm.setNics(nics);
+        Map<String, String> details = new HashMap<String, String>();
+        details.put("hypervisortoolsversion", "xenserver61");
+        details.put("Message.ReservedCapacityFreed.Flag", "false");
+        details.put("cpuOvercommitRatio", "1.0");
+        details.put("memoryOvercommitRatio", "1.0");
+        vm.setDetails(details);
+        return vm;
+    }
+}
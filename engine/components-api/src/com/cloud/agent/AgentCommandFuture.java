@@ -0,0 +1,226 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.manager.Commands;
+import com.cloud.exception.AgentUnavailableException;
+import com.cloud.exception.CloudException;
+import com.cloud.exception.OperationTimedoutException;
+
+/**
+ * Handle on commands sent with AgentManager.sendAsync.  It is completed
+ * from the thread that processes the answer, or fails when the agent
+ * disconnects or the commands time out.  No thread waits for the answer
+ * unless the caller asks for it.
+ */
+public class AgentCommandFuture implements Future<Answer[]> {
+    private static final Logger s_logger = Logger.getLogger(AgentCommandFuture.class);
+
+    public interface Callback {
+        void onComplete(AgentCommandFuture future);
+    }
+
+    private final long _hostId;
+    private final Commands _commands;
+    private long _sequence;
+
+    private boolean _done;
+    private Answer[] _answers;
+    private CloudException _failure;
+    private List<Callback> _callbacks;
+
+    public AgentCommandFuture(long hostId, Commands commands) {
+        _hostId = hostId;
+        _commands = commands;
+    }
+
+    public long getHostId() {
+        return _hostId;
+    }
+
+    public Commands getCommands() {
+        return _commands;
+    }
+
+    public synchronized long getSequence() {
+        return _sequence;
+    }
+
+    public synchronized void setSequence(long sequence) {
+        _sequence = sequence;
+    }
+
+    /**
+     * Completes the future with the answers, which are also set on the commands.
+     * @return false if the future was already done.
+     */
+    public boolean complete(Answer[] answers) {
+        synchronized (this) {
+            if (_done) {
+                return false;
+            }
+            _commands.setAnswers(answers);
+            _answers = answers;
+        }
+        return done();
+    }
+
+    /**
+     * Fails the future, the exception is thrown to the waiters.
+     * @return false if the future was already done.
+     */
+    public boolean fail(CloudException failure) {
+        synchronized (this) {
+            if (_done) {
+                return false;
+            }
+            _failure = failure;
+        }
+        return done();
+    }
+
+    private boolean done() {
+        List<Callback> callbacks;
+        synchronized (this) {
+            _done = true;
+            callbacks = _callbacks;
+            _callbacks = null;
+            notifyAll();
+        }
+
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                runCallback(callback);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Registers a callback run on the completing thread, or right away if
+     * the future is already done.  Callbacks should not block.
+     */
+    public void addCallback(Callback callback) {
+        synchronized (this) {
+            if (!_done) {
+                if (_callbacks == null) {
+                    _callbacks = new ArrayList<Callback>(1);
+                }
+                _callbacks.add(callback);
+                return;
+            }
+        }
+        runCallback(callback);
+    }
+
+    private void runCallback(Callback callback) {
+        try {
+            callback.onComplete(this);
+        } catch (Exception e) {
+            s_logger.warn("Exception in the callback of command sequence " + _hostId + "-" + _sequence, e);
+        }
+    }
+
+    /**
+     * Waits for the answers.
+     * @return answers of the commands, in the order of the commands.
+     */
+    public Answer[] getAnswers() throws AgentUnavailableException, OperationTimedoutException {
+        synchronized (this) {
+            while (!_done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new AgentUnavailableException("Interrupted while waiting for the answers of sequence " + _sequence, _hostId);
+                }
+            }
+        }
+        return getResult();
+    }
+
+    private synchronized Answer[] getResult() throws AgentUnavailableException, OperationTimedoutException {
+        if (_failure instanceof OperationTimedoutException) {
+            throw (OperationTimedoutException)_failure;
+        } else if (_failure instanceof AgentUnavailableException) {
+            throw (AgentUnavailableException)_failure;
+        } else if (_failure != null) {
+            throw new AgentUnavailableException(_failure.getMessage(), _hostId, _failure);
+        }
+        return _answers;
+    }
+
+    @Override
+    public Answer[] get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (!_done) {
+                wait();
+            }
+        }
+        return unwrap();
+    }
+
+    @Override
+    public Answer[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (this) {
+            while (!_done) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(remaining);
+            }
+        }
+        return unwrap();
+    }
+
+    private Answer[] unwrap() throws ExecutionException {
+        try {
+            return getResult();
+        } catch (CloudException e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * Commands already sent to the agent can not be taken back.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return _done;
+    }
+}
@@ -99,6 +99,21 @@ public interface AgentManager {
      */
     long send(Long hostId, Commands cmds, Listener listener) throws AgentUnavailableException;
 
+    /**
+     * Asynchronous sending of commands to the agent without a listener of
+     * its own.  The calling thread is not held while the agent works.  As
+     * with send, the commands may not be sent within a database transaction
+     * and are given twice their wait.
+     *
+     * @param hostId
+     *            id of the agent on the host.
+     * @param cmds
+     *            Commands to send, their answers are set when the future completes.
+     * @return future completed with the answers, or failed when the agent
+     *         disconnects or the commands do not finish within their wait.
+     */
+    AgentCommandFuture sendAsync(Long hostId, Commands cmds) throws AgentUnavailableException;
+
     /**
      * Register to listen for host events. These are mostly connection and disconnection events.
      *
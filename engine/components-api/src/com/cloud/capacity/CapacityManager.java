@@ -35,6 +35,7 @@ public interface CapacityManager {
     static final String StorageCapacityDisableThresholdCK = "pool.storage.capacity.disablethreshold";
     static final String StorageOverprovisioningFactorCK = "storage.overprovisioning.factor";
     static final String StorageAllocatedCapacityDisableThresholdCK = "pool.storage.allocated.capacity.disablethreshold";
+    static final String HostCapacityIndexReloadIntervalCK = "host.capacity.index.reload.interval";
 
     static final ConfigKey<Float> CpuOverprovisioningFactor = new ConfigKey<Float>(Float.class, CpuOverprovisioningFactorCK, "Advanced", "1.0",
         "Used for CPU overprovisioning calculation; available CPU will be (actualCpuCapacity * cpu.overprovisioning.factor)", true, ConfigKey.Scope.Cluster, null);
@@ -53,6 +54,9 @@ public interface CapacityManager {
             "0.85",
             "Percentage (as a value between 0 and 1) of allocated storage utilization above which allocators will disable using the pool for low allocated storage available.",
             true, ConfigKey.Scope.Zone);
+    static final ConfigKey<Integer> HostCapacityIndexReloadInterval = new ConfigKey<Integer>("Advanced", Integer.class, HostCapacityIndexReloadIntervalCK, "60",
+        "Interval (in seconds) at which the in memory host capacity used by the deployment planners is reloaded from the database, 0 to plan from the database directly",
+        false);
 
     public boolean releaseVmCapacity(VirtualMachine vm, boolean moveFromReserved, boolean moveToReservered, Long hostId);
 
@@ -106,4 +110,10 @@ public interface CapacityManager {
     long getUsedBytes(StoragePoolVO pool);
 
     long getUsedIops(StoragePoolVO pool);
+
+    /**
+     * @return the in memory CPU and RAM capacity of the hosts for the planners,
+     *         null if it is disabled or has not been loaded yet.
+     */
+    HostCapacityIndex getHostCapacityIndex();
 }
@@ -0,0 +1,409 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.cloud.utils.Pair;
+
+/**
+ * In memory view of the CPU and RAM rows of op_host_capacity, used by the
+ * planners to pick and order pods and clusters without running aggregate
+ * queries for every deployment.
+ *
+ * The index is kept up to date with the capacity changes made on this
+ * management server and is reloaded from the database periodically, which
+ * also picks up the changes made by the other management servers.  The
+ * answers are therefore only as good as the last reload for capacity moved
+ * elsewhere; the host allocators still check each host against the
+ * database before it is picked.
+ *
+ * The queries answer the same questions as the corresponding CapacityDao
+ * queries, including their comparisons, so the planners behave the same
+ * whichever one they use.
+ */
+public class HostCapacityIndex {
+
+    /**
+     * Per cluster settings the capacity queries depend on.
+     */
+    public static class ClusterSettings {
+        private final long _zoneId;
+        private final long _podId;
+        private final float _cpuOvercommitRatio;
+        private final float _memoryOvercommitRatio;
+        private final float _cpuDisableThreshold;
+        private final float _memoryDisableThreshold;
+
+        public ClusterSettings(long zoneId, long podId, float cpuOvercommitRatio, float memoryOvercommitRatio, float cpuDisableThreshold, float memoryDisableThreshold) {
+            _zoneId = zoneId;
+            _podId = podId;
+            _cpuOvercommitRatio = cpuOvercommitRatio;
+            _memoryOvercommitRatio = memoryOvercommitRatio;
+            _cpuDisableThreshold = cpuDisableThreshold;
+            _memoryDisableThreshold = memoryDisableThreshold;
+        }
+    }
+
+    private static class HostEntry {
+        final long hostId;
+        final ClusterEntry cluster;
+        final Row[] rows = new Row[2];
+
+        HostEntry(long hostId, ClusterEntry cluster) {
+            this.hostId = hostId;
+            this.cluster = cluster;
+        }
+    }
+
+    private static class Row {
+        long total;
+        long used;
+        long reserved;
+        boolean enabled;
+
+        // total with overcommit - used + reserved, the free capacity as the cluster and pod queries see it
+        double headroom;
+    }
+
+    private static class ClusterEntry {
+        final long clusterId;
+        final ClusterSettings settings;
+        final Map<Long, HostEntry> hosts = new HashMap<Long, HostEntry>();
+
+        // multisets of the host headrooms, the largest tells whether any host can take a VM
+        @SuppressWarnings("unchecked")
+        final TreeMap<Double, Integer>[] headrooms = new TreeMap[] {new TreeMap<Double, Integer>(), new TreeMap<Double, Integer>()};
+
+        final long[] usedAndReserved = new long[2];
+        final long[] total = new long[2];
+        final long[] enabledUsedAndReserved = new long[2];
+        final long[] enabledTotal = new long[2];
+        final int[] enabledRows = new int[2];
+
+        ClusterEntry(long clusterId, ClusterSettings settings) {
+            this.clusterId = clusterId;
+            this.settings = settings;
+        }
+
+        float overcommitRatio(int type) {
+            return type == Capacity.CAPACITY_TYPE_CPU ? settings._cpuOvercommitRatio : settings._memoryOvercommitRatio;
+        }
+
+        float disableThreshold(int type) {
+            return type == Capacity.CAPACITY_TYPE_CPU ? settings._cpuDisableThreshold : settings._memoryDisableThreshold;
+        }
+
+        boolean hasHostWithHeadroom(int type, long required) {
+            TreeMap<Double, Integer> headroom = headrooms[type];
+            return !headroom.isEmpty() && headroom.lastKey() >= required;
+        }
+
+        void add(int type, Row row) {
+            row.headroom = row.total * (double)overcommitRatio(type) - row.used + row.reserved;
+            Integer count = headrooms[type].get(row.headroom);
+            headrooms[type].put(row.headroom, count == null ? 1 : count + 1);
+
+            usedAndReserved[type] += row.used + row.reserved;
+            total[type] += row.total;
+            if (row.enabled && row.total > 0) {
+                enabledUsedAndReserved[type] += row.used + row.reserved;
+                enabledTotal[type] += row.total;
+                enabledRows[type]++;
+            }
+        }
+
+        void remove(int type, Row row) {
+            Integer count = headrooms[type].get(row.headroom);
+            if (count != null) {
+                if (count > 1) {
+                    headrooms[type].put(row.headroom, count - 1);
+                } else {
+                    headrooms[type].remove(row.headroom);
+                }
+            }
+
+            usedAndReserved[type] -= row.used + row.reserved;
+            total[type] -= row.total;
+            if (row.enabled && row.total > 0) {
+                enabledUsedAndReserved[type] -= row.used + row.reserved;
+                enabledTotal[type] -= row.total;
+                enabledRows[type]--;
+            }
+        }
+    }
+
+    private final Map<Long, HostEntry> _hosts = new HashMap<Long, HostEntry>();
+    private final Map<Long, ClusterEntry> _clusters = new HashMap<Long, ClusterEntry>();
+    private final Map<Long, Set<ClusterEntry>> _clustersByZone = new HashMap<Long, Set<ClusterEntry>>();
+    private final Map<Long, Set<ClusterEntry>> _clustersByPod = new HashMap<Long, Set<ClusterEntry>>();
+    private final Map<Long, Set<Long>> _podsByZone = new HashMap<Long, Set<Long>>();
+    private long _loadedAt;
+
+    /**
+     * Replaces the content of the index.
+     *
+     * @param clusters settings of the clusters in use, keyed by cluster id.
+     *        Capacity rows of other clusters are left out, as the queries
+     *        joining on the cluster and its details leave them out.
+     * @param capacities the CPU and RAM capacity rows of the hosts.
+     */
+    public synchronized void reload(Map<Long, ClusterSettings> clusters, List<? extends CapacityVO> capacities) {
+        _hosts.clear();
+        _clusters.clear();
+        _clustersByZone.clear();
+        _clustersByPod.clear();
+        _podsByZone.clear();
+
+        for (Map.Entry<Long, ClusterSettings> entry : clusters.entrySet()) {
+            ClusterEntry cluster = new ClusterEntry(entry.getKey(), entry.getValue());
+            _clusters.put(cluster.clusterId, cluster);
+            addTo(_clustersByZone, cluster.settings._zoneId, cluster);
+            addTo(_clustersByPod, cluster.settings._podId, cluster);
+            Set<Long> pods = _podsByZone.get(cluster.settings._zoneId);
+            if (pods == null) {
+                pods = new LinkedHashSet<Long>();
+                _podsByZone.put(cluster.settings._zoneId, pods);
+            }
+            pods.add(cluster.settings._podId);
+        }
+
+        for (CapacityVO capacity : capacities) {
+            update(capacity);
+        }
+        _loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return when the index was last reloaded, 0 if it never was.
+     */
+    public synchronized long getLoadedAt() {
+        return _loadedAt;
+    }
+
+    public synchronized int getHostCount() {
+        return _hosts.size();
+    }
+
+    /**
+     * Records the current values of a CPU or RAM capacity row, other rows
+     * are ignored.
+     */
+    public synchronized void update(CapacityVO capacity) {
+        int type = capacity.getCapacityType();
+        if ((type != Capacity.CAPACITY_TYPE_CPU && type != Capacity.CAPACITY_TYPE_MEMORY) || capacity.getHostOrPoolId() == null) {
+            return;
+        }
+
+        HostEntry host = _hosts.get(capacity.getHostOrPoolId());
+        if (host != null && (capacity.getClusterId() == null || host.cluster.clusterId != capacity.getClusterId())) {
+            removeHost(host.hostId);
+            host = null;
+        }
+        if (host == null) {
+            ClusterEntry cluster = capacity.getClusterId() != null ? _clusters.get(capacity.getClusterId()) : null;
+            if (cluster == null) {
+                return;
+            }
+            host = new HostEntry(capacity.getHostOrPoolId(), cluster);
+            _hosts.put(host.hostId, host);
+            cluster.hosts.put(host.hostId, host);
+        }
+
+        Row current = host.rows[type];
+        if (current != null) {
+            host.cluster.remove(type, current);
+        } else {
+            current = new Row();
+            host.rows[type] = current;
+        }
+        current.total = capacity.getTotalCapacity();
+        current.used = capacity.getUsedCapacity();
+        current.reserved = capacity.getReservedCapacity();
+        current.enabled = capacity.getCapacityState() == null || capacity.getCapacityState() == CapacityState.Enabled;
+        host.cluster.add(type, current);
+    }
+
+    public synchronized void removeHost(long hostId) {
+        HostEntry host = _hosts.remove(hostId);
+        if (host == null) {
+            return;
+        }
+        for (int type = 0; type < host.rows.length; type++) {
+            if (host.rows[type] != null) {
+                host.cluster.remove(type, host.rows[type]);
+            }
+        }
+        host.cluster.hosts.remove(hostId);
+    }
+
+    /**
+     * Clusters of the zone or pod that have a host with enough CPU and a host
+     * with enough RAM for the VM, as CapacityDao.listClustersInZoneOrPodByHostCapacities.
+     */
+    public synchronized List<Long> listClustersByHostCapacities(long id, int requiredCpu, long requiredRam, boolean isZone) {
+        List<Long> result = new ArrayList<Long>();
+        for (ClusterEntry cluster : clustersOf(id, isZone)) {
+            if (cluster.hasHostWithHeadroom(Capacity.CAPACITY_TYPE_CPU, requiredCpu) &&
+                cluster.hasHostWithHeadroom(Capacity.CAPACITY_TYPE_MEMORY, requiredRam)) {
+                result.add(cluster.clusterId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pods of the zone that have a host with enough CPU and a host with
+     * enough RAM for the VM, as CapacityDao.listPodsByHostCapacities.
+     */
+    public synchronized List<Long> listPodsByHostCapacities(long zoneId, int requiredCpu, long requiredRam) {
+        List<Long> result = new ArrayList<Long>();
+        for (Long podId : podsOf(zoneId)) {
+            boolean cpu = false;
+            boolean ram = false;
+            for (ClusterEntry cluster : clustersOf(podId, false)) {
+                cpu = cpu || cluster.hasHostWithHeadroom(Capacity.CAPACITY_TYPE_CPU, requiredCpu);
+                ram = ram || cluster.hasHostWithHeadroom(Capacity.CAPACITY_TYPE_MEMORY, requiredRam);
+            }
+            if (cpu && ram) {
+                result.add(podId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hosts of the cluster that have enough unused CPU and RAM for the VM,
+     * as CapacityDao.listHostsWithEnoughCapacity for routing hosts.
+     */
+    public synchronized List<Long> listHostsWithEnoughCapacity(long clusterId, int requiredCpu, long requiredRam) {
+        List<Long> result = new ArrayList<Long>();
+        ClusterEntry cluster = _clusters.get(clusterId);
+        if (cluster == null) {
+            return result;
+        }
+
+        for (HostEntry host : cluster.hosts.values()) {
+            Row cpu = host.rows[Capacity.CAPACITY_TYPE_CPU];
+            Row ram = host.rows[Capacity.CAPACITY_TYPE_MEMORY];
+            if (cpu != null && ram != null && cpu.total * (double)cluster.settings._cpuOvercommitRatio - cpu.used >= requiredCpu &&
+                ram.total * (double)cluster.settings._memoryOvercommitRatio - ram.used >= requiredRam) {
+                result.add(host.hostId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clusters of the zone or pod in ascending order of the used share of the
+     * capacity, with the share of each, as CapacityDao.orderClustersByAggregateCapacity.
+     */
+    public synchronized Pair<List<Long>, Map<Long, Double>> orderClustersByAggregateCapacity(long id, short capacityType, boolean isZone) {
+        final Map<Long, Double> shares = new HashMap<Long, Double>();
+        for (ClusterEntry cluster : clustersOf(id, isZone)) {
+            if (!cluster.hosts.isEmpty()) {
+                shares.put(cluster.clusterId, share(cluster.usedAndReserved[capacityType], cluster.total[capacityType] * (double)cluster.overcommitRatio(capacityType)));
+            }
+        }
+        return ordered(shares);
+    }
+
+    /**
+     * Pods of the zone in ascending order of the used share of the capacity,
+     * with the share of each, as CapacityDao.orderPodsByAggregateCapacity.
+     */
+    public synchronized Pair<List<Long>, Map<Long, Double>> orderPodsByAggregateCapacity(long zoneId, short capacityType) {
+        final Map<Long, Double> shares = new HashMap<Long, Double>();
+        for (Long podId : podsOf(zoneId)) {
+            long usedAndReserved = 0;
+            double total = 0;
+            boolean hasHosts = false;
+            for (ClusterEntry cluster : clustersOf(podId, false)) {
+                hasHosts = hasHosts || !cluster.hosts.isEmpty();
+                usedAndReserved += cluster.usedAndReserved[capacityType];
+                total += cluster.total[capacityType] * (double)cluster.overcommitRatio(capacityType);
+            }
+            if (hasHosts) {
+                shares.put(podId, share(usedAndReserved, total));
+            }
+        }
+        return ordered(shares);
+    }
+
+    /**
+     * Clusters of the zone whose enabled capacity would be used beyond their
+     * disable threshold once the requested amount is allocated, as
+     * CapacityDao.listClustersCrossingThreshold.
+     */
+    public synchronized List<Long> listClustersCrossingThreshold(short capacityType, long zoneId, long requested) {
+        List<Long> result = new ArrayList<Long>();
+        for (ClusterEntry cluster : clustersOf(zoneId, true)) {
+            if (cluster.enabledRows[capacityType] == 0) {
+                continue;
+            }
+            double ratio = (cluster.enabledUsedAndReserved[capacityType] + requested) / (cluster.enabledTotal[capacityType] * (double)cluster.overcommitRatio(capacityType));
+            if (ratio > cluster.disableThreshold(capacityType)) {
+                result.add(cluster.clusterId);
+            }
+        }
+        return result;
+    }
+
+    private Set<ClusterEntry> clustersOf(long id, boolean isZone) {
+        Set<ClusterEntry> clusters = isZone ? _clustersByZone.get(id) : _clustersByPod.get(id);
+        return clusters != null ? clusters : Collections.<ClusterEntry> emptySet();
+    }
+
+    private Set<Long> podsOf(long zoneId) {
+        Set<Long> pods = _podsByZone.get(zoneId);
+        return pods != null ? pods : Collections.<Long> emptySet();
+    }
+
+    private static void addTo(Map<Long, Set<ClusterEntry>> map, long key, ClusterEntry cluster) {
+        Set<ClusterEntry> clusters = map.get(key);
+        if (clusters == null) {
+            clusters = new LinkedHashSet<ClusterEntry>();
+            map.put(key, clusters);
+        }
+        clusters.add(cluster);
+    }
+
+    private static double share(long usedAndReserved, double total) {
+        // the database returns NULL for the division by zero, read back as 0
+        return total > 0 ? usedAndReserved / total : 0;
+    }
+
+    private static Pair<List<Long>, Map<Long, Double>> ordered(final Map<Long, Double> shares) {
+        List<Long> ids = new ArrayList<Long>(shares.keySet());
+        Collections.sort(ids, new Comparator<Long>() {
+            @Override
+            public int compare(Long o1, Long o2) {
+                int c = shares.get(o1).compareTo(shares.get(o2));
+                return c != 0 ? c : o1.compareTo(o2);
+            }
+        });
+        return new Pair<List<Long>, Map<Long, Double>>(ids, shares);
+    }
+}
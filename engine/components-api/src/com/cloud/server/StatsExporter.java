@@ -0,0 +1,50 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import com.cloud.host.Host;
+import com.cloud.host.HostStats;
+import com.cloud.storage.StoragePool;
+import com.cloud.storage.StorageStats;
+import com.cloud.utils.component.Adapter;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VmStats;
+
+/**
+ * StatsExporter receives every sample the stats collector retrieves, as it
+ * is retrieved, so it can be shipped to a time-series store.
+ *
+ * The methods are called from the collector threads; implementations must
+ * return quickly and never block on their sink, dropping samples instead.
+ */
+public interface StatsExporter extends Adapter {
+
+    /**
+     * @param timestamp start of the collection cycle, in milliseconds
+     */
+    void exportHostStats(Host host, HostStats stats, long timestamp);
+
+    /**
+     * @param stats the sample returned by the host in this cycle, not the
+     * running totals the collector keeps
+     */
+    void exportVmStats(Host host, VirtualMachine vm, VmStats stats, long timestamp);
+
+    void exportStoragePoolStats(StoragePool pool, StorageStats stats, long timestamp);
+
+    void exportImageStoreStats(long storeId, String storeName, StorageStats stats, long timestamp);
+}
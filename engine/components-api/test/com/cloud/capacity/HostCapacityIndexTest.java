@@ -0,0 +1,137 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+
+public class HostCapacityIndexTest {
+    private static final long GB = 1024L * 1024L * 1024L;
+
+    private HostCapacityIndex _index;
+
+    @Before
+    public void setUp() {
+        // zone 1 has pod 10 with clusters 100 and 101, and pod 11 with cluster 110
+        Map<Long, HostCapacityIndex.ClusterSettings> clusters = new HashMap<Long, HostCapacityIndex.ClusterSettings>();
+        clusters.put(100L, new HostCapacityIndex.ClusterSettings(1, 10, 1.0f, 1.0f, 0.85f, 0.85f));
+        clusters.put(101L, new HostCapacityIndex.ClusterSettings(1, 10, 2.0f, 1.0f, 0.85f, 0.85f));
+        clusters.put(110L, new HostCapacityIndex.ClusterSettings(1, 11, 1.0f, 1.0f, 0.85f, 0.85f));
+
+        List<CapacityVO> capacities = new ArrayList<CapacityVO>();
+        addHost(capacities, 1, 10, 100, 4000, 3000, 8 * GB, 2 * GB);
+        addHost(capacities, 2, 10, 100, 4000, 1000, 8 * GB, 7 * GB);
+        addHost(capacities, 3, 10, 101, 4000, 6000, 16 * GB, 4 * GB);
+        addHost(capacities, 4, 11, 110, 8000, 0, 32 * GB, 0);
+        // host of a cluster the planners do not consider
+        addHost(capacities, 5, 11, 111, 8000, 0, 32 * GB, 0);
+
+        _index = new HostCapacityIndex();
+        _index.reload(clusters, capacities);
+    }
+
+    private static void addHost(List<CapacityVO> capacities, long hostId, long podId, long clusterId, long cpu, long usedCpu, long ram, long usedRam) {
+        capacities.add(new CapacityVO(hostId, 1L, podId, clusterId, usedCpu, cpu, Capacity.CAPACITY_TYPE_CPU));
+        capacities.add(new CapacityVO(hostId, 1L, podId, clusterId, usedRam, ram, Capacity.CAPACITY_TYPE_MEMORY));
+    }
+
+    private static List<Long> ids(Long... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        List<Long> copy = new ArrayList<Long>(ids);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void testClustersAndPodsWithHostCapacity() {
+        assertEquals(4, _index.getHostCount());
+        assertTrue(_index.getLoadedAt() > 0);
+
+        // the host with the CPU and the host with the RAM do not need to be the same one
+        assertEquals(ids(100L, 101L, 110L), sorted(_index.listClustersByHostCapacities(1, 2000, 6 * GB, true)));
+        assertEquals(ids(101L, 110L), sorted(_index.listClustersByHostCapacities(1, 2000, 10 * GB, true)));
+        assertEquals(ids(101L), _index.listClustersByHostCapacities(10, 2000, 10 * GB, false));
+        assertEquals(ids(110L), _index.listClustersByHostCapacities(1, 5000, 10 * GB, true));
+
+        assertEquals(ids(10L, 11L), sorted(_index.listPodsByHostCapacities(1, 2000, 6 * GB)));
+        assertEquals(ids(11L), _index.listPodsByHostCapacities(1, 5000, 6 * GB));
+        assertTrue(_index.listPodsByHostCapacities(2, 1, 1).isEmpty());
+    }
+
+    @Test
+    public void testHostsWithEnoughCapacity() {
+        assertEquals(ids(1L), _index.listHostsWithEnoughCapacity(100, 1000, 4 * GB));
+        assertTrue(_index.listHostsWithEnoughCapacity(100, 2000, 4 * GB).isEmpty());
+        // the overcommit ratio applies to the total
+        assertEquals(ids(3L), _index.listHostsWithEnoughCapacity(101, 2000, GB));
+    }
+
+    @Test
+    public void testOrderByAggregateCapacity() {
+        Pair<List<Long>, Map<Long, Double>> clusters = _index.orderClustersByAggregateCapacity(1, Capacity.CAPACITY_TYPE_CPU, true);
+        assertEquals(ids(110L, 100L, 101L), clusters.first());
+        assertEquals(0.5, clusters.second().get(100L), 0.0001);
+        assertEquals(0.75, clusters.second().get(101L), 0.0001);
+
+        Pair<List<Long>, Map<Long, Double>> pods = _index.orderPodsByAggregateCapacity(1, Capacity.CAPACITY_TYPE_MEMORY);
+        assertEquals(ids(11L, 10L), pods.first());
+        assertEquals(13.0 / 32, pods.second().get(10L), 0.0001);
+    }
+
+    @Test
+    public void testUpdatesAndThreshold() {
+        assertTrue(_index.listClustersCrossingThreshold(Capacity.CAPACITY_TYPE_CPU, 1, 0).isEmpty());
+        assertEquals(ids(101L), _index.listClustersCrossingThreshold(Capacity.CAPACITY_TYPE_CPU, 1, 2000));
+
+        // allocate the rest of host 2, cluster 100 no longer has a host with 2000 MHz to spare
+        _index.update(new CapacityVO(2L, 1L, 10L, 100L, 4000, 4000, Capacity.CAPACITY_TYPE_CPU));
+        assertEquals(ids(101L, 110L), sorted(_index.listClustersByHostCapacities(1, 2000, GB, true)));
+        assertEquals(ids(100L), _index.listClustersCrossingThreshold(Capacity.CAPACITY_TYPE_CPU, 1, 0));
+
+        // disabled capacity does not count towards the threshold
+        CapacityVO disabled = new CapacityVO(2L, 1L, 10L, 100L, 4000, 4000, Capacity.CAPACITY_TYPE_CPU);
+        disabled.setCapacityState(CapacityState.Disabled);
+        _index.update(disabled);
+        assertTrue(_index.listClustersCrossingThreshold(Capacity.CAPACITY_TYPE_CPU, 1, 0).isEmpty());
+
+        // reserved capacity counts as free for the cluster listing
+        CapacityVO reserved = new CapacityVO(1L, 1L, 10L, 100L, 4000, 4000, Capacity.CAPACITY_TYPE_CPU);
+        reserved.setReservedCapacity(3000);
+        _index.update(reserved);
+        assertEquals(ids(100L, 101L, 110L), sorted(_index.listClustersByHostCapacities(1, 2000, GB, true)));
+
+        _index.removeHost(2L);
+        _index.removeHost(1L);
+        assertEquals(ids(101L, 110L), sorted(_index.listClustersByHostCapacities(1, 1, 1, true)));
+        assertEquals(ids(110L, 101L), _index.orderClustersByAggregateCapacity(1, Capacity.CAPACITY_TYPE_CPU, true).first());
+    }
+}
@@ -28,7 +28,6 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
@@ -54,10 +53,12 @@ import com.cloud.agent.api.StopCommand;
 import com.cloud.agent.api.storage.CreateCommand;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
+import com.cloud.agent.transport.WireCodec;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.exception.OperationTimedoutException;
 import com.cloud.host.Status;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.concurrency.TimerWheel;
 
 /**
  *  AgentAttache provides basic commands to be implemented.
@@ -65,7 +66,9 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 public abstract class AgentAttache {
     private static final Logger s_logger = Logger.getLogger(AgentAttache.class);
 
-    private static final ScheduledExecutorService s_listenerExecutor = Executors.newScheduledThreadPool(10, new NamedThreadFactory("ListenerTimer"));
+    // listener timeouts are mostly cancelled by the answer, a wheel keeps scheduling and cancelling them O(1)
+    private static final TimerWheel s_listenerTimer = new TimerWheel("ListenerTimer", 100, 512, Executors.newFixedThreadPool(10, new NamedThreadFactory(
+        "ListenerTimeout")));
     private static final Random s_rand = new Random(System.currentTimeMillis());
 
     protected static final Comparator<Request> s_reqComparator = new Comparator<Request>() {
@@ -101,11 +104,13 @@ public abstract class AgentAttache {
     protected final long _id;
     protected String _name = null;
     protected final ConcurrentHashMap<Long, Listener> _waitForList;
+    protected final ConcurrentHashMap<Long, TimerWheel.Timeout> _alarms;
     protected final LinkedList<Request> _requests;
     protected Long _currentSequence;
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
     protected long _nextSequence;
+    protected volatile WireCodec _wireCodec;
 
     protected AgentManagerImpl _agentMgr;
 
@@ -123,6 +128,7 @@ public abstract class AgentAttache {
         _id = id;
         _name = name;
         _waitForList = new ConcurrentHashMap<Long, Listener>();
+        _alarms = new ConcurrentHashMap<Long, TimerWheel.Timeout>();
         _currentSequence = null;
         _maintenance = maintenance;
         _requests = new LinkedList<Request>();
@@ -192,6 +198,7 @@ public abstract class AgentAttache {
             s_logger.debug(log(seq, "Cancelling."));
         }
         final Listener listener = _waitForList.remove(seq);
+        cancelAlarm(seq);
         if (listener != null) {
             listener.processDisconnect(_id, Status.Disconnected);
         }
@@ -217,19 +224,34 @@ public abstract class AgentAttache {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace(log(seq, "Registering listener"));
         }
+        _waitForList.put(seq, listener);
         if (listener.getTimeout() != -1) {
-            s_listenerExecutor.schedule(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS);
+            _alarms.put(seq, s_listenerTimer.schedule(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS));
         }
-        _waitForList.put(seq, listener);
     }
 
     protected Listener unregisterListener(final long sequence) {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace(log(sequence, "Unregistering listener"));
         }
+        cancelAlarm(sequence);
         return _waitForList.remove(sequence);
     }
 
+    private void cancelAlarm(final long sequence) {
+        TimerWheel.Timeout alarm = _alarms.remove(sequence);
+        if (alarm != null) {
+            alarm.cancel();
+        }
+    }
+
+    /**
+     * @return listener timeouts scheduled over all the attaches.
+     */
+    public static int getPendingTimeoutCount() {
+        return s_listenerTimer.getPendingCount();
+    }
+
     protected Listener getListener(final long sequence) {
         return _waitForList.get(sequence);
     }
@@ -242,6 +264,17 @@ public abstract class AgentAttache {
         return _name;
     }
 
+    /**
+     * @return codec negotiated with the agent at startup, null for Gson JSON.
+     */
+    public WireCodec getWireCodec() {
+        return _wireCodec;
+    }
+
+    public void setWireCodec(WireCodec codec) {
+        _wireCodec = codec;
+    }
+
     public int getQueueSize() {
         return _requests.size();
     }
@@ -314,6 +347,7 @@ public abstract class AgentAttache {
             while (it.hasNext()) {
                 final Map.Entry<Long, Listener> entry = it.next();
                 it.remove();
+                cancelAlarm(entry.getKey());
                 final Listener monitor = entry.getValue();
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug(log(entry.getKey(), "Sending disconnect to " + monitor.getClass()));
@@ -513,10 +547,17 @@ public abstract class AgentAttache {
         @Override
         protected void runInContext() {
             try {
+                _alarms.remove(_seq);
                 Listener listener = unregisterListener(_seq);
                 if (listener != null) {
                     cancel(_seq);
                     listener.processTimeout(_id, _seq);
+
+                    // as for the synchronous send, a command that timed out does not hold up the ones queued behind it
+                    final Long current = _currentSequence;
+                    if (current != null && current == _seq) {
+                        sendNext(_seq);
+                    }
                 }
             } catch (Exception e) {
                 s_logger.warn("Exception ", e);
@@ -20,17 +20,22 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -48,6 +53,7 @@ import org.apache.cloudstack.framework.jobs.AsyncJobExecutionContext;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 
+import com.cloud.agent.AgentCommandFuture;
 import com.cloud.agent.AgentManager;
 import com.cloud.agent.Listener;
 import com.cloud.agent.StartupCommandProcessor;
@@ -71,6 +77,8 @@ import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
+import com.cloud.agent.transport.WireCodec;
+import com.cloud.agent.transport.WireCodecs;
 import com.cloud.alert.AlertManager;
 import com.cloud.dc.ClusterVO;
 import com.cloud.dc.DataCenterVO;
@@ -106,11 +114,14 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.HypervisorVersionChangedException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.nio.HandlerFactory;
 import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioConnectionMBeanImpl;
 import com.cloud.utils.nio.NioServer;
 import com.cloud.utils.nio.Task;
 import com.cloud.utils.time.InaccurateClock;
+import com.cloud.vm.dao.VMInstanceDao;
 
 /**
  * Implementation of the Agent Manager. This class controls the connection to the agents.
@@ -163,6 +174,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     protected ExecutorService _executor;
     protected ThreadPoolExecutor _connectExecutor;
+    protected AgentStartupMBeanImpl _startupMBean;
+    private final AtomicLong _connectSequence = new AtomicLong();
+    // guids of the hosts running HA enabled vms, refreshed in the background so startups never wait on the db for it
+    protected volatile Set<String> _haHostGuids = Collections.emptySet();
     protected ScheduledExecutorService _directAgentExecutor;
     protected ScheduledExecutorService _cronJobExecutor;
     protected ScheduledExecutorService _monitorExecutor;
@@ -174,6 +189,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Inject
     ResourceManager _resourceMgr;
+    @Inject
+    VMInstanceDao _vmDao;
 
     protected final ConfigKey<Integer> Workers = new ConfigKey<Integer>("Advanced", Integer.class, "workers", "5",
             "Number of worker threads handling remote agent connections.", false);
@@ -197,6 +214,16 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "false",
             "This parameter allows developers to enable a check to see if a transaction wraps commands that are sent to the resource.  This is not to be enabled on production systems.",
             true);
+    protected final ConfigKey<Boolean> BinaryWireFormat = new ConfigKey<Boolean>("Advanced", Boolean.class, "agent.binary.wire.format", "true",
+            "Exchange commands in the compact binary wire format with agents that support it, takes effect when agents reconnect", true);
+    protected final ConfigKey<Integer> Selectors = new ConfigKey<Integer>("Advanced", Integer.class, "agent.selectors", "4",
+            "Number of selector threads reading from remote agent connections", false);
+    protected final ConfigKey<Integer> HandlerQueueSize = new ConfigKey<Integer>("Advanced", Integer.class, "agent.handler.queue.size", "10000",
+            "Maximum number of requests from remote agents waiting for a worker thread, agents are read from again once there is room. 0 for no limit", false);
+    protected final ConfigKey<Integer> StartupConcurrency = new ConfigKey<Integer>("Advanced", Integer.class, "agent.startup.concurrency", "50",
+            "Number of connecting agents whose startup is processed at the same time, the others wait their turn with hosts running HA enabled vms first", false);
+    protected final ConfigKey<Integer> StartupQueueLimit = new ConfigKey<Integer>("Advanced", Integer.class, "agent.startup.queue.limit", "500",
+            "Number of agent startups waiting to be processed beyond which connecting agents are told to back off and connect again later", true);
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -215,12 +242,25 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         _executor = new ThreadPoolExecutor(threads, threads, 60l, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("AgentTaskPool"));
 
-        _connectExecutor = new ThreadPoolExecutor(100, 500, 60l, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("AgentConnectTaskPool"));
+        // startups are admitted in the order HandleAgentConnectTask sorts them, at most StartupConcurrency at a time
+        int startups = StartupConcurrency.value();
+        _connectExecutor = new ThreadPoolExecutor(startups, startups, 60l, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new NamedThreadFactory("AgentConnectTaskPool"));
         //allow core threads to time out even when there are no items in the queue
         _connectExecutor.allowCoreThreadTimeOut(true);
+        _startupMBean = new AgentStartupMBeanImpl(_connectExecutor);
+        try {
+            JmxUtil.registerMBean("AgentManager", "Startups", _startupMBean);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register agent startups MBean", e);
+        }
 
-        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this);
-        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
+        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, Selectors.value(), HandlerQueueSize.value(), this);
+        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers and " + Selectors.value() + " selectors");
+        try {
+            JmxUtil.registerMBean("AgentManager", "Connections", new NioConnectionMBeanImpl(_connection));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register agent connections MBean", e);
+        }
 
         // executes all agent commands other than cron and ping
         _directAgentExecutor = new ScheduledThreadPoolExecutor(DirectAgentPoolSize.value(), new NamedThreadFactory("DirectAgent"));
@@ -379,6 +419,18 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return !txn.dbTxnStarted();
     }
 
+    protected void checkNoDbTxn() {
+        if (CheckTxnBeforeSending.value()) {
+            if (!noDbTxn()) {
+                throw new CloudRuntimeException("We do not allow transactions to be wrapped around commands sent to be executed on remote agents.  "
+                        + "We cannot predict how long it takes a command to complete.  "
+                        + "The transaction may be rolled back because the connection took too long.");
+            }
+        } else {
+            assert noDbTxn() : "I know, I know.  Why are we so strict as to not allow txn across an agent call?  ...  Why are we so cruel ... Why are we such a dictator .... Too bad... Sorry...but NO AGENT COMMANDS WRAPPED WITHIN DB TRANSACTIONS!";
+        }
+    }
+
     private static void tagCommand(Command cmd) {
         AsyncJobExecutionContext context = AsyncJobExecutionContext.getCurrent();
         if (context != null && context.getJob() != null) {
@@ -402,15 +454,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             timeout = Wait.value();
         }
 
-        if (CheckTxnBeforeSending.value()) {
-            if (!noDbTxn()) {
-                throw new CloudRuntimeException("We do not allow transactions to be wrapped around commands sent to be executed on remote agents.  "
-                        + "We cannot predict how long it takes a command to complete.  "
-                        + "The transaction may be rolled back because the connection took too long.");
-            }
-        } else {
-            assert noDbTxn() : "I know, I know.  Why are we so strict as to not allow txn across an agent call?  ...  Why are we so cruel ... Why are we such a dictator .... Too bad... Sorry...but NO AGENT COMMANDS WRAPPED WITHIN DB TRANSACTIONS!";
-        }
+        checkNoDbTxn();
 
         Command[] cmds = commands.toCommands();
 
@@ -430,6 +474,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         Request req = new Request(hostId, agent.getName(), _nodeId, cmds, commands.stopOnError(), true);
         req.setSequence(agent.getNextSequence());
+        req.setWireCodec(agent.getWireCodec());
         Answer[] answers = agent.send(req, timeout);
         notifyAnswersToMonitors(hostId, req.getSequence(), answers);
         commands.setAnswers(answers);
@@ -489,11 +534,36 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         Request req = new Request(hostId, agent.getName(), _nodeId, cmds, commands.stopOnError(), true);
         req.setSequence(agent.getNextSequence());
+        req.setWireCodec(agent.getWireCodec());
 
         agent.send(req, listener);
         return req.getSequence();
     }
 
+    @Override
+    public AgentCommandFuture sendAsync(Long hostId, Commands commands) throws AgentUnavailableException {
+        if (hostId == null) {
+            throw new AgentUnavailableException(-1);
+        }
+
+        checkNoDbTxn();
+
+        int wait = 0;
+        for (Command cmd : commands) {
+            if (cmd.getWait() > wait) {
+                wait = cmd.getWait();
+            }
+        }
+        if (wait <= 0) {
+            wait = Wait.value();
+        }
+
+        // the synchronous send waits twice as long for the command the agent is executing
+        AgentCommandFuture future = new AgentCommandFuture(hostId, commands);
+        future.setSequence(send(hostId, commands, new FutureListener(future, commands.toCommands(), wait * 2)));
+        return future;
+    }
+
     public void removeAgent(AgentAttache attache, Status nextState) {
         if (attache == null) {
             return;
@@ -583,11 +653,14 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     public boolean start() {
         startDirectlyConnectedHosts();
 
+        // know the HA hosts before the first agent connects
+        refreshHaHostGuids();
         if (_connection != null) {
             _connection.start();
         }
 
         _monitorExecutor.scheduleWithFixedDelay(new MonitorTask(), PingInterval.value(), PingInterval.value(), TimeUnit.SECONDS);
+        _monitorExecutor.scheduleWithFixedDelay(new HaHostGuidsTask(), PingInterval.value(), PingInterval.value(), TimeUnit.SECONDS);
 
         return true;
     }
@@ -1092,19 +1165,29 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
-    protected class HandleAgentConnectTask extends ManagedContextRunnable {
+    protected class HandleAgentConnectTask extends ManagedContextRunnable implements Comparable<HandleAgentConnectTask> {
         Link _link;
         Command[] _cmds;
         Request _request;
+        WireCodec _codec;
+        boolean _priority;
+        long _sequence;
+        long _queued;
 
-        HandleAgentConnectTask(Link link, final Command[] cmds, final Request request) {
+        HandleAgentConnectTask(Link link, final Command[] cmds, final Request request, final WireCodec codec, final boolean priority) {
             _link = link;
             _cmds = cmds;
             _request = request;
+            _codec = codec;
+            _priority = priority;
+            _sequence = _connectSequence.incrementAndGet();
+            _queued = System.currentTimeMillis();
         }
 
         @Override
         protected void runInContext() {
+            long start = System.currentTimeMillis();
+            _startupMBean.recordQueueWait(start - _queued);
             _request.logD("Processing the first command ");
             StartupCommand[] startups = new StartupCommand[_cmds.length];
             for (int i = 0; i < _cmds.length; i++) {
@@ -1114,30 +1197,103 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             AgentAttache attache = handleConnectedAgent(_link, startups, _request);
             if (attache == null) {
                 s_logger.warn("Unable to create attache for agent: " + _request);
+            } else {
+                attache.setWireCodec(_codec);
+            }
+            _startupMBean.recordProcessing(System.currentTimeMillis() - start);
+        }
+
+        /**
+         * Hosts running HA enabled vms go first, otherwise first come first served.
+         */
+        @Override
+        public int compareTo(HandleAgentConnectTask other) {
+            if (_priority != other._priority) {
+                return _priority ? -1 : 1;
             }
+            return _sequence < other._sequence ? -1 : (_sequence == other._sequence ? 0 : 1);
         }
     }
 
+    /**
+     * @return true if the connecting host is known to run HA enabled vms.  Only looks at
+     * the cached guids, it runs on the link's handler thread before the startup is admitted.
+     */
+    protected boolean hasHaEnabledVms(StartupCommand startup) {
+        if (!(startup instanceof StartupRoutingCommand) || startup.getGuid() == null) {
+            return false;
+        }
+        Set<String> guids = _haHostGuids;
+        return guids.contains(startup.getGuid()) || guids.contains(startup.getGuidWithoutResource());
+    }
+
+    protected void refreshHaHostGuids() {
+        try {
+            _haHostGuids = new HashSet<String>(_vmDao.listHostGuidsWithHaEnabledVms());
+        } catch (Exception e) {
+            s_logger.warn("Unable to refresh the hosts running HA enabled vms", e);
+        }
+    }
+
+    /**
+     * @return seconds a connecting agent should wait before trying again, 0 to admit it now.
+     */
+    protected int getStartupBackoff() {
+        int depth = _connectExecutor.getQueue().size();
+        if (depth < StartupQueueLimit.value()) {
+            return 0;
+        }
+        long mean = Math.max(_startupMBean.getMeanProcessingTime(), 1000);
+        long drain = depth * mean / Math.max(_connectExecutor.getMaximumPoolSize(), 1) / 1000;
+        return (int)Math.min(Math.max(drain, 10), 600);
+    }
+
     protected void connectAgent(Link link, final Command[] cmds, final Request request) {
         //send startupanswer to agent in the very beginning, so agent can move on without waiting for the answer for an undetermined time, if we put this logic into another thread pool.
         StartupAnswer[] answers = new StartupAnswer[cmds.length];
+        WireCodec codec = null;
+        boolean priority = false;
         Command cmd;
         for (int i = 0; i < cmds.length; i++) {
             cmd = cmds[i];
             if ((cmd instanceof StartupRoutingCommand) || (cmd instanceof StartupProxyCommand) || (cmd instanceof StartupSecondaryStorageCommand) ||
                     (cmd instanceof StartupStorageCommand)) {
-                answers[i] = new StartupAnswer((StartupCommand)cmds[i], 0, getPingInterval());
+                StartupCommand startup = (StartupCommand)cmd;
+                priority = hasHaEnabledVms(startup);
+                int backoff = !priority && startup.isBackoffSupported() ? getStartupBackoff() : 0;
+                if (backoff > 0) {
+                    answers[i] = new StartupAnswer(startup, "Too many agents are starting up, connect again in " + backoff + " seconds");
+                    answers[i].setBackoff(backoff);
+                    sendStartupAnswer(link, request, answers[i]);
+                    _startupMBean.recordBackoff();
+                    request.logD("Told the agent to back off for " + backoff + " seconds ");
+                    return;
+                }
+                answers[i] = new StartupAnswer(startup, 0, getPingInterval());
+                // agents that predate wire codecs do not advertise any and keep talking json
+                if (BinaryWireFormat.value()) {
+                    codec = WireCodecs.negotiate(((StartupCommand)cmd).getWireFormats());
+                    if (codec != null) {
+                        answers[i].setWireFormat(codec.getName());
+                    }
+                }
                 break;
             }
         }
-        Response response = null;
-        response = new Response(request, answers[0], _nodeId, -1);
+        sendStartupAnswer(link, request, answers[0]);
+        if (priority) {
+            _startupMBean.recordPriority();
+        }
+        _connectExecutor.execute(new HandleAgentConnectTask(link, cmds, request, codec, priority));
+    }
+
+    private void sendStartupAnswer(Link link, Request request, StartupAnswer answer) {
+        Response response = new Response(request, answer, _nodeId, -1);
         try {
             link.send(response.toBytes());
         } catch (ClosedChannelException e) {
             s_logger.debug("Failed to send startupanswer: " + e.toString());
         }
-        _connectExecutor.execute(new HandleAgentConnectTask(link, cmds, request));
     }
 
     public class AgentHandler extends Task {
@@ -1490,6 +1646,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
+    protected class HaHostGuidsTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            refreshHaHostGuids();
+        }
+    }
+
     protected class MonitorTask extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -1625,7 +1788,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap};
+        return new ConfigKey<?>[] {CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap,
+            BinaryWireFormat, Selectors, HandlerQueueSize, StartupConcurrency, StartupQueueLimit};
     }
 
 }
@@ -0,0 +1,43 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+public interface AgentStartupMBean {
+    /**
+     * @return agent startups waiting for their turn to be processed
+     */
+    public int getQueueDepth();
+
+    public int getActiveCount();
+
+    /**
+     * @return time agent startups waited before being processed
+     */
+    public String getQueueWaitLatency();
+
+    /**
+     * @return time taken to process agent startups
+     */
+    public String getProcessingLatency();
+
+    public long getPriorityCount();
+
+    /**
+     * @return agents told to back off and connect again later
+     */
+    public long getBackoffCount();
+}
@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.utils.LatencyHistogram;
+
+public class AgentStartupMBeanImpl extends StandardMBean implements AgentStartupMBean {
+    private final ThreadPoolExecutor _executor;
+    private final LatencyHistogram _queueWait = new LatencyHistogram();
+    private final LatencyHistogram _processing = new LatencyHistogram();
+    private final AtomicLong _priority = new AtomicLong();
+    private final AtomicLong _backoff = new AtomicLong();
+
+    public AgentStartupMBeanImpl(ThreadPoolExecutor executor) {
+        super(AgentStartupMBean.class, false);
+        _executor = executor;
+    }
+
+    public void recordQueueWait(long millis) {
+        _queueWait.record(millis);
+    }
+
+    public void recordProcessing(long millis) {
+        _processing.record(millis);
+    }
+
+    public void recordPriority() {
+        _priority.incrementAndGet();
+    }
+
+    public void recordBackoff() {
+        _backoff.incrementAndGet();
+    }
+
+    /**
+     * @return mean processing time of an agent startup, 0 before any has been processed
+     */
+    public long getMeanProcessingTime() {
+        return _processing.getMean();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return _executor.getQueue().size();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return _executor.getActiveCount();
+    }
+
+    @Override
+    public String getQueueWaitLatency() {
+        return _queueWait.toString();
+    }
+
+    @Override
+    public String getProcessingLatency() {
+        return _processing.toString();
+    }
+
+    @Override
+    public long getPriorityCount() {
+        return _priority.get();
+    }
+
+    @Override
+    public long getBackoffCount() {
+        return _backoff.get();
+    }
+}
@@ -1013,7 +1013,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
 
                     _workDao.updateStep(work, Step.Starting);
 
-                    _agentMgr.send(destHostId, cmds);
+                    _agentMgr.sendAsync(destHostId, cmds).getAnswers();
 
                     _workDao.updateStep(work, Step.Started);
 
@@ -1239,11 +1239,20 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
         }
     }
 
+    /**
+     * Sends the StopCommand through the asynchronous path, the time out is
+     * enforced by the attache's timer rather than a blocked listener.
+     */
+    private Answer sendStopAndWait(long hostId, StopCommand stop) throws AgentUnavailableException, OperationTimedoutException {
+        Answer[] answers = _agentMgr.sendAsync(hostId, new Commands(stop)).getAnswers();
+        return (answers != null && answers.length > 0) ? answers[0] : null;
+    }
+
     protected boolean sendStop(VirtualMachineGuru guru, VirtualMachineProfile profile, boolean force, boolean checkBeforeCleanup) {
         VirtualMachine vm = profile.getVirtualMachine();
         StopCommand stop = new StopCommand(vm, getExecuteInSequence(vm.getHypervisorType()), checkBeforeCleanup);
         try {
-            Answer answer = _agentMgr.send(vm.getHostId(), stop);
+            Answer answer = sendStopAndWait(vm.getHostId(), stop);
             if (answer != null && answer instanceof StopAnswer) {
                 StopAnswer stopAns = (StopAnswer)answer;
                 if (vm.getType() == VirtualMachine.Type.User) {
@@ -1509,7 +1518,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
         boolean stopped = false;
         Answer answer = null;
         try {
-            answer = _agentMgr.send(vm.getHostId(), stop);
+            answer = sendStopAndWait(vm.getHostId(), stop);
             if (answer != null) {
                 if (answer instanceof StopAnswer) {
                     StopAnswer stopAns = (StopAnswer)answer;
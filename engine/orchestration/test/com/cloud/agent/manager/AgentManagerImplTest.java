@@ -0,0 +1,157 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.StartupRoutingCommand;
+import com.cloud.agent.api.StartupStorageCommand;
+import com.cloud.agent.api.StopCommand;
+import com.cloud.agent.transport.Request;
+import com.cloud.exception.AgentUnavailableException;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class AgentManagerImplTest {
+    AgentManagerImpl _mgr;
+
+    @Before
+    public void setUp() {
+        _mgr = new AgentManagerImpl();
+        _mgr._connectExecutor = new ThreadPoolExecutor(2, 2, 60l, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        _mgr._startupMBean = new AgentStartupMBeanImpl(_mgr._connectExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        _mgr._connectExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testPriorityStartupsGoFirst() {
+        AgentManagerImpl.HandleAgentConnectTask first = _mgr.new HandleAgentConnectTask(null, null, null, null, false);
+        AgentManagerImpl.HandleAgentConnectTask second = _mgr.new HandleAgentConnectTask(null, null, null, null, false);
+        AgentManagerImpl.HandleAgentConnectTask ha = _mgr.new HandleAgentConnectTask(null, null, null, null, true);
+        AgentManagerImpl.HandleAgentConnectTask laterHa = _mgr.new HandleAgentConnectTask(null, null, null, null, true);
+
+        assertTrue(ha.compareTo(first) < 0);
+        assertTrue(first.compareTo(ha) > 0);
+        assertTrue(first.compareTo(second) < 0);
+        assertTrue(ha.compareTo(laterHa) < 0);
+        assertEquals(0, first.compareTo(first));
+
+        // nothing runs the queue, the tasks stay in it in admission order
+        PriorityBlockingQueue<AgentManagerImpl.HandleAgentConnectTask> queue = new PriorityBlockingQueue<AgentManagerImpl.HandleAgentConnectTask>();
+        queue.addAll(Arrays.asList(second, laterHa, first, ha));
+        assertSame(ha, queue.poll());
+        assertSame(laterHa, queue.poll());
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+    }
+
+    @Test
+    public void testNoBackoffBelowTheQueueLimit() {
+        fillQueue(_mgr.StartupQueueLimit.value() - 1);
+        assertEquals(0, _mgr.getStartupBackoff());
+    }
+
+    @Test
+    public void testBackoffFollowsTheQueueDepth() {
+        // without any processing time recorded a startup is taken to last a second
+        fillQueue(_mgr.StartupQueueLimit.value());
+        assertEquals(_mgr.StartupQueueLimit.value() / 2, _mgr.getStartupBackoff());
+    }
+
+    @Test
+    public void testBackoffIsClamped() {
+        fillQueue(_mgr.StartupQueueLimit.value() * 10);
+        assertEquals(600, _mgr.getStartupBackoff());
+
+        _mgr._connectExecutor.getQueue().clear();
+        _mgr._connectExecutor.setMaximumPoolSize(1000);
+        _mgr._connectExecutor.setCorePoolSize(1000);
+        fillQueue(_mgr.StartupQueueLimit.value());
+        assertEquals(10, _mgr.getStartupBackoff());
+    }
+
+    @Test
+    public void testHaHostsAreFoundByGuid() {
+        _mgr._haHostGuids = new HashSet<String>(Arrays.asList("host-1", "host-2"));
+
+        StartupRoutingCommand routing = new StartupRoutingCommand();
+        routing.setGuid("host-1");
+        assertTrue(_mgr.hasHaEnabledVms(routing));
+
+        routing.setGuid("host-2", "LibvirtComputingResource");
+        assertTrue(_mgr.hasHaEnabledVms(routing));
+
+        routing.setGuid("host-3");
+        assertFalse(_mgr.hasHaEnabledVms(routing));
+
+        StartupStorageCommand storage = new StartupStorageCommand();
+        storage.setGuid("host-1");
+        assertFalse(_mgr.hasHaEnabledVms(storage));
+    }
+
+    @Test(expected = AgentUnavailableException.class)
+    public void testSendAsyncWithoutHost() throws Exception {
+        _mgr.sendAsync(null, new Commands(new StopCommand("vm", false, false)));
+    }
+
+    @Test
+    public void testSendAsyncWaitsLikeSend() throws Exception {
+        AgentAttache attache = Mockito.mock(AgentAttache.class);
+        Mockito.when(attache.getNextSequence()).thenReturn(5L);
+        _mgr._agents.put(1L, attache);
+        AgentManagerImpl mgr = Mockito.spy(_mgr);
+
+        StopCommand stop = new StopCommand("vm", false, false);
+        stop.setWait(30);
+        TransactionLegacy txn = TransactionLegacy.open("testSendAsyncWaitsLikeSend");
+        try {
+            assertEquals(5L, mgr.sendAsync(1L, new Commands(stop)).getSequence());
+        } finally {
+            txn.close();
+        }
+
+        Mockito.verify(mgr).checkNoDbTxn();
+        ArgumentCaptor<Listener> listener = ArgumentCaptor.forClass(Listener.class);
+        Mockito.verify(attache).send(Mockito.any(Request.class), listener.capture());
+        assertEquals(60, listener.getValue().getTimeout());
+    }
+
+    private void fillQueue(int depth) {
+        for (int i = 0; i < depth; i++) {
+            _mgr._connectExecutor.getQueue().add(_mgr.new HandleAgentConnectTask(null, null, null, null, false));
+        }
+    }
+}
@@ -47,7 +47,9 @@ import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
+import com.cloud.agent.AgentCommandFuture;
 import com.cloud.agent.AgentManager;
+import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.CheckVirtualMachineAnswer;
 import com.cloud.agent.api.CheckVirtualMachineCommand;
 import com.cloud.agent.api.Command;
@@ -65,6 +67,7 @@ import com.cloud.agent.api.ScaleVmAnswer;
 import com.cloud.agent.api.ScaleVmCommand;
 import com.cloud.agent.api.StopAnswer;
 import com.cloud.agent.api.StopCommand;
+import com.cloud.agent.manager.Commands;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.dc.dao.DataCenterDao;
@@ -470,7 +473,7 @@ public class VirtualMachineManagerImplTest {
         StopAnswer answer = new StopAnswer(new StopCommand(vm, false, false), "ok", true);
         when(profile.getVirtualMachine()).thenReturn(vm);
         when(vm.getHostId()).thenReturn(1L);
-        when(_agentMgr.send(anyLong(), (Command)any())).thenReturn(answer);
+        when(_agentMgr.sendAsync(anyLong(), (Commands)any())).thenReturn(completedFuture(answer));
 
         boolean actual = _vmMgr.sendStop(guru, profile, false, false);
 
@@ -485,7 +488,7 @@ public class VirtualMachineManagerImplTest {
         StopAnswer answer = new StopAnswer(new StopCommand(vm, false, false), "fail", false);
         when(profile.getVirtualMachine()).thenReturn(vm);
         when(vm.getHostId()).thenReturn(1L);
-        when(_agentMgr.send(anyLong(), (Command)any())).thenReturn(answer);
+        when(_agentMgr.sendAsync(anyLong(), (Commands)any())).thenReturn(completedFuture(answer));
 
         boolean actual = _vmMgr.sendStop(guru, profile, false, false);
 
@@ -499,10 +502,16 @@ public class VirtualMachineManagerImplTest {
         VirtualMachineProfile profile = mock(VirtualMachineProfile.class);
         when(profile.getVirtualMachine()).thenReturn(vm);
         when(vm.getHostId()).thenReturn(1L);
-        when(_agentMgr.send(anyLong(), (Command)any())).thenReturn(null);
+        when(_agentMgr.sendAsync(anyLong(), (Commands)any())).thenReturn(completedFuture(null));
 
         boolean actual = _vmMgr.sendStop(guru, profile, false, false);
 
         Assert.assertFalse(actual);
     }
+
+    private static AgentCommandFuture completedFuture(Answer answer) {
+        AgentCommandFuture future = new AgentCommandFuture(1L, new Commands(Command.OnError.Stop));
+        future.complete(new Answer[] {answer});
+        return future;
+    }
 }
@@ -29,8 +29,18 @@ public interface UsageEventDao extends GenericDao<UsageEventVO, Long> {
 
     public List<UsageEventVO> getLatestEvent();
 
+    /**
+     * @return up to limit of the oldest events created by endDate that are not processed yet
+     */
+    List<UsageEventVO> listLatestEvents(Date endDate, long limit);
+
     List<UsageEventVO> getRecentEvents(Date endDate);
 
+    /**
+     * Copies the events created by endDate, and their details, from the cloud db to the usage db.
+     */
+    void copyRecentEvents(Date endDate);
+
     List<UsageEventVO> listDirectIpEvents(Date startDate, Date endDate, long zoneId);
 
     void saveDetails(long eventId, Map<String, String> details);
@@ -88,6 +88,15 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
         return listBy(sc, filter);
     }
 
+    @Override
+    public List<UsageEventVO> listLatestEvents(Date endDate, long limit) {
+        Filter filter = new Filter(UsageEventVO.class, "createDate", Boolean.TRUE, Long.valueOf(0), limit);
+        SearchCriteria<UsageEventVO> sc = latestEventsSearch.create();
+        sc.setParameters("processed", false);
+        sc.setParameters("enddate", endDate);
+        return listBy(sc, filter);
+    }
+
     @Override
     public List<UsageEventVO> getLatestEvent() {
         Filter filter = new Filter(UsageEventVO.class, "id", Boolean.FALSE, Long.valueOf(0), Long.valueOf(1));
@@ -96,7 +105,14 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
 
     @Override
     @DB
-    public synchronized List<UsageEventVO> getRecentEvents(Date endDate) {
+    public List<UsageEventVO> getRecentEvents(Date endDate) {
+        copyRecentEvents(endDate);
+        return findRecentEvents(endDate);
+    }
+
+    @Override
+    @DB
+    public synchronized void copyRecentEvents(Date endDate) {
         long recentEventId = getMostRecentEventId();
         long maxEventId = getMaxEventId(endDate);
         TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
@@ -155,8 +171,6 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
         } finally {
             txn.close();
         }
-
-        return findRecentEvents(endDate);
     }
 
     @DB
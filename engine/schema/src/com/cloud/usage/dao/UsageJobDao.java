@@ -37,4 +37,10 @@ public interface UsageJobDao extends GenericDao<UsageJobVO, Long> {
     UsageJobVO isOwner(String hostname, int pid);
 
     void updateJobSuccess(Long jobId, long startMillis, long endMillis, long execTime, boolean success);
+
+    /**
+     * Records where a job that is still running started parsing, in the
+     * caller's transaction.
+     */
+    void updateJobStart(Long jobId, long startMillis);
 }
@@ -86,6 +86,14 @@ public class UsageJobDaoImpl extends GenericDaoBase<UsageJobVO, Long> implements
         }
     }
 
+    @Override
+    public void updateJobStart(Long jobId, long startMillis) {
+        UsageJobVO jobForUpdate = createForUpdate();
+        jobForUpdate.setStartMillis(startMillis);
+        jobForUpdate.setStartDate(new Date(startMillis));
+        update(jobId, jobForUpdate);
+    }
+
     @Override
     public Long checkHeartbeat(String hostname, int pid, int aggregationDuration) {
         UsageJobVO job = getNextRecurringJob();
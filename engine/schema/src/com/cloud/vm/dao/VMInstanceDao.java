@@ -106,6 +106,11 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     public Long countActiveByHostId(long hostId);
 
+    /**
+     * @return guids of the hosts that have HA enabled vms running, starting, stopping or migrating on them
+     */
+    public List<String> listHostGuidsWithHaEnabledVms();
+
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId);
 
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInPodByVmCount(long podId, long accountId);
@@ -123,6 +123,11 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     private static final String COUNT_VMS_BASED_ON_VGPU_TYPES2 =
             "GROUP BY offering.service_offering_id) results GROUP BY pci, type";
 
+    private static final String LIST_HOST_GUIDS_WITH_HA_ENABLED_VMS =
+            "SELECT DISTINCT host.guid FROM `cloud`.`host` host INNER JOIN `cloud`.`vm_instance` vm ON vm.host_id = host.id " +
+            "WHERE vm.ha_enabled = 1 AND vm.removed is null AND vm.state IN ('Running', 'Starting', 'Stopping', 'Migrating') " +
+            "AND host.removed is null AND host.guid is not null";
+
     @Inject
     protected HostDao _hostDao;
 
@@ -537,6 +542,23 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return customSearch(sc, null).get(0);
     }
 
+    @Override
+    public List<String> listHostGuidsWithHaEnabledVms() {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        List<String> result = new ArrayList<String>();
+        try {
+            pstmt = txn.prepareAutoCloseStatement(LIST_HOST_GUIDS_WITH_HA_ENABLED_VMS);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.add(rs.getString(1));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + LIST_HOST_GUIDS_WITH_HA_ENABLED_VMS, e);
+        }
+    }
+
     @Override
     public Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
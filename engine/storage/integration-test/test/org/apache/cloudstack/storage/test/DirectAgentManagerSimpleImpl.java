@@ -28,6 +28,7 @@ import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 
+import com.cloud.agent.AgentCommandFuture;
 import com.cloud.agent.AgentManager;
 import com.cloud.agent.Listener;
 import com.cloud.agent.StartupCommandProcessor;
@@ -212,6 +213,17 @@ public class DirectAgentManagerSimpleImpl extends ManagerBase implements AgentMa
         return 0;
     }
 
+    @Override
+    public AgentCommandFuture sendAsync(Long hostId, Commands cmds) throws AgentUnavailableException {
+        AgentCommandFuture future = new AgentCommandFuture(hostId, cmds);
+        try {
+            future.complete(send(hostId, cmds));
+        } catch (OperationTimedoutException e) {
+            future.fail(e);
+        }
+        return future;
+    }
+
     @Override
     public int registerForHostEvents(Listener listener, boolean connections, boolean commands, boolean priority) {
         // TODO Auto-generated method stub
@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
+
+import com.cloud.utils.component.ManagerBase;
+
+/**
+ * Carries config value invalidations between management servers so that a
+ * config updated on one node is not served stale out of the ConfigDepot
+ * cache of another.
+ */
+public class ClusterConfigDepotInvalidator extends ManagerBase implements ClusterManager.Dispatcher, ConfigDepotImpl.Publisher {
+    private static final Logger s_logger = Logger.getLogger(ClusterConfigDepotInvalidator.class);
+
+    public static final String DISPATCHER_NAME = "ConfigDepotDispatcher";
+
+    @Inject
+    ClusterManager _clusterMgr;
+    @Inject
+    ConfigDepotImpl _configDepot;
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        _clusterMgr.registerNamedDispatcher(this);
+        _configDepot.setPublisher(this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        _configDepot.setPublisher(null);
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return DISPATCHER_NAME;
+    }
+
+    @Override
+    public void publish(String key) {
+        _clusterMgr.broadcast(DISPATCHER_NAME, key != null ? key : "");
+    }
+
+    @Override
+    public String dispatch(ClusterServicePdu pdu) {
+        String key = pdu.getJsonPackage();
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Invalidating config " + (key != null && !key.isEmpty() ? key : "values") + " on request of " + pdu.getSourcePeer());
+        }
+        _configDepot.invalidateLocally(key != null && !key.isEmpty() ? key : null);
+        return null;
+    }
+}
@@ -0,0 +1,85 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.db.EntityCache;
+
+/**
+ * Carries dao cache invalidations between management servers so that an
+ * entity changed on one node is not served stale out of the cache of
+ * another.
+ */
+public class ClusterEntityCacheInvalidator extends ManagerBase implements ClusterManager.Dispatcher, EntityCache.Publisher {
+    private static final Logger s_logger = Logger.getLogger(ClusterEntityCacheInvalidator.class);
+
+    public static final String DISPATCHER_NAME = "EntityCacheDispatcher";
+
+    @Inject
+    ClusterManager _clusterMgr;
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        _clusterMgr.registerNamedDispatcher(this);
+        EntityCache.setPublisher(this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        EntityCache.setPublisher(null);
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return DISPATCHER_NAME;
+    }
+
+    @Override
+    public void publish(String cacheName, String id) {
+        _clusterMgr.broadcast(DISPATCHER_NAME, cacheName + "\n" + (id != null ? id : ""));
+    }
+
+    @Override
+    public String dispatch(ClusterServicePdu pdu) {
+        String message = pdu.getJsonPackage();
+        int index = message != null ? message.indexOf('\n') : -1;
+        if (index < 0) {
+            s_logger.warn("Invalid entity cache invalidation from " + pdu.getSourcePeer() + ": " + message);
+            return null;
+        }
+
+        String cacheName = message.substring(0, index);
+        String id = index + 1 < message.length() ? message.substring(index + 1) : null;
+        EntityCache cache = EntityCache.getCache(cacheName);
+        if (cache != null) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Invalidating " + (id != null ? id : "all entries") + " in " + cacheName + " on request of " + pdu.getSourcePeer());
+            }
+            cache.invalidate(id);
+        }
+        return null;
+    }
+}
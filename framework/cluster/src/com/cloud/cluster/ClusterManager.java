@@ -52,6 +52,20 @@ public interface ClusterManager extends Manager {
 
     void registerDispatcher(Dispatcher dispatcher);
 
+    /**
+     * Register a dispatcher that only receives PDUs addressed to it by name, see {@link #broadcast(String, String)}.
+     * @param dispatcher dispatcher keyed by {@link Dispatcher#getName()}
+     */
+    void registerNamedDispatcher(Dispatcher dispatcher);
+
+    /**
+     * Broadcast a message to the named dispatcher on all of the other management server nodes.
+     * The message is delivered asynchronously and no response is collected.
+     * @param dispatcherName name of the dispatcher that handles the message on the peers
+     * @param message message to broadcast
+     */
+    void broadcast(String dispatcherName, String message);
+
     ManagementServerHost getPeer(String peerName);
 
     String getSelfPeerName();
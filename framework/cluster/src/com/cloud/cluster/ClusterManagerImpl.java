@@ -26,16 +26,23 @@ import java.sql.SQLException;
 import java.sql.SQLNonTransientException;
 import java.sql.SQLRecoverableException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -52,6 +59,7 @@ import org.apache.cloudstack.utils.identity.ManagementServerNode;
 import com.cloud.cluster.dao.ManagementServerHostDao;
 import com.cloud.cluster.dao.ManagementServerHostPeerDao;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.LatencyHistogram;
 import com.cloud.utils.Profiler;
 import com.cloud.utils.component.ComponentLifecycle;
 import com.cloud.utils.component.ManagerBase;
@@ -76,8 +84,23 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private static final int EXECUTOR_SHUTDOWN_TIMEOUT = 1000; // 1 second
     private static final int DEFAULT_OUTGOING_WORKERS = 5;
 
+    static final ConfigKey<Boolean> PeerTransportEnabled = new ConfigKey<Boolean>(Boolean.class, "cluster.peer.transport.enabled", "management-server", "false",
+        "Send cluster messages over persistent links between management servers, the cluster servlet is used when a peer can not be reached."
+            + " Needs cluster.peer.transport.secret", false);
+    static final ConfigKey<Integer> PeerTransportPort = new ConfigKey<Integer>(Integer.class, "cluster.peer.transport.port", "management-server", "9091",
+        "Port management servers listen on for persistent links from their peers", false);
+    static final ConfigKey<String> PeerTransportSecret = new ConfigKey<String>("Secure", String.class, "cluster.peer.transport.secret", null,
+        "Shared secret management servers authenticate with on the persistent links to their peers, the links are not used without it", false);
+    static final ConfigKey<Integer> PeerBatchSize = new ConfigKey<Integer>(Integer.class, "cluster.peer.batch.size", "management-server", "64",
+        "Maximum number of cluster messages sent to a peer in one batch", true);
+    static final ConfigKey<Double> HeartbeatPhiThreshold = new ConfigKey<Double>(Double.class, "cluster.heartbeat.phi.threshold", "management-server", "8",
+        "Suspicion level at which a peer that stopped pushing heartbeats is checked and, if it can not be pinged, considered down", true);
+
+    private static final int HEARTBEAT_WINDOW_SIZE = 100;
+    private static final int RECEIVED_PDU_WINDOW = 4096;
+
     private final List<ClusterManagerListener> _listeners = new ArrayList<ClusterManagerListener>();
-    private final Map<Long, ManagementServerHostVO> _activePeers = new HashMap<Long, ManagementServerHostVO>();
+    private final Map<Long, ManagementServerHostVO> _activePeers = new ConcurrentHashMap<Long, ManagementServerHostVO>();
 
     private final Map<String, ClusterService> _clusterPeers;
 
@@ -85,6 +108,10 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     protected ConfigDepot _configDepot;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("Cluster-Heartbeat"));
+    private final ScheduledExecutorService _peerHeartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("Cluster-PeerHeartbeat"));
+    // each peer gets its own send so a stuck link does not hold back the heartbeats to the others
+    private final ExecutorService _peerHeartbeatSender = Executors.newCachedThreadPool(new NamedThreadFactory("Cluster-PeerHeartbeatSender"));
+    private final Set<String> _peerHeartbeatsInFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     private final ExecutorService _notificationExecutor = Executors.newFixedThreadPool(1, new NamedThreadFactory("Cluster-Notification"));
     private final List<ClusterManagerMessage> _notificationMsgs = new ArrayList<ClusterManagerMessage>();
     private ConnectionConcierge _heartbeatConnection = null;
@@ -102,6 +129,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private ManagementServerHostPeerDao _mshostPeerDao;
 
     protected Dispatcher _dispatcher;
+    private final Map<String, Dispatcher> _namedDispatchers = new ConcurrentHashMap<String, Dispatcher>();
 
     //
     // pay attention to _mshostId and _msid
@@ -116,10 +144,22 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private String _clusterNodeIP = "127.0.0.1";
 
-    private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
-    private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
+    private final BlockingQueue<ClusterServicePdu> _clusterPduOutgoingQueue = new LinkedBlockingQueue<ClusterServicePdu>();
+    private final BlockingQueue<ClusterServicePdu> _clusterPduIncomingQueue = new LinkedBlockingQueue<ClusterServicePdu>();
     private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
 
+    private ClusterPeerTransport _peerTransport;
+    private final ClusterPduDeduplicator _receivedPdus = new ClusterPduDeduplicator(RECEIVED_PDU_WINDOW);
+    private final Map<String, String> _peerAddresses = new ConcurrentHashMap<String, String>();
+    private final ClusterPeersMBeanImpl _peersMBean = new ClusterPeersMBeanImpl(this);
+
+    private PhiAccrualFailureDetector _failureDetector;
+    // mshost records, as last read, of the peers found down by their heartbeats, they are not taken back in until the record changes
+    private final Map<Long, ManagementServerHostVO> _downByHeartbeat = new ConcurrentHashMap<Long, ManagementServerHostVO>();
+    private final LatencyHistogram _detectionLatency = new LatencyHistogram();
+    private final AtomicLong _detectedByHeartbeat = new AtomicLong();
+    private final AtomicLong _falseSuspicions = new AtomicLong();
+
     public ClusterManagerImpl() {
         _clusterPeers = new HashMap<String, ClusterService>();
 
@@ -141,6 +181,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _dispatcher = dispatcher;
     }
 
+    @Override
+    public void registerNamedDispatcher(Dispatcher dispatcher) {
+        _namedDispatchers.put(dispatcher.getName(), dispatcher);
+    }
+
     private ClusterServiceRequestPdu popRequestPdu(long ackSequenceId) {
         synchronized (_outgoingPdusWaitingForAck) {
             if (_outgoingPdusWaitingForAck.get(ackSequenceId) != null) {
@@ -175,51 +220,45 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void addOutgoingClusterPdu(ClusterServicePdu pdu) {
-        synchronized (_clusterPduOutgoingQueue) {
-            _clusterPduOutgoingQueue.add(pdu);
-            _clusterPduOutgoingQueue.notifyAll();
-        }
+        _peersMBean.recordQueued(pdu.getDestPeer());
+        _clusterPduOutgoingQueue.add(pdu);
     }
 
-    private ClusterServicePdu popOutgoingClusterPdu(long timeoutMs) {
-        synchronized (_clusterPduOutgoingQueue) {
-            try {
-                _clusterPduOutgoingQueue.wait(timeoutMs);
-            } catch (InterruptedException e) {
-            }
-
-            if (_clusterPduOutgoingQueue.size() > 0) {
-                ClusterServicePdu pdu = _clusterPduOutgoingQueue.get(0);
-                _clusterPduOutgoingQueue.remove(0);
-                return pdu;
+    /**
+     * Waits for an outgoing PDU and takes it together with whatever else is
+     * queued behind it, up to the batch size.
+     */
+    private void pollOutgoingClusterPdus(long timeoutMs, List<ClusterServicePdu> pdus) {
+        try {
+            ClusterServicePdu pdu = _clusterPduOutgoingQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (pdu != null) {
+                pdus.add(pdu);
+                _clusterPduOutgoingQueue.drainTo(pdus, PeerBatchSize.value() - 1);
             }
+        } catch (InterruptedException e) {
         }
-        return null;
     }
 
     private void addIncomingClusterPdu(ClusterServicePdu pdu) {
-        synchronized (_clusterPduIncomingQueue) {
-            _clusterPduIncomingQueue.add(pdu);
-            _clusterPduIncomingQueue.notifyAll();
-        }
+        _clusterPduIncomingQueue.add(pdu);
     }
 
     private ClusterServicePdu popIncomingClusterPdu(long timeoutMs) {
-        synchronized (_clusterPduIncomingQueue) {
-            try {
-                _clusterPduIncomingQueue.wait(timeoutMs);
-            } catch (InterruptedException e) {
-            }
-
-            if (_clusterPduIncomingQueue.size() > 0) {
-                ClusterServicePdu pdu = _clusterPduIncomingQueue.get(0);
-                _clusterPduIncomingQueue.remove(0);
-                return pdu;
-            }
+        try {
+            return _clusterPduIncomingQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
         }
         return null;
     }
 
+    int getIncomingQueueDepth() {
+        return _clusterPduIncomingQueue.size();
+    }
+
+    ClusterPeerTransport getPeerTransport() {
+        return _peerTransport;
+    }
+
     private Runnable getClusterPduSendingTask() {
         return new ManagedContextRunnable() {
             @Override
@@ -239,51 +278,97 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void onSendingClusterPdu() {
+        List<ClusterServicePdu> pdus = new ArrayList<ClusterServicePdu>();
         while (true) {
             try {
-                ClusterServicePdu pdu = popOutgoingClusterPdu(1000);
-                if (pdu == null)
+                pdus.clear();
+                pollOutgoingClusterPdus(1000, pdus);
+                if (pdus.isEmpty())
                     continue;
 
-                ClusterService peerService = null;
-                for (int i = 0; i < 2; i++) {
-                    try {
-                        peerService = getPeerService(pdu.getDestPeer());
-                    } catch (RemoteException e) {
-                        s_logger.error("Unable to get cluster service on peer : " + pdu.getDestPeer());
+                Map<String, List<ClusterServicePdu>> pdusByPeer = new LinkedHashMap<String, List<ClusterServicePdu>>();
+                for (ClusterServicePdu pdu : pdus) {
+                    List<ClusterServicePdu> peerPdus = pdusByPeer.get(pdu.getDestPeer());
+                    if (peerPdus == null) {
+                        peerPdus = new ArrayList<ClusterServicePdu>();
+                        pdusByPeer.put(pdu.getDestPeer(), peerPdus);
                     }
+                    peerPdus.add(pdu);
+                }
 
-                    if (peerService != null) {
-                        try {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + ". agent: " + pdu.getAgentId() + ", pdu seq: " +
-                                    pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
-                            }
+                for (Map.Entry<String, List<ClusterServicePdu>> entry : pdusByPeer.entrySet()) {
+                    sendClusterPdus(entry.getKey(), entry.getValue());
+                }
+            } catch (Throwable e) {
+                s_logger.error("Unexcpeted exception: ", e);
+            }
+        }
+    }
 
-                            long startTick = System.currentTimeMillis();
-                            String strResult = peerService.execute(pdu);
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " completed. time: " +
-                                    (System.currentTimeMillis() - startTick) + "ms. agent: " + pdu.getAgentId() + ", pdu seq: " + pdu.getSequenceId() +
-                                    ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
-                            }
+    private void sendClusterPdus(String peer, List<ClusterServicePdu> pdus) {
+        _peersMBean.recordDequeued(peer, pdus.size());
+
+        if (_peerTransport != null) {
+            String peerAddress = getPeerAddress(peer);
+            if (peerAddress != null) {
+                long startTick = System.currentTimeMillis();
+                if (_peerTransport.deliver(peer, peerAddress, PeerTransportPort.value(), pdus, ClusterServiceAdapter.ClusterMessageTimeOut.value() * 1000L)) {
+                    long elapsed = System.currentTimeMillis() - startTick;
+                    _peersMBean.recordBatch(peer, pdus.size(), elapsed);
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Cluster PDU batch " + getSelfPeerName() + " -> " + peer + " completed. time: " + elapsed + "ms. pdus: " + pdus.size());
+                    }
+                    return;
+                }
+            }
+        }
 
-                            if ("true".equals(strResult))
-                                break;
+        for (ClusterServicePdu pdu : pdus) {
+            if (!sendClusterPdu(pdu)) {
+                _peersMBean.recordFailed();
+            }
+        }
+    }
 
-                        } catch (RemoteException e) {
-                            invalidatePeerService(pdu.getDestPeer());
-                            if (s_logger.isInfoEnabled()) {
-                                s_logger.info("Exception on remote execution, peer: " + pdu.getDestPeer() + ", iteration: " + i + ", exception message :" +
-                                    e.getMessage());
-                            }
-                        }
+    private boolean sendClusterPdu(ClusterServicePdu pdu) {
+        ClusterService peerService = null;
+        for (int i = 0; i < 2; i++) {
+            try {
+                peerService = getPeerService(pdu.getDestPeer());
+            } catch (RemoteException e) {
+                s_logger.error("Unable to get cluster service on peer : " + pdu.getDestPeer());
+            }
+
+            if (peerService != null) {
+                try {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + ". agent: " + pdu.getAgentId() + ", pdu seq: " +
+                            pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
+                    }
+
+                    long startTick = System.currentTimeMillis();
+                    String strResult = peerService.execute(pdu);
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " completed. time: " +
+                            (System.currentTimeMillis() - startTick) + "ms. agent: " + pdu.getAgentId() + ", pdu seq: " + pdu.getSequenceId() +
+                            ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
+                    }
+
+                    if ("true".equals(strResult)) {
+                        _peersMBean.recordServlet(pdu.getDestPeer(), System.currentTimeMillis() - startTick);
+                        return true;
+                    }
+
+                } catch (RemoteException e) {
+                    invalidatePeerService(pdu.getDestPeer());
+                    if (s_logger.isInfoEnabled()) {
+                        s_logger.info("Exception on remote execution, peer: " + pdu.getDestPeer() + ", iteration: " + i + ", exception message :" +
+                            e.getMessage());
                     }
                 }
-            } catch (Throwable e) {
-                s_logger.error("Unexcpeted exception: ", e);
             }
         }
+        return false;
     }
 
     private void onNotifyingClusterPdu() {
@@ -307,7 +392,15 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                                 s_logger.warn("Original request has already been cancelled. pdu: " + pdu.getJsonPackage());
                             }
                         } else {
-                            String result = _dispatcher.dispatch(pdu);
+                            Dispatcher dispatcher = pdu.getDispatcherName() != null ? _namedDispatchers.get(pdu.getDispatcherName()) : _dispatcher;
+                            String result = null;
+                            if (dispatcher != null) {
+                                result = dispatcher.dispatch(pdu);
+                            } else {
+                                // still answer a request, an empty result fails it on the sender instead of leaving it waiting
+                                s_logger.warn("No dispatcher " + pdu.getDispatcherName() + " registered for cluster PDU from " + pdu.getSourcePeer() + ", pdu seq: " +
+                                    pdu.getSequenceId());
+                            }
                             if (result == null)
                                 result = "";
 
@@ -332,6 +425,13 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     @Override
     public void OnReceiveClusterServicePdu(ClusterServicePdu pdu) {
+        // a batch the peer link did not get acknowledged in time is sent again over the servlet
+        if (!_receivedPdus.isFirstDelivery(pdu)) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Dropping PDU " + pdu.getSequenceId() + " from " + pdu.getSourcePeer() + ", it was received before");
+            }
+            return;
+        }
         addIncomingClusterPdu(pdu);
     }
 
@@ -368,6 +468,24 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    @Override
+    public void broadcast(String dispatcherName, String message) {
+        // the peer scan keeps the active peers current, no need to go to the database on every message
+        for (ManagementServerHostVO peer : _activePeers.values()) {
+            if (peer.getMsid() == _msId) {
+                continue;
+            }
+            String peerName = Long.toString(peer.getMsid());
+
+            ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setSourcePeer(getSelfPeerName());
+            pdu.setDestPeer(peerName);
+            pdu.setDispatcherName(dispatcherName);
+            pdu.setJsonPackage(message);
+            addOutgoingClusterPdu(pdu);
+        }
+    }
+
     public void executeAsync(String strPeer, long agentId, String cmds, boolean stopOnError) {
         ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(getSelfPeerName());
@@ -516,7 +634,21 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         return service;
     }
 
+    private String getPeerAddress(String strPeer) {
+        String address = _peerAddresses.get(strPeer);
+        if (address == null) {
+            ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+            if (mshost == null) {
+                return null;
+            }
+            address = mshost.getServiceIP();
+            _peerAddresses.put(strPeer, address);
+        }
+        return address;
+    }
+
     public void invalidatePeerService(String strPeer) {
+        _peerAddresses.remove(strPeer);
         synchronized (_clusterPeers) {
             if (_clusterPeers.containsKey(strPeer)) {
                 _clusterPeers.remove(strPeer);
@@ -524,6 +656,39 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    private Runnable getPeerHeartbeatTask() {
+        return new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                try {
+                    for (final ManagementServerHostVO mshost : _activePeers.values()) {
+                        if (mshost.getId() == _mshostId.longValue()) {
+                            continue;
+                        }
+
+                        final String peer = Long.toString(mshost.getMsid());
+                        if (!_peerHeartbeatsInFlight.add(peer)) {
+                            // the last heartbeat to the peer is still being sent
+                            continue;
+                        }
+                        _peerHeartbeatSender.execute(new ManagedContextRunnable() {
+                            @Override
+                            protected void runInContext() {
+                                try {
+                                    _peerTransport.sendHeartbeat(peer, mshost.getServiceIP(), PeerTransportPort.value(), getSelfPeerName());
+                                } finally {
+                                    _peerHeartbeatsInFlight.remove(peer);
+                                }
+                            }
+                        });
+                    }
+                } catch (Throwable e) {
+                    s_logger.warn("Unexpected exception while pushing heartbeats to peers", e);
+                }
+            }
+        };
+    }
+
     private Runnable getHeartbeatTask() {
         return new ManagedContextRunnable() {
             @Override
@@ -727,6 +892,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                 if (l != null && l.size() > 0) {
                     for (ManagementServerHostVO mshost : l) {
                         _mshostPeerDao.updatePeerInfo(_mshostId, mshost.getId(), mshost.getRunid(), ManagementServerHost.State.Down);
+                        _receivedPdus.forget(Long.toString(mshost.getMsid()));
                     }
                 }
             }
@@ -848,12 +1014,62 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
         profilerSyncClusterInfo.stop();
 
+        Profiler profilerSuspectedList = new Profiler();
+        profilerSuspectedList.start();
+        if (_mshostId != null && _failureDetector != null) {
+            List<ManagementServerHostVO> downNodeList = new ArrayList<ManagementServerHostVO>();
+            long now = System.currentTimeMillis();
+            for (ManagementServerHostVO mshost : _activePeers.values()) {
+                String peer = Long.toString(mshost.getMsid());
+                if (mshost.getId() == _mshostId.longValue() || removedNodeList.contains(mshost) || invalidatedNodeList.contains(mshost) ||
+                    !_failureDetector.isMonitored(peer)) {
+                    continue;
+                }
+
+                double phi = _failureDetector.phi(peer, now);
+                if (phi < HeartbeatPhiThreshold.value()) {
+                    continue;
+                }
+
+                long lastHeartbeat = _failureDetector.getLastHeartbeat(peer);
+                _failureDetector.remove(peer);
+                if (!pingManagementNode(mshost)) {
+                    s_logger.warn("Management node " + mshost.getId() + " stopped sending heartbeats " + (now - lastHeartbeat) + "ms ago (phi " + phi +
+                        ") and is not pingable");
+                    _detectionLatency.record(System.currentTimeMillis() - lastHeartbeat);
+                    _detectedByHeartbeat.incrementAndGet();
+                    ManagementServerHostVO current = getInListById(mshost.getId(), currentList);
+                    _downByHeartbeat.put(mshost.getId(), current != null ? current : mshost);
+                    downNodeList.add(mshost);
+                } else {
+                    s_logger.info("Management node " + mshost.getId() + " stopped sending heartbeats (phi " + phi + ") but is pingable");
+                    _falseSuspicions.incrementAndGet();
+                }
+            }
+
+            for (ManagementServerHostVO mshost : downNodeList) {
+                _activePeers.remove(mshost.getId());
+                _peerAddresses.remove(Long.toString(mshost.getMsid()));
+                try {
+                    JmxUtil.unregisterMBean("ClusterManager", "Node " + mshost.getId());
+                } catch (Exception e) {
+                    s_logger.warn("Unable to deregiester cluster node from JMX monitoring due to exception " + e.toString());
+                }
+            }
+
+            if (downNodeList.size() > 0) {
+                queueNotification(new ClusterManagerMessage(ClusterManagerMessage.MessageType.nodeRemoved, downNodeList));
+            }
+        }
+        profilerSuspectedList.stop();
+
         Profiler profilerInvalidatedNodeList = new Profiler();
         profilerInvalidatedNodeList.start();
         // process invalidated node list
         if (invalidatedNodeList.size() > 0) {
             for (ManagementServerHostVO mshost : invalidatedNodeList) {
                 _activePeers.remove(mshost.getId());
+                _peerAddresses.remove(Long.toString(mshost.getMsid()));
                 try {
                     JmxUtil.unregisterMBean("ClusterManager", "Node " + mshost.getId());
                 } catch (Exception e) {
@@ -874,6 +1090,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             if (!pingManagementNode(mshost)) {
                 s_logger.warn("Management node " + mshost.getId() + " is detected inactive by timestamp and also not pingable");
                 _activePeers.remove(mshost.getId());
+                _peerAddresses.remove(Long.toString(mshost.getMsid()));
                 try {
                     JmxUtil.unregisterMBean("ClusterManager", "Node " + mshost.getId());
                 } catch (Exception e) {
@@ -890,9 +1107,19 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
         profilerRemovedList.stop();
 
+        // forget the peers found down by their heartbeats once their record expires, they come back with a new run
+        // or they update their record again
+        for (Iterator<Map.Entry<Long, ManagementServerHostVO>> downIt = _downByHeartbeat.entrySet().iterator(); downIt.hasNext();) {
+            Map.Entry<Long, ManagementServerHostVO> entry = downIt.next();
+            ManagementServerHostVO current = getInListById(entry.getKey(), currentList);
+            if (current == null || isHeartbeatAdvanced(entry.getValue(), current)) {
+                downIt.remove();
+            }
+        }
+
         List<ManagementServerHostVO> newNodeList = new ArrayList<ManagementServerHostVO>();
         for (ManagementServerHostVO mshost : currentList) {
-            if (!_activePeers.containsKey(mshost.getId())) {
+            if (!_activePeers.containsKey(mshost.getId()) && !_downByHeartbeat.containsKey(mshost.getId())) {
                 _activePeers.put(mshost.getId(), mshost);
 
                 if (s_logger.isDebugEnabled()) {
@@ -917,11 +1144,20 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         if (profiler.getDuration() >= HeartbeatInterval.value()) {
             if (s_logger.isDebugEnabled())
                 s_logger.debug("Peer scan takes too long to finish. profiler: " + profiler.toString() + ", profilerQueryActiveList: " +
-                    profilerQueryActiveList.toString() + ", profilerSyncClusterInfo: " + profilerSyncClusterInfo.toString() + ", profilerInvalidatedNodeList: " +
-                    profilerInvalidatedNodeList.toString() + ", profilerRemovedList: " + profilerRemovedList.toString());
+                    profilerQueryActiveList.toString() + ", profilerSyncClusterInfo: " + profilerSyncClusterInfo.toString() + ", profilerSuspectedList: " +
+                    profilerSuspectedList.toString() + ", profilerInvalidatedNodeList: " + profilerInvalidatedNodeList.toString() + ", profilerRemovedList: " +
+                    profilerRemovedList.toString());
         }
     }
 
+    static boolean isHeartbeatAdvanced(ManagementServerHostVO before, ManagementServerHostVO current) {
+        if (current.getRunid() != before.getRunid()) {
+            return true;
+        }
+        Date last = before.getLastUpdateTime();
+        return last == null || (current.getLastUpdateTime() != null && current.getLastUpdateTime().after(last));
+    }
+
     private static ManagementServerHostVO getInListById(Long id, List<ManagementServerHostVO> l) {
         for (ManagementServerHostVO mshost : l) {
             if (mshost.getId() == id) {
@@ -985,6 +1221,22 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HeartbeatInterval.value(), HeartbeatInterval.value(), TimeUnit.MILLISECONDS);
         _notificationExecutor.submit(getNotificationTask());
 
+        String peerSecret = PeerTransportSecret.value();
+        if (PeerTransportEnabled.value() && (peerSecret == null || peerSecret.isEmpty())) {
+            s_logger.warn("The cluster peer transport is enabled but " + PeerTransportSecret.key() + " is not set, only the cluster servlet is used");
+        } else if (PeerTransportEnabled.value()) {
+            _failureDetector = new PhiAccrualFailureDetector(HEARTBEAT_WINDOW_SIZE, HeartbeatInterval.value(), HeartbeatInterval.value());
+            _peerTransport = new ClusterPeerTransport(this, _failureDetector, PeerTransportPort.value(), peerSecret);
+            _peerTransport.start();
+            _peerHeartbeatScheduler.scheduleAtFixedRate(getPeerHeartbeatTask(), HeartbeatInterval.value(), HeartbeatInterval.value(), TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            JmxUtil.registerMBean("ClusterManager", "Peers", _peersMBean);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register cluster peers into JMX monitoring due to exception " + ExceptionUtil.toString(e));
+        }
+
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Cluster manager was started successfully");
         }
@@ -1006,7 +1258,12 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
 
         _heartbeatScheduler.shutdownNow();
+        _peerHeartbeatScheduler.shutdownNow();
+        _peerHeartbeatSender.shutdownNow();
         _executor.shutdownNow();
+        if (_peerTransport != null) {
+            _peerTransport.stop();
+        }
 
         try {
             _heartbeatScheduler.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
@@ -1111,7 +1368,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold};
+        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold, PeerTransportEnabled, PeerTransportPort, PeerTransportSecret, PeerBatchSize,
+            HeartbeatPhiThreshold};
     }
 
     private boolean pingManagementNode(ManagementServerHostVO mshost) {
@@ -1162,6 +1420,26 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         return HeartbeatInterval.value();
     }
 
+    /**
+     * @return the suspicion level of the peer from its heartbeats, 0 if it does not push any.
+     */
+    public double getPeerPhi(long msid) {
+        PhiAccrualFailureDetector detector = _failureDetector;
+        return detector != null ? detector.phi(Long.toString(msid), System.currentTimeMillis()) : 0;
+    }
+
+    public LatencyHistogram getFailureDetectionLatency() {
+        return _detectionLatency;
+    }
+
+    public long getFailuresDetectedByHeartbeat() {
+        return _detectedByHeartbeat.get();
+    }
+
+    public long getFalseSuspicions() {
+        return _falseSuspicions.get();
+    }
+
     private void checkConflicts() throws ConfigurationException {
         Date cutTime = DateUtil.currentGMTTime();
         List<ManagementServerHostVO> peers = _mshostDao.getActiveList(new Date(cutTime.getTime() - HeartbeatThreshold.value()));
@@ -28,4 +28,12 @@ public interface ClusterManagerMBean {
     public int getHeartbeatInterval();
 
     public int getHeartbeatThreshold();
+
+    public double getPhi();
+
+    public String getFailureDetectionLatency();
+
+    public long getFailuresDetectedByHeartbeat();
+
+    public long getFalseSuspicions();
 }
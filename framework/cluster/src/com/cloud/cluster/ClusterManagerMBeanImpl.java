@@ -64,4 +64,24 @@ public class ClusterManagerMBeanImpl extends StandardMBean implements ClusterMan
     public int getHeartbeatThreshold() {
         return ClusterManager.HeartbeatThreshold.value();
     }
+
+    @Override
+    public double getPhi() {
+        return _clusterMgr.getPeerPhi(_mshostVo.getMsid());
+    }
+
+    @Override
+    public String getFailureDetectionLatency() {
+        return _clusterMgr.getFailureDetectionLatency().toString();
+    }
+
+    @Override
+    public long getFailuresDetectedByHeartbeat() {
+        return _clusterMgr.getFailuresDetectedByHeartbeat();
+    }
+
+    @Override
+    public long getFalseSuspicions() {
+        return _clusterMgr.getFalseSuspicions();
+    }
 }
@@ -0,0 +1,68 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Remembers the sequence ids of the last PDUs received from each peer so a
+ * PDU sent again, over the cluster servlet after its peer link did not
+ * acknowledge it, is dispatched only once.
+ */
+public class ClusterPduDeduplicator {
+    private final int _window;
+    private final Map<String, LinkedHashSet<Long>> _received = new HashMap<String, LinkedHashSet<Long>>();
+
+    /**
+     * @param window sequence ids remembered per peer
+     */
+    public ClusterPduDeduplicator(int window) {
+        _window = window;
+    }
+
+    /**
+     * @return false if a PDU with the same sequence id was received from the same peer before
+     */
+    public synchronized boolean isFirstDelivery(ClusterServicePdu pdu) {
+        String peer = pdu.getSourcePeer();
+        LinkedHashSet<Long> received = _received.get(peer);
+        if (received == null) {
+            received = new LinkedHashSet<Long>();
+            _received.put(peer, received);
+        }
+
+        if (!received.add(pdu.getSequenceId())) {
+            return false;
+        }
+        if (received.size() > _window) {
+            Iterator<Long> eldest = received.iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Forgets a peer, called once it has left the cluster.
+     */
+    public synchronized void forget(String peer) {
+        _received.remove(peer);
+    }
+}
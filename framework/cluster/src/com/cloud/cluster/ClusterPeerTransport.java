@@ -0,0 +1,602 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.ClosedChannelException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.log4j.Logger;
+
+import com.google.gson.Gson;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Persistent transport between management servers.
+ *
+ * Each peer is reached over a single long lived SSL link.  Batches of PDUs
+ * are sent as one frame tagged with a correlation id, and any number of
+ * batches may be in flight on the link at once; the peer acknowledges each
+ * one with the id once the PDUs are queued on its side.
+ *
+ * Links are opened in the background.  Until a link to a peer is up, and
+ * for RECONNECT_INTERVAL after an attempt failed, the caller is told right
+ * away and falls back to the servlet transport.  An attempt that has not
+ * completed the handshake within the connect timeout is abandoned.
+ *
+ * The first frame on a link introduces the connecting management server
+ * and proves it knows the shared secret of the cluster; links that do not
+ * are closed.  Only acknowledgements are accepted on the links this side
+ * opened.
+ *
+ * The links also carry the heartbeats the management servers push to each
+ * other, they are fed to the failure detector as they arrive.
+ */
+public class ClusterPeerTransport implements HandlerFactory {
+    private static final Logger s_logger = Logger.getLogger(ClusterPeerTransport.class);
+
+    private static final int FRAME_BATCH = 1;
+    private static final int FRAME_ACK = 2;
+    private static final int FRAME_HEARTBEAT = 3;
+    private static final int FRAME_HELLO = 4;
+
+    private static final long RECONNECT_INTERVAL = 30000;    // 30 seconds
+    private static final long CONNECT_TIMEOUT = 10000;       // 10 seconds
+    private static final int SERVER_WORKERS = 5;
+    private static final String HELLO_ALGORITHM = "HmacSHA256";
+
+    private final ClusterManager _manager;
+    private final PhiAccrualFailureDetector _detector;
+    private final int _port;
+    private final byte[] _secret;
+    private final Gson _gson = new Gson();
+    private long _connectTimeout = CONNECT_TIMEOUT;
+
+    private NioServer _server;
+    private final ExecutorService _connector = Executors.newCachedThreadPool(new NamedThreadFactory("ClusterPeer-Connect"));
+    private final ScheduledExecutorService _connectTimer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ClusterPeer-ConnectTimer"));
+    private final ConcurrentHashMap<String, PeerConnection> _peers = new ConcurrentHashMap<String, PeerConnection>();
+    private final Map<Long, PendingBatch> _pending = new ConcurrentHashMap<Long, PendingBatch>();
+    private final AtomicLong _nextBatchId = new AtomicLong(1);
+
+    /**
+     * @param secret shared by all management servers of the cluster
+     */
+    public ClusterPeerTransport(ClusterManager manager, PhiAccrualFailureDetector detector, int port, String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("The cluster peer transport needs a shared secret");
+        }
+        _manager = manager;
+        _detector = detector;
+        _port = port;
+        try {
+            _secret = secret.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void setConnectTimeout(long connectTimeout) {
+        _connectTimeout = connectTimeout;
+    }
+
+    public void start() {
+        _server = new NioServer("ClusterPeer", _port, SERVER_WORKERS, this);
+        _server.start();
+    }
+
+    public void stop() {
+        if (_server != null) {
+            _server.stop();
+        }
+        _connector.shutdownNow();
+        _connectTimer.shutdownNow();
+        for (PeerConnection conn : _peers.values()) {
+            conn.close();
+        }
+        _peers.clear();
+    }
+
+    public int getPort() {
+        return _port;
+    }
+
+    /**
+     * @return whether a link to the peer is currently open.
+     */
+    public boolean isConnected(String peer) {
+        PeerConnection conn = _peers.get(peer);
+        return conn != null && conn.getLink() != null;
+    }
+
+    /**
+     * Sends the PDUs to the peer as one batch and waits for the peer to
+     * acknowledge them.
+     *
+     * @return false if there is no link to the peer or it did not
+     * acknowledge the batch in time, in which case none of the PDUs should
+     * be assumed delivered.
+     */
+    public boolean deliver(String peer, String host, int port, List<ClusterServicePdu> pdus, long timeoutMs) {
+        Link link = connect(peer, host, port);
+        if (link == null) {
+            return false;
+        }
+
+        PeerFrame frame = new PeerFrame();
+        frame.id = _nextBatchId.getAndIncrement();
+        frame.type = FRAME_BATCH;
+        frame.pdus = pdus;
+
+        PendingBatch batch = new PendingBatch(peer);
+        _pending.put(frame.id, batch);
+        try {
+            link.send(encode(frame));
+            if (!batch.await(timeoutMs)) {
+                s_logger.warn("Batch " + frame.id + " of " + pdus.size() + " PDUs to peer " + peer + " was not acknowledged in " + timeoutMs + "ms");
+                return false;
+            }
+            return batch.isAcked();
+        } catch (ClosedChannelException e) {
+            s_logger.info("Link to peer " + peer + " is closed");
+            disconnected(peer, link);
+            return false;
+        } finally {
+            _pending.remove(frame.id);
+        }
+    }
+
+    /**
+     * Pushes a heartbeat to the peer, nothing is sent back.
+     *
+     * @return false if there is no link to the peer.
+     */
+    public boolean sendHeartbeat(String peer, String host, int port, String selfPeer) {
+        Link link = connect(peer, host, port);
+        if (link == null) {
+            return false;
+        }
+
+        PeerFrame frame = new PeerFrame();
+        frame.type = FRAME_HEARTBEAT;
+        frame.peer = selfPeer;
+        try {
+            link.send(encode(frame));
+            return true;
+        } catch (ClosedChannelException e) {
+            disconnected(peer, link);
+            return false;
+        }
+    }
+
+    private Link connect(String peer, String host, int port) {
+        PeerConnection conn = _peers.get(peer);
+        if (conn == null) {
+            conn = new PeerConnection(peer);
+            PeerConnection existing = _peers.putIfAbsent(peer, conn);
+            if (existing != null) {
+                conn = existing;
+            }
+        }
+        return conn.connect(host, port);
+    }
+
+    private void disconnected(String peer, Link link) {
+        PeerConnection conn = _peers.get(peer);
+        if (conn != null) {
+            conn.disconnected(link);
+        }
+
+        // batches waiting on the link will never be acknowledged
+        for (PendingBatch batch : _pending.values()) {
+            if (batch.getPeer().equals(peer)) {
+                batch.complete(false);
+            }
+        }
+    }
+
+    private byte[] encode(PeerFrame frame) {
+        try {
+            return _gson.toJson(frame).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private PeerFrame decode(byte[] data) {
+        try {
+            return _gson.fromJson(new String(data, "UTF-8"), PeerFrame.class);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    String sign(String peer) {
+        try {
+            Mac mac = Mac.getInstance(HELLO_ALGORITHM);
+            mac.init(new SecretKeySpec(_secret, HELLO_ALGORITHM));
+            return Base64.encodeBase64String(mac.doFinal(peer.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    byte[] hello(String selfPeer) {
+        PeerFrame hello = new PeerFrame();
+        hello.type = FRAME_HELLO;
+        hello.peer = selfPeer;
+        hello.signature = sign(selfPeer);
+        return encode(hello);
+    }
+
+    void onFrame(Link link, byte[] data) throws ClosedChannelException {
+        PeerFrame frame = decode(data);
+        Object attachment = link.attachment();
+
+        if (attachment instanceof ConnectAttempt) {
+            // a link this side opened, the peer only acknowledges batches on it
+            if (frame.type == FRAME_ACK) {
+                PendingBatch batch = _pending.get(frame.id);
+                if (batch != null) {
+                    batch.complete(true);
+                } else if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Acknowledgement for batch " + frame.id + " arrived after it was given up");
+                }
+            } else {
+                s_logger.warn("Unexpected cluster peer frame type " + frame.type + " from " + link.getIpAddress());
+            }
+            return;
+        }
+
+        if (!(attachment instanceof PeerIdentity)) {
+            if (frame.type == FRAME_HELLO && frame.peer != null && frame.signature != null &&
+                MessageDigest.isEqual(sign(frame.peer).getBytes(), frame.signature.getBytes())) {
+                link.attach(new PeerIdentity(frame.peer));
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Cluster peer " + frame.peer + " connected from " + link.getIpAddress());
+                }
+            } else {
+                s_logger.warn("Closing link from " + link.getIpAddress() + " that did not authenticate as a cluster peer");
+                link.close();
+            }
+            return;
+        }
+
+        String peer = ((PeerIdentity)attachment).getPeer();
+        if (frame.type == FRAME_BATCH) {
+            if (frame.pdus != null) {
+                for (ClusterServicePdu pdu : frame.pdus) {
+                    _manager.OnReceiveClusterServicePdu(pdu);
+                }
+            }
+
+            PeerFrame ack = new PeerFrame();
+            ack.id = frame.id;
+            ack.type = FRAME_ACK;
+            link.send(encode(ack));
+        } else if (frame.type == FRAME_HEARTBEAT) {
+            if (_detector != null) {
+                _detector.heartbeat(peer);
+            }
+        } else {
+            s_logger.warn("Unexpected cluster peer frame type " + frame.type + " from peer " + peer + " at " + link.getIpAddress());
+        }
+    }
+
+    @Override
+    public Task create(Task.Type type, Link link, byte[] data) {
+        return new PeerTask(type, link, data);
+    }
+
+    private class PeerTask extends Task {
+        public PeerTask(Task.Type type, Link link, byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(Task task) throws Exception {
+            Link link = task.getLink();
+            if (task.getType() == Task.Type.DATA) {
+                onFrame(link, task.getData());
+            } else if (task.getType() == Task.Type.CONNECT) {
+                Object attachment = link.attachment();
+                if (attachment instanceof ConnectAttempt) {
+                    ((ConnectAttempt)attachment).connected(link);
+                }
+            } else if (task.getType() == Task.Type.DISCONNECT) {
+                Object attachment = link.attachment();
+                if (attachment instanceof ConnectAttempt) {
+                    disconnected(((ConnectAttempt)attachment).getConnection().getPeer(), link);
+                }
+            }
+        }
+    }
+
+    /**
+     * Management server that authenticated on a link it opened to this one.
+     */
+    private static class PeerIdentity {
+        private final String _peer;
+
+        public PeerIdentity(String peer) {
+            _peer = peer;
+        }
+
+        public String getPeer() {
+            return _peer;
+        }
+    }
+
+    /**
+     * Outgoing link to one peer.  Connecting is left to the connector
+     * threads, callers never wait for it.
+     */
+    private class PeerConnection {
+        private final String _peer;
+        private volatile Link _link;
+        // the attempt in progress or the one that opened _link, guarded by this
+        private ConnectAttempt _attempt;
+        private long _failedAt;
+
+        public PeerConnection(String peer) {
+            _peer = peer;
+        }
+
+        public String getPeer() {
+            return _peer;
+        }
+
+        public Link getLink() {
+            return _link;
+        }
+
+        /**
+         * @return the link if it is open, null otherwise.  Without a link
+         * a connection attempt is started unless one is in progress or one
+         * failed less than RECONNECT_INTERVAL ago.
+         */
+        public Link connect(String host, int port) {
+            Link link = _link;
+            if (link != null) {
+                return link;
+            }
+
+            ConnectAttempt attempt;
+            synchronized (this) {
+                if (_link != null) {
+                    return _link;
+                }
+                if (_attempt != null || (_failedAt != 0 && System.currentTimeMillis() - _failedAt < RECONNECT_INTERVAL)) {
+                    return null;
+                }
+                attempt = new ConnectAttempt(this, host, port);
+                _attempt = attempt;
+            }
+
+            try {
+                _connector.execute(attempt);
+                _connectTimer.schedule(attempt.getTimeout(), _connectTimeout, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the transport is stopping
+                failed(attempt);
+            }
+            return null;
+        }
+
+        public synchronized boolean connected(ConnectAttempt attempt, Link link) {
+            if (_attempt != attempt) {
+                return false;
+            }
+            _link = link;
+            _failedAt = 0;
+            return true;
+        }
+
+        public void failed(ConnectAttempt attempt) {
+            synchronized (this) {
+                if (_attempt != attempt || _link != null) {
+                    return;
+                }
+                _attempt = null;
+                _failedAt = System.currentTimeMillis();
+            }
+            s_logger.info("Unable to connect to cluster peer " + _peer + " at " + attempt.getHost() + ":" + attempt.getPort() + ", falling back to the servlet for " +
+                (RECONNECT_INTERVAL / 1000) + " seconds");
+            attempt.close();
+        }
+
+        public void disconnected(Link link) {
+            ConnectAttempt attempt;
+            synchronized (this) {
+                if (_link != link) {
+                    return;
+                }
+                _link = null;
+                attempt = _attempt;
+                _attempt = null;
+            }
+            if (attempt != null) {
+                attempt.close();
+            }
+        }
+
+        public void close() {
+            ConnectAttempt attempt;
+            synchronized (this) {
+                _link = null;
+                attempt = _attempt;
+                _attempt = null;
+            }
+            if (attempt != null) {
+                attempt.close();
+            }
+        }
+    }
+
+    /**
+     * One attempt to open a link to a peer.  The NioClient owns its own
+     * selector, the link is handed over by the CONNECT task once the
+     * handshake is done.
+     */
+    private class ConnectAttempt implements Runnable, HandlerFactory {
+        private final PeerConnection _connection;
+        private final String _host;
+        private final int _port;
+        private final NioClient _client;
+        private final CountDownLatch _done = new CountDownLatch(1);
+
+        public ConnectAttempt(PeerConnection connection, String host, int port) {
+            _connection = connection;
+            _host = host;
+            _port = port;
+            _client = new NioClient("ClusterPeer-" + connection.getPeer(), host, port, 1, this);
+            _client.setConnectTimeout((int)_connectTimeout);
+        }
+
+        public PeerConnection getConnection() {
+            return _connection;
+        }
+
+        public String getHost() {
+            return _host;
+        }
+
+        public int getPort() {
+            return _port;
+        }
+
+        @Override
+        public void run() {
+            _client.start();
+            if (!_client.isStartup()) {
+                _connection.failed(this);
+            }
+        }
+
+        public void connected(Link link) {
+            try {
+                link.send(hello(_manager.getSelfPeerName()));
+            } catch (ClosedChannelException e) {
+                _connection.failed(this);
+                return;
+            } finally {
+                _done.countDown();
+            }
+
+            if (_connection.connected(this, link)) {
+                s_logger.info("Connected to cluster peer " + _connection.getPeer() + " at " + _host + ":" + _port);
+            } else {
+                // given up on while the handshake completed
+                close();
+            }
+        }
+
+        public Runnable getTimeout() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    if (_done.getCount() > 0) {
+                        _connection.failed(ConnectAttempt.this);
+                    }
+                }
+            };
+        }
+
+        public void close() {
+            _client.stop();
+            try {
+                _client.cleanUp();
+            } catch (IOException e) {
+                s_logger.debug("Unable to clean up the link to cluster peer " + _connection.getPeer() + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public Task create(Task.Type type, Link link, byte[] data) {
+            if (type == Task.Type.CONNECT) {
+                link.attach(this);
+            }
+            return new PeerTask(type, link, data);
+        }
+    }
+
+    private static class PendingBatch {
+        private final String _peer;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private volatile boolean _acked;
+
+        public PendingBatch(String peer) {
+            _peer = peer;
+        }
+
+        public String getPeer() {
+            return _peer;
+        }
+
+        public void complete(boolean acked) {
+            _acked = acked;
+            _done.countDown();
+        }
+
+        public boolean await(long timeoutMs) {
+            try {
+                return _done.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        public boolean isAcked() {
+            return _acked;
+        }
+    }
+
+    private static class PeerFrame {
+        long id;
+        int type;
+        String peer;
+        String signature;
+        List<ClusterServicePdu> pdus;
+    }
+}
@@ -0,0 +1,138 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.utils.LatencyHistogram;
+
+/**
+ * Per peer counters of the outgoing cluster PDUs, the number waiting to be
+ * sent and how long each batch took to be acknowledged.
+ */
+public class ClusterPeersMBeanImpl extends StandardMBean implements ClusterPeersMBean {
+    private final ClusterManagerImpl _clusterMgr;
+    private final Map<String, PeerStats> _peers = new ConcurrentHashMap<String, PeerStats>();
+
+    private final AtomicLong _batchesSent = new AtomicLong();
+    private final AtomicLong _pdusSent = new AtomicLong();
+    private final AtomicLong _pdusSentOverServlet = new AtomicLong();
+    private final AtomicLong _failedPdus = new AtomicLong();
+
+    public ClusterPeersMBeanImpl(ClusterManagerImpl clusterMgr) {
+        super(ClusterPeersMBean.class, false);
+        _clusterMgr = clusterMgr;
+    }
+
+    private PeerStats getStats(String peer) {
+        PeerStats stats = _peers.get(peer);
+        if (stats == null) {
+            // racing threads may each create one, only a few samples are lost
+            stats = new PeerStats();
+            _peers.put(peer, stats);
+        }
+        return stats;
+    }
+
+    public void recordQueued(String peer) {
+        getStats(peer).queued.incrementAndGet();
+    }
+
+    public void recordDequeued(String peer, int count) {
+        getStats(peer).queued.addAndGet(-count);
+    }
+
+    public void recordBatch(String peer, int count, long millis) {
+        getStats(peer).latency.record(millis);
+        _batchesSent.incrementAndGet();
+        _pdusSent.addAndGet(count);
+    }
+
+    public void recordServlet(String peer, long millis) {
+        getStats(peer).latency.record(millis);
+        _pdusSentOverServlet.incrementAndGet();
+        _pdusSent.incrementAndGet();
+    }
+
+    public void recordFailed() {
+        _failedPdus.incrementAndGet();
+    }
+
+    @Override
+    public Map<String, Integer> getPeerQueueDepth() {
+        Map<String, Integer> depth = new TreeMap<String, Integer>();
+        for (Map.Entry<String, PeerStats> entry : _peers.entrySet()) {
+            depth.put(entry.getKey(), entry.getValue().queued.get());
+        }
+        return depth;
+    }
+
+    @Override
+    public Map<String, String> getPeerLatency() {
+        Map<String, String> latency = new TreeMap<String, String>();
+        for (Map.Entry<String, PeerStats> entry : _peers.entrySet()) {
+            latency.put(entry.getKey(), entry.getValue().latency.toString());
+        }
+        return latency;
+    }
+
+    @Override
+    public Map<String, Boolean> getPeerConnected() {
+        Map<String, Boolean> connected = new TreeMap<String, Boolean>();
+        ClusterPeerTransport transport = _clusterMgr.getPeerTransport();
+        for (String peer : _peers.keySet()) {
+            connected.put(peer, transport != null && transport.isConnected(peer));
+        }
+        return connected;
+    }
+
+    @Override
+    public int getIncomingQueueDepth() {
+        return _clusterMgr.getIncomingQueueDepth();
+    }
+
+    @Override
+    public long getBatchesSent() {
+        return _batchesSent.get();
+    }
+
+    @Override
+    public long getPdusSent() {
+        return _pdusSent.get();
+    }
+
+    @Override
+    public long getPdusSentOverServlet() {
+        return _pdusSentOverServlet.get();
+    }
+
+    @Override
+    public long getFailedPdus() {
+        return _failedPdus.get();
+    }
+
+    private static class PeerStats {
+        final AtomicInteger queued = new AtomicInteger();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+}
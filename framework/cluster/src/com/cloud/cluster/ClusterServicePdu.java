@@ -32,8 +32,10 @@ public class ClusterServicePdu {
     private String jsonPackage;
 
     private int pduType = PDU_TYPE_MESSAGE;
+    private String dispatcherName;
 
-    private static long s_nextPduSequenceId = 1;
+    // starts from the clock so a restarted server does not reuse ids its peers have seen
+    private static long s_nextPduSequenceId = System.currentTimeMillis() * 1000;
 
     public ClusterServicePdu() {
         sequenceId = getNextPduSequenceId();
@@ -42,7 +44,7 @@ public class ClusterServicePdu {
         stopOnError = false;
     }
 
-    public synchronized long getNextPduSequenceId() {
+    public static synchronized long getNextPduSequenceId() {
         return s_nextPduSequenceId++;
     }
 
@@ -109,4 +111,12 @@ public class ClusterServicePdu {
     public void setPduType(int pduType) {
         this.pduType = pduType;
     }
+
+    public String getDispatcherName() {
+        return dispatcherName;
+    }
+
+    public void setDispatcherName(String dispatcherName) {
+        this.dispatcherName = dispatcherName;
+    }
 }
@@ -164,6 +164,7 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
         String gsonPackage = (String)req.getParams().getParameter("gsonPackage");
         String stopOnError = (String)req.getParams().getParameter("stopOnError");
         String pduType = (String)req.getParams().getParameter("pduType");
+        String dispatcher = (String)req.getParams().getParameter("dispatcher");
 
         ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(sourcePeer);
@@ -174,6 +175,7 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
         pdu.setJsonPackage(gsonPackage);
         pdu.setStopOnError("1".equals(stopOnError));
         pdu.setPduType(Integer.parseInt(pduType));
+        pdu.setDispatcherName(dispatcher);
 
         manager.OnReceiveClusterServicePdu(pdu);
         return "true";
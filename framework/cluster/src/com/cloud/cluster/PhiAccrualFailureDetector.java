@@ -0,0 +1,152 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi accrual failure detector, see Hayashibara et al., "The phi accrual
+ * failure detector".
+ *
+ * Instead of a fixed timeout, the detector keeps the recent inter-arrival
+ * times of the heartbeats from each peer and reports phi, the suspicion
+ * that the peer is gone given how long it has been silent.  A phi of 1
+ * means the chance of a mistake is about 10%, a phi of 8 about 0.000001%.
+ * The normal distribution is approximated by a logistic function.
+ */
+public class PhiAccrualFailureDetector {
+    private final int _windowSize;
+    private final long _expectedInterval;
+    private final long _minStdDeviation;
+    private final long _acceptablePause;
+
+    private final ConcurrentHashMap<String, History> _histories = new ConcurrentHashMap<String, History>();
+
+    /**
+     * @param expectedInterval heartbeat interval assumed until a few heartbeats have arrived.
+     * @param acceptablePause silence tolerated on top of the mean interval, e.g. for GC pauses.
+     */
+    public PhiAccrualFailureDetector(int windowSize, long expectedInterval, long acceptablePause) {
+        _windowSize = windowSize;
+        _expectedInterval = expectedInterval;
+        _minStdDeviation = Math.max(1, expectedInterval / 4);
+        _acceptablePause = acceptablePause;
+    }
+
+    public void heartbeat(String peer) {
+        heartbeat(peer, System.currentTimeMillis());
+    }
+
+    public void heartbeat(String peer, long now) {
+        History history = _histories.get(peer);
+        if (history == null) {
+            history = new History(_windowSize);
+            History existing = _histories.putIfAbsent(peer, history);
+            if (existing != null) {
+                history = existing;
+            }
+        }
+        history.heartbeat(now);
+    }
+
+    /**
+     * @return the suspicion level of the peer, 0 if no heartbeat has been
+     * seen from it.
+     */
+    public double phi(String peer, long now) {
+        History history = _histories.get(peer);
+        if (history == null) {
+            return 0;
+        }
+        return history.phi(now);
+    }
+
+    /**
+     * @return when the last heartbeat from the peer arrived, 0 if none has.
+     */
+    public long getLastHeartbeat(String peer) {
+        History history = _histories.get(peer);
+        return history != null ? history.getLast() : 0;
+    }
+
+    public boolean isMonitored(String peer) {
+        return _histories.containsKey(peer);
+    }
+
+    public void remove(String peer) {
+        _histories.remove(peer);
+    }
+
+    protected static double phi(long elapsed, double mean, double stdDeviation) {
+        double y = (elapsed - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        } else {
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    private class History {
+        private final long[] _intervals;
+        private int _next;
+        private int _count;
+        private long _sum;
+        private long _squaredSum;
+        private long _last;
+
+        public History(int windowSize) {
+            _intervals = new long[windowSize];
+        }
+
+        public synchronized void heartbeat(long now) {
+            if (_last != 0) {
+                long interval = now - _last;
+                if (_count == _intervals.length) {
+                    long dropped = _intervals[_next];
+                    _sum -= dropped;
+                    _squaredSum -= dropped * dropped;
+                } else {
+                    _count++;
+                }
+                _intervals[_next] = interval;
+                _next = (_next + 1) % _intervals.length;
+                _sum += interval;
+                _squaredSum += interval * interval;
+            }
+            _last = now;
+        }
+
+        public synchronized long getLast() {
+            return _last;
+        }
+
+        public synchronized double phi(long now) {
+            double mean;
+            double stdDeviation;
+            if (_count == 0) {
+                mean = _expectedInterval;
+                stdDeviation = _minStdDeviation;
+            } else {
+                mean = (double)_sum / _count;
+                double variance = (double)_squaredSum / _count - mean * mean;
+                stdDeviation = Math.max(_minStdDeviation, Math.sqrt(Math.max(0, variance)));
+            }
+            return PhiAccrualFailureDetector.phi(now - _last, mean + _acceptablePause, stdDeviation);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ClusterManagerImplTest {
+    private ClusterManagerImpl _manager;
+    private ClusterPeerTransport _transport;
+
+    @Before
+    public void setUp() throws Exception {
+        _manager = new ClusterManagerImpl();
+        _transport = Mockito.mock(ClusterPeerTransport.class);
+        set("_peerTransport", _transport);
+        set("_mshostId", 1L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ((ExecutorService)get("_peerHeartbeatSender")).shutdownNow();
+    }
+
+    @Test
+    public void testStuckPeerDoesNotHoldBackHeartbeats() throws Exception {
+        addPeer(2, "10.0.0.2");
+        addPeer(3, "10.0.0.3");
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch stuckSends = new CountDownLatch(2);
+        Mockito.when(_transport.sendHeartbeat(Mockito.eq("2"), Mockito.anyString(), Mockito.anyInt(), Mockito.anyString())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                stuckSends.countDown();
+                release.await();
+                return true;
+            }
+        });
+        final CountDownLatch sent = new CountDownLatch(2);
+        Mockito.when(_transport.sendHeartbeat(Mockito.eq("3"), Mockito.anyString(), Mockito.anyInt(), Mockito.anyString())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                sent.countDown();
+                return true;
+            }
+        });
+
+        Runnable task = heartbeatTask();
+        task.run();
+        try {
+            // let the first send to the live peer finish so the second round does not skip it
+            waitUntilNotInFlight("3");
+            task.run();
+            assertTrue("heartbeats to the live peer were held back", sent.await(5, TimeUnit.SECONDS));
+            // the second round skipped the peer whose send is still in flight
+            assertFalse(stuckSends.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testHeartbeatAdvanced() {
+        ManagementServerHostVO before = new ManagementServerHostVO(2, 100, "10.0.0.2", 9090, new Date(1000));
+        assertFalse(ClusterManagerImpl.isHeartbeatAdvanced(before, new ManagementServerHostVO(2, 100, "10.0.0.2", 9090, new Date(1000))));
+        assertTrue(ClusterManagerImpl.isHeartbeatAdvanced(before, new ManagementServerHostVO(2, 100, "10.0.0.2", 9090, new Date(2000))));
+        assertTrue(ClusterManagerImpl.isHeartbeatAdvanced(before, new ManagementServerHostVO(2, 101, "10.0.0.2", 9090, new Date(1000))));
+    }
+
+    private void addPeer(long id, String ip) throws Exception {
+        ManagementServerHostVO mshost = new ManagementServerHostVO(id, 100, ip, 9090, new Date());
+        mshost.setId(id);
+        @SuppressWarnings("unchecked")
+        Map<Long, ManagementServerHostVO> peers = (Map<Long, ManagementServerHostVO>)get("_activePeers");
+        peers.put(id, mshost);
+    }
+
+    private void waitUntilNotInFlight(String peer) throws Exception {
+        @SuppressWarnings("unchecked")
+        Set<String> inFlight = (Set<String>)get("_peerHeartbeatsInFlight");
+        long deadline = System.currentTimeMillis() + 5000;
+        // the round marks the peer in flight before it returns, the send clears it once done
+        while (inFlight.contains(peer)) {
+            assertTrue("heartbeat to " + peer + " did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private Runnable heartbeatTask() throws Exception {
+        Method method = ClusterManagerImpl.class.getDeclaredMethod("getPeerHeartbeatTask");
+        method.setAccessible(true);
+        return (Runnable)method.invoke(_manager);
+    }
+
+    private Object get(String name) throws Exception {
+        Field field = ClusterManagerImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(_manager);
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = ClusterManagerImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(_manager, value);
+    }
+}
@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ClusterPduDeduplicatorTest {
+
+    @Test
+    public void testResentPduIsDropped() {
+        ClusterPduDeduplicator dedup = new ClusterPduDeduplicator(10);
+        assertTrue(dedup.isFirstDelivery(pdu("1", 100)));
+        assertFalse(dedup.isFirstDelivery(pdu("1", 100)));
+        assertTrue(dedup.isFirstDelivery(pdu("1", 101)));
+    }
+
+    @Test
+    public void testPeersAreTrackedApart() {
+        ClusterPduDeduplicator dedup = new ClusterPduDeduplicator(10);
+        assertTrue(dedup.isFirstDelivery(pdu("1", 100)));
+        assertTrue(dedup.isFirstDelivery(pdu("2", 100)));
+    }
+
+    @Test
+    public void testWindowIsBounded() {
+        ClusterPduDeduplicator dedup = new ClusterPduDeduplicator(2);
+        assertTrue(dedup.isFirstDelivery(pdu("1", 100)));
+        assertTrue(dedup.isFirstDelivery(pdu("1", 101)));
+        assertTrue(dedup.isFirstDelivery(pdu("1", 102)));
+        assertFalse(dedup.isFirstDelivery(pdu("1", 102)));
+        // fell out of the window
+        assertTrue(dedup.isFirstDelivery(pdu("1", 100)));
+    }
+
+    @Test
+    public void testForgottenPeerStartsOver() {
+        ClusterPduDeduplicator dedup = new ClusterPduDeduplicator(10);
+        assertTrue(dedup.isFirstDelivery(pdu("1", 100)));
+        dedup.forget("1");
+        assertTrue(dedup.isFirstDelivery(pdu("1", 100)));
+    }
+
+    @Test
+    public void testSequenceIdsAreUnique() {
+        ClusterServicePdu first = new ClusterServicePdu();
+        ClusterServicePdu second = new ClusterServicePdu();
+        assertTrue(second.getSequenceId() > first.getSequenceId());
+    }
+
+    private static ClusterServicePdu pdu(String peer, long sequenceId) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer(peer);
+        pdu.setSequenceId(sequenceId);
+        return pdu;
+    }
+}
@@ -0,0 +1,181 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.cloud.utils.nio.Link;
+
+public class ClusterPeerTransportTest {
+    private ClusterManager _manager;
+    private PhiAccrualFailureDetector _detector;
+    private ClusterPeerTransport _transport;
+
+    @Before
+    public void setUp() {
+        _manager = Mockito.mock(ClusterManager.class);
+        Mockito.when(_manager.getSelfPeerName()).thenReturn("1");
+        _detector = new PhiAccrualFailureDetector(100, 1000, 0);
+        _transport = new ClusterPeerTransport(_manager, _detector, 0, "secret");
+        _transport.setConnectTimeout(500);
+    }
+
+    @After
+    public void tearDown() {
+        _transport.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSecretIsRequired() {
+        new ClusterPeerTransport(_manager, _detector, 0, "");
+    }
+
+    @Test
+    public void testUnreachablePeerFallsBackRightAway() throws IOException {
+        ServerSocket unused = new ServerSocket(0);
+        int port = unused.getLocalPort();
+        unused.close();
+
+        long start = System.currentTimeMillis();
+        assertFalse(_transport.deliver("2", "127.0.0.1", port, pdus(), 5000));
+        assertFalse(_transport.sendHeartbeat("2", "127.0.0.1", port, "1"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertFalse(_transport.isConnected("2"));
+    }
+
+    @Test
+    public void testSilentPeerIsGivenUpOn() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        try {
+            server.setSoTimeout(5000);
+            long start = System.currentTimeMillis();
+            assertFalse(_transport.deliver("2", "127.0.0.1", server.getLocalPort(), pdus(), 5000));
+            assertTrue(System.currentTimeMillis() - start < 1000);
+
+            // the handshake never completes, the attempt is abandoned after the connect timeout
+            Socket accepted = server.accept();
+            accepted.setSoTimeout(5000);
+            assertEquals(-1, readToEnd(accepted));
+            accepted.close();
+            assertFalse(_transport.isConnected("2"));
+
+            // and no new attempt is made until the reconnect interval passed
+            assertFalse(_transport.deliver("2", "127.0.0.1", server.getLocalPort(), pdus(), 5000));
+            server.setSoTimeout(1000);
+            try {
+                server.accept().close();
+                fail("reconnected right after the attempt was given up on");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testUnauthenticatedLinkIsClosed() throws Exception {
+        Link link = link();
+        _transport.onFrame(link, "{\"type\":1,\"id\":1,\"pdus\":[{\"sequenceId\":1,\"sourcePeer\":\"2\"}]}".getBytes("UTF-8"));
+
+        Mockito.verify(link).close();
+        Mockito.verify(link, Mockito.never()).send(Mockito.any(byte[].class));
+        Mockito.verify(_manager, Mockito.never()).OnReceiveClusterServicePdu(Mockito.any(ClusterServicePdu.class));
+    }
+
+    @Test
+    public void testHelloWithWrongSecretIsRejected() throws Exception {
+        ClusterPeerTransport other = new ClusterPeerTransport(_manager, _detector, 0, "other");
+        try {
+            Link link = link();
+            _transport.onFrame(link, other.hello("2"));
+            Mockito.verify(link).close();
+            assertEquals(null, link.attachment());
+        } finally {
+            other.stop();
+        }
+    }
+
+    @Test
+    public void testAuthenticatedLinkDeliversBatches() throws Exception {
+        Link link = link();
+        _transport.onFrame(link, _transport.hello("2"));
+        Mockito.verify(link, Mockito.never()).close();
+
+        _transport.onFrame(link, "{\"type\":1,\"id\":7,\"pdus\":[{\"sequenceId\":1,\"sourcePeer\":\"2\"},{\"sequenceId\":2,\"sourcePeer\":\"2\"}]}".getBytes("UTF-8"));
+
+        ArgumentCaptor<ClusterServicePdu> delivered = ArgumentCaptor.forClass(ClusterServicePdu.class);
+        Mockito.verify(_manager, Mockito.times(2)).OnReceiveClusterServicePdu(delivered.capture());
+        assertEquals(1, delivered.getAllValues().get(0).getSequenceId());
+        assertEquals(2, delivered.getAllValues().get(1).getSequenceId());
+
+        ArgumentCaptor<byte[]> ack = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(link).send(ack.capture());
+        String json = new String(ack.getValue(), "UTF-8");
+        assertTrue(json, json.contains("\"id\":7") && json.contains("\"type\":2"));
+    }
+
+    @Test
+    public void testHeartbeatIsCreditedToAuthenticatedPeer() throws Exception {
+        Link link = link();
+        _transport.onFrame(link, _transport.hello("2"));
+        _transport.onFrame(link, "{\"type\":3,\"peer\":\"3\"}".getBytes("UTF-8"));
+
+        assertTrue(_detector.isMonitored("2"));
+        assertFalse(_detector.isMonitored("3"));
+    }
+
+    private static Link link() throws IOException {
+        Link link = Mockito.spy(new Link(new InetSocketAddress("127.0.0.1", 9091), null));
+        Mockito.doNothing().when(link).send(Mockito.any(byte[].class));
+        Mockito.doNothing().when(link).close();
+        return link;
+    }
+
+    private static int readToEnd(Socket socket) throws IOException {
+        byte[] buf = new byte[4096];
+        int read;
+        do {
+            read = socket.getInputStream().read(buf);
+        } while (read > 0);
+        return read;
+    }
+
+    private static List<ClusterServicePdu> pdus() {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+        return new ArrayList<ClusterServicePdu>(Arrays.asList(pdu));
+    }
+}
@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PhiAccrualFailureDetectorTest {
+
+    @Test
+    public void testUnknownPeerIsNotSuspected() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(100, 1000, 0);
+        assertFalse(detector.isMonitored("1"));
+        assertEquals(0, detector.phi("1", 100000), 0);
+    }
+
+    @Test
+    public void testPhiGrowsWithSilence() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(100, 1000, 0);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += i % 2 == 0 ? 900 : 1100;
+            detector.heartbeat("1", now);
+        }
+
+        double onTime = detector.phi("1", now + 1000);
+        double late = detector.phi("1", now + 2000);
+        double gone = detector.phi("1", now + 5000);
+        assertTrue(onTime < 1);
+        assertTrue(late > onTime);
+        assertTrue(gone > 8);
+    }
+
+    @Test
+    public void testAcceptablePauseDelaysSuspicion() {
+        PhiAccrualFailureDetector strict = new PhiAccrualFailureDetector(100, 1000, 0);
+        PhiAccrualFailureDetector tolerant = new PhiAccrualFailureDetector(100, 1000, 3000);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 1000;
+            strict.heartbeat("1", now);
+            tolerant.heartbeat("1", now);
+        }
+
+        assertTrue(strict.phi("1", now + 4000) > 8);
+        assertTrue(tolerant.phi("1", now + 4000) < 1);
+    }
+
+    @Test
+    public void testRemoveForgetsHistory() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(100, 1000, 0);
+        detector.heartbeat("1", 1000);
+        detector.heartbeat("1", 2000);
+        assertEquals(2000, detector.getLastHeartbeat("1"));
+
+        detector.remove("1");
+        assertFalse(detector.isMonitored("1"));
+        assertEquals(0, detector.getLastHeartbeat("1"));
+    }
+}
@@ -31,4 +31,11 @@ public interface ConfigDepot {
     <T> void set(ConfigKey<T> key, T value);
 
     <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value);
+
+    /**
+     * Drops the cached values of a config, in every scope, on this management
+     * server and, once the current transaction commits, on its peers.
+     * @param key name of the config or null for all of them
+     */
+    void invalidate(String key);
 }
@@ -150,6 +150,9 @@ public class ConfigurationDaoImpl extends GenericDaoBase<ConfigurationVO, String
             stmt.setString(1, value);
             stmt.setString(2, name);
             stmt.executeUpdate();
+            if (_cache != null) {
+                _cache.evict(name);
+            }
             return true;
         } catch (Exception e) {
             s_logger.warn("Unable to update Configuration Value", e);
@@ -173,6 +176,9 @@ public class ConfigurationDaoImpl extends GenericDaoBase<ConfigurationVO, String
             stmt.setString(1, value);
             stmt.setString(2, name);
             stmt.executeUpdate();
+            if (_cache != null) {
+                _cache.evict(name);
+            }
             return true;
         } catch (Exception e) {
             s_logger.warn("Unable to update Configuration Value", e);
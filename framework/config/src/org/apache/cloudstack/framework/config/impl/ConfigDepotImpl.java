@@ -23,9 +23,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.management.StandardMBean;
 
 import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigDepotAdmin;
@@ -37,7 +40,9 @@ import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.Pair;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 /**
  * ConfigDepotImpl implements the ConfigDepot and ConfigDepotAdmin interface.
@@ -48,6 +53,12 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *     variables into the config table.
  *   - Hide the data source where configs are stored and retrieved.
  *
+ * Parsed config values are cached per key, and per key and resource id for
+ * scoped values.  An entry is dropped when the config is changed through
+ * invalidate(), which the Publisher carries to the other management servers,
+ * and otherwise expires after CACHE_TTL_MS so that changes made directly
+ * to the tables are still picked up.
+ *
  * When dealing with this class, we must be very careful on cluster situations.
  *
  * TODO:
@@ -66,8 +77,27 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *     when constructing a ConfigKey then configuration server should use the
  *     validation class to validate the value the admin input for the key.
  */
-public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
+public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin, ConfigValueCacheMBean {
     private final static Logger s_logger = Logger.getLogger(ConfigDepotImpl.class);
+    protected final static long CACHE_TTL_MS = 60 * 1000;
+
+    /**
+     * Sends invalidations to the peers.  A null key means all configs.
+     */
+    public interface Publisher {
+        void publish(String key);
+    }
+
+    private static class CachedValue {
+        final Object value;
+        final long expires;
+
+        CachedValue(Object value) {
+            this.value = value;
+            expires = System.currentTimeMillis() + CACHE_TTL_MS;
+        }
+    }
+
     @Inject
     ConfigurationDao _configDao;
     List<Configurable> _configurables;
@@ -78,6 +108,13 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    final ConcurrentHashMap<String, CachedValue> _globalValues = new ConcurrentHashMap<String, CachedValue>();
+    final ConcurrentHashMap<String, ConcurrentHashMap<Long, CachedValue>> _scopedValues = new ConcurrentHashMap<String, ConcurrentHashMap<Long, CachedValue>>();
+    // bumped on every invalidation so a read racing with it does not cache the old value
+    final AtomicLong _generation = new AtomicLong();
+    final AtomicLong _dbReads = new AtomicLong();
+    volatile Publisher _publisher;
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
         _scopeLevelConfigsMap.put(ConfigKey.Scope.Zone, new HashSet<ConfigKey<?>>());
@@ -99,6 +136,12 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         for (Configurable configurable : _configurables) {
             populateConfiguration(date, configurable);
         }
+
+        try {
+            JmxUtil.registerMBean("ConfigDepot", "ValueCache", new StandardMBean(this, ConfigValueCacheMBean.class));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register config value cache for JMX", e);
+        }
     }
 
     protected void populateConfiguration(Date date, Configurable configurable) {
@@ -135,6 +178,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setValue(value);
             }
             _configDao.persist(vo);
+            invalidateLocally(key.key());
         } else {
             if (vo.isDynamic() != key.isDynamic() || !ObjectUtils.equals(vo.getDescription(), key.description()) || !ObjectUtils.equals(vo.getDefaultValue(), key.defaultValue()) ||
                 !ObjectUtils.equals(vo.getScope(), key.scope().toString()) ||
@@ -146,6 +190,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setComponent(componentName);
                 vo.setUpdated(date);
                 _configDao.persist(vo);
+                invalidateLocally(key.key());
             }
         }
     }
@@ -164,6 +209,114 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         return _configDao;
     }
 
+    /**
+     * @return the parsed global value of the config, or its default if it is not set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getGlobalValue(ConfigKey<T> key) {
+        CachedValue cached = _globalValues.get(key.key());
+        if (cached == null || cached.expires < System.currentTimeMillis()) {
+            long generation = _generation.get();
+            _dbReads.incrementAndGet();
+            ConfigurationVO vo = global().findById(key.key());
+            cached = new CachedValue(key.valueOf((vo != null && vo.getValue() != null) ? vo.getValue() : key.defaultValue()));
+            if (generation == _generation.get()) {
+                _globalValues.put(key.key(), cached);
+            }
+        }
+        return (T)cached.value;
+    }
+
+    /**
+     * @return the parsed value of the config for the resource, or null if it is not set at that scope
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getScopedValue(ConfigKey<T> key, long id) {
+        ConcurrentHashMap<Long, CachedValue> values = _scopedValues.get(key.key());
+        if (values == null) {
+            values = new ConcurrentHashMap<Long, CachedValue>();
+            ConcurrentHashMap<Long, CachedValue> existing = _scopedValues.putIfAbsent(key.key(), values);
+            if (existing != null) {
+                values = existing;
+            }
+        }
+
+        CachedValue cached = values.get(id);
+        if (cached == null || cached.expires < System.currentTimeMillis()) {
+            long generation = _generation.get();
+            _dbReads.incrementAndGet();
+            String value = scoped(key).getConfigValue(id, key);
+            cached = new CachedValue(value != null ? key.valueOf(value) : null);
+            if (generation == _generation.get()) {
+                values.put(id, cached);
+            }
+        }
+        return (T)cached.value;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        invalidateLocally(key);
+
+        TransactionLegacy.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidateLocally(key);
+                Publisher publisher = _publisher;
+                if (publisher != null) {
+                    try {
+                        publisher.publish(key);
+                    } catch (Exception e) {
+                        s_logger.warn("Unable to publish invalidation of config " + key, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the cached values of a config on this management server only.
+     * @param key name of the config or null for all of them
+     */
+    public void invalidateLocally(String key) {
+        _generation.incrementAndGet();
+        if (key == null) {
+            _globalValues.clear();
+            _scopedValues.clear();
+        } else {
+            _globalValues.remove(key);
+            _scopedValues.remove(key);
+        }
+    }
+
+    public void setPublisher(Publisher publisher) {
+        _publisher = publisher;
+    }
+
+    @Override
+    public long getDbReadCount() {
+        return _dbReads.get();
+    }
+
+    @Override
+    public int getCachedGlobalValueCount() {
+        return _globalValues.size();
+    }
+
+    @Override
+    public int getCachedScopedValueCount() {
+        int count = 0;
+        for (ConcurrentHashMap<Long, CachedValue> values : _scopedValues.values()) {
+            count += values.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidate(null);
+    }
+
     public ScopedConfigStorage scoped(ConfigKey<?> config) {
         for (ScopedConfigStorage storage : _scopedStorages) {
             if (storage.getScope() == config.scope()) {
@@ -200,11 +353,12 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     @Override
     public <T> void set(ConfigKey<T> key, T value) {
         _configDao.update(key.key(), value.toString());
+        invalidate(key.key());
     }
 
     @Override
     public <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value) {
         createOrupdateConfigObject(new Date(), componentName, key, value);
-
+        invalidate(key.key());
     }
 }
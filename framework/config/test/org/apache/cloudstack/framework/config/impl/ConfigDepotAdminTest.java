@@ -98,4 +98,41 @@ public class ConfigDepotAdminTest extends TestCase {
         // This is two because DynamicIntCK also returns null.
         verify(_configDao, times(2)).persist(any(ConfigurationVO.class));
     }
+
+    @Test
+    public void testGlobalValueIsCached() {
+        ConfigurationVO dynamicIntCV = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        dynamicIntCV.setValue("100");
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(dynamicIntCV);
+
+        assertEquals(100, DynamicIntCK.value().intValue());
+        assertEquals(100, DynamicIntCK.value().intValue());
+        verify(_configDao, times(1)).findById(DynamicIntCK.key());
+        assertEquals(1, _depotAdmin.getDbReadCount());
+
+        dynamicIntCV.setValue("200");
+        _depotAdmin.invalidate(DynamicIntCK.key());
+        assertEquals(200, DynamicIntCK.value().intValue());
+        verify(_configDao, times(2)).findById(DynamicIntCK.key());
+    }
+
+    @Test
+    public void testScopedValueIsCached() {
+        ConfigKey<Integer> zoneKey = new ConfigKey<Integer>("Advance", Integer.class, "zoneIntKey", "10", "Test Key", true, ConfigKey.Scope.Zone);
+        when(_scopedStorage.getScope()).thenReturn(ConfigKey.Scope.Zone);
+        when(_scopedStorage.getConfigValue(1, zoneKey)).thenReturn("20");
+
+        assertEquals(20, zoneKey.valueIn(1l).intValue());
+        assertEquals(20, zoneKey.valueIn(1l).intValue());
+        verify(_scopedStorage, times(1)).getConfigValue(1, zoneKey);
+
+        // no value at the zone falls back to the global value
+        assertEquals(10, zoneKey.valueIn(2l).intValue());
+        assertEquals(10, zoneKey.valueIn(2l).intValue());
+        verify(_scopedStorage, times(1)).getConfigValue(2, zoneKey);
+
+        _depotAdmin.invalidate(null);
+        when(_scopedStorage.getConfigValue(1, zoneKey)).thenReturn("30");
+        assertEquals(30, zoneKey.valueIn(1l).intValue());
+    }
 }
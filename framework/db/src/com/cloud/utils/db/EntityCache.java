@@ -0,0 +1,257 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * EntityCache is the by-id cache of a dao.  Evictions are applied locally
+ * right away and, once the transaction that made the change commits, sent
+ * to the other management servers through the Publisher so that they
+ * drop their copy as well.
+ */
+public class EntityCache extends StandardMBean implements EntityCacheMBean {
+    private static final Logger s_logger = Logger.getLogger(EntityCache.class);
+
+    /**
+     * Sends invalidations to the peers.  A null id means the whole cache.
+     */
+    public interface Publisher {
+        void publish(String cacheName, String id);
+    }
+
+    private static final Map<String, EntityCache> s_caches = new ConcurrentHashMap<String, EntityCache>();
+    private static volatile Publisher s_publisher;
+
+    private final String _name;
+    private final Class<?> _idType;
+    private final Cache _cache;
+    private final int _maxElements;
+    private final long _timeToLive;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _remoteInvalidations = new AtomicLong();
+
+    public EntityCache(String name, Class<?> idType, int maxElements, int timeToLive, int timeToIdle) {
+        super(EntityCacheMBean.class, false);
+        _name = name;
+        _idType = idType;
+        _maxElements = maxElements;
+        _timeToLive = timeToLive;
+        _cache = new Cache(name, maxElements, false, timeToLive == -1, timeToLive == -1 ? Integer.MAX_VALUE : timeToLive, timeToIdle);
+        // a dao that is configured twice replaces its earlier cache
+        final CacheManager manager = CacheManager.create();
+        if (manager.cacheExists(name)) {
+            manager.removeCache(name);
+        }
+        manager.addCache(_cache);
+        _cache.getCacheEventNotificationService().registerListener(new CacheEventListenerAdapter() {
+            @Override
+            public void notifyElementEvicted(Ehcache cache, Element element) {
+                _evictions.incrementAndGet();
+            }
+        });
+        final EntityCache previous = s_caches.put(name, this);
+
+        try {
+            if (previous != null) {
+                JmxUtil.unregisterMBean("EntityCache", name);
+            }
+            JmxUtil.registerMBean("EntityCache", name, this);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register entity cache " + name + " for JMX", e);
+        }
+    }
+
+    public static void setPublisher(Publisher publisher) {
+        s_publisher = publisher;
+    }
+
+    public static EntityCache getCache(String name) {
+        return s_caches.get(name);
+    }
+
+    public Object get(Serializable id) {
+        final Element element = _cache.get(id);
+        if (element == null) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        return element.getObjectValue();
+    }
+
+    public void put(Serializable id, Object entity) {
+        _cache.put(new Element(id, entity));
+    }
+
+    /**
+     * Drops the entry on this management server only, e.g. to force a
+     * fresh read.
+     */
+    public void remove(Serializable id) {
+        _cache.remove(id);
+    }
+
+    /**
+     * Drops the entry here and, after the current transaction commits, on
+     * the peers.  The local entry is dropped a second time on commit so a
+     * concurrent read of the old row cannot leave it behind.
+     */
+    public void evict(final Serializable id) {
+        _cache.remove(id);
+        _evictions.incrementAndGet();
+
+        TransactionLegacy.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                _cache.remove(id);
+                publish(id);
+            }
+        });
+    }
+
+    /**
+     * Drops every entry.  Used when rows are changed by search criteria and
+     * the ids involved are not known.
+     */
+    public void evictAll() {
+        _cache.removeAll();
+        _evictions.incrementAndGet();
+
+        TransactionLegacy.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                _cache.removeAll();
+                publish(null);
+            }
+        });
+    }
+
+    /**
+     * Applies an invalidation received from a peer.
+     */
+    public void invalidate(String id) {
+        _remoteInvalidations.incrementAndGet();
+        final Serializable key = id == null ? null : toId(id);
+        if (key == null) {
+            _cache.removeAll();
+        } else {
+            _cache.remove(key);
+        }
+    }
+
+    protected void publish(Serializable id) {
+        final Publisher publisher = s_publisher;
+        if (publisher == null) {
+            return;
+        }
+
+        try {
+            final String key = id != null && toId(id.toString()) != null ? id.toString() : null;
+            publisher.publish(_name, key);
+        } catch (Exception e) {
+            s_logger.warn("Unable to publish invalidation of " + id + " in " + _name, e);
+        }
+    }
+
+    /**
+     * @return the id in the type the dao uses, or null if the id type can't
+     * be carried as a string in which case the whole cache is invalidated.
+     */
+    protected Serializable toId(String id) {
+        try {
+            if (_idType == Long.class || _idType == long.class) {
+                return Long.valueOf(id);
+            } else if (_idType == Integer.class || _idType == int.class) {
+                return Integer.valueOf(id);
+            } else if (_idType == String.class) {
+                return id;
+            }
+        } catch (NumberFormatException e) {
+            s_logger.warn("Invalid id " + id + " for " + _name);
+        }
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getSize() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return _maxElements;
+    }
+
+    @Override
+    public long getTimeToLiveSeconds() {
+        return _timeToLive;
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return _evictions.get();
+    }
+
+    @Override
+    public long getRemoteInvalidationCount() {
+        return _remoteInvalidations.get();
+    }
+
+    @Override
+    public void clear() {
+        _cache.removeAll();
+    }
+
+    @Override
+    public String toString() {
+        return _cache.toString();
+    }
+}
@@ -0,0 +1,498 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import sun.misc.Unsafe;
+
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.crypt.DBEncryptionUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.NetUtils;
+
+/**
+ * FieldSetter copies one column of a ResultSet into one field of an entity
+ * bean.  The type dispatch and the annotation lookups (Encrypt, Enumerated)
+ * are resolved once per field when the setter is created instead of for
+ * every row that is read, and the value is written straight to the field's
+ * offset in the object rather than through Field.set, which checks access
+ * and boxes on every call.  Where the offsets are not available the setter
+ * falls back to reflection.  Dates are parsed without building a
+ * SimpleDateFormat for every value.
+ */
+public abstract class FieldSetter {
+    protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
+
+    private final static Map<Field, FieldSetter> s_setters = new ConcurrentHashMap<Field, FieldSetter>();
+
+    private final static Unsafe s_unsafe = findUnsafe();
+
+    protected final Field _field;
+    protected final long _offset;
+
+    protected FieldSetter(Field field, boolean reflective) {
+        _field = field;
+        _field.setAccessible(true);
+        final int modifiers = field.getModifiers();
+        if (reflective || s_unsafe == null || Modifier.isStatic(modifiers) || Modifier.isVolatile(modifiers)) {
+            _offset = -1;
+        } else {
+            _offset = s_unsafe.objectFieldOffset(field);
+        }
+    }
+
+    private final static ThreadLocal<Calendar> s_gmtCalendar = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return new GregorianCalendar(s_gmtTimeZone);
+        }
+    };
+
+    private static Unsafe findUnsafe() {
+        try {
+            final Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return (Unsafe)theUnsafe.get(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public Field getField() {
+        return _field;
+    }
+
+    /**
+     * Sets the field on the entity from the column at index.
+     */
+    public abstract void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException;
+
+    /**
+     * Writes a value the setter has made sure is of the field's type.
+     */
+    protected void setObject(Object entity, Object value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putObject(entity, _offset, value);
+        } else {
+            _field.set(entity, value);
+        }
+    }
+
+    /**
+     * Writes a value of any type, values that do not fit the field are left
+     * to reflection to reject.
+     */
+    protected void setChecked(Object entity, Object value) throws IllegalAccessException {
+        if (value == null || _field.getType().isInstance(value)) {
+            setObject(entity, value);
+        } else {
+            _field.set(entity, value);
+        }
+    }
+
+    protected void setLong(Object entity, long value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putLong(entity, _offset, value);
+        } else {
+            _field.setLong(entity, value);
+        }
+    }
+
+    protected void setInt(Object entity, int value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putInt(entity, _offset, value);
+        } else {
+            _field.setInt(entity, value);
+        }
+    }
+
+    protected void setShort(Object entity, short value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putShort(entity, _offset, value);
+        } else {
+            _field.setShort(entity, value);
+        }
+    }
+
+    protected void setByte(Object entity, byte value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putByte(entity, _offset, value);
+        } else {
+            _field.setByte(entity, value);
+        }
+    }
+
+    protected void setFloat(Object entity, float value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putFloat(entity, _offset, value);
+        } else {
+            _field.setFloat(entity, value);
+        }
+    }
+
+    protected void setDouble(Object entity, double value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putDouble(entity, _offset, value);
+        } else {
+            _field.setDouble(entity, value);
+        }
+    }
+
+    protected void setBoolean(Object entity, boolean value) throws IllegalAccessException {
+        if (_offset >= 0) {
+            s_unsafe.putBoolean(entity, _offset, value);
+        } else {
+            _field.setBoolean(entity, value);
+        }
+    }
+
+    /**
+     * Parses a date in the yyyy-MM-dd HH:mm:ss form the database returns
+     * them in, as GMT.  Anything after the seconds is ignored.  The common
+     * form is read without building a SimpleDateFormat for every value,
+     * others are left to DateUtil.
+     */
+    protected static Date parseDate(String str) {
+        if (str.length() < 19 || str.charAt(4) != '-' || str.charAt(7) != '-' || str.charAt(10) != ' ' || str.charAt(13) != ':' || str.charAt(16) != ':') {
+            return DateUtil.parseDateString(s_gmtTimeZone, str);
+        }
+        final int year = digits(str, 0, 4);
+        final int month = digits(str, 5, 7);
+        final int day = digits(str, 8, 10);
+        final int hour = digits(str, 11, 13);
+        final int minute = digits(str, 14, 16);
+        final int second = digits(str, 17, 19);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return DateUtil.parseDateString(s_gmtTimeZone, str);
+        }
+
+        final Calendar cal = s_gmtCalendar.get();
+        cal.clear();
+        cal.set(year, month - 1, day, hour, minute, second);
+        return cal.getTime();
+    }
+
+    /**
+     * @return the number in str from start to end, or -1 if it is not all digits
+     */
+    private static int digits(String str, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public static FieldSetter get(Field field) {
+        FieldSetter setter = s_setters.get(field);
+        if (setter == null) {
+            setter = create(field, false);
+            s_setters.put(field, setter);
+        }
+        return setter;
+    }
+
+    /**
+     * Creates a setter that writes the field through reflection and parses
+     * dates with DateUtil, the way the setters did before they wrote to the
+     * field offsets.  It is not cached, the setters GenericDaoBase uses are
+     * compared against it.
+     */
+    public static FieldSetter reflective(Field field) {
+        return create(field, true);
+    }
+
+    protected static FieldSetter create(final Field field, final boolean reflective) {
+        final Class<?> type = field.getType();
+        if (type == String.class) {
+            final Encrypt encrypt = field.getAnnotation(Encrypt.class);
+            return new StringSetter(field, reflective, encrypt != null && encrypt.encrypt());
+        } else if (type == long.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setLong(entity, rs.getLong(index));
+                }
+            };
+        } else if (type == Long.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final long value = rs.getLong(index);
+                    setObject(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type.isEnum()) {
+            final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+            return new EnumSetter(field, reflective, enumType);
+        } else if (type == int.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setInt(entity, rs.getInt(index));
+                }
+            };
+        } else if (type == Integer.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final int value = rs.getInt(index);
+                    setObject(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == Date.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    if (rs.getDate(index) == null) {
+                        setObject(entity, null);
+                        return;
+                    }
+                    final String str = rs.getString(index);
+                    setObject(entity, reflective ? DateUtil.parseDateString(s_gmtTimeZone, str) : parseDate(str));
+                }
+            };
+        } else if (type == Calendar.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    if (rs.getDate(index) == null) {
+                        setObject(entity, null);
+                        return;
+                    }
+                    final Calendar cal = Calendar.getInstance();
+                    final String str = rs.getString(index);
+                    cal.setTime(reflective ? DateUtil.parseDateString(s_gmtTimeZone, str) : parseDate(str));
+                    setObject(entity, cal);
+                }
+            };
+        } else if (type == boolean.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setBoolean(entity, rs.getBoolean(index));
+                }
+            };
+        } else if (type == Boolean.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final boolean value = rs.getBoolean(index);
+                    setObject(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == URI.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final String str = rs.getString(index);
+                    try {
+                        setObject(entity, str == null ? null : new URI(str));
+                    } catch (URISyntaxException e) {
+                        throw new CloudRuntimeException("Invalid URI: " + str, e);
+                    }
+                }
+            };
+        } else if (type == URL.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final String str = rs.getString(index);
+                    try {
+                        setObject(entity, str != null ? new URL(str) : null);
+                    } catch (MalformedURLException e) {
+                        throw new CloudRuntimeException("Invalid URL: " + str, e);
+                    }
+                }
+            };
+        } else if (type == Ip.class) {
+            final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            final boolean isString = (enumerated == null) || enumerated.value() == EnumType.STRING;
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    Ip ip = null;
+                    if (isString) {
+                        final String s = rs.getString(index);
+                        ip = s == null ? null : new Ip(NetUtils.ip2Long(s));
+                    } else {
+                        ip = new Ip(rs.getLong(index));
+                    }
+                    setObject(entity, ip);
+                }
+            };
+        } else if (type == short.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setShort(entity, rs.getShort(index));
+                }
+            };
+        } else if (type == Short.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final short value = rs.getShort(index);
+                    setObject(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == float.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setFloat(entity, rs.getFloat(index));
+                }
+            };
+        } else if (type == Float.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final float value = rs.getFloat(index);
+                    setObject(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == double.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setDouble(entity, rs.getDouble(index));
+                }
+            };
+        } else if (type == Double.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final double value = rs.getDouble(index);
+                    setObject(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == byte.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setByte(entity, rs.getByte(index));
+                }
+            };
+        } else if (type == Byte.class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    final byte value = rs.getByte(index);
+                    setObject(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == byte[].class) {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setObject(entity, rs.getBytes(index));
+                }
+            };
+        } else {
+            return new FieldSetter(field, reflective) {
+                @Override
+                public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setChecked(entity, rs.getObject(index));
+                }
+            };
+        }
+    }
+
+    protected static class StringSetter extends FieldSetter {
+        protected final boolean _encrypted;
+
+        protected StringSetter(Field field, boolean reflective, boolean encrypted) {
+            super(field, reflective);
+            _encrypted = encrypted;
+        }
+
+        @Override
+        public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+            final byte[] bytes = rs.getBytes(index);
+            if (bytes == null) {
+                setObject(entity, null);
+                return;
+            }
+            try {
+                final String str = new String(bytes, "UTF-8");
+                setObject(entity, _encrypted ? DBEncryptionUtil.decrypt(str) : str);
+            } catch (UnsupportedEncodingException e) {
+                assert (false);
+                throw new CloudRuntimeException("UnsupportedEncodingException when converting UTF-8 data");
+            }
+        }
+    }
+
+    protected static class EnumSetter extends FieldSetter {
+        protected final EnumType _enumType;
+        protected final Enum<?>[] _constants;
+        protected final Map<String, Enum<?>> _byName;
+
+        protected EnumSetter(Field field, boolean reflective, EnumType enumType) {
+            super(field, reflective);
+            _enumType = enumType;
+            _constants = (Enum<?>[])field.getType().getEnumConstants();
+            _byName = new HashMap<String, Enum<?>>(_constants.length * 2);
+            for (final Enum<?> e : _constants) {
+                _byName.put(e.name().toUpperCase(Locale.ROOT), e);
+            }
+        }
+
+        @Override
+        public void set(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+            Enum<?> value = null;
+            if (_enumType == EnumType.STRING) {
+                final String name = rs.getString(index);
+                value = name == null ? null : _byName.get(name.toUpperCase(Locale.ROOT));
+            } else if (_enumType == EnumType.ORDINAL) {
+                final int ordinal = rs.getInt(index);
+                value = (ordinal >= 0 && ordinal < _constants.length) ? _constants[ordinal] : null;
+            }
+
+            // Unknown values leave the field untouched, the same as before the setters were cached.
+            if (value != null) {
+                setObject(entity, value);
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -59,6 +60,12 @@ public interface GenericDao<T, ID extends Serializable> {
     // Finds one unique VO using uuid including removed entities
     T findByUuidIncludingRemoved(String uuid);
 
+    // Finds the VOs with the given ids in one query, keyed by id; ids of missing or removed VOs are absent
+    Map<ID, T> findByIds(Collection<ID> ids);
+
+    // Finds the VOs with the given uuids in one query including removed entities, keyed by uuid
+    Map<String, T> findByUuidsIncludingRemoved(Collection<String> uuids);
+
     /**
      * @return VO object ready to be used for update.  It won't have any fields filled in.
      */
@@ -199,6 +206,26 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist a list of entity beans using JDBC batching.  The inserts are
+     * sent to the database in batches of "batch.size" rows and the generated
+     * ids are set on the beans passed in.  Unlike persist(), the beans are
+     * not re-read from the database afterwards; use findById() if a bean
+     * that can be updated is needed.
+     * @param entities beans to persist.
+     * @return the beans passed in with their ids filled in.
+     */
+    List<T> persistAll(List<T> entities);
+
+    /**
+     * Update a list of entity beans using JDBC batching.  The beans must be
+     * generated by this dao (createForUpdate() or a find method) and carry
+     * their id.  Beans with the same set of changes share one batch.
+     * @param entities beans to update.
+     * @return number of rows updated.
+     */
+    int updateAll(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
@@ -207,6 +234,14 @@ public interface GenericDao<T, ID extends Serializable> {
      */
     boolean remove(ID id);
 
+    /**
+     * remove the entity beans in batches.  This will delete the rows if
+     * the entity bean does not have a removed field.
+     * @param ids
+     * @return number of rows removed.
+     */
+    int removeAll(Collection<ID> ids);
+
     /**
      * Remove based on the search criteria.  This will delete if the VO object
      * does not have a REMOVED column.
@@ -268,5 +303,11 @@ public interface GenericDao<T, ID extends Serializable> {
      */
     Pair<List<T>, Integer> searchAndCount(SearchCriteria<T> sc, Filter filter);
 
+    /**
+     * @param sc
+     * @return number of rows matching sc
+     */
+    Integer getCount(SearchCriteria<T> sc);
+
     Map<String, Attribute> getAllAttributes();
 }
@@ -22,9 +22,7 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -39,6 +37,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
@@ -61,9 +60,6 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 
 import org.apache.log4j.Logger;
 
@@ -147,16 +143,19 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected Map<String, Attribute> _allAttributes;
     protected List<Attribute> _ecAttributes;
     protected Map<Pair<String, String>, Attribute> _allColumns;
+    protected final Map<String, FieldSetter[]> _columnSetters = new ConcurrentHashMap<String, FieldSetter[]>();
     protected Enhancer _enhancer;
     protected Factory _factory;
     protected Enhancer _searchEnhancer;
     protected int _timeoutSeconds;
+    protected int _batchSize = DEFAULT_BATCH_SIZE;
 
     protected final static CallbackFilter s_callbackFilter = new UpdateFilter();
 
     protected static final String FOR_UPDATE_CLAUSE = " FOR UPDATE ";
     protected static final String SHARE_MODE_CLAUSE = " LOCK IN SHARE MODE";
     protected static final String SELECT_LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
+    protected static final int DEFAULT_BATCH_SIZE = 1000;
 
     protected static final SequenceFetcher s_seqFetcher = SequenceFetcher.getInstance();
 
@@ -417,8 +416,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 txn.registerLock(pstmt.toString());
             }
             final ResultSet rs = pstmt.executeQuery();
+            final FieldSetter[] setters = getColumnSetters(rs.getMetaData());
             while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+                result.add(toEntityBean(rs, cache, setters));
             }
             return result;
         } catch (final SQLException e) {
@@ -483,13 +483,22 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             SelectType st = sc.getSelectType();
             ArrayList<M> results = new ArrayList<M>();
             List<Field> fields = sc.getSelectFields();
+            FieldSetter[] setters = null;
+            if (st == SelectType.Entity) {
+                setters = getColumnSetters(rs.getMetaData());
+            } else if (st == SelectType.Fields || st == SelectType.Result) {
+                setters = new FieldSetter[fields.size()];
+                for (int j = 0; j < setters.length; j++) {
+                    setters[j] = FieldSetter.get(fields.get(j));
+                }
+            }
             while (rs.next()) {
                 if (st == SelectType.Entity) {
-                    results.add((M)toEntityBean(rs, false));
+                    results.add((M)toEntityBean(rs, false, setters));
                 } else if (st == SelectType.Fields || st == SelectType.Result) {
                     M m = sc.getResultType().newInstance();
-                    for (int j = 1; j <= fields.size(); j++) {
-                        setField(m, fields.get(j - 1), rs, j);
+                    for (int j = 1; j <= setters.length; j++) {
+                        setters[j - 1].set(m, rs, j);
                     }
                     results.add(m);
                 } else if (st == SelectType.Single) {
@@ -518,142 +527,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @DB()
     protected void setField(Object entity, Field field, ResultSet rs, int index) throws SQLException {
         try {
-            final Class<?> type = field.getType();
-            if (type == String.class) {
-                byte[] bytes = rs.getBytes(index);
-                if (bytes != null) {
-                    try {
-                        Encrypt encrypt = field.getAnnotation(Encrypt.class);
-                        if (encrypt != null && encrypt.encrypt()) {
-                            field.set(entity, DBEncryptionUtil.decrypt(new String(bytes, "UTF-8")));
-                        } else {
-                            field.set(entity, new String(bytes, "UTF-8"));
-                        }
-                    } catch (IllegalArgumentException e) {
-                        assert (false);
-                        throw new CloudRuntimeException("IllegalArgumentException when converting UTF-8 data");
-                    } catch (UnsupportedEncodingException e) {
-                        assert (false);
-                        throw new CloudRuntimeException("UnsupportedEncodingException when converting UTF-8 data");
-                    }
-                } else {
-                    field.set(entity, null);
-                }
-            } else if (type == long.class) {
-                field.setLong(entity, rs.getLong(index));
-            } else if (type == Long.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getLong(index));
-                }
-            } else if (type.isEnum()) {
-                final Enumerated enumerated = field.getAnnotation(Enumerated.class);
-                final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
-
-                final Enum<?>[] enums = (Enum<?>[])field.getType().getEnumConstants();
-                for (final Enum<?> e : enums) {
-                    if ((enumType == EnumType.STRING && e.name().equalsIgnoreCase(rs.getString(index))) ||
-                            (enumType == EnumType.ORDINAL && e.ordinal() == rs.getInt(index))) {
-                        field.set(entity, e);
-                        return;
-                    }
-                }
-            } else if (type == int.class) {
-                field.set(entity, rs.getInt(index));
-            } else if (type == Integer.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getInt(index));
-                }
-            } else if (type == Date.class) {
-                final Object data = rs.getDate(index);
-                if (data == null) {
-                    field.set(entity, null);
-                    return;
-                }
-                field.set(entity, DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
-            } else if (type == Calendar.class) {
-                final Object data = rs.getDate(index);
-                if (data == null) {
-                    field.set(entity, null);
-                    return;
-                }
-                final Calendar cal = Calendar.getInstance();
-                cal.setTime(DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
-                field.set(entity, cal);
-            } else if (type == boolean.class) {
-                field.setBoolean(entity, rs.getBoolean(index));
-            } else if (type == Boolean.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getBoolean(index));
-                }
-            } else if (type == URI.class) {
-                try {
-                    String str = rs.getString(index);
-                    field.set(entity, str == null ? null : new URI(str));
-                } catch (URISyntaxException e) {
-                    throw new CloudRuntimeException("Invalid URI: " + rs.getString(index), e);
-                }
-            } else if (type == URL.class) {
-                try {
-                    String str = rs.getString(index);
-                    field.set(entity, str != null ? new URL(str) : null);
-                } catch (MalformedURLException e) {
-                    throw new CloudRuntimeException("Invalid URL: " + rs.getString(index), e);
-                }
-            } else if (type == Ip.class) {
-                final Enumerated enumerated = field.getAnnotation(Enumerated.class);
-                final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
-
-                Ip ip = null;
-                if (enumType == EnumType.STRING) {
-                    String s = rs.getString(index);
-                    ip = s == null ? null : new Ip(NetUtils.ip2Long(s));
-                } else {
-                    ip = new Ip(rs.getLong(index));
-                }
-                field.set(entity, ip);
-            } else if (type == short.class) {
-                field.setShort(entity, rs.getShort(index));
-            } else if (type == Short.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getShort(index));
-                }
-            } else if (type == float.class) {
-                field.setFloat(entity, rs.getFloat(index));
-            } else if (type == Float.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getFloat(index));
-                }
-            } else if (type == double.class) {
-                field.setDouble(entity, rs.getDouble(index));
-            } else if (type == Double.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getDouble(index));
-                }
-            } else if (type == byte.class) {
-                field.setByte(entity, rs.getByte(index));
-            } else if (type == Byte.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getByte(index));
-                }
-            } else if (type == byte[].class) {
-                field.set(entity, rs.getBytes(index));
-            } else {
-                field.set(entity, rs.getObject(index));
-            }
+            FieldSetter.get(field).set(entity, rs, index);
         } catch (final IllegalAccessException e) {
             throw new CloudRuntimeException("Yikes! ", e);
         }
@@ -786,7 +660,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
         if (_cache != null) {
-            _cache.remove(id);
+            _cache.evict(id);
         }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
@@ -801,7 +675,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        // the row is evicted by id above, the whole cache need not go
+        int rowsUpdated = executeUpdate(ub, sc, null);
 
         txn.commit();
 
@@ -809,6 +684,14 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        int result = executeUpdate(ub, sc, rows);
+        if (_cache != null) {
+            _cache.evictAll();
+        }
+        return result;
+    }
+
+    private int executeUpdate(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -941,8 +824,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @SuppressWarnings("unchecked")
     public T findById(final ID id) {
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            return element == null ? lockRow(id, null) : (T)element.getObjectValue();
+            final T entity = (T)_cache.get(id);
+            return entity == null ? lockRow(id, null) : entity;
         } else {
             return lockRow(id, null);
         }
@@ -964,6 +847,45 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return findOneIncludingRemovedBy(sc);
     }
 
+    @Override
+    @DB()
+    public Map<ID, T> findByIds(final Collection<ID> ids) {
+        final Map<ID, T> entities = new HashMap<ID, T>();
+        if (ids.isEmpty()) {
+            return entities;
+        }
+        SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd(_idField.getName(), SearchCriteria.Op.IN, ids.toArray());
+        for (final T entity : listBy(sc)) {
+            entities.put((ID)getFieldValue(_idField, entity), entity);
+        }
+        return entities;
+    }
+
+    @Override
+    @DB()
+    public Map<String, T> findByUuidsIncludingRemoved(final Collection<String> uuids) {
+        final Map<String, T> entities = new HashMap<String, T>();
+        if (uuids.isEmpty()) {
+            return entities;
+        }
+        final Field uuidField = _allAttributes.get("uuid").field;
+        SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd("uuid", SearchCriteria.Op.IN, uuids.toArray());
+        for (final T entity : listIncludingRemovedBy(sc)) {
+            entities.put((String)getFieldValue(uuidField, entity), entity);
+        }
+        return entities;
+    }
+
+    private Object getFieldValue(final Field field, final T entity) {
+        try {
+            return field.get(entity);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to read " + field.getName() + " of " + entity, e);
+        }
+    }
+
     @Override
     @DB()
     public T findByIdIncludingRemoved(ID id) {
@@ -1119,8 +1041,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             final ResultSet rs = pstmt.executeQuery();
+            final FieldSetter[] setters = getColumnSetters(rs.getMetaData());
             while (rs.next()) {
-                result.add(toEntityBean(rs, true));
+                result.add(toEntityBean(rs, true, setters));
             }
             return result;
         } catch (final SQLException e) {
@@ -1171,7 +1094,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             txn.commit();
             if (_cache != null) {
-                _cache.remove(id);
+                _cache.evict(id);
             }
             return true;
         } catch (final SQLException e) {
@@ -1204,7 +1127,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int result = pstmt.executeUpdate();
+            if (_cache != null) {
+                _cache.evictAll();
+            }
+            return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1408,6 +1335,244 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @DB()
+    public List<T> persistAll(final List<T> entities) {
+        if (entities == null || entities.isEmpty()) {
+            return entities;
+        }
+
+        final List<T> updates = new ArrayList<T>();
+        final List<T> inserts = new ArrayList<T>(entities.size());
+        for (final T entity : entities) {
+            if (Enhancer.isEnhanced(entity.getClass())) {
+                updates.add(entity);
+            } else {
+                inserts.add(entity);
+            }
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            if (!updates.isEmpty()) {
+                updateAll(updates);
+            }
+
+            if (_ecAttributes != null && _ecAttributes.size() > 0) {
+                // Element collections are keyed by the id of each row so fall back to one insert per entity.
+                for (final T entity : inserts) {
+                    persist(entity);
+                }
+            } else {
+                for (int from = 0; from < inserts.size(); from += _batchSize) {
+                    final List<T> batch = inserts.subList(from, Math.min(from + _batchSize, inserts.size()));
+                    boolean first = true;
+                    for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                        final Attribute[] attrs = pair.second();
+                        pstmt = first ? txn.prepareAutoCloseStatement(pair.first(), Statement.RETURN_GENERATED_KEYS) : txn.prepareAutoCloseStatement(pair.first());
+                        for (final T entity : batch) {
+                            prepareAttributes(pstmt, entity, attrs, 1);
+                            pstmt.addBatch();
+                        }
+                        pstmt.executeBatch();
+
+                        if (first) {
+                            setGeneratedIds(pstmt, batch);
+                            first = false;
+                        }
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        }
+
+        return entities;
+    }
+
+    protected void setGeneratedIds(final PreparedStatement pstmt, final List<T> batch) throws SQLException {
+        if (_idField == null || _idAttributes.get(_table)[0].isInsertable()) {
+            // The ids were supplied by the caller so there is nothing generated to pick up.
+            return;
+        }
+
+        try (ResultSet rs = pstmt.getGeneratedKeys();) {
+            for (final T entity : batch) {
+                if (rs == null || !rs.next()) {
+                    break;
+                }
+                _idField.set(entity, getObject(_idField.getType(), rs, 1));
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+    }
+
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public int updateAll(final List<T> entities) {
+        if (entities == null || entities.isEmpty()) {
+            return 0;
+        }
+
+        final Attribute idAttribute = _idAttributes.get(_table)[0];
+        final String whereClause = idAttribute.table + "." + idAttribute.columnName + " = ?";
+
+        // Entities with the same set of changed columns produce the same sql and can share a batch.
+        final Map<String, List<Pair<ID, UpdateBuilder>>> batches = new LinkedHashMap<String, List<Pair<ID, UpdateBuilder>>>();
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        int rowsUpdated = 0;
+        try {
+            txn.start();
+            for (final T entity : entities) {
+                assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+
+                final UpdateBuilder ub = getUpdateBuilder(entity);
+                final ID id = (ID)_idField.get(entity);
+                if (_cache != null) {
+                    _cache.evict(id);
+                }
+
+                if (ub.getCollectionChanges() != null) {
+                    insertElementCollection(entity, idAttribute, id, ub.getCollectionChanges());
+                }
+
+                final StringBuilder sql = ub.toSql(_tables);
+                if (sql == null) {
+                    continue;
+                }
+                sql.append(whereClause);
+
+                List<Pair<ID, UpdateBuilder>> batch = batches.get(sql.toString());
+                if (batch == null) {
+                    batch = new ArrayList<Pair<ID, UpdateBuilder>>();
+                    batches.put(sql.toString(), batch);
+                }
+                batch.add(new Pair<ID, UpdateBuilder>(id, ub));
+            }
+
+            for (final Map.Entry<String, List<Pair<ID, UpdateBuilder>>> entry : batches.entrySet()) {
+                pstmt = txn.prepareAutoCloseStatement(entry.getKey());
+                int pending = 0;
+                for (final Pair<ID, UpdateBuilder> update : entry.getValue()) {
+                    int i = 1;
+                    for (final Ternary<Attribute, Boolean, Object> value : update.second().getChanges()) {
+                        prepareAttribute(i++, pstmt, value.first(), value.third());
+                    }
+                    prepareAttribute(i, pstmt, idAttribute, update.first());
+                    pstmt.addBatch();
+
+                    if (++pending == _batchSize) {
+                        rowsUpdated += countRows(pstmt.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    rowsUpdated += countRows(pstmt.executeBatch());
+                }
+
+                for (final Pair<ID, UpdateBuilder> update : entry.getValue()) {
+                    update.second().clear();
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists ", e);
+            }
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("How can it be illegal access...come on", e);
+        }
+
+        return rowsUpdated;
+    }
+
+    @Override
+    @DB()
+    public int removeAll(final Collection<ID> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+
+        final List<Pair<String, Attribute[]>> sqls;
+        if (_removeSql == null) {
+            sqls = _deleteSqls;
+        } else {
+            sqls = new ArrayList<Pair<String, Attribute[]>>(1);
+            sqls.add(_removeSql);
+        }
+
+        final List<ID> idList = new ArrayList<ID>(ids);
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        int rowsRemoved = 0;
+        try {
+            txn.start();
+            for (int from = 0; from < idList.size(); from += _batchSize) {
+                final List<ID> batch = idList.subList(from, Math.min(from + _batchSize, idList.size()));
+                for (final Pair<String, Attribute[]> sql : sqls) {
+                    pstmt = txn.prepareAutoCloseStatement(sql.first());
+                    final Attribute[] attrs = sql.second();
+                    for (final ID id : batch) {
+                        if (_removeSql == null) {
+                            for (int i = 0; i < attrs.length; i++) {
+                                prepareAttribute(i + 1, pstmt, attrs[i], id);
+                            }
+                        } else {
+                            prepareAttribute(1, pstmt, attrs[attrs.length - 1], null);
+                            for (int i = 0; i < attrs.length - 1; i++) {
+                                prepareAttribute(i + 2, pstmt, attrs[i], id);
+                            }
+                        }
+                        pstmt.addBatch();
+                    }
+
+                    final int rows = countRows(pstmt.executeBatch());
+                    if (sql == sqls.get(0)) {
+                        rowsRemoved += rows;
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+
+        if (_cache != null) {
+            for (final ID id : idList) {
+                _cache.evict(id);
+            }
+        }
+        return rowsRemoved;
+    }
+
+    /**
+     * Sums up the update counts returned by executeBatch().  Drivers that
+     * rewrite the batch into a multi-row statement report SUCCESS_NO_INFO
+     * for each row instead of the count.
+     */
+    protected static int countRows(final int[] results) {
+        int rows = 0;
+        for (final int result : results) {
+            if (result > 0) {
+                rows += result;
+            } else if (result == Statement.SUCCESS_NO_INFO) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1586,16 +1751,21 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return j;
     }
 
-    @SuppressWarnings("unchecked")
     @DB()
     protected T toEntityBean(final ResultSet result, final boolean cache) throws SQLException {
+        return toEntityBean(result, cache, getColumnSetters(result.getMetaData()));
+    }
+
+    @SuppressWarnings("unchecked")
+    @DB()
+    protected T toEntityBean(final ResultSet result, final boolean cache, final FieldSetter[] setters) throws SQLException {
         final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
 
-        toEntityBean(result, entity);
+        toEntityBean(result, entity, setters);
 
         if (cache && _cache != null) {
             try {
-                _cache.put(new Element(_idField.get(entity), entity));
+                _cache.put((Serializable)_idField.get(entity), entity);
             } catch (final Exception e) {
                 s_logger.debug("Can't put it in the cache", e);
             }
@@ -1617,7 +1787,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         toEntityBean(result, entity);
         if (cache && _cache != null) {
             try {
-                _cache.put(new Element(_idField.get(entity), entity));
+                _cache.put((Serializable)_idField.get(entity), entity);
             } catch (final Exception e) {
                 s_logger.debug("Can't put it in the cache", e);
             }
@@ -1628,15 +1798,64 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void toEntityBean(final ResultSet result, final T entity) throws SQLException {
-        ResultSetMetaData meta = result.getMetaData();
-        for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
-            setField(entity, result, meta, index);
+        toEntityBean(result, entity, getColumnSetters(result.getMetaData()));
+    }
+
+    @DB()
+    protected void toEntityBean(final ResultSet result, final T entity, final FieldSetter[] setters) throws SQLException {
+        try {
+            for (int index = 0; index < setters.length; index++) {
+                if (setters[index] != null) {
+                    setters[index].set(entity, result, index + 1);
+                }
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
         }
         for (Attribute attr : _ecAttributes) {
             loadCollection(entity, attr);
         }
     }
 
+    /**
+     * Resolves the columns of a result set to the setters of the entity
+     * fields they map to.  The resolution is cached per column layout so it
+     * is only done the first time a query shape is seen.
+     */
+    @DB()
+    protected FieldSetter[] getColumnSetters(final ResultSetMetaData meta) throws SQLException {
+        final int max = meta.getColumnCount();
+        final StringBuilder layout = new StringBuilder();
+        for (int index = 1; index <= max; index++) {
+            layout.append(meta.getTableName(index)).append('.').append(meta.getColumnName(index)).append(' ').append(meta.getColumnLabel(index)).append(',');
+        }
+
+        final String key = layout.toString();
+        FieldSetter[] setters = _columnSetters.get(key);
+        if (setters == null) {
+            setters = new FieldSetter[max];
+            for (int index = 1; index <= max; index++) {
+                final Attribute attr = findAttributeByColumn(meta, index);
+                setters[index - 1] = attr != null ? FieldSetter.get(attr.field) : null;
+            }
+            _columnSetters.put(key, setters);
+        }
+        return setters;
+    }
+
+    protected Attribute findAttributeByColumn(final ResultSetMetaData meta, final int index) throws SQLException {
+        Attribute attr = _allColumns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
+        if (attr == null) {
+            // work around for mysql bug to return original table name instead of view name in db view case
+            Table tbl = _entityBeanType.getAnnotation(Table.class);
+            if (tbl != null) {
+                attr = _allColumns.get(new Pair<String, String>(tbl.name(), meta.getColumnLabel(index)));
+            }
+        }
+        assert (attr != null) : "How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index);
+        return attr;
+    }
+
     @DB()
     @SuppressWarnings("unchecked")
     protected void loadCollection(T entity, Attribute attr) {
@@ -1731,15 +1950,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void setField(final Object entity, final ResultSet rs, ResultSetMetaData meta, final int index) throws SQLException {
-        Attribute attr = _allColumns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
-        if (attr == null) {
-            // work around for mysql bug to return original table name instead of view name in db view case
-            Table tbl = entity.getClass().getSuperclass().getAnnotation(Table.class);
-            if (tbl != null) {
-                attr = _allColumns.get(new Pair<String, String>(tbl.name(), meta.getColumnLabel(index)));
-            }
-        }
-        assert (attr != null) : "How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index);
+        Attribute attr = findAttributeByColumn(meta, index);
         setField(entity, attr.field, rs, index);
     }
 
@@ -1764,7 +1975,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             final int result = pstmt.executeUpdate();
             txn.commit();
             if (_cache != null) {
-                _cache.remove(id);
+                _cache.evict(id);
             }
             return result > 0;
         } catch (final SQLException e) {
@@ -1785,19 +1996,17 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, null);
     }
 
-    protected Cache _cache;
+    protected EntityCache _cache;
 
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
 
-        if (value != null) {
-            final CacheManager cm = CacheManager.create();
+        if (value != null && _idField != null) {
             final int maxElements = NumbersUtil.parseInt(value, 0);
             final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
             final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_cache);
+            _cache = new EntityCache(getName(), _idField.getType(), maxElements, live, idle);
             s_logger.info("Cache created: " + _cache.toString());
         } else {
             _cache = null;
@@ -1811,6 +2020,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         final String value = (String)params.get("lock.timeout");
         _timeoutSeconds = NumbersUtil.parseInt(value, 300);
+        _batchSize = NumbersUtil.parseInt((String)params.get("batch.size"), DEFAULT_BATCH_SIZE);
 
         createCache(params);
         final boolean load = Boolean.parseBoolean((String)params.get("cache.preload"));
@@ -1841,6 +2051,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return builder.create();
     }
 
+    @Override
     public Integer getCount(SearchCriteria<T> sc) {
         String clause = sc != null ? sc.getWhereClause() : null;
         if (clause != null && clause.length() == 0) {
@@ -26,6 +26,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.StandardMBean;
 
@@ -34,23 +38,37 @@ import org.apache.log4j.Logger;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
-import com.cloud.utils.time.InaccurateClock;
 
+/**
+ * Merovingian2 is the lock master behind GlobalLock.  Contention between
+ * threads of this management server is resolved in memory, on locks striped
+ * by key, with waiters woken up when the lock is released.  The op_lock table
+ * is only used to establish which management server owns a key: the row is
+ * inserted when the first thread of this server gets the lock and deleted
+ * when the last one waiting for it on this server lets it go, so only one
+ * thread per key and server ever polls the table for a lock held elsewhere.
+ * Reentrant acquires are counted in memory, after checking that the row is
+ * still there: a peer that took this server for dead may have removed it.
+ */
 public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private static final Logger s_logger = Logger.getLogger(Merovingian2.class);
 
     private static final String ACQUIRE_SQL =
             "INSERT INTO op_lock (op_lock.key, op_lock.mac, op_lock.ip, op_lock.thread, op_lock.acquired_on, waiters) VALUES (?, ?, ?, ?, ?, 1)";
-    private static final String INCREMENT_SQL = "UPDATE op_lock SET waiters=waiters+1 where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
+    private static final String TRANSFER_SQL =
+            "UPDATE op_lock SET op_lock.ip=?, op_lock.thread=?, op_lock.acquired_on=? WHERE op_lock.key=? AND op_lock.mac=?";
     private static final String SELECT_SQL = "SELECT op_lock.key, mac, ip, thread, acquired_on, waiters FROM op_lock";
     private static final String INQUIRE_SQL = SELECT_SQL + " WHERE op_lock.key=?";
-    private static final String DECREMENT_SQL = "UPDATE op_lock SET waiters=waiters-1 where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
+    private static final String HELD_SQL = "SELECT op_lock.key FROM op_lock WHERE op_lock.key=? AND op_lock.mac=? AND op_lock.thread=?";
     private static final String RELEASE_LOCK_SQL = "DELETE FROM op_lock WHERE op_lock.key = ?";
-    private static final String RELEASE_SQL = RELEASE_LOCK_SQL + " AND op_lock.mac=? AND waiters=0";
+    private static final String RELEASE_SQL = RELEASE_LOCK_SQL + " AND op_lock.mac=?";
     private static final String CLEANUP_MGMT_LOCKS_SQL = "DELETE FROM op_lock WHERE op_lock.mac = ?";
     private static final String SELECT_MGMT_LOCKS_SQL = SELECT_SQL + " WHERE mac=?";
     private static final String SELECT_THREAD_LOCKS_SQL = SELECT_SQL + " WHERE mac=? AND ip=?";
-    private static final String CLEANUP_THREAD_LOCKS_SQL = "DELETE FROM op_lock WHERE mac=? AND ip=? AND thread=?";
+
+    private static final int STRIPES = 64;
+    private static final long MIN_POLL_INTERVAL = 50;
+    private static final long MAX_POLL_INTERVAL = 2000;
 
     TimeZone _gmtTimeZone = TimeZone.getTimeZone("GMT");
 
@@ -60,15 +78,29 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private ConnectionConcierge _concierge = null;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
+    private final ReentrantLock[] _stripes = new ReentrantLock[STRIPES];
+    private final Map<String, LocalLock> _locks = new ConcurrentHashMap<String, LocalLock>();
+
     private Merovingian2(long msId) {
+        this(msId, createConcierge());
+    }
+
+    protected Merovingian2(long msId, ConnectionConcierge concierge) {
         super(MerovingianMBean.class, false);
         _msId = msId;
+        for (int i = 0; i < STRIPES; i++) {
+            _stripes[i] = new ReentrantLock();
+        }
+        _concierge = concierge;
+    }
+
+    private static ConnectionConcierge createConcierge() {
         Connection conn = null;
         try {
             conn = TransactionLegacy.getStandaloneConnectionWithException();
             conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
             conn.setAutoCommit(true);
-            _concierge = new ConnectionConcierge("LockMaster", conn, true);
+            return new ConnectionConcierge("LockMaster", conn, true);
         } catch (SQLException e) {
             s_logger.error("Unable to get a new db connection", e);
             throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes: ", e);
@@ -110,6 +142,31 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         count.count--;
     }
 
+    protected ReentrantLock stripe(String key) {
+        return _stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * Must be called with the stripe of the key held.
+     */
+    protected LocalLock getLocalLock(String key, boolean create) {
+        LocalLock lock = _locks.get(key);
+        if (lock == null && create) {
+            lock = new LocalLock(stripe(key).newCondition());
+            _locks.put(key, lock);
+        }
+        return lock;
+    }
+
+    /**
+     * Must be called with the stripe of the key held.
+     */
+    protected void removeIfIdle(String key, LocalLock lock) {
+        if (lock.owner == null && lock.waiters == 0 && !lock.dbHeld && _locks.get(key) == lock) {
+            _locks.remove(key);
+        }
+    }
+
     public boolean acquire(String key, int timeInSeconds) {
         Thread th = Thread.currentThread();
         String threadName = th.getName();
@@ -118,56 +175,203 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
-        long startTime = InaccurateClock.getTime();
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + timeInSeconds * 1000l;
 
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000l)) {
-            int count = owns(key);
+        if (reenter(key, th, threadId)) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("lck-" + key + " acquired again");
+            }
+            return true;
+        }
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
-                    return true;
+        ReentrantLock stripe = stripe(key);
+        LocalLock lock;
+        boolean transfer = false;
+        int held = 0;
+        stripe.lock();
+        try {
+            lock = getLocalLock(key, true);
+            if (lock.owner == th) {
+                // The row is gone, get it back before counting another hold.
+                s_logger.warn("lck-" + key + " is held by this thread but no longer by this server, acquiring it again");
+                held = lock.count;
+                lock.dbHeld = false;
+            } else {
+                transfer = waitForLocalLock(key, lock, th, startTime, deadline);
+                if (lock.owner != th) {
+                    return false;
+                }
+            }
+        } finally {
+            stripe.unlock();
+        }
+
+        boolean acquired = false;
+        try {
+            if (transfer) {
+                acquired = transfer(key, threadName, threadId);
+            }
+            if (!acquired) {
+                acquired = acquireFromDb(key, threadName, threadId, deadline);
+            }
+        } finally {
+            stripe.lock();
+            try {
+                if (acquired) {
+                    lock.count = held + 1;
+                    lock.dbHeld = true;
+                    incrCount();
+                } else if (held == 0 || lock.owner != th) {
+                    // A reentrant caller that failed stays the owner for its outer holds.
+                    lock.owner = null;
+                    lock.dbHeld = false;
+                    lock.released.signalAll();
+                    removeIfIdle(key, lock);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        if (!acquired) {
+            timedOut(key, startTime);
+        }
+        return acquired;
+    }
+
+    /**
+     * Counts another hold of a key this thread already owns as long as its
+     * op_lock row is still there.  The row is looked up without the stripe
+     * held, so the other keys of the stripe do not wait on the database.
+     *
+     * @return false if the thread does not own the key or lost its row,
+     * acquire then decides what to do under the stripe.
+     */
+    protected boolean reenter(String key, Thread th, int threadId) {
+        // Only this thread makes itself the owner, so this read can be stale
+        // only in saying it still is, which is checked again below.
+        LocalLock lock = _locks.get(key);
+        if (lock == null || lock.owner != th || !lock.dbHeld || !isHeld(key, threadId)) {
+            return false;
+        }
+
+        ReentrantLock stripe = stripe(key);
+        stripe.lock();
+        try {
+            // reset() may have taken the key away while the row was looked up
+            if (lock.owner != th || !lock.dbHeld) {
+                return false;
+            }
+            lock.count++;
+            incrCount();
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Waits until no other thread of this server owns the key and takes it
+     * over.  Must be called with the stripe of the key held.
+     *
+     * @return whether this server still holds the op_lock row of the key,
+     * which then only needs to be handed over.
+     */
+    protected boolean waitForLocalLock(String key, LocalLock lock, Thread th, long startTime, long deadline) {
+        lock.waiters++;
+        try {
+            while (lock.owner != null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    timedOut(key, startTime);
+                    return false;
                 }
+                try {
+                    lock.released.await(remaining, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        } finally {
+            lock.waiters--;
+        }
+
+        // This thread is now the only one on this server trying for the key.
+        lock.owner = th;
+        return lock.dbHeld;
+    }
+
+    protected void timedOut(String key, long startTime) {
+        String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((System.currentTimeMillis() - startTime) / 1000) + "seconds";
+        Exception e = new CloudRuntimeException(msg);
+        s_logger.warn(msg, e);
+    }
+
+    /**
+     * Polls the op_lock table until the key is free of other management
+     * servers or the deadline passes.  The interval backs off because only
+     * cross server contention ends up here.
+     */
+    protected boolean acquireFromDb(String key, String threadName, int threadId, long deadline) {
+        long interval = MIN_POLL_INTERVAL;
+        while (true) {
+            if (doAcquire(key, threadName, threadId)) {
+                return true;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
             }
             try {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Sleeping more time while waiting for lck-" + key);
                 }
-                Thread.sleep(5000);
+                Thread.sleep(Math.min(interval, remaining));
             } catch (InterruptedException e) {
             }
+            interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
         }
-        String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((InaccurateClock.getTime() - startTime)/1000) +  "seconds";
-        Exception e = new CloudRuntimeException(msg);
-        s_logger.warn(msg, e);
-        return false;
     }
 
-    protected boolean increment(String key, String threadName, int threadId) {
-      try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL);){
-            pstmt.setString(1, key);
-            pstmt.setLong(2, _msId);
-            pstmt.setString(3, threadName);
-            pstmt.setInt(4, threadId);
+    /**
+     * Hands the row of a lock this server already owns to the thread that
+     * got it next.
+     */
+    protected boolean transfer(String key, String threadName, int threadId) {
+        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(TRANSFER_SQL);) {
+            pstmt.setString(1, threadName);
+            pstmt.setInt(2, threadId);
+            pstmt.setString(3, DateUtil.getDateDisplayString(_gmtTimeZone, new Date()));
+            pstmt.setString(4, key);
+            pstmt.setLong(5, _msId);
             int rows = pstmt.executeUpdate();
-            assert (rows <= 1) : "hmm...non unique key? " + pstmt;
             if (s_logger.isTraceEnabled()) {
-                s_logger.trace("lck-" + key + (rows == 1 ? " acquired again" : " failed to acquire again"));
+                s_logger.trace("lck-" + key + (rows == 1 ? " handed over" : " is no longer held by this server"));
             }
-            if (rows == 1) {
-                incrCount();
-                return true;
-            }
-            return false;
+            return rows == 1;
         } catch (Exception e) {
-            s_logger.error("increment:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("increment:Exception:"+e.getMessage(), e);
+            s_logger.error("transfer:Exception:" + e.getMessage());
+            throw new CloudRuntimeException("transfer:Exception:" + e.getMessage(), e);
+        }
+    }
+
+    protected boolean isHeld(String key, int threadId) {
+        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(HELD_SQL);) {
+            pstmt.setString(1, key);
+            pstmt.setLong(2, _msId);
+            pstmt.setInt(3, threadId);
+            try (ResultSet rs = pstmt.executeQuery();) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            s_logger.error("isHeld:Exception:" + e.getMessage());
+            throw new CloudRuntimeException("isHeld:Exception:" + e.getMessage(), e);
         }
     }
 
     protected boolean doAcquire(String key, String threadName, int threadId) {
-        long startTime = InaccurateClock.getTime();
+        long startTime = System.currentTimeMillis();
         try(PreparedStatement pstmt = _concierge.conn().prepareStatement(ACQUIRE_SQL);) {
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
@@ -180,17 +384,16 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     if (s_logger.isTraceEnabled()) {
                         s_logger.trace("Acquired for lck-" + key);
                     }
-                    incrCount();
                     return true;
                 }
             } catch (SQLException e) {
                 if (!(e.getSQLState().equals("23000") && e.getErrorCode() == 1062)) {
-                    throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (InaccurateClock.getTime() - startTime), e);
+                    throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (System.currentTimeMillis() - startTime), e);
                 }
             }
         } catch (SQLException e) {
             s_logger.error("doAcquire:Exception:"+e.getMessage());
-            throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (InaccurateClock.getTime() - startTime), e);
+            throw new CloudRuntimeException("Unable to lock " + key + ".  Waited " + (System.currentTimeMillis() - startTime), e);
         }
 
         s_logger.trace("Unable to acquire lck-" + key);
@@ -223,12 +426,21 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     @Override
     public void cleanupForServer(long msId) {
         s_logger.info("Cleaning up locks for " + msId);
+        if (msId == _msId) {
+            for (Map.Entry<String, LocalLock> entry : _locks.entrySet()) {
+                reset(entry.getKey());
+            }
+        }
+        int rows = doCleanup(msId);
+        s_logger.info("Released " + rows + " locks for " + msId);
+    }
+
+    protected int doCleanup(long msId) {
         try {
             synchronized (_concierge.conn()) {
                 try(PreparedStatement pstmt = _concierge.conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);) {
                     pstmt.setLong(1, msId);
-                    int rows = pstmt.executeUpdate();
-                    s_logger.info("Released " + rows + " locks for " + msId);
+                    return pstmt.executeUpdate();
                 }catch (Exception e) {
                     s_logger.error("cleanupForServer:Exception:"+e.getMessage());
                     throw new CloudRuntimeException("cleanupForServer:Exception:"+e.getMessage(), e);
@@ -240,41 +452,86 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         }
     }
 
+    /**
+     * Forgets the local ownership of a key whose row is being removed
+     * behind the owner's back.  The owner's release will then fail.
+     */
+    protected void reset(String key) {
+        ReentrantLock stripe = stripe(key);
+        stripe.lock();
+        try {
+            LocalLock lock = getLocalLock(key, false);
+            if (lock != null) {
+                lock.owner = null;
+                lock.count = 0;
+                lock.dbHeld = false;
+                lock.released.signalAll();
+                removeIfIdle(key, lock);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
     public boolean release(String key) {
         Thread th = Thread.currentThread();
-        String threadName = th.getName();
         int threadId = System.identityHashCode(th);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(DECREMENT_SQL);)
-        {
-            pstmt.setString(1, key);
-            pstmt.setLong(2, _msId);
-            pstmt.setString(3, threadName);
-            pstmt.setLong(4, threadId);
-            int rows = pstmt.executeUpdate();
-            assert (rows <= 1) : "hmmm....keys not unique? " + pstmt;
 
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("lck-" + key + " released");
-            }
-            if (rows == 1) {
-                try (PreparedStatement rel_sql_pstmt = _concierge.conn().prepareStatement(RELEASE_SQL);) {
-                    rel_sql_pstmt.setString(1, key);
-                    rel_sql_pstmt.setLong(2, _msId);
-                    int result = rel_sql_pstmt.executeUpdate();
-                    if (result == 1 && s_logger.isTraceEnabled()) {
-                        s_logger.trace("lck-" + key + " removed");
-                    }
-                    decrCount();
-                }catch (Exception e) {
-                    s_logger.error("release:Exception:"+ e.getMessage());
-                    throw new CloudRuntimeException("release:Exception:"+ e.getMessage(), e);
-                }
-            } else if (rows < 1) {
+        ReentrantLock stripe = stripe(key);
+        LocalLock lock;
+        stripe.lock();
+        try {
+            lock = getLocalLock(key, false);
+            if (lock == null || lock.owner != th) {
                 String msg = ("Was unable to find lock for the key " + key + " and thread id " + threadId);
                 Exception e = new CloudRuntimeException(msg);
                 s_logger.warn(msg, e);
+                return false;
+            }
+
+            decrCount();
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("lck-" + key + " released");
+            }
+            if (--lock.count > 0) {
+                return true;
+            }
+
+            if (lock.waiters > 0) {
+                // Keep the row, one of the waiters takes it over.
+                lock.owner = null;
+                lock.released.signal();
+                return true;
+            }
+        } finally {
+            stripe.unlock();
+        }
+
+        // Still the owner here so that nobody on this server races with the delete.
+        try {
+            doRelease(key);
+        } finally {
+            stripe.lock();
+            try {
+                lock.owner = null;
+                lock.dbHeld = false;
+                lock.released.signal();
+                removeIfIdle(key, lock);
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return true;
+    }
+
+    protected void doRelease(String key) {
+        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(RELEASE_SQL);) {
+            pstmt.setString(1, key);
+            pstmt.setLong(2, _msId);
+            int result = pstmt.executeUpdate();
+            if (result == 1 && s_logger.isTraceEnabled()) {
+                s_logger.trace("lck-" + key + " removed");
             }
-            return rows == 1;
         } catch (Exception e) {
             s_logger.error("release:Exception:"+ e.getMessage());
             throw new CloudRuntimeException("release:Exception:"+ e.getMessage(), e);
@@ -296,11 +553,30 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     protected List<Map<String, String>> toLocks(ResultSet rs) throws SQLException {
         LinkedList<Map<String, String>> results = new LinkedList<Map<String, String>>();
         while (rs.next()) {
-            results.add(toLock(rs));
+            Map<String, String> lock = toLock(rs);
+            if (Long.toString(_msId).equals(lock.get("mgmt"))) {
+                lock.put("count", Integer.toString(getLocalCount(lock.get("key"))));
+            }
+            results.add(lock);
         }
         return results;
     }
 
+    /**
+     * @return how many times the owner on this server holds the key, which is
+     * only counted in memory.
+     */
+    protected int getLocalCount(String key) {
+        ReentrantLock stripe = stripe(key);
+        stripe.lock();
+        try {
+            LocalLock lock = getLocalLock(key, false);
+            return lock != null ? lock.count : 0;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
     protected List<Map<String, String>> getLocks(String sql, Long msId) {
         try (PreparedStatement pstmt = _concierge.conn().prepareStatement(sql);)
         {
@@ -332,15 +608,23 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
 
     public int owns(String key) {
         Thread th = Thread.currentThread();
-        int threadId = System.identityHashCode(th);
-        Map<String, String> owner = isLocked(key);
-        if (owner == null) {
-            return 0;
-        }
-        if (owner.get("mgmt").equals(Long.toString(_msId)) && owner.get("tid").equals(Integer.toString(threadId))) {
-            return Integer.parseInt(owner.get("count"));
+        ReentrantLock stripe = stripe(key);
+        stripe.lock();
+        try {
+            LocalLock lock = getLocalLock(key, false);
+            if (lock != null) {
+                if (lock.owner == th) {
+                    return lock.count;
+                }
+                if (lock.owner != null || lock.dbHeld) {
+                    return -1;
+                }
+            }
+        } finally {
+            stripe.unlock();
         }
-        return -1;
+
+        return isLocked(key) == null ? 0 : -1;
     }
 
     public List<Map<String, String>> getLocksAcquiredBy(long msId, String threadName) {
@@ -370,25 +654,34 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         count.count = 0;
 
         Thread th = Thread.currentThread();
-        String threadName = th.getName();
-        int threadId = System.identityHashCode(th);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);)
-        {
-            pstmt.setLong(1, _msId);
-            pstmt.setString(2, threadName);
-            pstmt.setInt(3, threadId);
-            int rows = pstmt.executeUpdate();
-            assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
-            " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
-        } catch (Exception e) {
-            s_logger.error("cleanupThread:Exception:" +  e.getMessage());
-            throw new CloudRuntimeException("cleanupThread:Exception:" +  e.getMessage(), e);
+        int rows = 0;
+        for (Map.Entry<String, LocalLock> entry : _locks.entrySet()) {
+            if (entry.getValue().owner != th) {
+                continue;
+            }
+            // release() drops one hold at a time; make it the last one.
+            ReentrantLock stripe = stripe(entry.getKey());
+            stripe.lock();
+            try {
+                if (entry.getValue().owner != th) {
+                    continue;
+                }
+                entry.getValue().count = 1;
+            } finally {
+                stripe.unlock();
+            }
+            release(entry.getKey());
+            rows++;
         }
+        count.count = 0;
+        assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
+        " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
     }
 
     @Override
     public boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key) {
         s_logger.info("Releasing a lock from JMX lck-" + key);
+        reset(key);
         try (PreparedStatement pstmt = _concierge.conn().prepareStatement(RELEASE_LOCK_SQL);)
         {
             pstmt.setString(1, key);
@@ -403,4 +696,20 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     protected static class Count {
         public int count = 0;
     }
+
+    /**
+     * State of a key on this management server, guarded by its stripe.
+     */
+    protected static class LocalLock {
+        final Condition released;
+        Thread owner;
+        int count;
+        int waiters;
+        // whether this server holds the op_lock row of the key
+        boolean dbHeld;
+
+        LocalLock(Condition released) {
+            this.released = released;
+        }
+    }
 }
@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -104,6 +105,7 @@ public class TransactionLegacy implements Closeable {
     private long _txnTime;
     private Statement _stmt;
     private String _creator;
+    private List<Runnable> _postCommitTasks;
 
     public static TransactionLegacy currentTxn() {
         return currentTxn(true);
@@ -654,6 +656,7 @@ public class TransactionLegacy implements Closeable {
         }
         _txn = false;
         _name = null;
+        _postCommitTasks = null;
 
         closeConnection();
 
@@ -704,6 +707,52 @@ public class TransactionLegacy implements Closeable {
         return true;
     }
 
+    /**
+     * Runs the task after the outermost database transaction commits, or
+     * right away if there is no transaction in progress.  The task is
+     * dropped if the transaction is rolled back.
+     */
+    public void runAfterCommit(final Runnable task) {
+        if (!_txn) {
+            task.run();
+            return;
+        }
+
+        if (_postCommitTasks == null) {
+            _postCommitTasks = new ArrayList<Runnable>();
+        }
+        _postCommitTasks.add(task);
+    }
+
+    /**
+     * Runs the task once the transaction of the current thread commits, or
+     * right away if the thread has none.
+     */
+    public static void afterCommit(final Runnable task) {
+        final TransactionLegacy txn = currentTxn(false);
+        if (txn != null) {
+            txn.runAfterCommit(task);
+        } else {
+            task.run();
+        }
+    }
+
+    protected void runPostCommitTasks() {
+        if (_postCommitTasks == null) {
+            return;
+        }
+
+        final List<Runnable> tasks = _postCommitTasks;
+        _postCommitTasks = null;
+        for (final Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (final Exception e) {
+                s_logger.warn("Unable to run post commit task " + task, e);
+            }
+        }
+    }
+
     protected boolean hasTxnInStack() {
         return peekInStack(START_TXN) != null;
     }
@@ -747,6 +796,7 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
+            runPostCommitTasks();
             return true;
         } catch (final SQLException e) {
             rollbackTransaction();
@@ -856,6 +906,7 @@ public class TransactionLegacy implements Closeable {
         }
         assert (!hasTxnInStack()) : "Who's rolling back transaction when there's still txn in stack?";
         _txn = false;
+        _postCommitTasks = null;
         try {
             if (_conn != null) {
                 if (s_logger.isDebugEnabled()) {
@@ -881,6 +932,7 @@ public class TransactionLegacy implements Closeable {
 
         if (!hasTxnInStack()) {
             _txn = false;
+            _postCommitTasks = null;
             closeConnection();
         }
     }
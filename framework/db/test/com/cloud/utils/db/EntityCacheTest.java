@@ -0,0 +1,93 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EntityCacheTest {
+    @Mock
+    EntityCache.Publisher publisher;
+
+    @After
+    public void tearDown() {
+        EntityCache.setPublisher(null);
+    }
+
+    @Test
+    public void countHitsAndMisses() {
+        EntityCache cache = new EntityCache("EntityCacheTest.hits", Long.class, 10, 60, 60);
+        Assert.assertNull(cache.get(1l));
+        cache.put(1l, "one");
+        Assert.assertEquals("one", cache.get(1l));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertSame(cache, EntityCache.getCache("EntityCacheTest.hits"));
+    }
+
+    @Test
+    public void evictPublishesOutsideTransaction() {
+        EntityCache.setPublisher(publisher);
+        EntityCache cache = new EntityCache("EntityCacheTest.evict", Long.class, 10, 60, 60);
+        cache.put(1l, "one");
+        cache.evict(1l);
+        Assert.assertNull(cache.get(1l));
+        Mockito.verify(publisher).publish("EntityCacheTest.evict", "1");
+
+        cache.evictAll();
+        Mockito.verify(publisher).publish("EntityCacheTest.evict", null);
+    }
+
+    @Test
+    public void removeStaysLocal() {
+        EntityCache.setPublisher(publisher);
+        EntityCache cache = new EntityCache("EntityCacheTest.remove", Long.class, 10, 60, 60);
+        cache.put(1l, "one");
+        cache.remove(1l);
+        Assert.assertNull(cache.get(1l));
+        Mockito.verifyZeroInteractions(publisher);
+    }
+
+    @Test
+    public void invalidateFromPeer() {
+        EntityCache cache = new EntityCache("EntityCacheTest.invalidate", Long.class, 10, 60, 60);
+        cache.put(1l, "one");
+        cache.put(2l, "two");
+        cache.invalidate("1");
+        Assert.assertNull(cache.get(1l));
+        Assert.assertEquals("two", cache.get(2l));
+
+        cache.invalidate(null);
+        Assert.assertNull(cache.get(2l));
+        Assert.assertEquals(2, cache.getRemoteInvalidationCount());
+    }
+
+    @Test
+    public void reconfigureReplacesCache() {
+        EntityCache first = new EntityCache("EntityCacheTest.replace", String.class, 10, 60, 60);
+        first.put("name", "value");
+        EntityCache second = new EntityCache("EntityCacheTest.replace", String.class, 10, 60, 60);
+        Assert.assertNull(second.get("name"));
+        Assert.assertSame(second, EntityCache.getCache("EntityCacheTest.replace"));
+    }
+}
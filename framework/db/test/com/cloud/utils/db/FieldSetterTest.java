@@ -0,0 +1,182 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.TimeZone;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.cloud.utils.DateUtil;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FieldSetterTest {
+    @Mock
+    ResultSet resultSet;
+
+    enum State {
+        Running, Stopped
+    }
+
+    static class Row {
+        long id;
+        Long nullableLong;
+        String name;
+        State state;
+        @Enumerated(value = EnumType.ORDINAL)
+        State ordinalState;
+        Integer count;
+        Object any;
+        Number number;
+        Date created;
+    }
+
+    static class DerivedRow extends Row {
+        String extra;
+    }
+
+    @Test
+    public void setPrimitiveLong() throws Exception {
+        Mockito.when(resultSet.getLong(1)).thenReturn(42l);
+        Row row = new Row();
+        FieldSetter.get(Row.class.getDeclaredField("id")).set(row, resultSet, 1);
+        Assert.assertEquals(42l, row.id);
+    }
+
+    @Test
+    public void setNullLong() throws Exception {
+        Mockito.when(resultSet.getLong(1)).thenReturn(0l);
+        Mockito.when(resultSet.wasNull()).thenReturn(true);
+        Row row = new Row();
+        row.nullableLong = 5l;
+        FieldSetter.get(Row.class.getDeclaredField("nullableLong")).set(row, resultSet, 1);
+        Assert.assertNull(row.nullableLong);
+    }
+
+    @Test
+    public void setString() throws Exception {
+        Mockito.when(resultSet.getBytes(1)).thenReturn("name".getBytes("UTF-8"));
+        Row row = new Row();
+        FieldSetter.get(Row.class.getDeclaredField("name")).set(row, resultSet, 1);
+        Assert.assertEquals("name", row.name);
+    }
+
+    @Test
+    public void setEnumByName() throws Exception {
+        Mockito.when(resultSet.getString(1)).thenReturn("stopped");
+        Row row = new Row();
+        FieldSetter.get(Row.class.getDeclaredField("state")).set(row, resultSet, 1);
+        Assert.assertEquals(State.Stopped, row.state);
+    }
+
+    @Test
+    public void setEnumByOrdinal() throws Exception {
+        Mockito.when(resultSet.getInt(1)).thenReturn(1);
+        Row row = new Row();
+        FieldSetter.get(Row.class.getDeclaredField("ordinalState")).set(row, resultSet, 1);
+        Assert.assertEquals(State.Stopped, row.ordinalState);
+    }
+
+    @Test
+    public void setUnknownEnumLeavesField() throws Exception {
+        Mockito.when(resultSet.getString(1)).thenReturn("Migrating");
+        Row row = new Row();
+        row.state = State.Running;
+        FieldSetter.get(Row.class.getDeclaredField("state")).set(row, resultSet, 1);
+        Assert.assertEquals(State.Running, row.state);
+    }
+
+    @Test
+    public void setterIsCachedPerField() throws NoSuchFieldException, SQLException {
+        Assert.assertSame(FieldSetter.get(Row.class.getDeclaredField("id")), FieldSetter.get(Row.class.getDeclaredField("id")));
+    }
+
+    @Test
+    public void setFieldOfSuperclassOnSubclass() throws Exception {
+        Mockito.when(resultSet.getLong(1)).thenReturn(7l);
+        Mockito.when(resultSet.getBytes(2)).thenReturn("extra".getBytes("UTF-8"));
+        DerivedRow row = new DerivedRow();
+        FieldSetter.get(Row.class.getDeclaredField("id")).set(row, resultSet, 1);
+        FieldSetter.get(DerivedRow.class.getDeclaredField("extra")).set(row, resultSet, 2);
+        Assert.assertEquals(7l, row.id);
+        Assert.assertEquals("extra", row.extra);
+    }
+
+    @Test
+    public void reflectiveSetterSetsTheSameValues() throws Exception {
+        Mockito.when(resultSet.getInt(1)).thenReturn(3);
+        Mockito.when(resultSet.getString(2)).thenReturn("Running");
+        Row offset = new Row();
+        Row reflective = new Row();
+        for (Row row : new Row[] {offset, reflective}) {
+            boolean isReflective = row == reflective;
+            setter(Row.class.getDeclaredField("count"), isReflective).set(row, resultSet, 1);
+            setter(Row.class.getDeclaredField("state"), isReflective).set(row, resultSet, 2);
+        }
+        Assert.assertEquals(Integer.valueOf(3), offset.count);
+        Assert.assertEquals(offset.count, reflective.count);
+        Assert.assertEquals(State.Running, offset.state);
+        Assert.assertEquals(offset.state, reflective.state);
+    }
+
+    @Test
+    public void setAnyObjectOfTheFieldType() throws Exception {
+        Mockito.when(resultSet.getObject(1)).thenReturn(5);
+        Row row = new Row();
+        FieldSetter.get(Row.class.getDeclaredField("any")).set(row, resultSet, 1);
+        FieldSetter.get(Row.class.getDeclaredField("number")).set(row, resultSet, 1);
+        Assert.assertEquals(5, row.any);
+        Assert.assertEquals(5, row.number);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectObjectNotOfTheFieldType() throws Exception {
+        Mockito.when(resultSet.getObject(1)).thenReturn("five");
+        FieldSetter.get(Row.class.getDeclaredField("number")).set(new Row(), resultSet, 1);
+    }
+
+    @Test
+    public void parseDateLikeDateUtil() {
+        for (String date : new String[] {"2014-05-13 16:53:20", "2014-05-13 16:53:20.0", "1999-12-31 23:59:59", "2014-02-30 25:61:00", "2014-5-13 16:53:20"}) {
+            Assert.assertEquals(date, DateUtil.parseDateString(TimeZone.getTimeZone("GMT"), date), FieldSetter.parseDate(date));
+        }
+    }
+
+    @Test
+    public void setDate() throws Exception {
+        Mockito.when(resultSet.getDate(1)).thenReturn(new java.sql.Date(0));
+        Mockito.when(resultSet.getString(1)).thenReturn("2014-05-13 16:53:20");
+        Row row = new Row();
+        FieldSetter.get(Row.class.getDeclaredField("created")).set(row, resultSet, 1);
+        Assert.assertEquals(1400000000000l, row.created.getTime());
+    }
+
+    private static FieldSetter setter(Field field, boolean reflective) {
+        return reflective ? FieldSetter.reflective(field) : FieldSetter.get(field);
+    }
+}
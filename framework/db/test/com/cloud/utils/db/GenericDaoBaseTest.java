@@ -16,20 +16,52 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
 
+import javax.persistence.EntityExistsException;
+
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.cloud.utils.exception.CloudRuntimeException;
+
 @RunWith(MockitoJUnitRunner.class)
 public class GenericDaoBaseTest {
     @Mock
     ResultSet resultSet;
+    @Mock
+    Connection conn;
+    @Mock
+    PreparedStatement pstmt;
+
+    TransactionLegacy txn;
+    DbTestDao dao;
+
+    @Before
+    public void setUp() throws SQLException {
+        txn = TransactionLegacy.open("GenericDaoBaseTest", TransactionLegacy.CLOUD_DB, true);
+        txn.transitToUserManagedConnection(conn);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenReturn(pstmt);
+        Mockito.when(conn.prepareStatement(Mockito.anyString(), Mockito.anyInt())).thenReturn(pstmt);
+        dao = new DbTestDao();
+    }
+
+    @After
+    public void tearDown() {
+        txn.close();
+    }
 
     @Test
     public void getObjectBoolean() throws SQLException {
@@ -148,4 +180,165 @@ public class GenericDaoBaseTest {
         Mockito.verify(resultSet).getByte(1);
     }
 
+    @Test
+    public void countRowsOfBatch() {
+        Assert.assertEquals(3, GenericDaoBase.countRows(new int[] {1, 0, 2}));
+        Assert.assertEquals(2, GenericDaoBase.countRows(new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}));
+        Assert.assertEquals(1, GenericDaoBase.countRows(new int[] {Statement.EXECUTE_FAILED, 1}));
+    }
+
+    @Test
+    public void persistAllAssignsGeneratedIds() throws SQLException {
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1});
+        Mockito.when(pstmt.getGeneratedKeys()).thenReturn(resultSet);
+        Mockito.when(resultSet.next()).thenReturn(true, true, false);
+        Mockito.when(resultSet.getObject(1)).thenReturn(11l, 12l);
+        Mockito.when(resultSet.getLong(1)).thenReturn(11l, 12l);
+
+        List<DbTestVO> entities = Arrays.asList(new DbTestVO(), new DbTestVO());
+        Assert.assertSame(entities, dao.persistAll(entities));
+
+        Mockito.verify(conn).prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS));
+        Mockito.verify(pstmt, Mockito.times(2)).addBatch();
+        Mockito.verify(pstmt).executeBatch();
+        Assert.assertEquals(11l, entities.get(0).id);
+        Assert.assertEquals(12l, entities.get(1).id);
+    }
+
+    @Test
+    public void persistAllSplitsIntoBatches() throws SQLException {
+        dao._batchSize = 2;
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {1});
+
+        dao.persistAll(Arrays.asList(new DbTestVO(), new DbTestVO(), new DbTestVO()));
+
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(2)).executeBatch();
+    }
+
+    @Test
+    public void persistAllFailureIsReportedWithoutIds() throws SQLException {
+        Mockito.when(pstmt.executeBatch()).thenThrow(new SQLException("Duplicate entry", "23000", 1062));
+
+        DbTestVO entity = new DbTestVO();
+        try {
+            dao.persistAll(Arrays.asList(entity, new DbTestVO()));
+            Assert.fail("the failed batch must be reported");
+        } catch (EntityExistsException e) {
+            Assert.assertEquals(0l, entity.id);
+        }
+        Mockito.verify(pstmt, Mockito.never()).getGeneratedKeys();
+        Mockito.verify(conn, Mockito.never()).commit();
+    }
+
+    @Test
+    public void updateAllBatchesSameColumnsAndEvictsCache() throws SQLException {
+        dao._cache = new EntityCache("GenericDaoBaseTest.updateAll", Long.class, 10, 60, 60);
+        dao._cache.put(1l, new DbTestVO());
+        dao._cache.put(2l, new DbTestVO());
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1});
+
+        DbTestVO first = dao.createForUpdate(1l);
+        GenericDaoBase.getUpdateBuilder(first).set(first, "fieldString", "one");
+        DbTestVO second = dao.createForUpdate(2l);
+        GenericDaoBase.getUpdateBuilder(second).set(second, "fieldString", "two");
+
+        Assert.assertEquals(2, dao.updateAll(Arrays.asList(first, second)));
+
+        Mockito.verify(conn).prepareStatement(Mockito.anyString());
+        Mockito.verify(pstmt, Mockito.times(2)).addBatch();
+        Mockito.verify(pstmt).setBytes(1, "one".getBytes());
+        Mockito.verify(pstmt).setObject(2, 1l);
+        Mockito.verify(pstmt).setBytes(1, "two".getBytes());
+        Mockito.verify(pstmt).setObject(2, 2l);
+        Assert.assertNull(dao._cache.get(1l));
+        Assert.assertNull(dao._cache.get(2l));
+        Assert.assertFalse(GenericDaoBase.getUpdateBuilder(first).hasChanges());
+    }
+
+    @Test
+    public void updateByIdEvictsOnlyThatRow() throws SQLException {
+        dao._cache = new EntityCache("GenericDaoBaseTest.updateById", Long.class, 10, 60, 60);
+        dao._cache.put(1l, new DbTestVO());
+        dao._cache.put(2l, new DbTestVO());
+        EntityCache.Publisher publisher = Mockito.mock(EntityCache.Publisher.class);
+        EntityCache.setPublisher(publisher);
+        try {
+            Mockito.when(pstmt.executeUpdate()).thenReturn(1);
+
+            DbTestVO entity = dao.createForUpdate(1l);
+            GenericDaoBase.getUpdateBuilder(entity).set(entity, "fieldString", "one");
+            Assert.assertTrue(dao.update(1l, entity));
+
+            Assert.assertNull(dao._cache.get(1l));
+            Assert.assertNotNull(dao._cache.get(2l));
+            Mockito.verify(publisher).publish("GenericDaoBaseTest.updateById", "1");
+            Mockito.verifyNoMoreInteractions(publisher);
+        } finally {
+            EntityCache.setPublisher(null);
+        }
+    }
+
+    @Test
+    public void updateByCriteriaEvictsWholeCache() throws SQLException {
+        dao._cache = new EntityCache("GenericDaoBaseTest.updateByCriteria", Long.class, 10, 60, 60);
+        dao._cache.put(1l, new DbTestVO());
+        dao._cache.put(2l, new DbTestVO());
+        Mockito.when(pstmt.executeUpdate()).thenReturn(2);
+
+        DbTestVO entity = dao.createForUpdate();
+        GenericDaoBase.getUpdateBuilder(entity).set(entity, "fieldString", "all");
+        SearchCriteria<DbTestVO> sc = dao.createSearchCriteria();
+        sc.addAnd("fieldString", SearchCriteria.Op.EQ, "old");
+        Assert.assertEquals(2, dao.update(entity, sc));
+
+        Assert.assertNull(dao._cache.get(1l));
+        Assert.assertNull(dao._cache.get(2l));
+    }
+
+    @Test
+    public void updateAllFailureKeepsPendingChanges() throws SQLException {
+        Mockito.when(pstmt.executeBatch()).thenThrow(new SQLException("Lock wait timeout", "40001", 1205));
+
+        DbTestVO entity = dao.createForUpdate(1l);
+        GenericDaoBase.getUpdateBuilder(entity).set(entity, "fieldString", "one");
+        try {
+            dao.updateAll(Arrays.asList(entity));
+            Assert.fail("the failed batch must be reported");
+        } catch (CloudRuntimeException e) {
+            Assert.assertTrue(GenericDaoBase.getUpdateBuilder(entity).hasChanges());
+        }
+        Mockito.verify(conn, Mockito.never()).commit();
+    }
+
+    @Test
+    public void removeAllEvictsCacheAfterCommit() throws SQLException {
+        dao._cache = new EntityCache("GenericDaoBaseTest.removeAll", Long.class, 10, 60, 60);
+        dao._cache.put(1l, new DbTestVO());
+        dao._cache.put(3l, new DbTestVO());
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, Statement.SUCCESS_NO_INFO});
+
+        Assert.assertEquals(2, dao.removeAll(Arrays.asList(1l, 2l)));
+
+        Mockito.verify(pstmt).setObject(1, 1l);
+        Mockito.verify(pstmt).setObject(1, 2l);
+        Mockito.verify(conn).commit();
+        Assert.assertNull(dao._cache.get(1l));
+        Assert.assertNotNull(dao._cache.get(3l));
+    }
+
+    @Test
+    public void removeAllFailureKeepsCache() throws SQLException {
+        dao._cache = new EntityCache("GenericDaoBaseTest.removeAllFailure", Long.class, 10, 60, 60);
+        dao._cache.put(1l, new DbTestVO());
+        Mockito.when(pstmt.executeBatch()).thenThrow(new SQLException("Lock wait timeout", "40001", 1205));
+
+        try {
+            dao.removeAll(Arrays.asList(1l));
+            Assert.fail("the failed batch must be reported");
+        } catch (CloudRuntimeException e) {
+            Assert.assertNotNull(dao._cache.get(1l));
+        }
+        Mockito.verify(conn, Mockito.never()).commit();
+    }
 }
@@ -0,0 +1,286 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs two lock masters against an in memory op_lock table.
+ */
+public class Merovingian2ContentionTest {
+    Map<String, Row> _table;
+    TestLockMaster _server;
+    TestLockMaster _peer;
+    ExecutorService _executor;
+
+    @Before
+    public void setUp() {
+        _table = new HashMap<String, Row>();
+        _server = new TestLockMaster(1, _table);
+        _peer = new TestLockMaster(2, _table);
+        _executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void reentrantAcquireIsCountedAndReleased() {
+        Assert.assertTrue(_server.acquire("key", 1));
+        Assert.assertTrue(_server.acquire("key", 1));
+        Assert.assertEquals(2, _server.owns("key"));
+        Assert.assertEquals(1, _server._inserts);
+
+        Assert.assertTrue(_server.release("key"));
+        Assert.assertNotNull(_table.get("key"));
+        Assert.assertTrue(_server.release("key"));
+        Assert.assertNull(_table.get("key"));
+        Assert.assertEquals(0, _server.getLocalCount("key"));
+    }
+
+    @Test
+    public void reentryChecksTheRowWithoutTheStripe() {
+        Assert.assertTrue(_server.acquire("key", 1));
+        Assert.assertTrue(_server.acquire("key", 1));
+        Assert.assertEquals(1, _server._heldChecks);
+        Assert.assertFalse(_server._heldCheckedUnderStripe);
+
+        Assert.assertTrue(_server.release("key"));
+        Assert.assertTrue(_server.release("key"));
+    }
+
+    @Test
+    public void reentryAfterPeerCleanupTakesTheRowAgain() {
+        Assert.assertTrue(_server.acquire("key", 1));
+        // a peer decided this server is dead
+        _peer.cleanupForServer(1);
+        Assert.assertNull(_table.get("key"));
+
+        Assert.assertTrue(_server.acquire("key", 1));
+        Assert.assertEquals(2, _server.owns("key"));
+        Assert.assertEquals(1, _table.get("key").msId);
+
+        Assert.assertTrue(_server.release("key"));
+        Assert.assertTrue(_server.release("key"));
+        Assert.assertNull(_table.get("key"));
+    }
+
+    @Test
+    public void reentryFailsOnceAPeerHasTheRow() {
+        Assert.assertTrue(_server.acquire("key", 1));
+        _peer.cleanupForServer(1);
+        Assert.assertTrue(_peer.acquire("key", 1));
+
+        Assert.assertFalse(_server.acquire("key", 1));
+        // the outer hold is still there, but releasing it leaves the peer's row alone
+        Assert.assertEquals(1, _server.owns("key"));
+        Assert.assertTrue(_server.release("key"));
+        Assert.assertEquals(2, _table.get("key").msId);
+        Assert.assertTrue(_peer.release("key"));
+    }
+
+    @Test
+    public void releaseHandsTheRowToALocalWaiter() throws Exception {
+        Assert.assertTrue(_server.acquire("key", 1));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Integer> waiter = _executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                if (!_server.acquire("key", 10)) {
+                    return -1;
+                }
+                acquired.countDown();
+                release.await();
+                _server.release("key");
+                return System.identityHashCode(Thread.currentThread());
+            }
+        });
+
+        waitForWaiter("key");
+        Assert.assertTrue(_server.release("key"));
+        Assert.assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+        // the row stayed and was handed over instead of deleted and inserted again
+        Assert.assertEquals(1, _server._inserts);
+        Assert.assertEquals(1, _server._transfers);
+        int waiterThreadId = _table.get("key").threadId;
+
+        release.countDown();
+        Assert.assertEquals(waiterThreadId, waiter.get(10, TimeUnit.SECONDS).intValue());
+        Assert.assertNull(_table.get("key"));
+    }
+
+    @Test
+    public void acquireTimesOutOnLocalOwner() throws Exception {
+        Assert.assertTrue(_server.acquire("key", 1));
+
+        long start = System.currentTimeMillis();
+        Future<Boolean> other = _executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return _server.acquire("key", 1);
+            }
+        });
+        Assert.assertFalse(other.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+        // nobody polled the table for a key this server holds
+        Assert.assertEquals(1, _server._inserts);
+        Assert.assertEquals(1, _server.owns("key"));
+        Assert.assertTrue(_server.release("key"));
+    }
+
+    @Test
+    public void acquireTimesOutOnPeerOwner() {
+        Assert.assertTrue(_peer.acquire("key", 1));
+
+        Assert.assertFalse(_server.acquire("key", 1));
+        Assert.assertEquals(0, _server.getLocalCount("key"));
+        Assert.assertEquals(2, _table.get("key").msId);
+        Assert.assertTrue(_peer.release("key"));
+    }
+
+    @Test
+    public void cleanupThisServerForgetsLocalOwners() {
+        Assert.assertTrue(_server.acquire("key", 1));
+        Assert.assertTrue(_peer.acquire("other", 1));
+
+        _server.cleanupThisServer();
+        Assert.assertNull(_table.get("key"));
+        Assert.assertNotNull(_table.get("other"));
+        Assert.assertEquals(0, _server.getLocalCount("key"));
+        Assert.assertFalse(_server.release("key"));
+        Assert.assertTrue(_peer.release("other"));
+    }
+
+    private void waitForWaiter(String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            _server.stripe(key).lock();
+            try {
+                Merovingian2.LocalLock lock = _server.getLocalLock(key, false);
+                if (lock != null && lock.waiters > 0) {
+                    return;
+                }
+            } finally {
+                _server.stripe(key).unlock();
+            }
+            Thread.sleep(10);
+        }
+        Assert.fail("nobody is waiting for " + key);
+    }
+
+    static class Row {
+        final long msId;
+        int threadId;
+
+        Row(long msId, int threadId) {
+            this.msId = msId;
+            this.threadId = threadId;
+        }
+    }
+
+    static class TestLockMaster extends Merovingian2 {
+        final long _id;
+        final Map<String, Row> _rows;
+        int _inserts;
+        int _transfers;
+        int _heldChecks;
+        boolean _heldCheckedUnderStripe;
+
+        TestLockMaster(long msId, Map<String, Row> rows) {
+            super(msId, null);
+            _id = msId;
+            _rows = rows;
+        }
+
+        @Override
+        protected boolean doAcquire(String key, String threadName, int threadId) {
+            synchronized (_rows) {
+                if (_rows.containsKey(key)) {
+                    return false;
+                }
+                _rows.put(key, new Row(_id, threadId));
+                _inserts++;
+                return true;
+            }
+        }
+
+        @Override
+        protected boolean transfer(String key, String threadName, int threadId) {
+            synchronized (_rows) {
+                Row row = _rows.get(key);
+                if (row == null || row.msId != _id) {
+                    return false;
+                }
+                row.threadId = threadId;
+                _transfers++;
+                return true;
+            }
+        }
+
+        @Override
+        protected boolean isHeld(String key, int threadId) {
+            _heldChecks++;
+            _heldCheckedUnderStripe |= stripe(key).isHeldByCurrentThread();
+            synchronized (_rows) {
+                Row row = _rows.get(key);
+                return row != null && row.msId == _id && row.threadId == threadId;
+            }
+        }
+
+        @Override
+        protected void doRelease(String key) {
+            synchronized (_rows) {
+                Row row = _rows.get(key);
+                if (row != null && row.msId == _id) {
+                    _rows.remove(key);
+                }
+            }
+        }
+
+        @Override
+        protected int doCleanup(long msId) {
+            int rows = 0;
+            synchronized (_rows) {
+                for (Iterator<Row> it = _rows.values().iterator(); it.hasNext();) {
+                    if (it.next().msId == msId) {
+                        it.remove();
+                        rows++;
+                    }
+                }
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+import org.apache.cloudstack.framework.jobs.AsyncJobLatencyMBean;
+
+import com.cloud.utils.LatencyHistogram;
+
+public class AsyncJobLatencyMBeanImpl extends StandardMBean implements AsyncJobLatencyMBean {
+    private final ConcurrentHashMap<String, LatencyHistogram> _queueWait = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentHashMap<String, LatencyHistogram> _execution = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLong _queueScans = new AtomicLong();
+
+    public AsyncJobLatencyMBeanImpl() {
+        super(AsyncJobLatencyMBean.class, false);
+    }
+
+    public void recordQueueWait(AsyncJob job, long millis) {
+        getHistogram(_queueWait, getJobType(job)).record(millis);
+    }
+
+    public void recordExecution(AsyncJob job, long millis) {
+        getHistogram(_execution, getJobType(job)).record(millis);
+    }
+
+    public void recordQueueScan() {
+        _queueScans.incrementAndGet();
+    }
+
+    /**
+     * @return the command class name without its package
+     */
+    protected static String getJobType(AsyncJob job) {
+        String cmd = job.getCmd();
+        if (cmd == null || cmd.isEmpty()) {
+            return "unknown";
+        }
+        return cmd.substring(cmd.lastIndexOf('.') + 1);
+    }
+
+    private static LatencyHistogram getHistogram(ConcurrentHashMap<String, LatencyHistogram> histograms, String type) {
+        LatencyHistogram histogram = histograms.get(type);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = histograms.putIfAbsent(type, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    private static Map<String, String> toMap(Map<String, LatencyHistogram> histograms) {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toString());
+        }
+        return result;
+    }
+
+    public Map<String, LatencyHistogram> getQueueWaitHistograms() {
+        return _queueWait;
+    }
+
+    public Map<String, LatencyHistogram> getExecutionHistograms() {
+        return _execution;
+    }
+
+    @Override
+    public Map<String, String> getQueueWaitLatency() {
+        return toMap(_queueWait);
+    }
+
+    @Override
+    public Map<String, String> getExecutionLatency() {
+        return toMap(_execution);
+    }
+
+    @Override
+    public long getQueueScanCount() {
+        return _queueScans.get();
+    }
+
+    @Override
+    public void reset() {
+        _queueWait.clear();
+        _execution.clear();
+        _queueScans.set(0);
+    }
+}
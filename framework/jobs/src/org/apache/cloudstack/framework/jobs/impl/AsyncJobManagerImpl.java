@@ -29,6 +29,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -56,7 +57,9 @@ import org.apache.cloudstack.jobs.JobInfo.Status;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ClusterServicePdu;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.Pair;
@@ -77,6 +80,7 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
@@ -92,15 +96,19 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final ConfigKey<Integer> VmJobLockTimeout = new ConfigKey<Integer>("Advanced",
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
+    private static final ConfigKey<Integer> JobQueueScanInterval = new ConfigKey<Integer>("Advanced", Integer.class, "job.queue.scan.interval", "30",
+        "Time (in seconds) between periodic scans of the job sync queues, queues are otherwise scanned as soon as jobs are submitted or completed", false);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
     private static final int ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION = 3;     // 3 seconds
 
     private static final int MAX_ONETIME_SCHEDULE_SIZE = 50;
-    private static final int HEARTBEAT_INTERVAL = 2000;
+    private static final int QUEUE_SCAN_RETRY_INTERVAL = 500;    // 0.5 seconds
     private static final int GC_INTERVAL = 10000;                // 10 seconds
 
+    private static final String QUEUE_SCAN_DISPATCHER = "AsyncJobQueueDispatcher";
+
     @Inject
     private SyncQueueItemDao _queueItemDao;
     @Inject
@@ -119,10 +127,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private VMInstanceDao _vmInstanceDao;
+    @Inject
+    private ClusterManager _clusterMgr;
 
     private volatile long _executionRunNumber = 1;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
+    private final ScheduledExecutorService _gcScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-GC"));
+    private final AtomicBoolean _queueScanRequested = new AtomicBoolean(false);
+    private final AsyncJobLatencyMBeanImpl _latencyStats = new AsyncJobLatencyMBeanImpl();
+    private Runnable _heartbeatTask;
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
 
@@ -133,7 +147,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, JobQueueScanInterval};
     }
 
     @Override
@@ -305,6 +319,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 }
         */
         _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.GLOBAL, jobId);
+
+        // the queue item is gone, let the next job in the queue go
+        requestQueueScanAfterCommit();
     }
 
     @Override
@@ -412,6 +429,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+
+        requestQueueScanAfterCommit();
     }
 
     @Override
@@ -497,6 +516,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             @Override
             protected void runInContext() {
                 long runNumber = getJobRunNumber();
+                long startTick = System.currentTimeMillis();
+                if (job.getCreated() != null) {
+                    _latencyStats.recordQueueWait(job, startTick - job.getCreated().getTime());
+                }
 
                 try {
                     //
@@ -551,7 +574,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         if (job.getSyncSource() != null) {
                             // here check queue item one more time to double make sure that queue item is removed in case of any uncaught exception
                             _queueMgr.purgeItem(job.getSyncSource().getId());
+                            requestQueueScan();
                         }
+                        _latencyStats.recordExecution(job, System.currentTimeMillis() - startTick);
 
                         try {
                             JmxUtil.unregisterMBean("AsyncJobManager", "Active Job " + job.getId());
@@ -630,6 +655,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 } catch (Exception e3) {
                     s_logger.warn("Unexpected exception while update job-" + item.getContentId() + " msid for bookkeeping");
                 }
+
+                // we are saturated, give the other management servers a chance to pick it up
+                broadcastQueueScan();
             }
 
         } else {
@@ -720,11 +748,74 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
+    /**
+     * Scan the sync queues as soon as possible, requests made while a scan is pending are coalesced into it.
+     */
+    private void requestQueueScan() {
+        if (_queueScanRequested.compareAndSet(false, true)) {
+            try {
+                _heartbeatScheduler.execute(_heartbeatTask);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                _queueScanRequested.set(false);
+            }
+        }
+    }
+
+    private void requestQueueScanAfterCommit() {
+        TransactionLegacy.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                requestQueueScan();
+            }
+        });
+    }
+
+    private void scheduleQueueScan(long delayMs) {
+        if (_queueScanRequested.compareAndSet(false, true)) {
+            try {
+                _heartbeatScheduler.schedule(_heartbeatTask, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                _queueScanRequested.set(false);
+            }
+        }
+    }
+
+    private void broadcastQueueScan() {
+        try {
+            _clusterMgr.broadcast(QUEUE_SCAN_DISPATCHER, String.valueOf(getMsid()));
+        } catch (Throwable e) {
+            s_logger.warn("Unable to notify peer management servers of queued jobs", e);
+        }
+    }
+
+    /**
+     * Wakes up the local queue scan when a peer has more queued jobs than it can take on.
+     */
+    protected class QueueScanDispatcher implements ClusterManager.Dispatcher {
+        @Override
+        public String getName() {
+            return QUEUE_SCAN_DISPATCHER;
+        }
+
+        @Override
+        public String dispatch(ClusterServicePdu pdu) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Queue scan requested by management server " + pdu.getJsonPackage());
+            }
+            requestQueueScan();
+            return null;
+        }
+    }
+
     private Runnable getHeartbeatTask() {
         return new ManagedContextRunnable() {
 
             @Override
             protected void runInContext() {
+                _queueScanRequested.set(false);
+                _latencyStats.recordQueueScan();
+
                 GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerHeartbeat");
                 try {
                     if (scanLock.lock(ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION)) {
@@ -733,6 +824,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         } finally {
                             scanLock.unlock();
                         }
+                    } else {
+                        // another node is scanning, it may have missed what we were woken up for
+                        scheduleQueueScan(QUEUE_SCAN_RETRY_INTERVAL);
                     }
                 } finally {
                     scanLock.releaseRef();
@@ -749,6 +843,12 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             }
                             executeQueueItem(item, false);
                         }
+
+                        if (l.size() >= MAX_ONETIME_SCHEDULE_SIZE) {
+                            // there is likely more backlog, keep draining and let the peers help
+                            requestQueueScan();
+                            broadcastQueueScan();
+                        }
                     }
 
                     List<Long> standaloneWakeupJobs = wakeupScan();
@@ -802,6 +902,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
                                 // purge the item and resume queue processing
                                 _queueMgr.purgeItem(item.getId());
+                                requestQueueScan();
                             } catch (Throwable e) {
                                 s_logger.error("Unexpected exception when trying to remove job from sync queue, ", e);
                             }
@@ -967,6 +1068,15 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         AsyncJobExecutionContext.init(this, _joinMapDao);
         OutcomeImpl.init(this);
 
+        _heartbeatTask = getHeartbeatTask();
+        _clusterMgr.registerNamedDispatcher(new QueueScanDispatcher());
+
+        try {
+            JmxUtil.registerMBean("AsyncJobManager", "Latency", _latencyStats);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register async job latency statistics to JMX monitoring due to exception " + ExceptionUtil.toString(e));
+        }
+
         return true;
     }
 
@@ -994,6 +1104,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                     }
                 }
             });
+            requestQueueScan();
         } catch (Throwable e) {
             s_logger.warn("Unexpected exception in cleaning up left over jobs for mamagement server node " + msid, e);
         }
@@ -1018,8 +1129,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     public boolean start() {
         cleanupLeftOverJobs(getMsid());
 
-        _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
-        _heartbeatScheduler.scheduleAtFixedRate(getGCTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
+        // jobs are scheduled as they are submitted or completed, the periodic scan is only a safety net
+        Integer scanSeconds = JobQueueScanInterval.value();
+        if (scanSeconds == null || scanSeconds < 1) {
+            s_logger.warn("Invalid " + JobQueueScanInterval.key() + " of " + scanSeconds + " seconds, scanning the job queues every second instead");
+            scanSeconds = 1;
+        }
+        long scanInterval = scanSeconds * 1000L;
+        _heartbeatScheduler.scheduleWithFixedDelay(_heartbeatTask, scanInterval, scanInterval, TimeUnit.MILLISECONDS);
+        _gcScheduler.scheduleAtFixedRate(getGCTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
+        requestQueueScan();
 
         return true;
     }
@@ -1027,6 +1146,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _gcScheduler.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
@@ -21,6 +21,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -49,6 +50,12 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
     Map<RoleType, Set<String>> commandsPropertiesRoleBasedApisMap = new HashMap<RoleType, Set<String>>();
     Map<RoleType, Set<String>> annotationRoleBasedApisMap = new HashMap<RoleType, Set<String>>();
 
+    // role types allowed to run each command with the commands.properties overrides applied
+    private volatile Map<String, Integer> _allowedRoles = new HashMap<String, Integer>();
+    // account types never change, so the role of an account is resolved once
+    private static final int MAX_CACHED_ROLES = 10000;
+    private final Map<Long, RoleType> _accountRoles = new ConcurrentHashMap<Long, RoleType>();
+
     List<PluggableService> _services;
     @Inject
     AccountService _accountService;
@@ -63,15 +70,21 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
 
     @Override
     public boolean checkAccess(User user, String commandName) throws PermissionDeniedException {
-        Account account = _accountService.getAccount(user.getAccountId());
-        if (account == null) {
-            throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
+        RoleType roleType = _accountRoles.get(user.getAccountId());
+        if (roleType == null) {
+            Account account = _accountService.getAccount(user.getAccountId());
+            if (account == null) {
+                throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
+            }
+            roleType = _accountService.getRoleType(account);
+            if (_accountRoles.size() >= MAX_CACHED_ROLES) {
+                _accountRoles.clear();
+            }
+            _accountRoles.put(user.getAccountId(), roleType);
         }
 
-        RoleType roleType = _accountService.getRoleType(account);
-        boolean isAllowed =
-            commandsPropertiesOverrides.contains(commandName) ? commandsPropertiesRoleBasedApisMap.get(roleType).contains(commandName) : annotationRoleBasedApisMap.get(
-                roleType).contains(commandName);
+        Integer allowedRoles = _allowedRoles.get(commandName);
+        boolean isAllowed = allowedRoles != null && (allowedRoles & roleType.getValue()) != 0;
 
         if (!isAllowed) {
             throw new PermissionDeniedException("The API does not exist or is blacklisted. Role type=" + roleType.toString() + " is not allowed to request the api: " +
@@ -85,6 +98,7 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
         super.configure(name, params);
 
         processMapping(PropertiesUtil.processConfigFile(new String[] {"commands.properties"}));
+        compileAllowedRoles();
         return true;
     }
 
@@ -100,9 +114,31 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
                 }
             }
         }
+        compileAllowedRoles();
         return super.start();
     }
 
+    private void compileAllowedRoles() {
+        Map<String, Integer> allowedRoles = new HashMap<String, Integer>();
+        for (RoleType roleType : RoleType.values()) {
+            Set<String> commands = annotationRoleBasedApisMap.get(roleType);
+            for (String commandName : commands) {
+                if (!commandsPropertiesOverrides.contains(commandName)) {
+                    addAllowedRole(allowedRoles, commandName, roleType);
+                }
+            }
+            for (String commandName : commandsPropertiesRoleBasedApisMap.get(roleType)) {
+                addAllowedRole(allowedRoles, commandName, roleType);
+            }
+        }
+        _allowedRoles = allowedRoles;
+    }
+
+    private static void addAllowedRole(Map<String, Integer> allowedRoles, String commandName, RoleType roleType) {
+        Integer mask = allowedRoles.get(commandName);
+        allowedRoles.put(commandName, (mask != null ? mask : 0) | roleType.getValue());
+    }
+
     private void processMapping(Map<String, String> configMap) {
         for (Map.Entry<String, String> entry : configMap.entrySet()) {
             String apiName = entry.getKey();
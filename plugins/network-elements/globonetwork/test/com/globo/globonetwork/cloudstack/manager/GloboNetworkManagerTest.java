@@ -28,6 +28,7 @@ import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -727,10 +728,10 @@ public class GloboNetworkManagerTest {
 //    }
 
     private void registerConfigKey(String key, String valueMock) {
-        ConfigDepotImpl mock = mock(ConfigDepotImpl.class);
+        ConfigDepotImpl mock = spy(new ConfigDepotImpl());
         ConfigurationDao mockDAo = mock(ConfigurationDao.class);
 
-        when(mock.global()).thenReturn(mockDAo);
+        doReturn(mockDAo).when(mock).global();
         when(mockDAo.findById(key)).thenReturn(new ConfigurationVO("Network", "String", null, key, valueMock, null));
         ConfigKey.init(mock);
     }
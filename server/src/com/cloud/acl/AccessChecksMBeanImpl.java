@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.acl;
+
+import javax.management.StandardMBean;
+
+public class AccessChecksMBeanImpl extends StandardMBean implements AccessChecksMBean {
+    private final AccessDecisionCache _cache;
+
+    public AccessChecksMBeanImpl(AccessDecisionCache cache) {
+        super(AccessChecksMBean.class, false);
+        _cache = cache;
+    }
+
+    @Override
+    public long getAccountHits() {
+        return _cache.getAccountHits();
+    }
+
+    @Override
+    public long getAccountMisses() {
+        return _cache.getAccountMisses();
+    }
+
+    @Override
+    public long getDomainHits() {
+        return _cache.getDomainHits();
+    }
+
+    @Override
+    public long getDomainMisses() {
+        return _cache.getDomainMisses();
+    }
+
+    @Override
+    public long getEntityHits() {
+        return _cache.getEntityHits();
+    }
+
+    @Override
+    public long getEntityMisses() {
+        return _cache.getEntityMisses();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = _cache.getAccountHits() + _cache.getDomainHits() + _cache.getEntityHits();
+        long total = hits + _cache.getAccountMisses() + _cache.getDomainMisses() + _cache.getEntityMisses();
+        return total == 0 ? 0 : hits * 100.0 / total;
+    }
+
+    @Override
+    public int getCachedDecisions() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public void invalidate() {
+        _cache.invalidateAll();
+    }
+}
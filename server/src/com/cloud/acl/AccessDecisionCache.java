@@ -0,0 +1,156 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.acl;
+
+import org.apache.cloudstack.acl.SecurityChecker.AccessType;
+
+import com.cloud.utils.ExpiringLruCache;
+
+/**
+ * Bounded cache of the access decisions the security checkers made for an
+ * account: the capabilities compiled from its account type, the domains it
+ * may operate in and the owners whose entities it may use.  Only granted
+ * checks are kept, a denial is always worked out again so its message stays
+ * accurate.  AccountManagerImpl empties it through the AccountCacheInvalidator
+ * whenever an account, domain or project membership changes, here and on the
+ * other management servers; entries also expire after a time to live in case
+ * a peer misses the invalidation.
+ *
+ * Entity decisions are keyed by owner, which matches the checkers that
+ * decide by ownership.  Callers must not cache entities whose checks look
+ * at the entity itself, like templates or affinity groups.
+ */
+public class AccessDecisionCache {
+    public static final String NAME = "AccessDecisions";
+
+    private final ExpiringLruCache<Long, AccountAccess> _accounts;
+    private final ExpiringLruCache<String, Boolean> _domains;
+    private final ExpiringLruCache<String, Boolean> _entities;
+
+    /**
+     * Capabilities of an account as answered by the security checkers.
+     */
+    public static class AccountAccess {
+        private final short _type;
+        private final boolean _rootAdmin;
+        private final boolean _domainAdmin;
+        private final boolean _resourceDomainAdmin;
+
+        public AccountAccess(short type, boolean rootAdmin, boolean domainAdmin, boolean resourceDomainAdmin) {
+            _type = type;
+            _rootAdmin = rootAdmin;
+            _domainAdmin = domainAdmin;
+            _resourceDomainAdmin = resourceDomainAdmin;
+        }
+
+        public short getType() {
+            return _type;
+        }
+
+        public boolean isRootAdmin() {
+            return _rootAdmin;
+        }
+
+        public boolean isDomainAdmin() {
+            return _domainAdmin;
+        }
+
+        public boolean isResourceDomainAdmin() {
+            return _resourceDomainAdmin;
+        }
+    }
+
+    /**
+     * @param maxSize decisions kept per kind, least recently used ones are dropped first
+     * @param ttl milliseconds a decision is trusted, 0 disables the cache
+     */
+    public AccessDecisionCache(int maxSize, long ttl) {
+        _accounts = new ExpiringLruCache<Long, AccountAccess>(maxSize, ttl);
+        _domains = new ExpiringLruCache<String, Boolean>(maxSize, ttl);
+        _entities = new ExpiringLruCache<String, Boolean>(maxSize, ttl);
+    }
+
+    public boolean isEnabled() {
+        return _accounts.isEnabled();
+    }
+
+    public AccountAccess getAccount(long accountId) {
+        return _accounts.get(accountId);
+    }
+
+    public void putAccount(long accountId, AccountAccess access) {
+        _accounts.put(accountId, access);
+    }
+
+    public boolean isDomainGranted(long callerId, long domainId) {
+        return _domains.get(domainKey(callerId, domainId)) != null;
+    }
+
+    public void grantDomain(long callerId, long domainId) {
+        _domains.put(domainKey(callerId, domainId), Boolean.TRUE);
+    }
+
+    public boolean isEntityGranted(long callerId, long ownerId, AccessType accessType, String apiName) {
+        return _entities.get(entityKey(callerId, ownerId, accessType, apiName)) != null;
+    }
+
+    public void grantEntity(long callerId, long ownerId, AccessType accessType, String apiName) {
+        _entities.put(entityKey(callerId, ownerId, accessType, apiName), Boolean.TRUE);
+    }
+
+    public void invalidateAll() {
+        _accounts.clear();
+        _domains.clear();
+        _entities.clear();
+    }
+
+    public int getSize() {
+        return _accounts.size() + _domains.size() + _entities.size();
+    }
+
+    public long getAccountHits() {
+        return _accounts.getHits();
+    }
+
+    public long getAccountMisses() {
+        return _accounts.getMisses();
+    }
+
+    public long getDomainHits() {
+        return _domains.getHits();
+    }
+
+    public long getDomainMisses() {
+        return _domains.getMisses();
+    }
+
+    public long getEntityHits() {
+        return _entities.getHits();
+    }
+
+    public long getEntityMisses() {
+        return _entities.getMisses();
+    }
+
+    private static String domainKey(long callerId, long domainId) {
+        return callerId + ":" + domainId;
+    }
+
+    private static String entityKey(long callerId, long ownerId, AccessType accessType, String apiName) {
+        return callerId + ":" + ownerId + ":" + accessType + ":" + apiName;
+    }
+}
@@ -0,0 +1,99 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.utils.LatencyHistogram;
+
+public class ApiRequestsMBeanImpl extends StandardMBean implements ApiRequestsMBean {
+    private static final int MIN_RETRY_AFTER = 1;
+    private static final int MAX_RETRY_AFTER = 60;
+
+    private final Map<String, LatencyHistogram> _commands = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final LatencyHistogram _all = new LatencyHistogram();
+    private final AtomicLong _rejected = new AtomicLong();
+    private volatile ThreadPoolExecutor _integrationExecutor;
+
+    public ApiRequestsMBeanImpl() {
+        super(ApiRequestsMBean.class, false);
+    }
+
+    public void setIntegrationExecutor(ThreadPoolExecutor executor) {
+        _integrationExecutor = executor;
+    }
+
+    public void recordCommand(String command, long millis) {
+        LatencyHistogram histogram = _commands.get(command);
+        if (histogram == null) {
+            // racing threads may each create one, only a few samples are lost
+            histogram = new LatencyHistogram();
+            _commands.put(command, histogram);
+        }
+        histogram.record(millis);
+        _all.record(millis);
+    }
+
+    public void recordRejected() {
+        _rejected.incrementAndGet();
+    }
+
+    /**
+     * @return seconds a rejected client should wait, the time the queued
+     * connections need to drain at the mean command latency
+     */
+    public int getRetryAfter() {
+        ThreadPoolExecutor executor = _integrationExecutor;
+        if (executor == null) {
+            return MIN_RETRY_AFTER;
+        }
+        long drainMillis = executor.getQueue().size() * _all.getMean() / Math.max(1, executor.getMaximumPoolSize());
+        return (int)Math.min(MAX_RETRY_AFTER, Math.max(MIN_RETRY_AFTER, drainMillis / 1000));
+    }
+
+    @Override
+    public Map<String, String> getCommandLatency() {
+        Map<String, String> latency = new TreeMap<String, String>();
+        for (Map.Entry<String, LatencyHistogram> entry : _commands.entrySet()) {
+            latency.put(entry.getKey(), entry.getValue().toString());
+        }
+        return latency;
+    }
+
+    @Override
+    public int getIntegrationQueueDepth() {
+        ThreadPoolExecutor executor = _integrationExecutor;
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    @Override
+    public int getIntegrationActiveCount() {
+        ThreadPoolExecutor executor = _integrationExecutor;
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    @Override
+    public long getIntegrationRejectedCount() {
+        return _rejected.get();
+    }
+}
@@ -16,14 +16,16 @@
 // under the License.
 package com.cloud.api;
 
+import java.lang.reflect.Modifier;
+
 import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.context.CallContext;
 
-import com.cloud.serializer.Param;
-import com.cloud.user.Account;
+import com.cloud.api.response.ResponseSerializationPlan;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
@@ -31,6 +33,7 @@ import com.google.gson.GsonBuilder;
  */
 public class ApiResponseGsonHelper {
     private static final GsonBuilder s_gBuilder;
+    private static final Gson s_gson;
 
     static {
         s_gBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
@@ -38,35 +41,30 @@ public class ApiResponseGsonHelper {
         s_gBuilder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
         s_gBuilder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
         s_gBuilder.setExclusionStrategies(new ExclStrat());
+        s_gson = s_gBuilder.excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
     }
 
     public static GsonBuilder getBuilder() {
         return s_gBuilder;
     }
 
+    /**
+     * Gson is thread safe and costly to build, so responses share this one instead of
+     * creating one from the builder each time.
+     */
+    public static Gson getGson() {
+        return s_gson;
+    }
+
     private static class ExclStrat implements ExclusionStrategy {
 
         public boolean shouldSkipClass(Class<?> arg0) {
             return false;
         }
         public boolean shouldSkipField(FieldAttributes f) {
-
-            Param param = f.getAnnotation(Param.class);
-            if (param != null) {
-                RoleType[] allowedRoles = param.authorized();
-                if (allowedRoles.length > 0) {
-                    boolean permittedParameter = false;
-                    Account caller = CallContext.current().getCallingAccount();
-                    for (RoleType allowedRole : allowedRoles) {
-                        if (allowedRole.getValue() == caller.getType()) {
-                            permittedParameter = true;
-                            break;
-                        }
-                    }
-                    if (!permittedParameter) {
-                        return true;
-                    }
-                }
+            RoleType[] allowedRoles = ResponseSerializationPlan.getAuthorizedRoles(f.getDeclaringClass(), f.getName());
+            if (allowedRoles.length > 0) {
+                return !ResponseSerializationPlan.isAuthorized(allowedRoles, CallContext.current().getCallingAccount());
             }
             return false;
         }
@@ -56,6 +56,7 @@ import com.cloud.utils.db.UUIDManager;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
 import com.cloud.utils.exception.GloboUserCloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import org.apache.cloudstack.acl.APIChecker;
 import org.apache.cloudstack.api.APICommand;
 import org.apache.cloudstack.api.ApiConstants;
@@ -112,22 +113,28 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.HttpServerConnection;
 import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.impl.DefaultHttpServerConnection;
-import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.SocketHttpServerConnection;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandler;
 import org.apache.http.protocol.HttpRequestHandlerRegistry;
@@ -155,6 +162,7 @@ import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -170,8 +178,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -185,6 +194,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     public static boolean encodeApiResponse = false;
     public static boolean s_enableSecureCookie = false;
     public static String s_jsonContentType = HttpUtils.JSON_CONTENT_TYPE;
+    public static boolean s_responseGzip = true;
 
     /**
      * Non-printable ASCII characters - numbers 0 to 31 and 127 decimal
@@ -222,8 +232,19 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     private static final DateFormat DateFormatToUse = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
     private static Map<String, List<Class<?>>> s_apiNameCmdClassMap = new HashMap<String, List<Class<?>>>();
 
-    private static ExecutorService s_executor = new ThreadPoolExecutor(10, 150, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(
-            "ApiServer"));
+    private final ApiRequestsMBeanImpl _requestsMBean = new ApiRequestsMBeanImpl();
+
+    // looking up a Mac goes through the security providers every time, so each thread keeps its own
+    private static final ThreadLocal<Mac> s_hmacSha1 = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA1");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new CloudRuntimeException("HmacSHA1 is not available", e);
+            }
+        }
+    };
     @Inject
     MessageBus _messageBus;
     @Inject
@@ -371,13 +392,29 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         if (jsonType != null) {
             s_jsonContentType = jsonType;
         }
+        s_responseGzip = Boolean.valueOf(_configDao.getValue(Config.ApiResponseGzip.key()));
         final Boolean enableSecureSessionCookie = Boolean.valueOf(_configDao.getValue(Config.EnableSecureSessionCookie.key()));
         if (enableSecureSessionCookie != null) {
             s_enableSecureCookie = enableSecureSessionCookie;
         }
 
+        try {
+            JmxUtil.registerMBean("ApiServer", "Requests", _requestsMBean);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the API requests MBean", e);
+        }
+
         if (apiPort != null) {
-            final ListenerThread listenerThread = new ListenerThread(this, apiPort);
+            final int workers = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIWorkers.key()), 50);
+            final int queueSize = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIQueueSize.key()), 100);
+            final int keepAliveTimeout = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIKeepAliveTimeout.key()), 5);
+            final int keepAliveRequests = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIKeepAliveRequests.key()), 100);
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                    new NamedThreadFactory("ApiServer"));
+            executor.allowCoreThreadTimeOut(true);
+            _requestsMBean.setIntegrationExecutor(executor);
+
+            final ListenerThread listenerThread = new ListenerThread(this, apiPort, executor, _requestsMBean, keepAliveTimeout * 1000, keepAliveRequests);
             listenerThread.start();
         }
 
@@ -479,10 +516,37 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     @SuppressWarnings("rawtypes")
     public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
+        final ResponseObject response = executeRequest(params, responseType, auditTrailSb);
+        if (response == null) {
+            return null;
+        }
+        return serializeResponse(params, response, responseType, auditTrailSb);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public String serializeResponse(final Map params, final ResponseObject response, final String responseType, final StringBuilder auditTrailSb) {
+        final String responseText = ApiResponseSerializer.toSerializedString(response, responseType);
+        final String command = ((String[])params.get("command"))[0];
+        final Class<?> cmdClass = getCmdClass(command);
+        final APICommand annotation = cmdClass != null ? cmdClass.getAnnotation(APICommand.class) : null;
+        if (annotation != null && annotation.responseHasSensitiveInfo()) {
+            buildAuditTrail(auditTrailSb, command, StringUtils.cleanString(responseText));
+        } else {
+            buildAuditTrail(auditTrailSb, command, responseText);
+        }
+        return responseText;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public ResponseObject executeRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
         checkCharacterInkParams(params);
 
-        String response = null;
+        ResponseObject response = null;
         String[] command = null;
+        String dispatchedCommand = null;
+        final long startTime = System.currentTimeMillis();
 
         try {
             command = (String[])params.get("command");
@@ -529,15 +593,9 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     cmdObj.setResponseType(responseType);
                     cmdObj.setHttpMethod(paramMap.get(ApiConstants.HTTPMETHOD).toString());
 
-                    // This is where the command is either serialized, or directly dispatched
+                    // This is where the command is either queued, or directly dispatched
+                    dispatchedCommand = command[0];
                     response = queueCommand(cmdObj, paramMap);
-                    if (annotation.responseHasSensitiveInfo())
-                    {
-                        buildAuditTrail(auditTrailSb, command[0],
-                                StringUtils.cleanString(response));
-                    }
-                    else
-                        buildAuditTrail(auditTrailSb, command[0], response);
                 } else {
                     final String errorString = "Unknown API command: " + command[0];
                     s_logger.warn(errorString);
@@ -602,30 +660,34 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 errorMsg = BaseCmd.USER_ERROR_MESSAGE;
             }
             throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, errorMsg, ex);
+        } finally {
+            if (dispatchedCommand != null) {
+                _requestsMBean.recordCommand(dispatchedCommand, System.currentTimeMillis() - startTime);
+            }
         }
 
         return response;
     }
 
-    private String getBaseAsyncResponse(final long jobId, final BaseAsyncCmd cmd) {
+    private ResponseObject getBaseAsyncResponse(final long jobId, final BaseAsyncCmd cmd) {
         final AsyncJobResponse response = new AsyncJobResponse();
 
         final AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String getBaseAsyncCreateResponse(final long jobId, final BaseAsyncCreateCmd cmd, final String objectUuid) {
+    private ResponseObject getBaseAsyncCreateResponse(final long jobId, final BaseAsyncCreateCmd cmd, final String objectUuid) {
         final CreateCmdResponse response = new CreateCmdResponse();
         final AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setId(objectUuid);
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params) throws Exception {
+    private ResponseObject queueCommand(final BaseCmd cmdObj, final Map<String, String> params) throws Exception {
         final CallContext ctx = CallContext.current();
         final Long callerUserId = ctx.getCallingUserId();
         final Account caller = ctx.getCallingAccount();
@@ -725,7 +787,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedString((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType());
+            return (ResponseObject)cmdObj.getResponseObject();
         }
     }
 
@@ -795,7 +857,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             // if userId not null, that mean that user is logged in
             if (userId != null) {
-                final User user = ApiDBUtils.findUserById(userId);
+                final User user = _accountMgr.findUserForRequest(userId);
 
                 try {
                     checkCommandAvailable(user, commandName);
@@ -817,13 +879,14 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             // - build a request string with sorted params, make sure it's all lowercase
             // - sign the request, verify the signature is the same
-            final List<String> parameterNames = new ArrayList<String>();
+            final List<String> parameterNames = new ArrayList<String>(requestParameters.size());
 
             for (final Object paramNameObj : requestParameters.keySet()) {
                 parameterNames.add((String)paramNameObj); // put the name in a list that we'll sort later
             }
 
             Collections.sort(parameterNames);
+            final StringBuilder unsignedRequestSb = new StringBuilder(256);
 
             String signatureVersion = null;
             String expires = null;
@@ -843,13 +906,13 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                         expires = paramValue;
                     }
 
-                    if (unsignedRequest == null) {
-                        unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, HttpUtils.UTF_8).replaceAll("\\+", "%20");
-                    } else {
-                        unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, HttpUtils.UTF_8).replaceAll("\\+", "%20");
+                    if (unsignedRequestSb.length() > 0) {
+                        unsignedRequestSb.append('&');
                     }
+                    unsignedRequestSb.append(paramName).append('=').append(URLEncoder.encode(paramValue, HttpUtils.UTF_8).replace("+", "%20"));
                 }
             }
+            unsignedRequest = unsignedRequestSb.toString();
 
             // if api/secret key are passed to the parameters
             if ((signature == null) || (apiKey == null)) {
@@ -919,7 +982,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             unsignedRequest = unsignedRequest.toLowerCase();
 
-            final Mac mac = Mac.getInstance("HmacSHA1");
+            final Mac mac = s_hmacSha1.get();
             final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
             mac.init(keySpec);
             mac.update(unsignedRequest.getBytes());
@@ -1174,11 +1237,27 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     // modify the
     // code to be very specific to our needs
     static class ListenerThread extends Thread {
+        // how long a request may take to arrive once it started
+        static final int REQUEST_TIMEOUT = 30000;
+
         private HttpService _httpService = null;
         private ServerSocket _serverSocket = null;
         private HttpParams _params = null;
-
-        public ListenerThread(final ApiServer requestHandler, final int port) {
+        private final ExecutorService _executor;
+        private final ApiRequestsMBeanImpl _requestsMBean;
+        private final int _keepAliveTimeout;
+        private final int _keepAliveRequests;
+
+        /**
+         * @param keepAliveTimeout milliseconds a kept alive connection may sit idle, holding its worker, before it is closed
+         * @param keepAliveRequests requests served on a connection before it is closed and its worker freed for other connections
+         */
+        public ListenerThread(final HttpRequestHandler requestHandler, final int port, final ExecutorService executor, final ApiRequestsMBeanImpl requestsMBean,
+                final int keepAliveTimeout, final int keepAliveRequests) {
+            _executor = executor;
+            _requestsMBean = requestsMBean;
+            _keepAliveTimeout = keepAliveTimeout;
+            _keepAliveRequests = keepAliveRequests;
             try {
                 _serverSocket = new ServerSocket(port);
             } catch (final IOException ioex) {
@@ -1187,7 +1266,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             _params = new BasicHttpParams();
-            _params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, 30000)
+            _params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, REQUEST_TIMEOUT)
                     .setIntParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 8 * 1024)
                     .setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK, false)
                     .setBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true)
@@ -1199,17 +1278,23 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             httpproc.addInterceptor(new ResponseServer());
             httpproc.addInterceptor(new ResponseContent());
             httpproc.addInterceptor(new ResponseConnControl());
+            httpproc.addInterceptor(new RequestTimeoutReset());
+            httpproc.addInterceptor(new ResponseKeepAliveLimit());
 
             // Set up request handlers
             final HttpRequestHandlerRegistry reqistry = new HttpRequestHandlerRegistry();
             reqistry.register("*", requestHandler);
 
             // Set up the HTTP service
-            _httpService = new HttpService(httpproc, new NoConnectionReuseStrategy(), new DefaultHttpResponseFactory());
+            _httpService = new HttpService(httpproc, new DefaultConnectionReuseStrategy(), new DefaultHttpResponseFactory());
             _httpService.setParams(_params);
             _httpService.setHandlerResolver(reqistry);
         }
 
+        int getLocalPort() {
+            return _serverSocket.getLocalPort();
+        }
+
         @Override
         public void run() {
             s_logger.info("ApiServer listening on port " + _serverSocket.getLocalPort());
@@ -1220,8 +1305,12 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     final DefaultHttpServerConnection conn = new DefaultHttpServerConnection();
                     conn.bind(socket, _params);
 
-                    // Execute a new worker task to handle the request
-                    s_executor.execute(new WorkerTask(_httpService, conn, s_workerCount++));
+                    // Execute a new worker task to handle the requests on the connection
+                    try {
+                        _executor.execute(new WorkerTask(_httpService, conn, s_workerCount++, _keepAliveTimeout, _keepAliveRequests));
+                    } catch (final RejectedExecutionException e) {
+                        reject(conn);
+                    }
                 } catch (final InterruptedIOException ex) {
                     break;
                 } catch (final IOException e) {
@@ -1230,24 +1319,93 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 }
             }
         }
+
+        /**
+         * Turns the connection away with a 503 when every worker is busy and the queue is full,
+         * telling the client when to come back.
+         */
+        private void reject(final DefaultHttpServerConnection conn) {
+            _requestsMBean.recordRejected();
+            final int retryAfter = _requestsMBean.getRetryAfter();
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("API request queue is full, asking client to retry after " + retryAfter + " seconds");
+            }
+            try {
+                final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+                response.setHeader("Retry-After", String.valueOf(retryAfter));
+                response.setHeader(HTTP.CONTENT_LEN, "0");
+                response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+                conn.sendResponseHeader(response);
+                conn.flush();
+            } catch (final IOException e) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("ApiServer:  IOException rejecting connection - " + e);
+                }
+            } catch (final HttpException e) {
+                s_logger.warn("ApiServer:  Unable to reject connection - " + e);
+            } finally {
+                try {
+                    conn.close();
+                } catch (final IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the next request on a kept alive connection only as long as the idle
+     * timeout. Once the request line is in, the request gets the full socket timeout back.
+     */
+    static class RequestTimeoutReset implements HttpRequestInterceptor {
+        @Override
+        public void process(final HttpRequest request, final HttpContext context) {
+            final HttpServerConnection conn = (HttpServerConnection)context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+            if (conn != null) {
+                conn.setSocketTimeout(ListenerThread.REQUEST_TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection after the last request the worker serves on it.
+     */
+    static class ResponseKeepAliveLimit implements HttpResponseInterceptor {
+        static final String LAST_REQUEST = "api.last.request";
+
+        @Override
+        public void process(final HttpResponse response, final HttpContext context) {
+            if (Boolean.TRUE.equals(context.getAttribute(LAST_REQUEST))) {
+                response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+            }
+        }
     }
 
     static class WorkerTask extends ManagedContextRunnable {
         private final HttpService _httpService;
         private final HttpServerConnection _conn;
+        private final int _keepAliveTimeout;
+        private final int _keepAliveRequests;
 
-        public WorkerTask(final HttpService httpService, final HttpServerConnection conn, final int count) {
+        public WorkerTask(final HttpService httpService, final HttpServerConnection conn, final int count, final int keepAliveTimeout, final int keepAliveRequests) {
             _httpService = httpService;
             _conn = conn;
+            _keepAliveTimeout = keepAliveTimeout;
+            _keepAliveRequests = keepAliveRequests;
         }
 
         @Override
         protected void runInContext() {
             final HttpContext context = new BasicHttpContext(null);
+            int requests = 0;
             try {
+                // the reuse strategy closes the connection unless the client keeps it alive
                 while (!Thread.interrupted() && _conn.isOpen()) {
+                    if (requests > 0) {
+                        _conn.setSocketTimeout(_keepAliveTimeout);
+                    }
+                    requests++;
+                    context.setAttribute(ResponseKeepAliveLimit.LAST_REQUEST, requests >= _keepAliveRequests);
                     _httpService.handleRequest(_conn, context);
-                    _conn.close();
                 }
             } catch (final ConnectionClosedException ex) {
                 if (s_logger.isTraceEnabled()) {
@@ -1386,4 +1544,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     public static String getJSONContentType() {
         return s_jsonContentType;
     }
+
+    public static boolean isResponseGzipEnabled() {
+        return s_responseGzip;
+    }
 }
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.api;
 
+import com.cloud.api.response.ApiResponseSerializer;
 import com.cloud.user.Account;
 import com.cloud.user.AccountService;
 import com.cloud.user.User;
@@ -24,11 +25,14 @@ import com.cloud.utils.StringUtils;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.net.NetUtils;
 import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ApiErrorCode;
 import org.apache.cloudstack.api.ApiServerService;
+import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.api.ServerApiException;
 import org.apache.cloudstack.api.auth.APIAuthenticationManager;
 import org.apache.cloudstack.api.auth.APIAuthenticationType;
 import org.apache.cloudstack.api.auth.APIAuthenticator;
+import org.apache.cloudstack.api.response.ListResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.managed.context.ManagedContext;
 import org.apache.log4j.Logger;
@@ -43,16 +47,24 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLDecoder;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 @Component("apiServlet")
 @SuppressWarnings("serial")
 public class ApiServlet extends HttpServlet {
     public static final Logger s_logger = Logger.getLogger(ApiServlet.class.getName());
     private static final Logger s_accessLogger = Logger.getLogger("apiserver." + ApiServer.class.getName());
+    private static final int STREAM_BUFFER_SIZE = 8192;
 
     @Inject
     ApiServerService _apiServer;
@@ -286,8 +298,24 @@ public class ApiServlet extends HttpServlet {
 
                 // Add the HTTP method (GET/POST/PUT/DELETE) as well into the params map.
                 params.put("httpmethod", new String[] {req.getMethod()});
-                final String response = _apiServer.handleRequest(params, responseType, auditTrailSb);
-                HttpUtils.writeHttpResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType, ApiServer.getJSONContentType());
+                final ResponseObject response = _apiServer.executeRequest(params, responseType, auditTrailSb);
+                if (response instanceof ListResponse) {
+                    // the serialized text of a list can be very large, so it is written as it is
+                    // produced and only summarized in the access log
+                    final List<?> objects = ((ListResponse<?>)response).getResponses();
+                    final int count = objects != null ? objects.size() : 0;
+                    try {
+                        writeStreamedResponse(req, resp, response, responseType);
+                        auditTrailSb.append(" " + HttpServletResponse.SC_OK + " " + count + " objects");
+                    } catch (final IOException e) {
+                        // the client went away in the middle of the response, nothing went wrong here
+                        s_logger.trace("Unable to write api response, the client closed the connection", e);
+                        auditTrailSb.append(" " + HttpServletResponse.SC_OK + " client closed the connection before " + count + " objects were written");
+                    }
+                } else {
+                    final String responseText = response != null ? _apiServer.serializeResponse(params, response, responseType, auditTrailSb) : null;
+                    HttpUtils.writeHttpResponse(resp, responseText != null ? responseText : "", HttpServletResponse.SC_OK, responseType, ApiServer.getJSONContentType());
+                }
             } else {
                 if (session != null) {
                     try {
@@ -321,6 +349,55 @@ public class ApiServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Serializes the response straight to the client. No content length is set, so the
+     * container sends it chunked, and it is gzipped when the client accepts that.
+     */
+    private void writeStreamedResponse(final HttpServletRequest req, final HttpServletResponse resp, final ResponseObject response, final String responseType)
+        throws IOException {
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            resp.setContentType(ApiServer.getJSONContentType());
+        } else {
+            resp.setContentType(HttpUtils.XML_CONTENT_TYPE);
+        }
+        resp.setStatus(HttpServletResponse.SC_OK);
+        HttpUtils.addSecurityHeaders(resp);
+
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        final boolean gzip = ApiServer.isResponseGzipEnabled() && acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        Writer out = null;
+        PrintWriter writer = null;
+        try {
+            if (gzip) {
+                resp.setHeader("Content-Encoding", "gzip");
+                resp.addHeader("Vary", "Accept-Encoding");
+                out = new OutputStreamWriter(new GZIPOutputStream(resp.getOutputStream(), STREAM_BUFFER_SIZE), HttpUtils.UTF_8);
+            } else {
+                resp.setCharacterEncoding(HttpUtils.UTF_8);
+                writer = resp.getWriter();
+                out = writer;
+            }
+            out = new BufferedWriter(out, STREAM_BUFFER_SIZE);
+            ApiResponseSerializer.writeSerialized(response, responseType, out);
+            // the servlet writer swallows write errors
+            if (writer != null && writer.checkError()) {
+                throw new IOException("Unable to write the response to the client");
+            }
+        } catch (final RuntimeException e) {
+            if (resp.isCommitted()) {
+                // part of the response is already on the wire, the client will see it cut short
+                throw e;
+            }
+            resp.reset();
+            out = null;
+            throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "Unable to serialize response", e);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
     //This method will try to get login IP of user even if servlet is behind reverseProxy or loadBalancer
     private String getClientAddress(HttpServletRequest request) {
         String ip = null;
@@ -0,0 +1,148 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.ACL;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
+import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
+import org.apache.cloudstack.api.command.admin.usage.GetUsageRecordsCmd;
+import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
+import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+
+import com.cloud.user.Account;
+import com.cloud.utils.ReflectUtil;
+
+/**
+ * How one {@link Parameter} field of an API command class is bound: the field
+ * itself, made accessible, with its annotations and the entities its ids
+ * refer to already resolved.  Bindings are worked out once per command class
+ * and shared by every request for that command.
+ */
+public class ParamBinding {
+    private static final Map<Class<?>, List<ParamBinding>> s_bindings = new ConcurrentHashMap<Class<?>, List<ParamBinding>>();
+
+    private final Field _field;
+    private final Parameter _parameter;
+    private final ACL _acl;
+    private final Class<?>[] _entities;
+    private final int[] _authorizedRoles;
+    private final boolean _pre3x;
+    private final boolean _legacyDateFormat;
+
+    private ParamBinding(final Class<?> cmdClass, final Field field) {
+        _field = field;
+        _field.setAccessible(true);
+        _parameter = field.getAnnotation(Parameter.class);
+        _acl = field.getAnnotation(ACL.class);
+        if (_parameter.entityType().length > 0 && _parameter.entityType()[0].getAnnotation(EntityReference.class) != null) {
+            _entities = _parameter.entityType()[0].getAnnotation(EntityReference.class).value();
+        } else {
+            _entities = null;
+        }
+        final RoleType[] roles = _parameter.authorized();
+        _authorizedRoles = new int[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            _authorizedRoles[i] = roles[i].getValue();
+        }
+        _pre3x = _parameter.since().isEmpty();
+        // these commands accept both the old and the new date formats (Bug 9724)
+        _legacyDateFormat = ListEventsCmd.class.isAssignableFrom(cmdClass) || DeleteEventsCmd.class.isAssignableFrom(cmdClass) ||
+            ArchiveEventsCmd.class.isAssignableFrom(cmdClass) || ArchiveAlertsCmd.class.isAssignableFrom(cmdClass) ||
+            DeleteAlertsCmd.class.isAssignableFrom(cmdClass) || GetUsageRecordsCmd.class.isAssignableFrom(cmdClass);
+    }
+
+    /**
+     * @return the bindings of all exposed parameters of the command class
+     */
+    public static List<ParamBinding> getBindings(final Class<? extends BaseCmd> cmdClass) {
+        List<ParamBinding> bindings = s_bindings.get(cmdClass);
+        if (bindings == null) {
+            bindings = new ArrayList<ParamBinding>();
+            for (final Field field : ReflectUtil.getAllFieldsForClass(cmdClass, BaseCmd.class)) {
+                final Parameter parameter = field.getAnnotation(Parameter.class);
+                if (parameter != null && parameter.expose()) {
+                    bindings.add(new ParamBinding(cmdClass, field));
+                }
+            }
+            bindings = Collections.unmodifiableList(bindings);
+            s_bindings.put(cmdClass, bindings);
+        }
+        return bindings;
+    }
+
+    /**
+     * @return whether the caller may pass this parameter, same rule as {@link BaseCmd#getParamFields()}
+     */
+    public boolean isAuthorized(final Account caller) {
+        if (_authorizedRoles.length == 0) {
+            return true;
+        }
+        for (final int role : _authorizedRoles) {
+            if (role == caller.getType()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Field getField() {
+        return _field;
+    }
+
+    public Parameter getParameter() {
+        return _parameter;
+    }
+
+    public String getName() {
+        return _parameter.name();
+    }
+
+    public ACL getAcl() {
+        return _acl;
+    }
+
+    /**
+     * @return entities the ids of this parameter refer to, from the {@link EntityReference} of its first entity type,
+     * null if it has none
+     */
+    public Class<?>[] getEntities() {
+        return _entities;
+    }
+
+    /**
+     * @return whether the parameter existed before 3.x and so also takes internal ids instead of uuids
+     */
+    public boolean isPre3x() {
+        return _pre3x;
+    }
+
+    public boolean isLegacyDateFormat() {
+        return _legacyDateFormat;
+    }
+}
@@ -17,16 +17,19 @@
 
 package com.cloud.api.dispatch;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.BaseCmd;
-import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import com.cloud.user.Account;
+
 /**
  * This worker validates parameters in a generic way, by using annotated
  * restrictions without involving the {@Link BaseCmd}. This worker doesn't
@@ -71,26 +74,28 @@ public class ParamGenericValidationWorker implements DispatchWorker {
 
     protected static final String ERROR_MSG_PREFIX = "Unknown parameters :";
 
+    private static final Set<String> DEFAULT_PARAM_NAMES = new HashSet<String>();
+
+    static {
+        for (final String name : defaultParamNames) {
+            DEFAULT_PARAM_NAMES.add(name.toLowerCase());
+        }
+    }
+
     @SuppressWarnings("rawtypes")
     @Override
     public void handle(final DispatchTask task) {
         final BaseCmd cmd = task.getCmd();
         final Map params = task.getParams();
 
-        final List<String> expectedParamNames = getParamNamesForCommand(cmd);
+        final Set<String> expectedParamNames = getParamNamesForCommand(cmd);
 
         final StringBuilder errorMsg = new StringBuilder(ERROR_MSG_PREFIX);
         boolean foundUnknownParam = false;
         for (final Object actualParamName : params.keySet()) {
             // If none of the expected params matches, we have an unknown param
-            boolean matchedCurrentParam = false;
-            for (final String expectedName : expectedParamNames) {
-                if (expectedName.equalsIgnoreCase((String) actualParamName)) {
-                    matchedCurrentParam = true;
-                    break;
-                }
-            }
-            if (!matchedCurrentParam && !((String)actualParamName).equalsIgnoreCase("expires") && !((String)actualParamName).equalsIgnoreCase("signatureversion")) {
+            final String paramName = ((String)actualParamName).toLowerCase();
+            if (!expectedParamNames.contains(paramName) && !paramName.equals("expires") && !paramName.equals("signatureversion")) {
                 errorMsg.append(" ").append(actualParamName);
                 foundUnknownParam= true;
             }
@@ -101,15 +106,20 @@ public class ParamGenericValidationWorker implements DispatchWorker {
         }
     }
 
-    protected List<String> getParamNamesForCommand(final BaseCmd cmd) {
-        final List<String> paramNames = new ArrayList<String>();
+    /**
+     * @return the lower case names of the parameters the caller may pass to the command
+     */
+    protected Set<String> getParamNamesForCommand(final BaseCmd cmd) {
+        final Set<String> paramNames = new HashSet<String>();
+        final Account caller = CallContext.current().getCallingAccount();
         // The expected param names are all the specific for the current command class ...
-        for (final Field field : cmd.getParamFields()) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
-            paramNames.add(parameterAnnotation.name());
+        for (final ParamBinding binding : ParamBinding.getBindings(cmd.getClass())) {
+            if (binding.isAuthorized(caller)) {
+                paramNames.add(binding.getName().toLowerCase());
+            }
         }
         // ... plus the default ones
-        paramNames.addAll(defaultParamNames);
+        paramNames.addAll(DEFAULT_PARAM_NAMES);
         return paramNames;
     }
 }
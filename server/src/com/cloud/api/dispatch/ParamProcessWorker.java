@@ -23,13 +23,20 @@ import java.lang.reflect.Field;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -44,16 +51,9 @@ import org.apache.cloudstack.api.ApiErrorCode;
 import org.apache.cloudstack.api.BaseAsyncCreateCmd;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.BaseCmd.CommandType;
-import org.apache.cloudstack.api.EntityReference;
 import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
-import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
-import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
-import org.apache.cloudstack.api.command.admin.usage.GetUsageRecordsCmd;
-import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
-import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
-import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
 import org.apache.cloudstack.context.CallContext;
 
 import com.cloud.exception.InvalidParameterValueException;
@@ -67,6 +67,8 @@ public class ParamProcessWorker implements DispatchWorker {
 
     private static final Logger s_logger = Logger.getLogger(ParamProcessWorker.class.getName());
 
+    private static final Pattern UUID_PATTERN = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+
     @Inject
     protected AccountManager _accountMgr;
 
@@ -92,11 +94,15 @@ public class ParamProcessWorker implements DispatchWorker {
     @SuppressWarnings({"unchecked", "rawtypes"})
     public void processParameters(final BaseCmd cmd, final Map params) {
         final Map<Object, AccessType> entitiesToAccess = new HashMap<Object, AccessType>();
+        final Account caller = CallContext.current().getCallingAccount();
 
-        final List<Field> cmdFields = cmd.getParamFields();
-
-        for (final Field field : cmdFields) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
+        for (final ParamBinding binding : ParamBinding.getBindings(cmd.getClass())) {
+            final Parameter parameterAnnotation = binding.getParameter();
+            if (!binding.isAuthorized(caller)) {
+                s_logger.debug("Ignoring paremeter " + parameterAnnotation.name() + " as the caller is not authorized to pass it in");
+                continue;
+            }
+            final Field field = binding.getField();
             final Object paramObj = params.get(parameterAnnotation.name());
             if (paramObj == null) {
                 if (parameterAnnotation.required()) {
@@ -109,7 +115,7 @@ public class ParamProcessWorker implements DispatchWorker {
 
             // marshall the parameter into the correct type and set the field value
             try {
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(binding, cmd, paramObj);
             } catch (final IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " +
@@ -139,7 +145,7 @@ public class ParamProcessWorker implements DispatchWorker {
 
             //check access on the resource this field points to
             try {
-                final ACL checkAccess = field.getAnnotation(ACL.class);
+                final ACL checkAccess = binding.getAcl();
                 final CommandType fieldType = parameterAnnotation.type();
 
                 if (checkAccess != null) {
@@ -151,9 +157,8 @@ public class ParamProcessWorker implements DispatchWorker {
                     // for maps, specify access to be checkd on key or value.
                     // Find the controlled entity DBid by uuid
 
-                    if (parameterAnnotation.entityType() != null && parameterAnnotation.entityType().length > 0
-                            && parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class) != null) {
-                        final Class<?>[] entityList = parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class).value();
+                    if (binding.getEntities() != null) {
+                        final Class<?>[] entityList = binding.getEntities();
 
                         // Check if the parameter type is a single
                         // Id or list of id's/name's
@@ -163,16 +168,7 @@ public class ParamProcessWorker implements DispatchWorker {
                             switch (listType) {
                             case LONG:
                             case UUID:
-                                final List<Long> listParam = (List<Long>) field.get(cmd);
-                                for (final Long entityId : listParam) {
-                                    for (final Class entity : entityList) {
-                                        final Object entityObj = _entityMgr.findById(entity, entityId);
-                                        if(entityObj != null){
-                                            entitiesToAccess.put(entityObj, checkAccess.accessType());
-                                            break;
-                                        }
-                                    }
-                                }
+                                addEntitiesToAccess(entitiesToAccess, entityList, (List<Long>) field.get(cmd), checkAccess.accessType());
                                 break;
                                 /*
                                  * case STRING: List<String> listParam = new
@@ -217,6 +213,29 @@ public class ParamProcessWorker implements DispatchWorker {
         doAccessChecks(cmd, entitiesToAccess);
     }
 
+    /**
+     * Looks the entities of a list of ids up with one query per entity type
+     * instead of one per id. Each id belongs to the first type it is found in.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void addEntitiesToAccess(final Map<Object, AccessType> entitiesToAccess, final Class<?>[] entityList, final List<Long> ids, final AccessType accessType) {
+        final Set<Long> remaining = new LinkedHashSet<Long>();
+        for (final Long id : ids) {
+            if (id != null) {
+                remaining.add(id);
+            }
+        }
+        for (final Class entity : entityList) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            final Map<Long, ?> found = _entityMgr.findByIds(entity, remaining);
+            for (final Object entityObj : found.values()) {
+                entitiesToAccess.put(entityObj, accessType);
+            }
+            remaining.removeAll(found.keySet());
+        }
+    }
 
     private void doAccessChecks(BaseCmd cmd, Map<Object, AccessType> entitiesToAccess) {
         Account caller = CallContext.current().getCallingAccount();
@@ -244,9 +263,10 @@ public class ParamProcessWorker implements DispatchWorker {
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final Parameter annotation) throws IllegalArgumentException, ParseException {
+    private void setFieldValue(final ParamBinding binding, final BaseCmd cmdObj, final Object paramObj) throws IllegalArgumentException, ParseException {
+        final Field field = binding.getField();
+        final Parameter annotation = binding.getParameter();
         try {
-            field.setAccessible(true);
             final CommandType fieldType = annotation.type();
             switch (fieldType) {
             case BOOLEAN:
@@ -255,8 +275,7 @@ public class ParamProcessWorker implements DispatchWorker {
             case DATE:
                 // This piece of code is for maintaining backward compatibility
                 // and support both the date formats(Bug 9724)
-                if (cmdObj instanceof ListEventsCmd || cmdObj instanceof DeleteEventsCmd || cmdObj instanceof ArchiveEventsCmd ||
-                        cmdObj instanceof ArchiveAlertsCmd || cmdObj instanceof DeleteAlertsCmd || cmdObj instanceof GetUsageRecordsCmd) {
+                if (binding.isLegacyDateFormat()) {
                     final boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
                     if (isObjInNewDateFormat) {
                         final DateFormat newFormat = BaseCmd.NEW_INPUT_FORMAT;
@@ -302,9 +321,10 @@ public class ParamProcessWorker implements DispatchWorker {
             case LIST:
                 final List listParam = new ArrayList();
                 final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                final CommandType listType = annotation.collectionType();
+                final List<String> uuids = new ArrayList<String>();
                 while (st.hasMoreTokens()) {
                     final String token = st.nextToken();
-                    final CommandType listType = annotation.collectionType();
                     switch (listType) {
                     case INTEGER:
                         listParam.add(Integer.valueOf(token));
@@ -312,8 +332,8 @@ public class ParamProcessWorker implements DispatchWorker {
                     case UUID:
                         if (token.isEmpty())
                             break;
-                        final Long internalId = translateUuidToInternalId(token, annotation);
-                        listParam.add(internalId);
+                        // translated all at once below
+                        uuids.add(token);
                         break;
                     case LONG: {
                         listParam.add(Long.valueOf(token));
@@ -327,10 +347,13 @@ public class ParamProcessWorker implements DispatchWorker {
                         break;
                     }
                 }
+                if (!uuids.isEmpty()) {
+                    listParam.addAll(translateUuidsToInternalIds(uuids, binding));
+                }
                 field.set(cmdObj, listParam);
                 break;
             case UUID:
-                final Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
+                final Long internalId = translateUuidsToInternalIds(Collections.singletonList(paramObj.toString()), binding).get(0);
                 field.set(cmdObj, internalId);
                 break;
             case LONG:
@@ -378,69 +401,96 @@ public class ParamProcessWorker implements DispatchWorker {
         return cal.getTime();
     }
 
-    private Long translateUuidToInternalId(final String uuid, final Parameter annotation) {
-        if (uuid.equals("-1")) {
-            // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
-            // APITODO: Find and get rid of all hardcoded params in API Cmds and service layer
-            return -1L;
-        }
-        Long internalId = null;
+    /**
+     * Translates uuids, or internal ids for parameters that existed before 3.x, into internal ids.
+     * The uuids are looked up with one query per entity type rather than one per uuid.
+     *
+     * @return the internal ids in the order of the uuids, null for values that are not uuids
+     */
+    private List<Long> translateUuidsToInternalIds(final List<String> uuids, final ParamBinding binding) {
         // If annotation's empty, the cmd existed before 3.x try conversion to long
-        final boolean isPre3x = annotation.since().isEmpty();
-        // Match against Java's UUID regex to check if input is uuid string
-        final boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
-        // Enforce that it's uuid for newly added apis from version 3.x
-        if (!isPre3x && !isUuid)
-            return null;
-
+        final boolean isPre3x = binding.isPre3x();
         // There may be multiple entities defined on the @EntityReference of a Response.class
         // UUID CommandType would expect only one entityType, so use the first entityType
-        final Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
-
-        // Allow both uuid and internal id for pre3x apis
-        if (isPre3x && !isUuid) {
-            try {
-                internalId = Long.parseLong(uuid);
-            } catch (final NumberFormatException e) {
-                internalId = null;
+        final Class<?>[] entities = binding.getEntities() != null ? binding.getEntities() : new Class<?>[0];
+
+        final Long[] internalIds = new Long[uuids.size()];
+        // uuids are matched regardless of case as the database does, keyed by the lower cased uuid
+        final Map<String, String> toLookUp = new LinkedHashMap<String, String>();
+        for (int i = 0; i < uuids.size(); i++) {
+            final String uuid = uuids.get(i);
+            if (uuid.equals("-1")) {
+                // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
+                // APITODO: Find and get rid of all hardcoded params in API Cmds and service layer
+                internalIds[i] = -1L;
+                continue;
             }
-            if (internalId != null){
-                // Populate CallContext for each of the entity.
-                for (final Class<?> entity : entities) {
-                    CallContext.current().putContextParameter(entity.getName(), internalId);
+            // Match against Java's UUID regex to check if input is uuid string
+            final boolean isUuid = UUID_PATTERN.matcher(uuid).matches();
+            // Enforce that it's uuid for newly added apis from version 3.x
+            if (!isPre3x && !isUuid) {
+                continue;
+            }
+
+            // Allow both uuid and internal id for pre3x apis
+            if (isPre3x && !isUuid) {
+                try {
+                    internalIds[i] = Long.parseLong(uuid);
+                } catch (final NumberFormatException e) {
+                    internalIds[i] = null;
+                }
+                if (internalIds[i] != null) {
+                    // Populate CallContext for each of the entity.
+                    for (final Class<?> entity : entities) {
+                        CallContext.current().putContextParameter(entity.getName(), internalIds[i]);
+                    }
+                    continue;
                 }
-                return internalId;
             }
+            if (!toLookUp.containsKey(uuid.toLowerCase())) {
+                toLookUp.put(uuid.toLowerCase(), uuid);
+            }
+        }
+        if (toLookUp.isEmpty()) {
+            return Arrays.asList(internalIds);
         }
 
-        // Go through each entity which is an interface to a VO class and get a VO object
-        // Try to getId() for the object using reflection, break on first non-null value
+        // Go through each entity which is an interface to a VO class and get the VO objects,
+        // a uuid belongs to the first entity it is found in
+        final Map<String, Long> found = new HashMap<String, Long>();
         for (final Class<?> entity : entities) {
+            if (toLookUp.isEmpty()) {
+                break;
+            }
             // For backward compatibility, we search within removed entities and let service layer deal
             // with removed ones, return empty response or error
-            final Object objVO = _entityMgr.findByUuidIncludingRemoved(entity, uuid);
-            if (objVO == null) {
-                continue;
+            final Map<String, Object> objVOs = new HashMap<String, Object>();
+            for (final Map.Entry<String, ?> objVO : _entityMgr.findByUuidsIncludingRemoved(entity, toLookUp.values()).entrySet()) {
+                objVOs.put(objVO.getKey().toLowerCase(), objVO.getValue());
             }
-            // Invoke the getId method, get the internal long ID
-            // If that fails hide exceptions as the uuid may not exist                                         s
-            try {
-                internalId = ((InternalIdentity)objVO).getId();
-            } catch (final IllegalArgumentException e) {
-            } catch (final NullPointerException e) {
-            }
-            // Return on first non-null Id for the uuid entity
-            if (internalId != null){
-                CallContext.current().putContextParameter(entity.getName(), uuid);
-                break;
+            for (final Iterator<Map.Entry<String, String>> it = toLookUp.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry<String, String> uuid = it.next();
+                final Object objVO = objVOs.get(uuid.getKey());
+                if (objVO != null) {
+                    found.put(uuid.getKey(), ((InternalIdentity)objVO).getId());
+                    CallContext.current().putContextParameter(entity.getName(), uuid.getValue());
+                    it.remove();
+                }
             }
         }
-        if (internalId == null) {
+        if (!toLookUp.isEmpty()) {
+            final String uuid = toLookUp.values().iterator().next();
             if (s_logger.isDebugEnabled())
                 s_logger.debug("Object entity uuid = " + uuid + " does not exist in the database.");
-            throw new InvalidParameterValueException("Invalid parameter " + annotation.name() + " value=" + uuid +
+            throw new InvalidParameterValueException("Invalid parameter " + binding.getName() + " value=" + uuid +
                     " due to incorrect long value format, or entity does not exist or due to incorrect parameter annotation for the field in api cmd class.");
         }
-        return internalId;
+
+        for (int i = 0; i < uuids.size(); i++) {
+            if (internalIds[i] == null && found.containsKey(uuids.get(i).toLowerCase())) {
+                internalIds[i] = found.get(uuids.get(i).toLowerCase());
+            }
+        }
+        return Arrays.asList(internalIds);
     }
 }
@@ -0,0 +1,123 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.cloud.api.query.vo.BaseViewVO;
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Opaque position in a list ordered by id, handed to API clients so they can
+ * ask for the rows after the last one they got.  Seeking past an id uses the
+ * primary key, where an offset makes the database read and throw away every
+ * row before the page.  Tokens are signed with the management server hash
+ * key, so a client can only hand back a position the server gave out.
+ */
+public class PageToken {
+    private static final String VERSION = "1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final boolean _ascending;
+    private final long _lastId;
+
+    public PageToken(boolean ascending, long lastId) {
+        _ascending = ascending;
+        _lastId = lastId;
+    }
+
+    public boolean isAscending() {
+        return _ascending;
+    }
+
+    public long getLastId() {
+        return _lastId;
+    }
+
+    public String encode(String key) {
+        String position = VERSION + ":id:" + (_ascending ? "asc" : "desc") + ":" + _lastId;
+        String token = position + ":" + Base64.encodeBase64URLSafeString(sign(position, key));
+        return Base64.encodeBase64URLSafeString(token.getBytes(UTF8));
+    }
+
+    /**
+     * @param ascending order of the list the token is used with
+     * @param key hash key the token was signed with
+     */
+    public static PageToken decode(String token, boolean ascending, String key) {
+        String[] parts = new String(Base64.decodeBase64(token), UTF8).split(":");
+        if (parts.length != 5 || !VERSION.equals(parts[0]) || !"id".equals(parts[1])) {
+            throw new InvalidParameterValueException("Invalid page token " + token);
+        }
+        String position = parts[0] + ":" + parts[1] + ":" + parts[2] + ":" + parts[3];
+        if (!MessageDigest.isEqual(sign(position, key), Base64.decodeBase64(parts[4]))) {
+            throw new InvalidParameterValueException("Invalid page token " + token);
+        }
+        if (!(ascending ? "asc" : "desc").equals(parts[2])) {
+            throw new InvalidParameterValueException("Page token " + token + " does not belong to this list");
+        }
+        try {
+            return new PageToken(ascending, Long.parseLong(parts[3]));
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterValueException("Invalid page token " + token);
+        }
+    }
+
+    private static byte[] sign(String position, String key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(key.getBytes(UTF8), "HmacSHA1"));
+            return mac.doFinal(position.getBytes(UTF8));
+        } catch (GeneralSecurityException e) {
+            throw new CloudRuntimeException("Unable to sign page token", e);
+        }
+    }
+
+    /**
+     * @param rows the page just listed, possibly with several rows per id
+     * @param pageSize number of ids on a full page, null if the list is not paged
+     * @return token for the page after rows, null if rows is the last page.  Only
+     * a full page gets a token, so a token always comes with a non empty page.
+     */
+    public static PageToken next(List<? extends BaseViewVO> rows, Long pageSize, boolean ascending) {
+        if (pageSize == null || rows == null || rows.isEmpty()) {
+            return null;
+        }
+        Set<Long> ids = new HashSet<Long>();
+        long lastId = ascending ? Long.MIN_VALUE : Long.MAX_VALUE;
+        for (BaseViewVO row : rows) {
+            long id = row.getId();
+            ids.add(id);
+            lastId = ascending ? Math.max(lastId, id) : Math.min(lastId, id);
+        }
+        if (ids.size() < pageSize) {
+            return null;
+        }
+        return new PageToken(ascending, lastId);
+    }
+}
@@ -36,6 +36,7 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -102,6 +103,7 @@ import org.apache.cloudstack.engine.subsystem.api.storage.DataStoreDriver;
 import org.apache.cloudstack.engine.subsystem.api.storage.DataStoreManager;
 import org.apache.cloudstack.engine.subsystem.api.storage.TemplateState;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.security.keys.KeysManager;
 import org.apache.cloudstack.query.QueryService;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
@@ -131,6 +133,7 @@ import com.cloud.api.query.dao.VolumeJoinDao;
 import com.cloud.api.query.vo.AccountJoinVO;
 import com.cloud.api.query.vo.AffinityGroupJoinVO;
 import com.cloud.api.query.vo.AsyncJobJoinVO;
+import com.cloud.api.query.vo.BaseViewVO;
 import com.cloud.api.query.vo.DataCenterJoinVO;
 import com.cloud.api.query.vo.DiskOfferingJoinVO;
 import com.cloud.api.query.vo.DomainRouterJoinVO;
@@ -204,6 +207,7 @@ import com.cloud.utils.Pair;
 import com.cloud.utils.Ternary;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.JoinBuilder;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
@@ -289,6 +293,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
     @Inject
     private ConfigurationDao _configDao;
 
+    @Inject
+    private KeysManager _keysMgr;
+
     @Inject
     private AccountJoinDao _accountJoinDao;
 
@@ -389,6 +396,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             ViewResponseHelper.createUserResponse(CallContext.current().getCallingAccount().getDomainId(),
                 result.first().toArray(new UserAccountJoinVO[result.first().size()]));
         response.setResponses(userResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -495,7 +503,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             sc.setParameters("state", state);
         }
 
-        return _userAccountJoinDao.searchAndCount(sc, searchFilter);
+        return searchAndCountPage(_userAccountJoinDao, sc, searchFilter, true, cmd);
     }
 
     @Override
@@ -702,6 +710,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         ListResponse<InstanceGroupResponse> response = new ListResponse<InstanceGroupResponse>();
         List<InstanceGroupResponse> grpResponses = ViewResponseHelper.createInstanceGroupResponse(groups.first().toArray(new InstanceGroupJoinVO[groups.first().size()]));
         response.setResponses(grpResponses, groups.second());
+        response.setNextPageToken(nextPageToken(cmd, groups.first(), true));
         return response;
     }
 
@@ -749,7 +758,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             sc.setParameters("name", "%" + name + "%");
         }
 
-        return _vmGroupJoinDao.searchAndCount(sc, searchFilter);
+        return searchAndCountPage(_vmGroupJoinDao, sc, searchFilter, true, cmd);
     }
 
     @Override
@@ -767,6 +776,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
 
         response.setResponses(vmResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -997,9 +1007,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             sc.setParameters("displayVm", 1);
         }
         // search vm details by ids
-        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = searchAndCountPage(_userVmJoinDao, sc, searchFilter, true, cmd);
         Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
+        if (uniqueVmPair.first().isEmpty()) {
             // handle empty result cases
             return uniqueVmPair;
         }
@@ -1019,6 +1029,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         ListResponse<SecurityGroupResponse> response = new ListResponse<SecurityGroupResponse>();
         List<SecurityGroupResponse> routerResponses = ViewResponseHelper.createSecurityGroupResponses(result.first());
         response.setResponses(routerResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -1090,9 +1101,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         }
 
         // search security group together with rules
-        Pair<List<SecurityGroupJoinVO>, Integer> uniqueSgPair = _securityGroupJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<SecurityGroupJoinVO>, Integer> uniqueSgPair = searchAndCountPage(_securityGroupJoinDao, sc, searchFilter, true, cmd);
         Integer count = uniqueSgPair.second();
-        if (count.intValue() == 0) {
+        if (uniqueSgPair.first().isEmpty()) {
             // handle empty result cases
             return uniqueSgPair;
         }
@@ -1134,6 +1145,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
         List<DomainRouterResponse> routerResponses = ViewResponseHelper.createDomainRouterResponse(result.first().toArray(new DomainRouterJoinVO[result.first().size()]));
         response.setResponses(routerResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -1146,6 +1158,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
         List<DomainRouterResponse> routerResponses = ViewResponseHelper.createDomainRouterResponse(result.first().toArray(new DomainRouterJoinVO[result.first().size()]));
         response.setResponses(routerResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -1257,9 +1270,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         }
 
         // search VR details by ids
-        Pair<List<DomainRouterJoinVO>, Integer> uniqueVrPair = _routerJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<DomainRouterJoinVO>, Integer> uniqueVrPair = searchAndCountPage(_routerJoinDao, sc, searchFilter, true, cmd);
         Integer count = uniqueVrPair.second();
-        if (count.intValue() == 0) {
+        if (uniqueVrPair.first().isEmpty()) {
             // empty result
             return uniqueVrPair;
         }
@@ -1552,6 +1565,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         s_logger.debug(">>>Generating Response>>>");
         List<HostResponse> hostResponses = ViewResponseHelper.createHostResponse(cmd.getDetails(), hosts.first().toArray(new HostJoinVO[hosts.first().size()]));
         response.setResponses(hostResponses, hosts.second());
+        response.setNextPageToken(nextPageToken(cmd, hosts.first(), true));
         return response;
     }
 
@@ -1644,9 +1658,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             sc.setParameters("hypervisor_type", hypervisorType);
         }
         // search host details by ids
-        Pair<List<HostJoinVO>, Integer> uniqueHostPair = _hostJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<HostJoinVO>, Integer> uniqueHostPair = searchAndCountPage(_hostJoinDao, sc, searchFilter, true, cmd);
         Integer count = uniqueHostPair.second();
-        if (count.intValue() == 0) {
+        if (uniqueHostPair.first().isEmpty()) {
             // handle empty result cases
             return uniqueHostPair;
         }
@@ -1851,6 +1865,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         List<AccountResponse> accountResponses = ViewResponseHelper.createAccountResponse(respView, result.first().toArray(
                 new AccountJoinVO[result.first().size()]));
         response.setResponses(accountResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -1968,7 +1983,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             }
         }
 
-        return _accountJoinDao.searchAndCount(sc, searchFilter);
+        return searchAndCountPage(_accountJoinDao, sc, searchFilter, true, cmd);
     }
 
     @Override
@@ -1977,6 +1992,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         ListResponse<AsyncJobResponse> response = new ListResponse<AsyncJobResponse>();
         List<AsyncJobResponse> jobResponses = ViewResponseHelper.createAsyncJobResponse(result.first().toArray(new AsyncJobJoinVO[result.first().size()]));
         response.setResponses(jobResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -2045,7 +2061,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             sc.addAnd("created", SearchCriteria.Op.GTEQ, startDate);
         }
 
-        return _jobJoinDao.searchAndCount(sc, searchFilter);
+        return searchAndCountPage(_jobJoinDao, sc, searchFilter, true, cmd);
     }
 
     @Override
@@ -2065,6 +2081,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         }
 
         response.setResponses(poolResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -2141,9 +2158,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         }
 
         // search Pool details by ids
-        Pair<List<StoragePoolJoinVO>, Integer> uniquePoolPair = _poolJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<StoragePoolJoinVO>, Integer> uniquePoolPair = searchAndCountPage(_poolJoinDao, sc, searchFilter, true, cmd);
         Integer count = uniquePoolPair.second();
-        if (count.intValue() == 0) {
+        if (uniquePoolPair.first().isEmpty()) {
             // empty result
             return uniquePoolPair;
         }
@@ -2247,6 +2264,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
         List<ImageStoreResponse> poolResponses = ViewResponseHelper.createImageStoreResponse(result.first().toArray(new ImageStoreJoinVO[result.first().size()]));
         response.setResponses(poolResponses, result.second());
+        response.setNextPageToken(nextPageToken(cmd, result.first(), true));
         return response;
     }
 
@@ -2302,9 +2320,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         }
 
         // search Store details by ids
-        Pair<List<ImageStoreJoinVO>, Integer> uniqueStorePair = _imageStoreJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<ImageStoreJoinVO>, Integer> uniqueStorePair = searchAndCountPage(_imageStoreJoinDao, sc, searchFilter, true, cmd);
         Integer count = uniqueStorePair.second();
-        if (count.intValue() == 0) {
+        if (uniqueStorePair.first().isEmpty()) {
             // empty result
             return uniqueStorePair;
         }
@@ -3584,6 +3602,28 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
 
 
+    /**
+     * Runs an id ordered list query, seeking past the id carried in the command's
+     * page token instead of using an offset when one is given. The total is
+     * computed before the seek condition is added and is left null when the
+     * caller asked to skip it.
+     */
+    private <T extends BaseViewVO> Pair<List<T>, Integer> searchAndCountPage(GenericDao<T, Long> dao, SearchCriteria<T> sc, Filter searchFilter, boolean ascending,
+        BaseListCmd cmd) {
+        Integer count = cmd.isSkipCount() ? null : dao.getCount(sc);
+        if (cmd.getPageToken() != null) {
+            PageToken token = PageToken.decode(cmd.getPageToken(), ascending, _keysMgr.getHashKey());
+            sc.addAnd("id", ascending ? Op.GT : Op.LT, token.getLastId());
+        }
+        List<T> rows = dao.search(sc, searchFilter);
+        return new Pair<List<T>, Integer>(rows, count);
+    }
+
+    private String nextPageToken(BaseListCmd cmd, List<? extends BaseViewVO> rows, boolean ascending) {
+        PageToken token = PageToken.next(rows, cmd.getPageSizeVal(), ascending);
+        return token != null ? token.encode(_keysMgr.getHashKey()) : null;
+    }
+
     @Override
     public Pair<List<UserVmResponse>, Integer> listGloboVm(Long projectId, Map<String, String> tags) {
         try {
@@ -19,15 +19,12 @@ package com.cloud.api.response;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.ApiResponseGsonHelper;
 import com.cloud.api.ApiServer;
-import com.cloud.serializer.Param;
 import com.cloud.user.Account;
 import com.cloud.utils.HttpUtils;
 import com.cloud.utils.encoding.URLEncoder;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
 import com.google.gson.Gson;
-import com.google.gson.annotations.SerializedName;
-import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.ResponseObject;
@@ -40,8 +37,10 @@ import org.apache.cloudstack.api.response.SuccessResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -62,80 +61,115 @@ public class ApiResponseSerializer {
         }
     }
 
+    /**
+     * Writes the serialized response to out as it is produced. List responses are
+     * written one element at a time, so the serialized text is never held as a
+     * whole. The response objects themselves are already all in memory.
+     */
+    public static void writeSerialized(ResponseObject result, String responseType, Writer out) throws IOException {
+        s_logger.trace("===Streaming Response===");
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            writeJSON(result, out);
+        } else {
+            writeXML(result, out);
+        }
+        out.flush();
+    }
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
-        String str = escaped;
-        Matcher matcher = s_unicodeEscapePattern.matcher(str);
-        while (matcher.find()) {
-            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+        Matcher matcher = s_unicodeEscapePattern.matcher(escaped);
+        if (!matcher.find()) {
+            return escaped;
         }
-        return str;
+        StringBuffer sb = new StringBuffer(escaped.length());
+        do {
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(Character.toString((char)Integer.parseInt(matcher.group(1), 16))));
+        } while (matcher.find());
+        matcher.appendTail(sb);
+        return sb.toString();
     }
 
     public static String toJSONSerializedString(ResponseObject result) {
         if (result != null) {
-            Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-
-            StringBuilder sb = new StringBuilder();
-
-            sb.append("{\"").append(result.getResponseName()).append("\":");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                Integer count = ((ListResponse)result).getCount();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
-                if (nonZeroCount) {
-                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                }
+            StringWriter sw = new StringWriter();
+            try {
+                writeJSON(result, sw);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize response", e);
+            }
+            return sw.toString();
+        }
+        return null;
+    }
 
-                if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = gson.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
+    private static void writeJSON(ResponseObject result, Writer out) throws IOException {
+        if (result == null) {
+            return;
+        }
+        Gson gson = ApiResponseGsonHelper.getGson();
 
-                    if (nonZeroCount) {
-                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
-                    }
+        out.append("{\"").append(result.getResponseName()).append("\":");
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            Integer count = ((ListResponse)result).getCount();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            // a token is only handed out with a full page, but it does not depend on the count being there
+            String nextPageToken = ((ListResponse)result).getNextPageToken();
+            out.append("{");
+            String separator = "";
+            if (nonZeroCount) {
+                out.append("\"").append(ApiConstants.COUNT).append("\":").append(String.valueOf(count));
+                separator = ",";
+            }
+            if (nextPageToken != null) {
+                out.append(separator).append("\"").append(ApiConstants.NEXT_PAGE_TOKEN).append("\":\"").append(nextPageToken).append("\"");
+                separator = ",";
+            }
 
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = gson.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        sb.append(",").append(jsonStr);
-                    }
-                    sb.append("]}");
-                } else  {
-                    if (!nonZeroCount) {
-                        sb.append("{");
+            if ((responses != null) && !responses.isEmpty()) {
+                out.append(separator).append("\"").append(responses.get(0).getObjectName()).append("\":[");
+                for (int i = 0; i < responses.size(); i++) {
+                    if (i > 0) {
+                        out.append(",");
                     }
-
-                    sb.append("}");
+                    out.append(unescape(gson.toJson(responses.get(i))));
                 }
-            } else if (result instanceof SuccessResponse) {
-                sb.append("{\"success\":\"").append(((SuccessResponse)result).getSuccess()).append("\"}");
-            } else if (result instanceof ExceptionResponse) {
-                String jsonErrorText = gson.toJson(result);
-                jsonErrorText = unescape(jsonErrorText);
-                sb.append(jsonErrorText);
-            } else {
-                String jsonStr = gson.toJson(result);
-                if ((jsonStr != null) && !"".equals(jsonStr)) {
-                    jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
-                    }
+                out.append("]");
+            }
+            out.append("}");
+        } else if (result instanceof SuccessResponse) {
+            out.append("{\"success\":\"").append(String.valueOf(((SuccessResponse)result).getSuccess())).append("\"}");
+        } else if (result instanceof ExceptionResponse) {
+            out.append(unescape(gson.toJson(result)));
+        } else {
+            String jsonStr = gson.toJson(result);
+            if ((jsonStr != null) && !"".equals(jsonStr)) {
+                jsonStr = unescape(jsonStr);
+                if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                    out.append(jsonStr);
                 } else {
-                    sb.append("{}");
+                    out.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
                 }
+            } else {
+                out.append("{}");
             }
-            sb.append("}");
-            return sb.toString();
         }
-        return null;
+        out.append("}");
     }
 
     private static String toXMLSerializedString(ResponseObject result) {
-        StringBuilder sb = new StringBuilder();
+        StringWriter sw = new StringWriter();
+        try {
+            writeXML(result, sw);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize response", e);
+        }
+        return sw.toString();
+    }
+
+    private static void writeXML(ResponseObject result, Writer sb) throws IOException {
         sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
 
@@ -143,7 +177,11 @@ public class ApiResponseSerializer {
             Integer count = ((ListResponse)result).getCount();
 
             if (count != null && count != 0) {
-                sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                sb.append("<").append(ApiConstants.COUNT).append(">").append(String.valueOf(count)).append("</").append(ApiConstants.COUNT).append(">");
+            }
+            String nextPageToken = ((ListResponse)result).getNextPageToken();
+            if (nextPageToken != null) {
+                sb.append("<").append(ApiConstants.NEXT_PAGE_TOKEN).append(">").append(nextPageToken).append("</").append(ApiConstants.NEXT_PAGE_TOKEN).append(">");
             }
             List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
             if ((responses != null) && !responses.isEmpty()) {
@@ -160,10 +198,9 @@ public class ApiResponseSerializer {
         }
 
         sb.append("</").append(result.getResponseName()).append(">");
-        return sb.toString();
     }
 
-    private static void serializeResponseObjXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjXML(Writer sb, ResponseObject obj) throws IOException {
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
             sb.append("<").append(obj.getObjectName()).append(">");
         }
@@ -182,52 +219,25 @@ public class ApiResponseSerializer {
         return fields.toArray(new Field[] {});
     }
 
-    private static void serializeResponseObjFieldsXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjFieldsXML(Writer sb, ResponseObject obj) throws IOException {
         boolean isAsync = false;
         if (obj instanceof AsyncJobResponse)
             isAsync = true;
 
-        //Field[] fields = obj.getClass().getDeclaredFields();
-        Field[] fields = getFlattenFields(obj.getClass());
-        for (Field field : fields) {
-            if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
-                continue; // skip transient fields
-            }
-
-
-            SerializedName serializedName = field.getAnnotation(SerializedName.class);
-            if (serializedName == null) {
-                continue; // skip fields w/o serialized name
-            }
-
-            Param param = field.getAnnotation(Param.class);
-            if (param != null) {
-                RoleType[] allowedRoles = param.authorized();
-                if (allowedRoles.length > 0) {
-                    boolean permittedParameter = false;
-                    Account caller = CallContext.current().getCallingAccount();
-                    for (RoleType allowedRole : allowedRoles) {
-                        if (allowedRole.getValue() == caller.getType()) {
-                            permittedParameter = true;
-                            break;
-                        }
-                    }
-                    if (!permittedParameter) {
-                        s_logger.trace("Ignoring paremeter " + param.name() + " as the caller is not authorized to see it");
-                        continue;
-                    }
+        Account caller = null;
+        for (ResponseSerializationPlan.FieldPlan field : ResponseSerializationPlan.get(obj.getClass()).getFields()) {
+            if (field.isRestricted()) {
+                if (caller == null) {
+                    caller = CallContext.current().getCallingAccount();
+                }
+                if (!field.isAuthorized(caller)) {
+                    s_logger.trace("Ignoring paremeter " + field.getSerializedName() + " as the caller is not authorized to see it");
+                    continue;
                 }
             }
 
-            field.setAccessible(true);
-            Object fieldValue = null;
-            try {
-                fieldValue = field.get(obj);
-            } catch (IllegalArgumentException e) {
-                throw new CloudRuntimeException("how illegal is it?", e);
-            } catch (IllegalAccessException e) {
-                throw new CloudRuntimeException("come on...we set accessible already", e);
-            }
+            final String serializedName = field.getSerializedName();
+            Object fieldValue = field.get(obj);
             if (fieldValue != null) {
                 if (fieldValue instanceof ResponseObject) {
                     ResponseObject subObj = (ResponseObject)fieldValue;
@@ -245,7 +255,7 @@ public class ApiResponseSerializer {
                         if (value instanceof ResponseObject) {
                             ResponseObject subObj = (ResponseObject)value;
                             if (serializedName != null) {
-                                subObj.setObjectName(serializedName.value());
+                                subObj.setObjectName(serializedName);
                             }
                             serializeResponseObjXML(sb, subObj);
                         } else if (value instanceof ExceptionProxyObject) {
@@ -255,7 +265,7 @@ public class ApiResponseSerializer {
                             // If this is the first IdentityProxy field
                             // encountered, put in a uuidList tag.
                             if (!usedUuidList) {
-                                sb.append("<" + serializedName.value() + ">");
+                                sb.append("<" + serializedName + ">");
                                 usedUuidList = true;
                             }
                             sb.append("<" + "uuid" + ">" + idProxy.getUuid() + "</" + "uuid" + ">");
@@ -265,20 +275,20 @@ public class ApiResponseSerializer {
                                 sb.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
                             }
                         } else if (value instanceof String) {
-                            sb.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
+                            sb.append("<").append(serializedName).append(">").append((String)value).append("</").append(serializedName).append(">");
                         }
                     }
                     if (usedUuidList) {
                         // close the uuidList.
-                        sb.append("</").append(serializedName.value()).append(">");
+                        sb.append("</").append(serializedName).append(">");
                     }
                 } else if (fieldValue instanceof Date) {
                     sb.append("<")
-                        .append(serializedName.value())
+                        .append(serializedName)
                         .append(">")
                         .append(BaseCmd.getDateString((Date)fieldValue))
                         .append("</")
-                        .append(serializedName.value())
+                        .append(serializedName)
                         .append(">");
                 } else {
                     String resultString = escapeSpecialXmlChars(fieldValue.toString());
@@ -286,7 +296,7 @@ public class ApiResponseSerializer {
                         resultString = encodeParam(resultString);
                     }
 
-                    sb.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
+                    sb.append("<").append(serializedName).append(">").append(resultString).append("</").append(serializedName).append(">");
                 }
             }
         }
@@ -0,0 +1,147 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.acl.RoleType;
+
+import com.cloud.serializer.Param;
+import com.cloud.user.Account;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * What gets serialized for a response class, worked out once per class instead of
+ * reflecting over its fields and annotations for every object. The XML serializer
+ * walks the fields of the plan, and the JSON exclusion strategy looks up the roles
+ * a field is restricted to.
+ */
+public class ResponseSerializationPlan {
+    private static final RoleType[] NO_ROLES = new RoleType[0];
+    private static final Map<Class<?>, ResponseSerializationPlan> s_plans = new ConcurrentHashMap<Class<?>, ResponseSerializationPlan>();
+    private static final Map<Class<?>, Map<String, RoleType[]>> s_declaredRoles = new ConcurrentHashMap<Class<?>, Map<String, RoleType[]>>();
+
+    private final List<FieldPlan> _fields;
+
+    public static ResponseSerializationPlan get(Class<?> clz) {
+        ResponseSerializationPlan plan = s_plans.get(clz);
+        if (plan == null) {
+            // racing threads build equal plans, whichever lands last is kept
+            plan = new ResponseSerializationPlan(clz);
+            s_plans.put(clz, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return roles a field declared directly in clz is restricted to, empty if anyone may see it
+     */
+    public static RoleType[] getAuthorizedRoles(Class<?> clz, String fieldName) {
+        Map<String, RoleType[]> declaredRoles = s_declaredRoles.get(clz);
+        if (declaredRoles == null) {
+            declaredRoles = new HashMap<String, RoleType[]>();
+            for (Field field : clz.getDeclaredFields()) {
+                RoleType[] roles = rolesOf(field);
+                if (roles.length > 0) {
+                    declaredRoles.put(field.getName(), roles);
+                }
+            }
+            s_declaredRoles.put(clz, declaredRoles);
+        }
+        RoleType[] roles = declaredRoles.get(fieldName);
+        return roles != null ? roles : NO_ROLES;
+    }
+
+    private ResponseSerializationPlan(Class<?> clz) {
+        List<FieldPlan> fields = new ArrayList<FieldPlan>();
+        for (Field field : ApiResponseSerializer.getFlattenFields(clz)) {
+            if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
+                continue;
+            }
+            SerializedName serializedName = field.getAnnotation(SerializedName.class);
+            if (serializedName == null) {
+                continue;
+            }
+            field.setAccessible(true);
+            fields.add(new FieldPlan(field, serializedName.value(), rolesOf(field)));
+        }
+        _fields = Collections.unmodifiableList(fields);
+    }
+
+    private static RoleType[] rolesOf(Field field) {
+        Param param = field.getAnnotation(Param.class);
+        return param != null ? param.authorized() : NO_ROLES;
+    }
+
+    public List<FieldPlan> getFields() {
+        return _fields;
+    }
+
+    public static boolean isAuthorized(RoleType[] roles, Account caller) {
+        if (roles.length == 0) {
+            return true;
+        }
+        for (RoleType role : roles) {
+            if (role.getValue() == caller.getType()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class FieldPlan {
+        private final Field _field;
+        private final String _serializedName;
+        private final RoleType[] _authorized;
+
+        FieldPlan(Field field, String serializedName, RoleType[] authorized) {
+            _field = field;
+            _serializedName = serializedName;
+            _authorized = authorized;
+        }
+
+        public String getSerializedName() {
+            return _serializedName;
+        }
+
+        public boolean isRestricted() {
+            return _authorized.length > 0;
+        }
+
+        public boolean isAuthorized(Account caller) {
+            return ResponseSerializationPlan.isAuthorized(_authorized, caller);
+        }
+
+        public Object get(Object obj) {
+            try {
+                return _field.get(obj);
+            } catch (IllegalArgumentException e) {
+                throw new CloudRuntimeException("how illegal is it?", e);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("come on...we set accessible already", e);
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -42,6 +43,7 @@ import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
 import com.cloud.agent.AgentManager;
@@ -58,7 +60,9 @@ import com.cloud.configuration.ConfigurationManager;
 import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterDetailsVO;
 import com.cloud.dc.ClusterVO;
+import com.cloud.dc.HostPodVO;
 import com.cloud.dc.dao.ClusterDao;
+import com.cloud.dc.dao.HostPodDao;
 import com.cloud.deploy.DeploymentClusterPlanner;
 import com.cloud.event.UsageEventVO;
 import com.cloud.exception.ConnectionException;
@@ -89,6 +93,7 @@ import com.cloud.utils.db.DB;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.fsm.StateListener;
@@ -140,6 +145,8 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Inject
     ClusterDao _clusterDao;
     @Inject
+    HostPodDao _podDao;
+    @Inject
     ConfigDepot _configDepot;
     @Inject
     DataStoreProviderManager _dataStoreProviderMgr;
@@ -149,6 +156,8 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     private int _vmCapacityReleaseInterval;
     private ScheduledExecutorService _executor;
     long _extraBytesPerVolume = 0;
+    private final HostCapacityIndex _hostCapacityIndex = new HostCapacityIndex();
+    private int _hostCapacityIndexReloadInterval;
 
     @Inject
     MessageBus _messageBus;
@@ -158,6 +167,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         _vmCapacityReleaseInterval = NumbersUtil.parseInt(_configDao.getValue(Config.CapacitySkipcountingHours.key()), 3600);
+        _hostCapacityIndexReloadInterval = HostCapacityIndexReloadInterval.value();
 
         _executor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("HostCapacity-Checker"));
         VirtualMachine.State.getStateMachine().registerListener(this);
@@ -171,6 +181,10 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     public boolean start() {
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_PREPARE_MAINTENANCE_AFTER, this);
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_CANCEL_MAINTENANCE_AFTER, this);
+        _resourceMgr.registerResourceEvent(ResourceListener.EVENT_DELETE_HOST_AFTER, this);
+        if (_hostCapacityIndexReloadInterval > 0) {
+            _executor.scheduleWithFixedDelay(new HostCapacityIndexReloader(), 0, _hostCapacityIndexReloadInterval, TimeUnit.SECONDS);
+        }
         return true;
     }
 
@@ -267,6 +281,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMemory.getId(), capacityMemory);
+                    updateHostCapacityIndexAfterCommit(capacityCpu, capacityMemory);
                 }
             });
 
@@ -363,6 +378,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMem.getId(), capacityMem);
+                    updateHostCapacityIndexAfterCommit(capacityCpu, capacityMem);
                 }
             });
         } catch (Exception e) {
@@ -744,6 +760,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             try {
                 _capacityDao.update(cpuCap.getId(), cpuCap);
                 _capacityDao.update(memCap.getId(), memCap);
+                updateHostCapacityIndexAfterCommit(cpuCap, memCap);
             } catch (Exception e) {
                 s_logger.error("Caught exception while updating cpu/memory capacity for the host " + host.getId(), e);
             }
@@ -761,6 +778,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     capacity.setReservedCapacity(reservedMemoryFinal);
                     capacity.setCapacityState(capacityState);
                     _capacityDao.persist(capacity);
+                    updateHostCapacityIndexAfterCommit(capacity);
 
                     capacity =
                         new CapacityVO(host.getId(), host.getDataCenterId(), host.getPodId(), host.getClusterId(), usedCpuFinal, host.getCpus().longValue() *
@@ -768,6 +786,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     capacity.setReservedCapacity(reservedCpuFinal);
                     capacity.setCapacityState(capacityState);
                     _capacityDao.persist(capacity);
+                    updateHostCapacityIndexAfterCommit(capacity);
                 }
             });
 
@@ -1029,8 +1048,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Override
     public void processDeletHostEventAfter(Host host) {
-        // TODO Auto-generated method stub
-
+        _hostCapacityIndex.removeHost(host.getId());
     }
 
     @Override
@@ -1079,6 +1097,73 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         return false;
     }
 
+    /**
+     * Records the capacities in the host capacity index once the transaction
+     * that writes them commits, so the index neither runs ahead of the rows
+     * nor keeps values that were rolled back.
+     */
+    private void updateHostCapacityIndexAfterCommit(final CapacityVO... capacities) {
+        TransactionLegacy.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (CapacityVO capacity : capacities) {
+                    _hostCapacityIndex.update(capacity);
+                }
+            }
+        });
+    }
+
+    @Override
+    public HostCapacityIndex getHostCapacityIndex() {
+        if (_hostCapacityIndexReloadInterval <= 0 || _hostCapacityIndex.getLoadedAt() == 0) {
+            return null;
+        }
+        return _hostCapacityIndex;
+    }
+
+    protected void reloadHostCapacityIndex() {
+        Map<Long, HostCapacityIndex.ClusterSettings> clusters = new HashMap<Long, HostCapacityIndex.ClusterSettings>();
+        Map<Long, HostPodVO> pods = new HashMap<Long, HostPodVO>();
+        for (ClusterVO cluster : _clusterDao.listAll()) {
+            // the capacity queries only consider clusters of existing pods and with both overcommit ratios set
+            if (!pods.containsKey(cluster.getPodId())) {
+                pods.put(cluster.getPodId(), _podDao.findById(cluster.getPodId()));
+            }
+            ClusterDetailsVO cpuOvercommitRatio = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
+            ClusterDetailsVO memoryOvercommitRatio = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
+            if (pods.get(cluster.getPodId()) == null || cpuOvercommitRatio == null || memoryOvercommitRatio == null) {
+                continue;
+            }
+
+            clusters.put(cluster.getId(),
+                new HostCapacityIndex.ClusterSettings(cluster.getDataCenterId(), cluster.getPodId(), Float.parseFloat(cpuOvercommitRatio.getValue()),
+                    Float.parseFloat(memoryOvercommitRatio.getValue()), DeploymentClusterPlanner.ClusterCPUCapacityDisableThreshold.valueIn(cluster.getId()),
+                    DeploymentClusterPlanner.ClusterMemoryCapacityDisableThreshold.valueIn(cluster.getId())));
+        }
+
+        SearchCriteria<CapacityVO> sc = _capacityDao.createSearchCriteria();
+        sc.addAnd("capacityType", SearchCriteria.Op.IN, Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY);
+        List<CapacityVO> capacities = _capacityDao.search(sc, null);
+
+        // an allocation made while the rows were read is lost until the next reload, the host allocators
+        // check the database before a host is used
+        _hostCapacityIndex.reload(clusters, capacities);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Reloaded the host capacity index with " + _hostCapacityIndex.getHostCount() + " hosts in " + clusters.size() + " clusters");
+        }
+    }
+
+    protected class HostCapacityIndexReloader extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                reloadHostCapacityIndex();
+            } catch (Throwable t) {
+                s_logger.warn("Unable to reload the host capacity index", t);
+            }
+        }
+    }
+
     @Override
     public String getConfigComponentName() {
         return CapacityManager.class.getSimpleName();
@@ -1087,6 +1172,6 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {CpuOverprovisioningFactor, MemOverprovisioningFactor, StorageCapacityDisableThreshold, StorageOverprovisioningFactor,
-            StorageAllocatedCapacityDisableThreshold};
+            StorageAllocatedCapacityDisableThreshold, HostCapacityIndexReloadInterval};
     }
 }
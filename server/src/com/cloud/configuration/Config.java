@@ -588,7 +588,71 @@ public enum Config {
             "The interval (in milliseconds) when host stats are retrieved from agents.",
             null),
     HostRetry("Advanced", AgentManager.class, Integer.class, "host.retry", "2", "Number of times to retry hosts for creating a volume", null),
+    ApiCredentialCacheSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.credential.cache.size",
+            "10000",
+            "API keys and session users whose credentials are cached, 0 disables the cache",
+            null),
+    ApiCredentialCacheTtl(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.credential.cache.ttl",
+            "30",
+            "Seconds cached API credentials are trusted before being read again, bounds how long a user disabled on another management server keeps access",
+            null),
+    AccessCheckCacheSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "access.check.cache.size",
+            "10000",
+            "Granted access check decisions kept per kind (account, domain, entity owner), 0 disables the cache",
+            null),
+    AccessCheckCacheTtl(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "access.check.cache.ttl",
+            "30",
+            "Seconds a cached access check decision is trusted, bounds how long a change made on another management server takes to revoke access",
+            null),
     IntegrationAPIPort("Advanced", ManagementServer.class, Integer.class, "integration.api.port", null, "Default API port", null),
+    IntegrationAPIWorkers(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "integration.api.workers",
+            "50",
+            "Threads serving the integration API port, each open connection holds one while it is kept alive",
+            null),
+    IntegrationAPIQueueSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "integration.api.queue.size",
+            "100",
+            "Connections to the integration API port that may wait for a thread before new ones are rejected with 503",
+            null),
+    IntegrationAPIKeepAliveTimeout(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "integration.api.keepalive.timeout",
+            "5",
+            "Seconds an idle keep-alive connection to the integration API port may hold its thread before it is closed",
+            null),
+    IntegrationAPIKeepAliveRequests(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "integration.api.keepalive.requests",
+            "100",
+            "Requests served on one keep-alive connection to the integration API port before it is closed",
+            null),
     InvestigateRetryInterval(
             "Advanced",
             HighAvailabilityManager.class,
@@ -882,6 +946,46 @@ public enum Config {
             "The interval (in milliseconds) when vm stats are retrieved from agents.",
             null),
     VmDiskStatsInterval("Advanced", ManagementServer.class, Integer.class, "vm.disk.stats.interval", "0", "Interval (in seconds) to report vm disk statistics.", null),
+    VmStatsCollectorWorkers(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "vm.stats.collector.workers",
+            "10",
+            "Number of hosts the vm stats and vm disk statistics are retrieved from at the same time.",
+            null),
+    VmStatsHostTimeout(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "vm.stats.host.timeout",
+            "30000",
+            "Time (in milliseconds) a stats collection waits for a host; slower hosts are reported as stragglers and skipped until they answer.",
+            null),
+    StatsOutputUri(
+            "Advanced",
+            ManagementServer.class,
+            String.class,
+            "stats.output.uri",
+            null,
+            "URI the collected host, vm and storage stats are exported to in the Graphite plaintext protocol: tcp://host:port, udp://host:port or file:///path. Stats are not exported if empty.",
+            null),
+    StatsOutputPrefix(
+            "Advanced",
+            ManagementServer.class,
+            String.class,
+            "stats.output.prefix",
+            "cloudstack",
+            "Prefix of the paths of the exported stats.",
+            null),
+    StatsOutputBufferSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.output.buffer.size",
+            "10000",
+            "Number of stats lines buffered for the stats output; lines are dropped when the buffer is full.",
+            null),
     VmTransitionWaitInterval(
             "Advanced",
             ManagementServer.class,
@@ -1316,6 +1420,22 @@ public enum Config {
             null,
             "Interval (in days) to check sanity of usage data",
             null),
+    UsageParseWorkers(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parse.workers",
+            "0",
+            "Number of threads the usage job parses accounts with; the accounts are parsed one at a time if less than 2.",
+            null),
+    UsageEventBatchSize(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.event.batch.size",
+            "1000",
+            "Number of usage events the usage job processes and commits at a time.",
+            null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
     TrafficSentinelIncludeZones(
             "Usage",
@@ -1484,6 +1604,14 @@ public enum Config {
             "Allow subdomains to use networks dedicated to their parent domain(s)",
             null),
     EncodeApiResponse("Advanced", ManagementServer.class, Boolean.class, "encode.api.response", "false", "Do URL encoding for the api response, false by default", null),
+    ApiResponseGzip(
+            "Advanced",
+            ManagementServer.class,
+            Boolean.class,
+            "api.response.gzip",
+            "true",
+            "Compress list API responses with gzip when the client accepts it",
+            null),
     DnsBasicZoneUpdates(
             "Advanced",
             NetworkOrchestrationService.class,
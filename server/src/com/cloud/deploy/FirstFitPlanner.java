@@ -36,6 +36,7 @@ import org.apache.log4j.Logger;
 
 import com.cloud.capacity.Capacity;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.HostCapacityIndex;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
 import com.cloud.dc.ClusterDetailsDao;
@@ -197,10 +198,12 @@ public class FirstFitPlanner extends PlannerBase implements DeploymentClusterPla
 
     private void reorderClustersBasedOnImplicitTags(List<Long> clusterList, int requiredCpu, long requiredRam) {
             final HashMap<Long, Long> UniqueTagsInClusterMap = new HashMap<Long, Long>();
+            HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
             Long uniqueTags;
             for (Long clusterId : clusterList) {
                 uniqueTags = (long) 0;
-                List<Long> hostList = _capacityDao.listHostsWithEnoughCapacity(requiredCpu, requiredRam, clusterId, Host.Type.Routing.toString());
+                List<Long> hostList = capacityIndex != null ? capacityIndex.listHostsWithEnoughCapacity(clusterId, requiredCpu, requiredRam)
+                    : _capacityDao.listHostsWithEnoughCapacity(requiredCpu, requiredRam, clusterId, Host.Type.Routing.toString());
                 if (!hostList.isEmpty() && _implicitHostTags.length > 0) {
                     uniqueTags = new Long(_hostTagsDao.getDistinctImplicitHostTags(hostList, _implicitHostTags).size());
                 }
@@ -312,6 +315,7 @@ public class FirstFitPlanner extends PlannerBase implements DeploymentClusterPla
 
         List<Short> capacityList = getCapacitiesForCheckingThreshold();
         List<Long> clustersCrossingThreshold = new ArrayList<Long>();
+        HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
 
         ServiceOffering offering = vmProfile.getServiceOffering();
         int cpu_requested = offering.getCpu() * offering.getSpeed();
@@ -324,7 +328,10 @@ public class FirstFitPlanner extends PlannerBase implements DeploymentClusterPla
             if (clusterListForVmAllocation == null || clusterListForVmAllocation.size() == 0) {
                 return;
             }
-            if (capacity == Capacity.CAPACITY_TYPE_CPU) {
+            if (capacityIndex != null && (capacity == Capacity.CAPACITY_TYPE_CPU || capacity == Capacity.CAPACITY_TYPE_MEMORY)) {
+                clustersCrossingThreshold =
+                    capacityIndex.listClustersCrossingThreshold(capacity, plan.getDataCenterId(), capacity == Capacity.CAPACITY_TYPE_CPU ? cpu_requested : ram_requested);
+            } else if (capacity == Capacity.CAPACITY_TYPE_CPU) {
                 clustersCrossingThreshold =
                     _capacityDao.listClustersCrossingThreshold(capacity, plan.getDataCenterId(), ClusterCPUCapacityDisableThreshold.key(), cpu_requested);
             } else if (capacity == Capacity.CAPACITY_TYPE_MEMORY) {
@@ -453,11 +460,15 @@ public class FirstFitPlanner extends PlannerBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
-        List<Long> clusterIdswithEnoughCapacity = _capacityDao.listClustersInZoneOrPodByHostCapacities(id, requiredCpu, requiredRam, capacityType, isZone);
+        // the in memory capacity answers the same questions without the aggregate queries, when it is available
+        HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
+        List<Long> clusterIdswithEnoughCapacity = capacityIndex != null ? capacityIndex.listClustersByHostCapacities(id, requiredCpu, requiredRam, isZone)
+            : _capacityDao.listClustersInZoneOrPodByHostCapacities(id, requiredCpu, requiredRam, capacityType, isZone);
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("ClusterId List having enough CPU and RAM capacity: " + clusterIdswithEnoughCapacity);
         }
-        Pair<List<Long>, Map<Long, Double>> result = _capacityDao.orderClustersByAggregateCapacity(id, capacityType, isZone);
+        Pair<List<Long>, Map<Long, Double>> result = capacityIndex != null ? capacityIndex.orderClustersByAggregateCapacity(id, capacityType, isZone)
+            : _capacityDao.orderClustersByAggregateCapacity(id, capacityType, isZone);
         List<Long> clusterIdsOrderedByAggregateCapacity = result.first();
         //only keep the clusters that have enough capacity to host this VM
         if (s_logger.isTraceEnabled()) {
@@ -487,11 +498,14 @@ public class FirstFitPlanner extends PlannerBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
-        List<Long> podIdswithEnoughCapacity = _capacityDao.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam, capacityType);
+        HostCapacityIndex capacityIndex = _capacityMgr.getHostCapacityIndex();
+        List<Long> podIdswithEnoughCapacity = capacityIndex != null ? capacityIndex.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam)
+            : _capacityDao.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam, capacityType);
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("PodId List having enough CPU and RAM capacity: " + podIdswithEnoughCapacity);
         }
-        Pair<List<Long>, Map<Long, Double>> result = _capacityDao.orderPodsByAggregateCapacity(zoneId, capacityType);
+        Pair<List<Long>, Map<Long, Double>> result = capacityIndex != null ? capacityIndex.orderPodsByAggregateCapacity(zoneId, capacityType)
+            : _capacityDao.orderPodsByAggregateCapacity(zoneId, capacityType);
         List<Long> podIdsOrderedByAggregateCapacity = result.first();
         //only keep the clusters that have enough capacity to host this VM
         if (s_logger.isTraceEnabled()) {
@@ -348,6 +348,7 @@ public class ProjectManagerImpl extends ManagerBase implements ProjectManager {
             return true;
         }
 
+        _accountMgr.invalidateAccessDecisions();
         if (_projectAccountDao.remove(projectAccount.getId())) {
             return true;
         } else {
@@ -374,6 +375,7 @@ public class ProjectManagerImpl extends ManagerBase implements ProjectManager {
     @Override
     @DB
     public boolean deleteAccountFromProject(final long projectId, final long accountId) {
+        _accountMgr.invalidateAccessDecisions();
         return Transaction.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(TransactionStatus status) {
@@ -493,6 +495,7 @@ public class ProjectManagerImpl extends ManagerBase implements ProjectManager {
                 //unset the role for the old owner
                 ProjectAccountVO currentOwner = _projectAccountDao.findByProjectIdAccountId(projectId, currentOwnerAccount.getId());
                 currentOwner.setAccountRole(Role.Regular);
+                _accountMgr.invalidateAccessDecisions();
                 _projectAccountDao.update(currentOwner.getId(), currentOwner);
                 _resourceLimitMgr.decrementResourceCount(currentOwnerAccount.getId(), ResourceType.project);
 
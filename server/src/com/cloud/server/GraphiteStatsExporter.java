@@ -0,0 +1,477 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.Local;
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.log4j.Logger;
+
+import com.cloud.host.Host;
+import com.cloud.host.HostStats;
+import com.cloud.storage.StoragePool;
+import com.cloud.storage.StorageStats;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.component.AdapterBase;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VmStats;
+
+/**
+ * Writes the collected stats in the Graphite plaintext protocol, one
+ * "path value timestamp" line per metric, to the sink in stats.output.uri:
+ *
+ *   tcp://host:port    a carbon line receiver, 2003 if no port is given
+ *   udp://host:port    the same over datagrams
+ *   file:///path       appended to a local file
+ *
+ * The collectors only ever put lines on a bounded queue, a sender thread
+ * drains it in batches.  When the sink falls behind and the queue is full
+ * the lines are dropped and counted, the collectors never wait.
+ */
+@Local(value = StatsExporter.class)
+public class GraphiteStatsExporter extends AdapterBase implements StatsExporter {
+    private static final Logger s_logger = Logger.getLogger(GraphiteStatsExporter.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_PORT = 2003;
+    private static final int BATCH_SIZE = 500;
+    private static final int UDP_PACKET_SIZE = 1400;
+    private static final int CONNECT_TIMEOUT = 5000;         // 5 seconds
+    private static final long RECONNECT_INTERVAL = 30000;    // 30 seconds
+    private static final long DROP_REPORT_INTERVAL = 60000;  // 1 minute
+
+    @Inject
+    ConfigurationDao _configDao;
+
+    private String _prefix = "cloudstack";
+    private BlockingQueue<String> _queue;
+    private Sink _sink;
+    private Thread _sender;
+    private volatile boolean _stopped;
+
+    private final AtomicLong _sent = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        super.configure(name, params);
+
+        String uri = _configDao.getValue("stats.output.uri");
+        if (uri == null || uri.trim().isEmpty()) {
+            s_logger.info("stats.output.uri is not set, the collected stats are not exported");
+            return true;
+        }
+        init(uri.trim(), _configDao.getValue("stats.output.prefix"), NumbersUtil.parseInt(_configDao.getValue("stats.output.buffer.size"), 10000));
+        return true;
+    }
+
+    void init(String uri, String prefix, int bufferSize) throws ConfigurationException {
+        _sink = createSink(uri);
+        if (prefix != null && !prefix.trim().isEmpty()) {
+            _prefix = prefix.trim();
+        }
+        _queue = new ArrayBlockingQueue<String>(Math.max(bufferSize, BATCH_SIZE));
+    }
+
+    @Override
+    public boolean start() {
+        if (_sink == null) {
+            return true;
+        }
+
+        _stopped = false;
+        _sender = new Thread(new Sender(), "StatsExporter-Graphite");
+        _sender.setDaemon(true);
+        _sender.start();
+        s_logger.info("Exporting the collected stats to " + _sink);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_sender != null) {
+            _stopped = true;
+            _sender.interrupt();
+            try {
+                _sender.join(CONNECT_TIMEOUT);
+            } catch (InterruptedException e) {
+                s_logger.debug("Interrupted while waiting for the stats sender to stop");
+            }
+            _sender = null;
+        }
+        if (_sink != null) {
+            _sink.close();
+        }
+        return true;
+    }
+
+    long getSentCount() {
+        return _sent.get();
+    }
+
+    long getDroppedCount() {
+        return _dropped.get();
+    }
+
+    @Override
+    public void exportHostStats(Host host, HostStats stats, long timestamp) {
+        if (_queue == null) {
+            return;
+        }
+
+        String path = _prefix + ".hosts." + sanitize(host.getName()) + ".";
+        long ts = timestamp / 1000;
+        offer(path + "cpu.utilization", stats.getCpuUtilization(), ts);
+        offer(path + "memory.total_kbs", stats.getTotalMemoryKBs(), ts);
+        offer(path + "memory.free_kbs", stats.getFreeMemoryKBs(), ts);
+        offer(path + "memory.used", stats.getUsedMemory(), ts);
+        offer(path + "network.read_kbs", stats.getNetworkReadKBs(), ts);
+        offer(path + "network.write_kbs", stats.getNetworkWriteKBs(), ts);
+    }
+
+    @Override
+    public void exportVmStats(Host host, VirtualMachine vm, VmStats stats, long timestamp) {
+        if (_queue == null) {
+            return;
+        }
+
+        String path = _prefix + ".vms." + sanitize(vm.getInstanceName()) + ".";
+        long ts = timestamp / 1000;
+        offer(path + "cpu.utilization", stats.getCPUUtilization(), ts);
+        offer(path + "network.read_kbs", stats.getNetworkReadKBs(), ts);
+        offer(path + "network.write_kbs", stats.getNetworkWriteKBs(), ts);
+        offer(path + "disk.read_kbs", stats.getDiskReadKBs(), ts);
+        offer(path + "disk.write_kbs", stats.getDiskWriteKBs(), ts);
+        offer(path + "disk.read_ios", stats.getDiskReadIOs(), ts);
+        offer(path + "disk.write_ios", stats.getDiskWriteIOs(), ts);
+    }
+
+    @Override
+    public void exportStoragePoolStats(StoragePool pool, StorageStats stats, long timestamp) {
+        if (_queue == null) {
+            return;
+        }
+
+        String path = _prefix + ".storage_pools." + sanitize(pool.getName()) + ".";
+        long ts = timestamp / 1000;
+        offer(path + "capacity_bytes", stats.getCapacityBytes(), ts);
+        offer(path + "used_bytes", stats.getByteUsed(), ts);
+    }
+
+    @Override
+    public void exportImageStoreStats(long storeId, String storeName, StorageStats stats, long timestamp) {
+        if (_queue == null) {
+            return;
+        }
+
+        String path = _prefix + ".image_stores." + sanitize(storeName != null ? storeName : String.valueOf(storeId)) + ".";
+        long ts = timestamp / 1000;
+        offer(path + "capacity_bytes", stats.getCapacityBytes(), ts);
+        offer(path + "used_bytes", stats.getByteUsed(), ts);
+    }
+
+    private void offer(String path, double value, long ts) {
+        offer(path + " " + value + " " + ts + "\n");
+    }
+
+    private void offer(String path, long value, long ts) {
+        offer(path + " " + value + " " + ts + "\n");
+    }
+
+    private void offer(String line) {
+        if (!_queue.offer(line)) {
+            _dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Graphite separates the path components with dots, anything but
+     * letters, digits, '-' and '_' in a name is replaced.
+     */
+    static String sanitize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
+
+    static Sink createSink(String uri) throws ConfigurationException {
+        URI parsed;
+        try {
+            parsed = new URI(uri);
+        } catch (URISyntaxException e) {
+            throw new ConfigurationException("Invalid stats.output.uri " + uri + ": " + e.getMessage());
+        }
+
+        String scheme = parsed.getScheme();
+        if ("file".equalsIgnoreCase(scheme)) {
+            if (parsed.getPath() == null || parsed.getPath().isEmpty()) {
+                throw new ConfigurationException("stats.output.uri " + uri + " does not name a file");
+            }
+            return new FileSink(new File(parsed.getPath()));
+        }
+
+        if (parsed.getHost() == null) {
+            throw new ConfigurationException("stats.output.uri " + uri + " does not name a host");
+        }
+        int port = parsed.getPort() > 0 ? parsed.getPort() : DEFAULT_PORT;
+        if ("tcp".equalsIgnoreCase(scheme)) {
+            return new TcpSink(parsed.getHost(), port);
+        } else if ("udp".equalsIgnoreCase(scheme)) {
+            return new UdpSink(parsed.getHost(), port);
+        }
+        throw new ConfigurationException("Unsupported stats.output.uri scheme " + scheme + ", use tcp, udp or file");
+    }
+
+    private class Sender implements Runnable {
+        private long _reportedDrops;
+        private long _reportedAt;
+
+        @Override
+        public void run() {
+            List<String> batch = new ArrayList<String>(BATCH_SIZE);
+            while (!_stopped) {
+                try {
+                    String line = _queue.poll(1, TimeUnit.SECONDS);
+                    if (line == null) {
+                        continue;
+                    }
+                    batch.add(line);
+                    _queue.drainTo(batch, BATCH_SIZE - 1);
+                    send(batch);
+                    batch.clear();
+                    reportDrops();
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            // whatever is still queued is written out once, without waiting for a failed sink
+            _queue.drainTo(batch);
+            if (!batch.isEmpty()) {
+                try {
+                    _sink.write(batch);
+                    _sent.addAndGet(batch.size());
+                } catch (IOException e) {
+                    _dropped.addAndGet(batch.size());
+                }
+            }
+        }
+
+        private void send(List<String> batch) throws InterruptedException {
+            try {
+                _sink.write(batch);
+                _sent.addAndGet(batch.size());
+            } catch (IOException e) {
+                _dropped.addAndGet(batch.size());
+                _sink.close();
+                s_logger.warn("Unable to write stats to " + _sink + ", retrying in " + (RECONNECT_INTERVAL / 1000) + " seconds: " + e.getMessage());
+                // the queue fills up and the collectors drop in the meantime
+                Thread.sleep(RECONNECT_INTERVAL);
+            }
+        }
+
+        private void reportDrops() {
+            long dropped = _dropped.get();
+            long now = System.currentTimeMillis();
+            if (dropped != _reportedDrops && now - _reportedAt >= DROP_REPORT_INTERVAL) {
+                s_logger.warn("Dropped " + (dropped - _reportedDrops) + " stats lines because " + _sink + " did not keep up");
+                _reportedDrops = dropped;
+                _reportedAt = now;
+            }
+        }
+    }
+
+    interface Sink {
+        /**
+         * Writes the lines, opening the sink if needed.  The sink is closed
+         * by the caller when this fails.
+         */
+        void write(List<String> lines) throws IOException;
+
+        void close();
+    }
+
+    private static byte[] join(List<String> lines) {
+        StringBuilder sb = new StringBuilder(lines.size() * 64);
+        for (String line : lines) {
+            sb.append(line);
+        }
+        return sb.toString().getBytes(UTF8);
+    }
+
+    private static class TcpSink implements Sink {
+        private final String _host;
+        private final int _port;
+        private Socket _socket;
+        private OutputStream _out;
+
+        public TcpSink(String host, int port) {
+            _host = host;
+            _port = port;
+        }
+
+        @Override
+        public void write(List<String> lines) throws IOException {
+            if (_socket == null) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(_host, _port), CONNECT_TIMEOUT);
+                _socket = socket;
+                _out = socket.getOutputStream();
+            }
+            _out.write(join(lines));
+            _out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (_socket != null) {
+                try {
+                    _socket.close();
+                } catch (IOException e) {
+                    s_logger.debug("Unable to close the stats socket: " + e.getMessage());
+                }
+                _socket = null;
+                _out = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "tcp://" + _host + ":" + _port;
+        }
+    }
+
+    private static class UdpSink implements Sink {
+        private final String _host;
+        private final int _port;
+        private DatagramSocket _socket;
+        private InetSocketAddress _address;
+
+        public UdpSink(String host, int port) {
+            _host = host;
+            _port = port;
+        }
+
+        @Override
+        public void write(List<String> lines) throws IOException {
+            if (_socket == null) {
+                _address = new InetSocketAddress(_host, _port);
+                if (_address.isUnresolved()) {
+                    throw new IOException("Unable to resolve " + _host);
+                }
+                _socket = new DatagramSocket();
+            }
+
+            // lines are never split across datagrams
+            List<String> packet = new ArrayList<String>();
+            int size = 0;
+            for (String line : lines) {
+                if (size + line.length() > UDP_PACKET_SIZE && !packet.isEmpty()) {
+                    send(packet);
+                    packet.clear();
+                    size = 0;
+                }
+                packet.add(line);
+                size += line.length();
+            }
+            if (!packet.isEmpty()) {
+                send(packet);
+            }
+        }
+
+        private void send(List<String> lines) throws IOException {
+            byte[] data = join(lines);
+            _socket.send(new DatagramPacket(data, data.length, _address));
+        }
+
+        @Override
+        public void close() {
+            if (_socket != null) {
+                _socket.close();
+                _socket = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "udp://" + _host + ":" + _port;
+        }
+    }
+
+    private static class FileSink implements Sink {
+        private final File _file;
+        private OutputStream _out;
+
+        public FileSink(File file) {
+            _file = file;
+        }
+
+        @Override
+        public void write(List<String> lines) throws IOException {
+            if (_out == null) {
+                _out = new FileOutputStream(_file, true);
+            }
+            _out.write(join(lines));
+            _out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (_out != null) {
+                try {
+                    _out.close();
+                } catch (IOException e) {
+                    s_logger.debug("Unable to close " + _file + ": " + e.getMessage());
+                }
+                _out = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "file://" + _file.getAbsolutePath();
+        }
+    }
+}
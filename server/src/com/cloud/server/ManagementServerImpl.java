@@ -2303,6 +2303,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
             }
         }
         _domainDao.update(domainId, domain);
+        _accountMgr.invalidateAccessDecisions();
             }
         });
 
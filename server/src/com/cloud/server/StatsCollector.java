@@ -18,16 +18,23 @@ package com.cloud.server;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
 
@@ -75,6 +82,7 @@ import com.cloud.storage.dao.VolumeDao;
 import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.VmDiskStatisticsDao;
 import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ComponentMethodInterceptable;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
@@ -84,6 +92,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.MacAddress;
 import com.cloud.vm.UserVmManager;
 import com.cloud.vm.UserVmVO;
@@ -156,6 +165,14 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     List<Long> hostIds = null;
 
     private ScheduledExecutorService _diskStatsUpdateExecutor;
+    private ExecutorService _hostStatsExecutor;
+    private final Set<Long> _vmStatsHostsInFlight = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final Set<Long> _vmDiskStatsHostsInFlight = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final StatsCollectorMBeanImpl _statsMBean = new StatsCollectorMBeanImpl();
+    private List<StatsExporter> _statsExporters = Collections.emptyList();
+    int vmStatsWorkers = 10;
+    long vmStatsHostTimeout = 30000L;
+    private static final int VM_DISK_STATS_BATCH_SIZE = 100;
     private int _usageAggregationRange = 1440;
     private String _usageTimeZone = "GMT";
     private final long mgmtSrvrId = MacAddress.getMacAddress().toLong();
@@ -177,6 +194,35 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         s_instance = this;
     }
 
+    /**
+     * Hands one set of stats to a StatsExporter.
+     */
+    interface StatsExport {
+        void export(StatsExporter exporter);
+    }
+
+    /**
+     * Runs the export on every exporter, one that fails does not keep the
+     * stats from the others or from the collector.
+     */
+    void export(String subject, StatsExport export) {
+        for (StatsExporter exporter : _statsExporters) {
+            try {
+                export.export(exporter);
+            } catch (Exception e) {
+                s_logger.warn("Stats exporter " + exporter.getName() + " failed on the stats of " + subject, e);
+            }
+        }
+    }
+
+    public List<StatsExporter> getStatsExporters() {
+        return _statsExporters;
+    }
+
+    public void setStatsExporters(List<StatsExporter> statsExporters) {
+        _statsExporters = statsExporters;
+    }
+
     @Override
     public boolean start() {
         init(_configDao.getConfiguration());
@@ -193,6 +239,15 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         autoScaleStatsInterval = NumbersUtil.parseLong(configs.get("autoscale.stats.interval"), 60000L);
         autoScaleCounterCollectorInterval = NumbersUtil.parseLong(configs.get("autoscale.reading.interval"), 10000L);
         vmDiskStatsInterval = NumbersUtil.parseInt(configs.get("vm.disk.stats.interval"), 0);
+        vmStatsWorkers = NumbersUtil.parseInt(configs.get("vm.stats.collector.workers"), 10);
+        vmStatsHostTimeout = NumbersUtil.parseLong(configs.get("vm.stats.host.timeout"), 30000L);
+
+        _hostStatsExecutor = Executors.newFixedThreadPool(Math.max(vmStatsWorkers, 1), new NamedThreadFactory("StatsCollector-Host"));
+        try {
+            JmxUtil.registerMBean("StatsCollector", "Collection", _statsMBean);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register the stats collector MBean", e);
+        }
 
         if (hostStatsInterval > 0) {
             _executor.scheduleWithFixedDelay(new HostCollector(), 15000L, hostStatsInterval, TimeUnit.MILLISECONDS);
@@ -286,10 +341,17 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.BaremetalPxe.toString());
                 ConcurrentHashMap<Long, HostStats> hostStats = new ConcurrentHashMap<Long, HostStats>();
                 List<HostVO> hosts = _hostDao.search(sc, null);
-                for (HostVO host : hosts) {
-                    HostStatsEntry stats = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
+                final long timestamp = System.currentTimeMillis();
+                for (final HostVO host : hosts) {
+                    final HostStatsEntry stats = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
                     if (stats != null) {
                         hostStats.put(host.getId(), stats);
+                        export("host " + host.getId(), new StatsExport() {
+                            @Override
+                            public void export(StatsExporter exporter) {
+                                exporter.exportHostStats(host, stats, timestamp);
+                            }
+                        });
                     } else {
                         s_logger.warn("Received invalid host stats for host: " + host.getId());
                     }
@@ -337,54 +399,140 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.SecondaryStorageVM.toString());
                 List<HostVO> hosts = _hostDao.search(sc, null);
 
-                for (HostVO host : hosts) {
-                    List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                    List<Long> vmIds = new ArrayList<Long>();
-
-                    for (UserVmVO vm : vms) {
-                        vmIds.add(vm.getId());
+                final long startTime = System.currentTimeMillis();
+                List<HostVO> stragglers = collectFromHosts(hosts, _vmStatsHostsInFlight, new HostStatsTask() {
+                    @Override
+                    public void collect(HostVO host) {
+                        collectVmStats(host, startTime);
                     }
+                });
+                _statsMBean.recordVmStatsCycle(System.currentTimeMillis() - startTime, stragglers);
+                if (!stragglers.isEmpty()) {
+                    s_logger.info("VM stats of " + stragglers.size() + " hosts were not retrieved within " + vmStatsHostTimeout + "ms: " + hostNames(stragglers));
+                }
+            } catch (Throwable t) {
+                s_logger.error("Error trying to retrieve VM stats", t);
+            }
+        }
+    }
 
-                    try {
-                        HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
-
-                        if (vmStatsById != null) {
-                            VmStatsEntry statsInMemory = null;
-
-                            Set<Long> vmIdSet = vmStatsById.keySet();
-                            for (Long vmId : vmIdSet) {
-                                VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
-                                statsInMemory = (VmStatsEntry)_VmStats.get(vmId);
-
-                                if (statsInMemory == null) {
-                                    //no stats exist for this vm, directly persist
-                                    _VmStats.put(vmId, statsForCurrentIteration);
-                                } else {
-                                    //update each field
-                                    statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
-                                    statsInMemory.setNumCPUs(statsForCurrentIteration.getNumCPUs());
-                                    statsInMemory.setNetworkReadKBs(statsInMemory.getNetworkReadKBs() + statsForCurrentIteration.getNetworkReadKBs());
-                                    statsInMemory.setNetworkWriteKBs(statsInMemory.getNetworkWriteKBs() + statsForCurrentIteration.getNetworkWriteKBs());
-                                    statsInMemory.setDiskWriteKBs(statsInMemory.getDiskWriteKBs() + statsForCurrentIteration.getDiskWriteKBs());
-                                    statsInMemory.setDiskReadIOs(statsInMemory.getDiskReadIOs() + statsForCurrentIteration.getDiskReadIOs());
-                                    statsInMemory.setDiskWriteIOs(statsInMemory.getDiskWriteIOs() + statsForCurrentIteration.getDiskWriteIOs());
-                                    statsInMemory.setDiskReadKBs(statsInMemory.getDiskReadKBs() + statsForCurrentIteration.getDiskReadKBs());
-
-                                    _VmStats.put(vmId, statsInMemory);
-                                }
+    private void collectVmStats(final HostVO host, final long timestamp) {
+        List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+        List<Long> vmIds = new ArrayList<Long>();
+        Map<Long, UserVmVO> vmsById = new HashMap<Long, UserVmVO>();
+
+        for (UserVmVO vm : vms) {
+            vmIds.add(vm.getId());
+            vmsById.put(vm.getId(), vm);
+        }
+
+        try {
+            HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+
+            if (vmStatsById != null) {
+                VmStatsEntry statsInMemory = null;
+
+                Set<Long> vmIdSet = vmStatsById.keySet();
+                for (Long vmId : vmIdSet) {
+                    final VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
+                    final UserVmVO vm = vmsById.get(vmId);
+                    if (vm != null) {
+                        export("vm " + vmId, new StatsExport() {
+                            @Override
+                            public void export(StatsExporter exporter) {
+                                exporter.exportVmStats(host, vm, statsForCurrentIteration, timestamp);
                             }
-                        }
+                        });
+                    }
+                    statsInMemory = (VmStatsEntry)_VmStats.get(vmId);
 
-                    } catch (Exception e) {
-                        s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
-                        continue;
+                    if (statsInMemory == null) {
+                        //no stats exist for this vm, directly persist
+                        _VmStats.put(vmId, statsForCurrentIteration);
+                    } else {
+                        //update each field
+                        statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
+                        statsInMemory.setNumCPUs(statsForCurrentIteration.getNumCPUs());
+                        statsInMemory.setNetworkReadKBs(statsInMemory.getNetworkReadKBs() + statsForCurrentIteration.getNetworkReadKBs());
+                        statsInMemory.setNetworkWriteKBs(statsInMemory.getNetworkWriteKBs() + statsForCurrentIteration.getNetworkWriteKBs());
+                        statsInMemory.setDiskWriteKBs(statsInMemory.getDiskWriteKBs() + statsForCurrentIteration.getDiskWriteKBs());
+                        statsInMemory.setDiskReadIOs(statsInMemory.getDiskReadIOs() + statsForCurrentIteration.getDiskReadIOs());
+                        statsInMemory.setDiskWriteIOs(statsInMemory.getDiskWriteIOs() + statsForCurrentIteration.getDiskWriteIOs());
+                        statsInMemory.setDiskReadKBs(statsInMemory.getDiskReadKBs() + statsForCurrentIteration.getDiskReadKBs());
+
+                        _VmStats.put(vmId, statsInMemory);
                     }
                 }
+            }
 
-            } catch (Throwable t) {
-                s_logger.error("Error trying to retrieve VM stats", t);
+        } catch (Exception e) {
+            s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
+        }
+    }
+
+    interface HostStatsTask {
+        void collect(HostVO host);
+    }
+
+    /**
+     * Runs the task for each host on the host stats workers and waits until
+     * they are all done or vm.stats.host.timeout has passed.  A host whose
+     * task from an earlier cycle is still running is skipped, so one slow
+     * hypervisor holds at most one worker.
+     *
+     * @return the hosts that were skipped or did not finish in time.
+     */
+    private List<HostVO> collectFromHosts(List<HostVO> hosts, final Set<Long> inFlight, final HostStatsTask task) {
+        long deadline = System.currentTimeMillis() + vmStatsHostTimeout;
+        List<HostVO> stragglers = new ArrayList<HostVO>();
+        Map<HostVO, Future<?>> futures = new LinkedHashMap<HostVO, Future<?>>();
+
+        for (final HostVO host : hosts) {
+            if (!inFlight.add(host.getId())) {
+                stragglers.add(host);
+                continue;
+            }
+            try {
+                futures.put(host, _hostStatsExecutor.submit(new ManagedContextRunnable() {
+                    @Override
+                    protected void runInContext() {
+                        try {
+                            task.collect(host);
+                        } finally {
+                            inFlight.remove(host.getId());
+                        }
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(host.getId());
+                stragglers.add(host);
+            }
+        }
+
+        for (Map.Entry<HostVO, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                stragglers.add(entry.getKey());
+            } catch (ExecutionException e) {
+                s_logger.debug("Failed to get stats from host " + entry.getKey().getName(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stragglers.add(entry.getKey());
+            }
+        }
+        return stragglers;
+    }
+
+    private static String hostNames(List<HostVO> hosts) {
+        StringBuilder names = new StringBuilder();
+        for (HostVO host : hosts) {
+            if (names.length() > 0) {
+                names.append(", ");
             }
+            names.append(host.getName());
         }
+        return names.toString();
     }
 
     public VmStats getVmStats(long id) {
@@ -443,126 +591,156 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         protected void runInContext() {
             // collect the vm disk statistics(total) from hypervisor. added by weizhou, 2013.03.
             try {
-                Transaction.execute(new TransactionCallbackNoReturn() {
-                    @Override
-                    public void doInTransactionWithoutResult(TransactionStatus status) {
-                        SearchCriteria<HostVO> sc = _hostDao.createSearchCriteria();
-                        sc.addAnd("status", SearchCriteria.Op.EQ, Status.Up.toString());
-                        sc.addAnd("resourceState", SearchCriteria.Op.NIN, ResourceState.Maintenance, ResourceState.PrepareForMaintenance,
-                            ResourceState.ErrorInMaintenance);
-                        sc.addAnd("type", SearchCriteria.Op.EQ, Host.Type.Routing.toString());
-                        sc.addAnd("hypervisorType", SearchCriteria.Op.EQ, HypervisorType.KVM); // support KVM only util 2013.06.25
-                        List<HostVO> hosts = _hostDao.search(sc, null);
-
-                        for (HostVO host : hosts) {
-                            List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                            List<Long> vmIds = new ArrayList<Long>();
-
-                            for (UserVmVO vm : vms) {
-                                if (vm.getType() == VirtualMachine.Type.User) // user vm
-                                    vmIds.add(vm.getId());
-                            }
-
-                            HashMap<Long, List<VmDiskStatsEntry>> vmDiskStatsById = _userVmMgr.getVmDiskStatistics(host.getId(), host.getName(), vmIds);
-                            if (vmDiskStatsById == null)
-                                continue;
-
-                            Set<Long> vmIdSet = vmDiskStatsById.keySet();
-                            for (Long vmId : vmIdSet) {
-                                List<VmDiskStatsEntry> vmDiskStats = vmDiskStatsById.get(vmId);
-                                if (vmDiskStats == null)
-                                    continue;
-                                UserVmVO userVm = _userVmDao.findById(vmId);
-                                for (VmDiskStatsEntry vmDiskStat : vmDiskStats) {
-                                    SearchCriteria<VolumeVO> sc_volume = _volsDao.createSearchCriteria();
-                                    sc_volume.addAnd("path", SearchCriteria.Op.EQ, vmDiskStat.getPath());
-                                    List<VolumeVO> volumes = _volsDao.search(sc_volume, null);
-                                    if ((volumes == null) || (volumes.size() == 0))
-                                        break;
-                                    VolumeVO volume = volumes.get(0);
-                                    VmDiskStatisticsVO previousVmDiskStats =
-                                        _vmDiskStatsDao.findBy(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
-                                    VmDiskStatisticsVO vmDiskStat_lock = _vmDiskStatsDao.lock(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
-
-                                    if ((vmDiskStat.getBytesRead() == 0) && (vmDiskStat.getBytesWrite() == 0) && (vmDiskStat.getIORead() == 0) &&
-                                        (vmDiskStat.getIOWrite() == 0)) {
-                                        s_logger.debug("IO/bytes read and write are all 0. Not updating vm_disk_statistics");
-                                        continue;
-                                    }
+                SearchCriteria<HostVO> sc = _hostDao.createSearchCriteria();
+                sc.addAnd("status", SearchCriteria.Op.EQ, Status.Up.toString());
+                sc.addAnd("resourceState", SearchCriteria.Op.NIN, ResourceState.Maintenance, ResourceState.PrepareForMaintenance,
+                    ResourceState.ErrorInMaintenance);
+                sc.addAnd("type", SearchCriteria.Op.EQ, Host.Type.Routing.toString());
+                sc.addAnd("hypervisorType", SearchCriteria.Op.EQ, HypervisorType.KVM); // support KVM only util 2013.06.25
+                List<HostVO> hosts = _hostDao.search(sc, null);
 
-                                    if (vmDiskStat_lock == null) {
-                                        s_logger.warn("unable to find vm disk stats from host for account: " + userVm.getAccountId() + " with vmId: " + userVm.getId() +
-                                            " and volumeId:" + volume.getId());
-                                        continue;
-                                    }
+                // the hypervisors are asked outside of any transaction, only the writes below hold one
+                long startTime = System.currentTimeMillis();
+                final Map<Long, HashMap<Long, List<VmDiskStatsEntry>>> statsByHost = new ConcurrentHashMap<Long, HashMap<Long, List<VmDiskStatsEntry>>>();
+                List<HostVO> stragglers = collectFromHosts(hosts, _vmDiskStatsHostsInFlight, new HostStatsTask() {
+                    @Override
+                    public void collect(HostVO host) {
+                        List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+                        List<Long> vmIds = new ArrayList<Long>();
 
-                                    if (previousVmDiskStats != null &&
-                                        ((previousVmDiskStats.getCurrentBytesRead() != vmDiskStat_lock.getCurrentBytesRead()) ||
-                                            (previousVmDiskStats.getCurrentBytesWrite() != vmDiskStat_lock.getCurrentBytesWrite()) ||
-                                            (previousVmDiskStats.getCurrentIORead() != vmDiskStat_lock.getCurrentIORead()) || (previousVmDiskStats.getCurrentIOWrite() != vmDiskStat_lock.getCurrentIOWrite()))) {
-                                        s_logger.debug("vm disk stats changed from the time GetVmDiskStatsCommand was sent. " + "Ignoring current answer. Host: " +
-                                            host.getName() + " . VM: " + vmDiskStat.getVmName() + " Read(Bytes): " + vmDiskStat.getBytesRead() + " write(Bytes): " +
-                                            vmDiskStat.getBytesWrite() + " Read(IO): " + vmDiskStat.getIORead() + " write(IO): " + vmDiskStat.getIOWrite());
-                                        continue;
-                                    }
+                        for (UserVmVO vm : vms) {
+                            if (vm.getType() == VirtualMachine.Type.User) // user vm
+                                vmIds.add(vm.getId());
+                        }
 
-                                    if (vmDiskStat_lock.getCurrentBytesRead() > vmDiskStat.getBytesRead()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Read # of bytes that's less than the last one.  " +
-                                                "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
-                                                " Reported: " + vmDiskStat.getBytesRead() + " Stored: " + vmDiskStat_lock.getCurrentBytesRead());
-                                        }
-                                        vmDiskStat_lock.setNetBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
-                                    }
-                                    vmDiskStat_lock.setCurrentBytesRead(vmDiskStat.getBytesRead());
-                                    if (vmDiskStat_lock.getCurrentBytesWrite() > vmDiskStat.getBytesWrite()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Write # of bytes that's less than the last one.  " +
-                                                "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
-                                                " Reported: " + vmDiskStat.getBytesWrite() + " Stored: " + vmDiskStat_lock.getCurrentBytesWrite());
-                                        }
-                                        vmDiskStat_lock.setNetBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
-                                    }
-                                    vmDiskStat_lock.setCurrentBytesWrite(vmDiskStat.getBytesWrite());
-                                    if (vmDiskStat_lock.getCurrentIORead() > vmDiskStat.getIORead()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Read # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
-                                                host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIORead() + " Stored: " +
-                                                vmDiskStat_lock.getCurrentIORead());
-                                        }
-                                        vmDiskStat_lock.setNetIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
-                                    }
-                                    vmDiskStat_lock.setCurrentIORead(vmDiskStat.getIORead());
-                                    if (vmDiskStat_lock.getCurrentIOWrite() > vmDiskStat.getIOWrite()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Write # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
-                                                host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIOWrite() + " Stored: " +
-                                                vmDiskStat_lock.getCurrentIOWrite());
-                                        }
-                                        vmDiskStat_lock.setNetIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
-                                    }
-                                    vmDiskStat_lock.setCurrentIOWrite(vmDiskStat.getIOWrite());
+                        HashMap<Long, List<VmDiskStatsEntry>> vmDiskStatsById = _userVmMgr.getVmDiskStatistics(host.getId(), host.getName(), vmIds);
+                        if (vmDiskStatsById != null)
+                            statsByHost.put(host.getId(), vmDiskStatsById);
+                    }
+                });
 
-                                    if (!_dailyOrHourly) {
-                                        //update agg bytes
-                                        vmDiskStat_lock.setAggBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
-                                        vmDiskStat_lock.setAggBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
-                                        vmDiskStat_lock.setAggIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
-                                        vmDiskStat_lock.setAggIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
-                                    }
+                final List<Pair<HostVO, Long>> vms = new ArrayList<Pair<HostVO, Long>>();
+                for (HostVO host : hosts) {
+                    HashMap<Long, List<VmDiskStatsEntry>> vmDiskStatsById = statsByHost.get(host.getId());
+                    if (vmDiskStatsById != null && !stragglers.contains(host)) {
+                        for (Long vmId : vmDiskStatsById.keySet()) {
+                            vms.add(new Pair<HostVO, Long>(host, vmId));
+                        }
+                    }
+                }
 
-                                    _vmDiskStatsDao.update(vmDiskStat_lock.getId(), vmDiskStat_lock);
+                for (int i = 0; i < vms.size(); i += VM_DISK_STATS_BATCH_SIZE) {
+                    final List<Pair<HostVO, Long>> batch = vms.subList(i, Math.min(i + VM_DISK_STATS_BATCH_SIZE, vms.size()));
+                    try {
+                        Transaction.execute(new TransactionCallbackNoReturn() {
+                            @Override
+                            public void doInTransactionWithoutResult(TransactionStatus status) {
+                                for (Pair<HostVO, Long> vm : batch) {
+                                    List<VmDiskStatsEntry> vmDiskStats = statsByHost.get(vm.first().getId()).get(vm.second());
+                                    if (vmDiskStats != null)
+                                        updateVmDiskStats(vm.first(), vm.second(), vmDiskStats);
                                 }
                             }
-                        }
+                        });
+                    } catch (Exception e) {
+                        s_logger.warn("Error while persisting the disk stats of " + batch.size() + " vms", e);
                     }
-                });
+                }
+
+                _statsMBean.recordVmDiskStatsCycle(System.currentTimeMillis() - startTime, stragglers);
+                if (!stragglers.isEmpty()) {
+                    s_logger.info("VM disk stats of " + stragglers.size() + " hosts were not retrieved within " + vmStatsHostTimeout + "ms: " + hostNames(stragglers));
+                }
             } catch (Exception e) {
                 s_logger.warn("Error while collecting vm disk stats from hosts", e);
             }
         }
     }
 
+    private void updateVmDiskStats(HostVO host, Long vmId, List<VmDiskStatsEntry> vmDiskStats) {
+        UserVmVO userVm = _userVmDao.findById(vmId);
+        for (VmDiskStatsEntry vmDiskStat : vmDiskStats) {
+            SearchCriteria<VolumeVO> sc_volume = _volsDao.createSearchCriteria();
+            sc_volume.addAnd("path", SearchCriteria.Op.EQ, vmDiskStat.getPath());
+            List<VolumeVO> volumes = _volsDao.search(sc_volume, null);
+            if ((volumes == null) || (volumes.size() == 0))
+                break;
+            VolumeVO volume = volumes.get(0);
+            VmDiskStatisticsVO previousVmDiskStats =
+                _vmDiskStatsDao.findBy(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
+            VmDiskStatisticsVO vmDiskStat_lock = _vmDiskStatsDao.lock(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
+
+            if ((vmDiskStat.getBytesRead() == 0) && (vmDiskStat.getBytesWrite() == 0) && (vmDiskStat.getIORead() == 0) &&
+                (vmDiskStat.getIOWrite() == 0)) {
+                s_logger.debug("IO/bytes read and write are all 0. Not updating vm_disk_statistics");
+                continue;
+            }
+
+            if (vmDiskStat_lock == null) {
+                s_logger.warn("unable to find vm disk stats from host for account: " + userVm.getAccountId() + " with vmId: " + userVm.getId() +
+                    " and volumeId:" + volume.getId());
+                continue;
+            }
+
+            if (previousVmDiskStats != null &&
+                ((previousVmDiskStats.getCurrentBytesRead() != vmDiskStat_lock.getCurrentBytesRead()) ||
+                    (previousVmDiskStats.getCurrentBytesWrite() != vmDiskStat_lock.getCurrentBytesWrite()) ||
+                    (previousVmDiskStats.getCurrentIORead() != vmDiskStat_lock.getCurrentIORead()) || (previousVmDiskStats.getCurrentIOWrite() != vmDiskStat_lock.getCurrentIOWrite()))) {
+                s_logger.debug("vm disk stats changed from the time GetVmDiskStatsCommand was sent. " + "Ignoring current answer. Host: " +
+                    host.getName() + " . VM: " + vmDiskStat.getVmName() + " Read(Bytes): " + vmDiskStat.getBytesRead() + " write(Bytes): " +
+                    vmDiskStat.getBytesWrite() + " Read(IO): " + vmDiskStat.getIORead() + " write(IO): " + vmDiskStat.getIOWrite());
+                continue;
+            }
+
+            if (vmDiskStat_lock.getCurrentBytesRead() > vmDiskStat.getBytesRead()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Read # of bytes that's less than the last one.  " +
+                        "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
+                        " Reported: " + vmDiskStat.getBytesRead() + " Stored: " + vmDiskStat_lock.getCurrentBytesRead());
+                }
+                vmDiskStat_lock.setNetBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
+            }
+            vmDiskStat_lock.setCurrentBytesRead(vmDiskStat.getBytesRead());
+            if (vmDiskStat_lock.getCurrentBytesWrite() > vmDiskStat.getBytesWrite()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Write # of bytes that's less than the last one.  " +
+                        "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
+                        " Reported: " + vmDiskStat.getBytesWrite() + " Stored: " + vmDiskStat_lock.getCurrentBytesWrite());
+                }
+                vmDiskStat_lock.setNetBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
+            }
+            vmDiskStat_lock.setCurrentBytesWrite(vmDiskStat.getBytesWrite());
+            if (vmDiskStat_lock.getCurrentIORead() > vmDiskStat.getIORead()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Read # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
+                        host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIORead() + " Stored: " +
+                        vmDiskStat_lock.getCurrentIORead());
+                }
+                vmDiskStat_lock.setNetIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
+            }
+            vmDiskStat_lock.setCurrentIORead(vmDiskStat.getIORead());
+            if (vmDiskStat_lock.getCurrentIOWrite() > vmDiskStat.getIOWrite()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Write # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
+                        host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIOWrite() + " Stored: " +
+                        vmDiskStat_lock.getCurrentIOWrite());
+                }
+                vmDiskStat_lock.setNetIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
+            }
+            vmDiskStat_lock.setCurrentIOWrite(vmDiskStat.getIOWrite());
+
+            if (!_dailyOrHourly) {
+                //update agg bytes
+                vmDiskStat_lock.setAggBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
+                vmDiskStat_lock.setAggBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
+                vmDiskStat_lock.setAggIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
+                vmDiskStat_lock.setAggIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
+            }
+
+            _vmDiskStatsDao.update(vmDiskStat_lock.getId(), vmDiskStat_lock);
+        }
+    }
+
     class StorageCollector extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -573,7 +751,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
                 List<DataStore> stores = _dataStoreMgr.listImageStores();
                 ConcurrentHashMap<Long, StorageStats> storageStats = new ConcurrentHashMap<Long, StorageStats>();
-                for (DataStore store : stores) {
+                final long timestamp = System.currentTimeMillis();
+                for (final DataStore store : stores) {
                     if (store.getUri() == null) {
                         continue;
                     }
@@ -584,10 +763,16 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                         s_logger.debug("There is no secondary storage VM for secondary storage host " + store.getName());
                         continue;
                     }
-                    long storeId = store.getId();
-                    Answer answer = ssAhost.sendMessage(command);
+                    final long storeId = store.getId();
+                    final Answer answer = ssAhost.sendMessage(command);
                     if (answer != null && answer.getResult()) {
                         storageStats.put(storeId, (StorageStats)answer);
+                        export("image store " + storeId, new StatsExport() {
+                            @Override
+                            public void export(StatsExporter exporter) {
+                                exporter.exportImageStoreStats(storeId, store.getName(), (StorageStats)answer, timestamp);
+                            }
+                        });
                         s_logger.trace("HostId: " + storeId + " Used: " + ((StorageStats)answer).getByteUsed() + " Total Available: " +
                             ((StorageStats)answer).getCapacityBytes());
                     }
@@ -596,7 +781,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 ConcurrentHashMap<Long, StorageStats> storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
 
                 List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
-                for (StoragePoolVO pool : storagePools) {
+                for (final StoragePoolVO pool : storagePools) {
                     // check if the pool has enabled hosts
                     List<Long> hostIds = _storageManager.getUpHostsInPool(pool.getId());
                     if (hostIds == null || hostIds.isEmpty())
@@ -604,9 +789,15 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     GetStorageStatsCommand command = new GetStorageStatsCommand(pool.getUuid(), pool.getPoolType(), pool.getPath());
                     long poolId = pool.getId();
                     try {
-                        Answer answer = _storageManager.sendToPool(pool, command);
+                        final Answer answer = _storageManager.sendToPool(pool, command);
                         if (answer != null && answer.getResult()) {
                             storagePoolStats.put(pool.getId(), (StorageStats)answer);
+                            export(pool.toString(), new StatsExport() {
+                                @Override
+                                public void export(StatsExporter exporter) {
+                                    exporter.exportStoragePoolStats(pool, (StorageStats)answer, timestamp);
+                                }
+                            });
 
                             // Seems like we have dynamically updated the pool size since the prev. size and the current do not match
                             if (_storagePoolStats.get(poolId) != null && _storagePoolStats.get(poolId).getCapacityBytes() != ((StorageStats)answer).getCapacityBytes()) {
@@ -0,0 +1,48 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.List;
+
+public interface StatsCollectorMBean {
+    /**
+     * @return duration of the VM stats collection cycles
+     */
+    public String getVmStatsCycleDuration();
+
+    public long getLastVmStatsCycleDuration();
+
+    /**
+     * @return hosts that did not return their VM stats in time in the last cycle
+     */
+    public List<String> getVmStatsStragglers();
+
+    /**
+     * @return duration of the VM disk stats collection cycles
+     */
+    public String getVmDiskStatsCycleDuration();
+
+    /**
+     * @return hosts that did not return their VM disk stats in time in the last cycle
+     */
+    public List<String> getVmDiskStatsStragglers();
+
+    /**
+     * @return times a host did not return its stats in time, since start
+     */
+    public long getStragglerCount();
+}
@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.host.Host;
+import com.cloud.utils.LatencyHistogram;
+
+public class StatsCollectorMBeanImpl extends StandardMBean implements StatsCollectorMBean {
+    private final LatencyHistogram _vmStatsCycles = new LatencyHistogram();
+    private final LatencyHistogram _vmDiskStatsCycles = new LatencyHistogram();
+    private final AtomicLong _stragglerCount = new AtomicLong();
+    private volatile long _lastVmStatsCycle;
+    private volatile List<String> _vmStatsStragglers = Collections.emptyList();
+    private volatile List<String> _vmDiskStatsStragglers = Collections.emptyList();
+
+    public StatsCollectorMBeanImpl() {
+        super(StatsCollectorMBean.class, false);
+    }
+
+    public void recordVmStatsCycle(long millis, List<? extends Host> stragglers) {
+        _vmStatsCycles.record(millis);
+        _lastVmStatsCycle = millis;
+        _vmStatsStragglers = names(stragglers);
+    }
+
+    public void recordVmDiskStatsCycle(long millis, List<? extends Host> stragglers) {
+        _vmDiskStatsCycles.record(millis);
+        _vmDiskStatsStragglers = names(stragglers);
+    }
+
+    private List<String> names(List<? extends Host> hosts) {
+        _stragglerCount.addAndGet(hosts.size());
+        List<String> names = new ArrayList<String>(hosts.size());
+        for (Host host : hosts) {
+            names.add(host.getName());
+        }
+        return names;
+    }
+
+    @Override
+    public String getVmStatsCycleDuration() {
+        return _vmStatsCycles.toString();
+    }
+
+    @Override
+    public long getLastVmStatsCycleDuration() {
+        return _lastVmStatsCycle;
+    }
+
+    @Override
+    public List<String> getVmStatsStragglers() {
+        return _vmStatsStragglers;
+    }
+
+    @Override
+    public String getVmDiskStatsCycleDuration() {
+        return _vmDiskStatsCycles.toString();
+    }
+
+    @Override
+    public List<String> getVmDiskStatsStragglers() {
+        return _vmDiskStatsStragglers;
+    }
+
+    @Override
+    public long getStragglerCount() {
+        return _stragglerCount.get();
+    }
+}
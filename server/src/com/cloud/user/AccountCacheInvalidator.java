@@ -0,0 +1,109 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.ClusterServicePdu;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Empties the caches AccountManagerImpl keeps of users, accounts and access
+ * decisions, on this management server and on its peers.  A cache is
+ * emptied right away, again once the transaction that made the change
+ * commits so a concurrent read of the old rows cannot leave them behind,
+ * and the peers are told after the commit so they do not read the rows
+ * before the change is visible.
+ */
+public class AccountCacheInvalidator implements ClusterManager.Dispatcher {
+    private static final Logger s_logger = Logger.getLogger(AccountCacheInvalidator.class);
+
+    public static final String DISPATCHER_NAME = "AccountCacheDispatcher";
+
+    private final Map<String, Runnable> _caches = new ConcurrentHashMap<String, Runnable>();
+    private volatile ClusterManager _clusterMgr;
+
+    /**
+     * @param cacheName name the peers know the cache by
+     * @param invalidation empties the cache on this management server
+     */
+    public void register(String cacheName, Runnable invalidation) {
+        _caches.put(cacheName, invalidation);
+    }
+
+    /**
+     * Starts sending invalidations to the peers and applying theirs.
+     */
+    public void setClusterManager(ClusterManager clusterMgr) {
+        _clusterMgr = clusterMgr;
+        clusterMgr.registerNamedDispatcher(this);
+    }
+
+    public void invalidate(final String cacheName) {
+        final Runnable invalidation = _caches.get(cacheName);
+        if (invalidation == null) {
+            throw new IllegalArgumentException("Unknown cache " + cacheName);
+        }
+
+        invalidation.run();
+        TransactionLegacy.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidation.run();
+                publish(cacheName);
+            }
+        });
+    }
+
+    protected void publish(String cacheName) {
+        final ClusterManager clusterMgr = _clusterMgr;
+        if (clusterMgr == null) {
+            return;
+        }
+
+        try {
+            clusterMgr.broadcast(DISPATCHER_NAME, cacheName);
+        } catch (Exception e) {
+            s_logger.warn("Unable to publish invalidation of " + cacheName, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return DISPATCHER_NAME;
+    }
+
+    @Override
+    public String dispatch(ClusterServicePdu pdu) {
+        final String cacheName = pdu.getJsonPackage();
+        final Runnable invalidation = cacheName != null ? _caches.get(cacheName) : null;
+        if (invalidation == null) {
+            s_logger.warn("Invalid account cache invalidation from " + pdu.getSourcePeer() + ": " + cacheName);
+            return null;
+        }
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Invalidating " + cacheName + " on request of " + pdu.getSourcePeer());
+        }
+        invalidation.run();
+        return null;
+    }
+}
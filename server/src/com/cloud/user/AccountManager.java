@@ -82,6 +82,22 @@ public interface AccountManager extends AccountService {
      */
     Pair<User, Account> findUserByApiKey(String apiKey);
 
+    /**
+     * Locate a user by id to authenticate a request from a logged in session. The answer may
+     * come from a cache and be a few seconds stale.
+     *
+     * @return the user, null if there is none or it has been removed
+     */
+    User findUserForRequest(long userId);
+
+    /**
+     * Forget cached access check decisions, called when a domain or a project
+     * membership changes in a way that may revoke access.  The decisions are
+     * dropped again once the current transaction commits, and on the other
+     * management servers.
+     */
+    void invalidateAccessDecisions();
+
     boolean enableAccount(long accountId);
 
 
@@ -16,8 +16,11 @@
 // under the License.
 package com.cloud.user;
 
+import com.cloud.acl.AccessChecksMBeanImpl;
+import com.cloud.acl.AccessDecisionCache;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.vo.ControlledViewEntity;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.configuration.Resource.ResourceOwnerType;
@@ -104,6 +107,7 @@ import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.InstanceGroupVO;
 import com.cloud.vm.ReservationContext;
@@ -263,6 +267,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     @Inject
     MessageBus _messageBus;
 
+    @Inject
+    ClusterManager _clusterMgr;
+
     @Inject
     public com.cloud.region.ha.GlobalLoadBalancingRulesService _gslbService;
 
@@ -275,6 +282,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private final ScheduledExecutorService _executor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AccountChecker"));
 
     int _allowedLoginAttempts;
+    private UserCredentialCache _credentialCache = new UserCredentialCache(0, 0);
+    private AccessDecisionCache _accessCache = new AccessDecisionCache(0, 0);
+    private final AccountCacheInvalidator _cacheInvalidator = new AccountCacheInvalidator();
 
     UserVO _systemUser;
     AccountVO _systemAccount;
@@ -282,6 +292,21 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     List<SecurityChecker> _securityCheckers;
     int _cleanupInterval;
 
+    public AccountManagerImpl() {
+        _cacheInvalidator.register(UserCredentialCache.NAME, new Runnable() {
+            @Override
+            public void run() {
+                _credentialCache.invalidateAll();
+            }
+        });
+        _cacheInvalidator.register(AccessDecisionCache.NAME, new Runnable() {
+            @Override
+            public void run() {
+                _accessCache.invalidateAll();
+            }
+        });
+    }
+
     public List<UserAuthenticator> getUserAuthenticators() {
         return _userAuthenticators;
     }
@@ -334,6 +359,16 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         String value = configs.get(Config.AccountCleanupInterval.key());
         _cleanupInterval = NumbersUtil.parseInt(value, 60 * 60 * 24); // 1 day.
 
+        int credentialCacheSize = NumbersUtil.parseInt(configs.get(Config.ApiCredentialCacheSize.key()), 10000);
+        int credentialCacheTtl = NumbersUtil.parseInt(configs.get(Config.ApiCredentialCacheTtl.key()), 30);
+        _credentialCache = new UserCredentialCache(credentialCacheSize, credentialCacheTtl * 1000L);
+
+        int accessCacheSize = NumbersUtil.parseInt(configs.get(Config.AccessCheckCacheSize.key()), 10000);
+        int accessCacheTtl = NumbersUtil.parseInt(configs.get(Config.AccessCheckCacheTtl.key()), 30);
+        _accessCache = new AccessDecisionCache(accessCacheSize, accessCacheTtl * 1000L);
+
+        _cacheInvalidator.setClusterManager(_clusterMgr);
+
         return true;
     }
 
@@ -348,6 +383,12 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     @Override
     public boolean start() {
         _executor.scheduleAtFixedRate(new AccountCleanupTask(), _cleanupInterval, _cleanupInterval, TimeUnit.SECONDS);
+
+        try {
+            JmxUtil.registerMBean("AccountManager", "AccessChecks", new AccessChecksMBeanImpl(_accessCache));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register the access checks MBean", e);
+        }
         return true;
     }
 
@@ -384,22 +425,8 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     @Override
     public boolean isRootAdmin(Long accountId) {
         if (accountId != null) {
-            AccountVO acct = _accountDao.findById(accountId);
-            if (acct == null) {
-                return false;  //account is deleted or does not exist
-            }
-            for (SecurityChecker checker : _securityCheckers) {
-                try {
-                    if (checker.checkAccess(acct, null, null, "SystemCapability")) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Root Access granted to " + acct + " by " + checker.getName());
-                        }
-                        return true;
-                    }
-                } catch (PermissionDeniedException ex) {
-                    return false;
-                }
-            }
+            AccessDecisionCache.AccountAccess access = getAccountAccess(accountId);
+            return access != null && access.isRootAdmin();
         }
         return false;
     }
@@ -407,57 +434,72 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     @Override
     public boolean isDomainAdmin(Long accountId) {
         if (accountId != null) {
-            AccountVO acct = _accountDao.findById(accountId);
-            if (acct == null) {
-                return false;  //account is deleted or does not exist
-            }
-            for (SecurityChecker checker : _securityCheckers) {
-                try {
-                    if (checker.checkAccess(acct, null, null, "DomainCapability")) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("DomainAdmin Access granted to " + acct + " by " + checker.getName());
-                        }
-                        return true;
-                    }
-                } catch (PermissionDeniedException ex) {
-                    return false;
-                }
-            }
+            AccessDecisionCache.AccountAccess access = getAccountAccess(accountId);
+            return access != null && access.isDomainAdmin();
         }
         return false;
     }
 
     @Override
     public boolean isNormalUser(long accountId) {
-        AccountVO acct = _accountDao.findById(accountId);
-        if (acct != null && acct.getType() == Account.ACCOUNT_TYPE_NORMAL) {
-            return true;
-        }
-        return false;
+        AccessDecisionCache.AccountAccess access = getAccountAccess(accountId);
+        return access != null && access.getType() == Account.ACCOUNT_TYPE_NORMAL;
     }
 
     public boolean isResourceDomainAdmin(Long accountId) {
         if (accountId != null) {
+            AccessDecisionCache.AccountAccess access = getAccountAccess(accountId);
+            return access != null && access.isResourceDomainAdmin();
+        }
+        return false;
+    }
+
+    /**
+     * Capabilities the security checkers grant an account, compiled once per
+     * account and kept in the access cache.
+     *
+     * @return null if the account is deleted or does not exist
+     */
+    private AccessDecisionCache.AccountAccess getAccountAccess(long accountId) {
+        AccessDecisionCache.AccountAccess access = _accessCache.getAccount(accountId);
+        if (access == null) {
             AccountVO acct = _accountDao.findById(accountId);
             if (acct == null) {
-                return false;  //account is deleted or does not exist
+                return null;
             }
-            for (SecurityChecker checker : _securityCheckers) {
-                try {
-                    if (checker.checkAccess(acct, null, null, "DomainResourceCapability")) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("ResourceDomainAdmin Access granted to " + acct + " by " + checker.getName());
-                        }
-                        return true;
+            access = new AccessDecisionCache.AccountAccess(acct.getType(), hasCapability(acct, "SystemCapability"), hasCapability(acct, "DomainCapability"),
+                hasCapability(acct, "DomainResourceCapability"));
+            _accessCache.putAccount(accountId, access);
+        }
+        return access;
+    }
+
+    private boolean hasCapability(AccountVO acct, String capability) {
+        for (SecurityChecker checker : _securityCheckers) {
+            try {
+                if (checker.checkAccess(acct, null, null, capability)) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace(capability + " granted to " + acct + " by " + checker.getName());
                     }
-                } catch (PermissionDeniedException ex) {
-                    return false;
+                    return true;
                 }
+            } catch (PermissionDeniedException ex) {
+                return false;
             }
         }
         return false;
     }
 
+    private void invalidateCaches() {
+        _cacheInvalidator.invalidate(UserCredentialCache.NAME);
+        _cacheInvalidator.invalidate(AccessDecisionCache.NAME);
+    }
+
+    @Override
+    public void invalidateAccessDecisions() {
+        _cacheInvalidator.invalidate(AccessDecisionCache.NAME);
+    }
+
     public boolean isInternalAccount(long accountId) {
         Account account = _accountDao.findById(accountId);
         if (account == null) {
@@ -471,11 +513,15 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public void checkAccess(Account caller, Domain domain) throws PermissionDeniedException {
+        if (_accessCache.isDomainGranted(caller.getId(), domain.getId())) {
+            return;
+        }
         for (SecurityChecker checker : _securityCheckers) {
             if (checker.checkAccess(caller, domain)) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Access granted to " + caller + " to " + domain + " by " + checker.getName());
                 }
+                _accessCache.grantDomain(caller.getId(), domain.getId());
                 return;
             }
         }
@@ -536,6 +582,12 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 }
                 toBeChecked.add(entity);
             }
+            // decisions on entities checked by ownership alone are shared by all entities of the same owner
+            boolean ownerDecides = entity.getAccountId() != -1 && !(entity instanceof VirtualMachineTemplate) &&
+                !(entity instanceof Network && accessType != null && accessType == AccessType.UseEntry) && !(entity instanceof AffinityGroup);
+            if (ownerDecides && _accessCache.isEntityGranted(caller.getId(), entity.getAccountId(), accessType, apiName)) {
+                continue;
+            }
             boolean granted = false;
             for (SecurityChecker checker : _securityCheckers) {
                 if (checker.checkAccess(caller, entity, accessType, apiName)) {
@@ -551,14 +603,20 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 assert false : "How can all of the security checkers pass on checking this check: " + entity;
                 throw new PermissionDeniedException("There's no way to confirm " + caller + " has access to " + entity);
             }
+            if (ownerDecides) {
+                _accessCache.grantEntity(caller.getId(), entity.getAccountId(), accessType, apiName);
+            }
         }
 
         for (Map.Entry<Long, List<ControlledEntity>> domain : domains.entrySet()) {
+            if (_accessCache.isDomainGranted(caller.getId(), domain.getKey())) {
+                continue;
+            }
+            Domain d = _domainMgr.getDomain(domain.getKey());
+            if (d == null || d.getRemoved() != null) {
+                throw new PermissionDeniedException("Domain is not found.", caller, domain.getValue());
+            }
             for (SecurityChecker checker : _securityCheckers) {
-                Domain d = _domainMgr.getDomain(domain.getKey());
-                if (d == null || d.getRemoved() != null) {
-                    throw new PermissionDeniedException("Domain is not found.", caller, domain.getValue());
-                }
                 try {
                     checker.checkAccess(caller, d);
                 } catch (PermissionDeniedException e) {
@@ -566,6 +624,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                     throw e;
                 }
             }
+            _accessCache.grantDomain(caller.getId(), domain.getKey());
         }
 
         // check that resources belong to the same account
@@ -632,6 +691,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                     if (toDisable) {
                 user.setState(State.disabled.toString());
             }
+            invalidateCaches();
             _userAccountDao.update(id, user);
                 }
             });
@@ -643,6 +703,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private boolean doSetUserStatus(long userId, State state) {
         UserVO userForUpdate = _userDao.createForUpdate();
         userForUpdate.setState(state);
+        invalidateCaches();
         return _userDao.update(Long.valueOf(userId), userForUpdate);
     }
 
@@ -652,6 +713,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         AccountVO acctForUpdate = _accountDao.createForUpdate();
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
+        invalidateCaches();
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
         return success;
     }
@@ -665,6 +727,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             } else if (account.getState().equals(State.enabled)) {
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
+                invalidateCaches();
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
             } else {
                 if (s_logger.isInfoEnabled()) {
@@ -682,6 +745,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         long accountId = account.getId();
 
         // delete the account record
+        invalidateCaches();
         if (!_accountDao.remove(accountId)) {
             s_logger.error("Unable to delete account " + accountId);
             return false;
@@ -702,6 +766,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             // cleanup the users from the account
             List<UserVO> users = _userDao.listByAccount(accountId);
             for (UserVO user : users) {
+                invalidateCaches();
                 if (!_userDao.remove(user.getId())) {
                     s_logger.error("Unable to delete user: " + user + " as a part of account " + account + " cleanup");
                     accountCleanupNeeded = true;
@@ -941,6 +1006,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 _accountDao.markForCleanup(accountId);
             } else {
                 account.setNeedsCleanup(false);
+                invalidateCaches();
                 _accountDao.update(accountId, account);
             }
         }
@@ -962,6 +1028,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         } else {
             AccountVO acctForUpdate = _accountDao.createForUpdate();
             acctForUpdate.setState(State.disabled);
+            invalidateCaches();
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
 
             if (success) {
@@ -975,6 +1042,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                     } else {
                         acctForUpdate = _accountDao.createForUpdate();
                         account.setNeedsCleanup(false);
+                        invalidateCaches();
                         _accountDao.update(accountId, account);
                     }
                 }
@@ -1265,6 +1333,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 }
             }
 
+            invalidateCaches();
             _userDao.update(userId, user);
         } catch (Throwable th) {
             s_logger.error("error updating user", th);
@@ -1662,6 +1731,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         success = Transaction.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(TransactionStatus status) {
+                invalidateCaches();
                 boolean success = _accountDao.update(accountFinal.getId(), acctForUpdate);
 
         if (details != null && success) {
@@ -1705,6 +1775,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         checkAccess(CallContext.current().getCallingAccount(), AccessType.OperateEntry, true, account);
         CallContext.current().putContextParameter(User.class, user.getUuid());
+        invalidateCaches();
         return _userDao.remove(id);
     }
 
@@ -2240,7 +2311,26 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public Pair<User, Account> findUserByApiKey(String apiKey) {
-        return _accountDao.findUserAccountByApiKey(apiKey);
+        Pair<User, Account> userAccount = _credentialCache.getByApiKey(apiKey);
+        if (userAccount == null) {
+            userAccount = _accountDao.findUserAccountByApiKey(apiKey);
+            if (userAccount != null) {
+                _credentialCache.putByApiKey(apiKey, userAccount);
+            }
+        }
+        return userAccount;
+    }
+
+    @Override
+    public User findUserForRequest(long userId) {
+        User user = _credentialCache.getByUserId(userId);
+        if (user == null) {
+            user = _userDao.findById(userId);
+            if (user != null) {
+                _credentialCache.putByUserId(userId, user);
+            }
+        }
+        return user;
     }
 
     @Override
@@ -2314,6 +2404,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 return null;
             }
             updatedUser.setApiKey(encodedKey);
+            invalidateCaches();
             _userDao.update(userId, updatedUser);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
@@ -2341,6 +2432,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
 
             updatedUser.setSecretKey(encodedKey);
+            invalidateCaches();
             _userDao.update(userId, updatedUser);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
@@ -227,6 +227,7 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Override
     public boolean removeDomain(long domainId) {
+        _accountMgr.invalidateAccessDecisions();
         boolean removed = _domainDao.remove(domainId);
         if (removed) {
             _messageBus.publish(_name, MESSAGE_REMOVE_DOMAIN_EVENT, PublishScope.LOCAL, domainId);
@@ -263,6 +264,7 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
         s_logger.debug("Marking domain id=" + domain.getId() + " as " + Domain.State.Inactive + " before actually deleting it");
         domain.setState(Domain.State.Inactive);
         _domainDao.update(domain.getId(), domain);
+        _accountMgr.invalidateAccessDecisions();
         boolean rollBackState = false;
         boolean hasDedicatedResources = false;
 
@@ -648,6 +650,7 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
             }
         }
         _domainDao.update(domainId, domain);
+        _accountMgr.invalidateAccessDecisions();
         CallContext.current().putContextParameter(Domain.class, domain.getUuid());
             }
         });
@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import com.cloud.utils.ExpiringLruCache;
+import com.cloud.utils.Pair;
+
+/**
+ * Bounded cache of the user and account an API key belongs to, and of users
+ * looked up by id for logged in sessions, so signed requests do not hit the
+ * database for their credentials.  AccountManagerImpl empties it through the
+ * AccountCacheInvalidator whenever it changes a user or account, here and on
+ * the other management servers; entries also expire after a time to live in
+ * case a peer misses the invalidation.
+ *
+ * Domains are not cached: a signed request only checks the state of the
+ * user and the account, and removing a domain removes its accounts.
+ */
+public class UserCredentialCache {
+    public static final String NAME = "UserCredentials";
+
+    private final ExpiringLruCache<String, Pair<User, Account>> _byApiKey;
+    private final ExpiringLruCache<Long, User> _byUserId;
+
+    /**
+     * @param maxSize entries kept per lookup kind, least recently used ones are dropped first
+     * @param ttl milliseconds an entry is trusted, 0 disables the cache
+     */
+    public UserCredentialCache(int maxSize, long ttl) {
+        _byApiKey = new ExpiringLruCache<String, Pair<User, Account>>(maxSize, ttl);
+        _byUserId = new ExpiringLruCache<Long, User>(maxSize, ttl);
+    }
+
+    public boolean isEnabled() {
+        return _byApiKey.isEnabled();
+    }
+
+    public Pair<User, Account> getByApiKey(String apiKey) {
+        return _byApiKey.get(apiKey);
+    }
+
+    public void putByApiKey(String apiKey, Pair<User, Account> userAccount) {
+        _byApiKey.put(apiKey, userAccount);
+    }
+
+    public User getByUserId(long userId) {
+        return _byUserId.get(userId);
+    }
+
+    public void putByUserId(long userId, User user) {
+        _byUserId.put(userId, user);
+    }
+
+    public void invalidateAll() {
+        _byApiKey.clear();
+        _byUserId.clear();
+    }
+}
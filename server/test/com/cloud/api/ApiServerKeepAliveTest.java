@@ -0,0 +1,159 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the integration port listener against a plain handler to check how long
+ * kept alive connections hold on to their worker.
+ */
+public class ApiServerKeepAliveTest {
+    private static final int IDLE_TIMEOUT = 500;
+    private static final int MAX_REQUESTS = 3;
+
+    ThreadPoolExecutor _executor;
+    ApiServer.ListenerThread _listener;
+
+    @Before
+    public void setUp() {
+        // a single worker, so a connection that is not let go starves the next one
+        _executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(10));
+        HttpRequestHandler handler = new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws IOException {
+                response.setEntity(new StringEntity("ok"));
+            }
+        };
+        _listener = new ApiServer.ListenerThread(handler, 0, _executor, new ApiRequestsMBeanImpl(), IDLE_TIMEOUT, MAX_REQUESTS);
+        _listener.setDaemon(true);
+        _listener.start();
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void testConnectionIsClosedAfterMaxRequests() throws Exception {
+        Socket socket = connect();
+        try {
+            for (int i = 1; i <= MAX_REQUESTS; i++) {
+                Map<String, String> headers = request(socket);
+                Assert.assertEquals("ok", headers.get("body"));
+                if (i < MAX_REQUESTS) {
+                    Assert.assertFalse("Close".equalsIgnoreCase(headers.get("connection")));
+                } else {
+                    Assert.assertEquals("close", headers.get("connection").toLowerCase());
+                }
+            }
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionLetsGoOfItsWorker() throws Exception {
+        Socket idle = connect();
+        try {
+            Assert.assertEquals("ok", request(idle).get("body"));
+
+            // the only worker sits on the idle connection until the idle timeout
+            long start = System.currentTimeMillis();
+            Socket next = connect();
+            try {
+                Assert.assertEquals("ok", request(next).get("body"));
+            } finally {
+                next.close();
+            }
+            long waited = System.currentTimeMillis() - start;
+            Assert.assertTrue("waited " + waited + "ms", waited >= IDLE_TIMEOUT / 2);
+            Assert.assertTrue("waited " + waited + "ms", waited < ApiServer.ListenerThread.REQUEST_TIMEOUT);
+
+            Assert.assertEquals(-1, idle.getInputStream().read());
+        } finally {
+            idle.close();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", _listener.getLocalPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    /**
+     * Sends a keep alive GET and reads the response.
+     * @return the lower cased response headers, and the body under "body"
+     */
+    private static Map<String, String> request(Socket socket) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write("GET /?command=listZones HTTP/1.1\r\nHost: localhost\r\nConnection: Keep-Alive\r\n\r\n".getBytes("UTF-8"));
+        out.flush();
+
+        InputStream in = socket.getInputStream();
+        Map<String, String> headers = new HashMap<String, String>();
+        String status = readLine(in);
+        Assert.assertTrue(status, status.startsWith("HTTP/1.1 200"));
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        byte[] body = new byte[Integer.parseInt(headers.get("content-length"))];
+        for (int read = 0; read < body.length;) {
+            read += in.read(body, read, body.length - read);
+        }
+        headers.put("body", new String(body, "UTF-8"));
+        return headers;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("Connection closed");
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("UTF-8");
+    }
+}
@@ -24,6 +24,13 @@ import com.cloud.user.Account;
 import com.cloud.user.AccountService;
 import com.cloud.user.User;
 import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ResponseObject;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.WriterAppender;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -42,7 +49,9 @@ import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ApiServletTest {
@@ -173,7 +182,7 @@ public class ApiServletTest {
                 .thenReturn(false);
         servlet.processRequestInContext(request, response);
         Mockito.verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-        Mockito.verify(apiServer, Mockito.never()).handleRequest(
+        Mockito.verify(apiServer, Mockito.never()).executeRequest(
                 Mockito.anyMap(), Mockito.anyString(),
                 Mockito.any(StringBuilder.class));
     }
@@ -187,7 +196,7 @@ public class ApiServletTest {
                 .thenReturn(true);
         servlet.processRequestInContext(request, response);
         Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
-        Mockito.verify(apiServer, Mockito.times(1)).handleRequest(
+        Mockito.verify(apiServer, Mockito.times(1)).executeRequest(
                 Mockito.anyMap(), Mockito.anyString(),
                 Mockito.any(StringBuilder.class));
     }
@@ -234,4 +243,63 @@ public class ApiServletTest {
         Mockito.verify(authenticator).authenticate(Mockito.anyString(), Mockito.anyMap(), Mockito.isA(HttpSession.class),
                 Mockito.anyString(), Mockito.anyString(), Mockito.isA(StringBuilder.class), Mockito.isA(HttpServletRequest.class), Mockito.isA(HttpServletResponse.class));
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void processRequestInContextListIsStreamed() {
+        StringWriter accessLog = captureAccessLog();
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong())).thenReturn(true);
+        Mockito.when(apiServer.executeRequest(Mockito.anyMap(), Mockito.anyString(), Mockito.any(StringBuilder.class))).thenReturn(listResponse());
+
+        servlet.processRequestInContext(request, response);
+
+        Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
+        Assert.assertTrue(responseWriter.toString().contains("<count>2</count>"));
+        Assert.assertTrue(accessLog.toString().contains(" 200 2 objects"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void processRequestInContextListClientGone() throws Exception {
+        StringWriter accessLog = captureAccessLog();
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong())).thenReturn(true);
+        Mockito.when(apiServer.executeRequest(Mockito.anyMap(), Mockito.anyString(), Mockito.any(StringBuilder.class))).thenReturn(listResponse());
+        PrintWriter broken = new PrintWriter(new StringWriter()) {
+            @Override
+            public boolean checkError() {
+                return true;
+            }
+        };
+        Mockito.when(response.getWriter()).thenReturn(broken);
+
+        servlet.processRequestInContext(request, response);
+
+        Assert.assertTrue(accessLog.toString().contains("client closed the connection"));
+        Assert.assertFalse(accessLog.toString().contains(" 200 2 objects"));
+        Assert.assertFalse(accessLog.toString().contains("unknown exception"));
+    }
+
+    private StringWriter captureAccessLog() {
+        StringWriter log = new StringWriter();
+        Logger logger = Logger.getLogger("apiserver." + ApiServer.class.getName());
+        logger.setLevel(Level.INFO);
+        logger.removeAllAppenders();
+        logger.addAppender(new WriterAppender(new SimpleLayout(), log));
+        return log;
+    }
+
+    private ResponseObject listResponse() {
+        List<SuccessResponse> responses = new ArrayList<SuccessResponse>();
+        for (int i = 0; i < 2; i++) {
+            SuccessResponse item = new SuccessResponse("item");
+            item.setObjectName("item");
+            responses.add(item);
+        }
+        ListResponse<SuccessResponse> list = new ListResponse<SuccessResponse>();
+        list.setResponses(responses);
+        list.setResponseName("listitemsresponse");
+        return list;
+    }
 }
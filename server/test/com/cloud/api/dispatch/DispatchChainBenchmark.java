@@ -0,0 +1,65 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
+import org.apache.cloudstack.api.command.user.vm.DeployVMCmd;
+import org.apache.cloudstack.api.command.user.vm.ListVMsCmd;
+import org.apache.cloudstack.context.CallContext;
+
+/**
+ * Measures how many commands per second the standard dispatch chain binds,
+ * and how many entity lookups each one costs, for the requests in
+ * DispatchSamples.  Not run as part of the build, start it with
+ *   mvn -pl server test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.cloud.api.dispatch.DispatchChainBenchmark
+ * and optionally pass the number of rounds per command.
+ */
+public class DispatchChainBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+        DispatchSamples.registerCaller();
+        try {
+            DispatchSamples.CountingEntityManager entityMgr = new DispatchSamples.CountingEntityManager();
+            DispatchChain chain = DispatchSamples.newChain(entityMgr);
+            measure(chain, entityMgr, ListVMsCmd.class, DispatchSamples.listVirtualMachines(), rounds);
+            measure(chain, entityMgr, DeployVMCmd.class, DispatchSamples.deployVirtualMachine(), rounds);
+            measure(chain, entityMgr, ArchiveEventsCmd.class, DispatchSamples.archiveEvents(500), Math.max(1, rounds / 50));
+        } finally {
+            CallContext.unregister();
+        }
+    }
+
+    private static void measure(DispatchChain chain, DispatchSamples.CountingEntityManager entityMgr, Class<? extends BaseCmd> cmdClass, Map<String, String> params,
+        int rounds) throws Exception {
+        for (int i = 0; i < rounds / 5; i++) {
+            chain.dispatch(new DispatchTask(DispatchSamples.newCommand(cmdClass), new HashMap<String, String>(params)));
+        }
+        entityMgr.reset();
+        long before = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            chain.dispatch(new DispatchTask(DispatchSamples.newCommand(cmdClass), new HashMap<String, String>(params)));
+        }
+        long elapsed = System.nanoTime() - before;
+        System.out.println(cmdClass.getSimpleName() + ": " + (rounds * 1000000000L / elapsed) + " commands/s, " + (entityMgr.getLookups() / rounds) +
+            " entity lookups per command");
+    }
+}
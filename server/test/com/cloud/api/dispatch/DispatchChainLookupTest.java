@@ -0,0 +1,82 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
+import org.apache.cloudstack.api.command.user.vm.DeployVMCmd;
+import org.apache.cloudstack.api.command.user.vm.ListVMsCmd;
+import org.apache.cloudstack.context.CallContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how many entity lookups binding a command's parameters costs, so
+ * uuid lists stay resolved in one query whatever their length.
+ */
+public class DispatchChainLookupTest {
+    private DispatchSamples.CountingEntityManager _entityMgr;
+    private DispatchChain _chain;
+
+    @Before
+    public void setUp() {
+        DispatchSamples.registerCaller();
+        _entityMgr = new DispatchSamples.CountingEntityManager();
+        _chain = DispatchSamples.newChain(_entityMgr);
+    }
+
+    @After
+    public void tearDown() {
+        CallContext.unregister();
+    }
+
+    @Test
+    public void listVirtualMachinesLooksUpTheZoneOnce() throws Exception {
+        assertEquals(1, lookups(ListVMsCmd.class, DispatchSamples.listVirtualMachines()));
+    }
+
+    @Test
+    public void deployVirtualMachineLooksUpEachEntityParameterOnceAndAclTargetsTwice() throws Exception {
+        // zone, service offering, template and one batch for both networks, then
+        // the offering and the template again by id for the access checks
+        assertEquals(6, lookups(DeployVMCmd.class, DispatchSamples.deployVirtualMachine()));
+    }
+
+    @Test
+    public void archiveEventsResolvesAllIdsInOneLookup() throws Exception {
+        assertEquals(1, lookups(ArchiveEventsCmd.class, DispatchSamples.archiveEvents(500)));
+    }
+
+    @Test
+    public void lookupsDoNotGrowWithRepeatedDispatch() throws Exception {
+        Map<String, String> params = DispatchSamples.deployVirtualMachine();
+        long first = lookups(DeployVMCmd.class, params);
+        assertEquals(first, lookups(DeployVMCmd.class, params));
+    }
+
+    private long lookups(Class<? extends BaseCmd> cmdClass, Map<String, String> params) throws Exception {
+        _entityMgr.reset();
+        _chain.dispatch(new DispatchTask(DispatchSamples.newCommand(cmdClass), new HashMap<String, String>(params)));
+        return _entityMgr.getLookups();
+    }
+}
@@ -0,0 +1,208 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.context.CallContext;
+import org.mockito.Mockito;
+
+import com.cloud.user.Account;
+import com.cloud.user.AccountManager;
+import com.cloud.user.AccountService;
+import com.cloud.user.AccountVO;
+import com.cloud.user.User;
+import com.cloud.user.UserVO;
+import com.cloud.utils.db.EntityManager;
+
+/**
+ * Representative API requests and a dispatch chain whose entity lookups
+ * are counted, shared by DispatchChainLookupTest and DispatchChainBenchmark.
+ */
+public class DispatchSamples {
+    private static final AccountService s_accountService = Mockito.mock(AccountService.class);
+
+    private DispatchSamples() {
+    }
+
+    public static void registerCaller() {
+        Account account = new AccountVO("admin", 1, "networkdomain", Account.ACCOUNT_TYPE_ADMIN, UUID.randomUUID().toString());
+        UserVO user = new UserVO(1, "admin", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString(), User.Source.UNKNOWN);
+        CallContext.register(user, account);
+    }
+
+    /**
+     * @return the standard chain of parameter workers, resolving uuids through entityMgr
+     */
+    public static DispatchChain newChain(EntityManager entityMgr) {
+        ParamProcessWorker paramProcessWorker = new ParamProcessWorker();
+        paramProcessWorker._accountMgr = Mockito.mock(AccountManager.class);
+        paramProcessWorker._entityMgr = entityMgr;
+        return new DispatchChain().add(new ParamUnpackWorker()).add(paramProcessWorker).add(new ParamGenericValidationWorker()).add(new SpecificCmdValidationWorker());
+    }
+
+    public static BaseCmd newCommand(Class<? extends BaseCmd> cmdClass) throws Exception {
+        BaseCmd cmd = cmdClass.newInstance();
+        cmd._accountService = s_accountService;
+        return cmd;
+    }
+
+    public static Map<String, String> listVirtualMachines() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("command", "listVirtualMachines");
+        params.put("zoneid", uuid());
+        params.put("state", "Running");
+        params.put("listall", "true");
+        params.put("page", "1");
+        params.put("pagesize", "500");
+        params.put("response", "json");
+        return params;
+    }
+
+    public static Map<String, String> deployVirtualMachine() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("command", "deployVirtualMachine");
+        params.put("zoneid", uuid());
+        params.put("serviceofferingid", uuid());
+        params.put("templateid", uuid());
+        params.put("networkids", uuid() + "," + uuid());
+        params.put("name", "vm-1");
+        params.put("displayname", "vm 1");
+        params.put("userdata", "dGVzdA==");
+        params.put("response", "json");
+        return params;
+    }
+
+    public static Map<String, String> archiveEvents(int count) {
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                ids.append(',');
+            }
+            ids.append(uuid());
+        }
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("command", "archiveEvents");
+        params.put("ids", ids.toString());
+        params.put("response", "json");
+        return params;
+    }
+
+    private static String uuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Finds every uuid it is asked for and counts the queries a database would have run.
+     */
+    public static class CountingEntityManager implements EntityManager, InvocationHandler {
+        private long _lookups;
+        private final Map<Class<?>, Object> _entities = new ConcurrentHashMap<Class<?>, Object>();
+
+        public long getLookups() {
+            return _lookups;
+        }
+
+        public void reset() {
+            _lookups = 0;
+        }
+
+        private Object entity(Class<?> entityType) {
+            Object entity = _entities.get(entityType);
+            if (entity == null) {
+                entity = Proxy.newProxyInstance(entityType.getClassLoader(), new Class<?>[] {entityType}, this);
+                _entities.put(entityType, entity);
+            }
+            return entity;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            // entities only need an id, anything else a command may ask for is left empty
+            if (method.getReturnType() == long.class) {
+                return 1L;
+            } else if (method.getReturnType() == boolean.class) {
+                return false;
+            }
+            return null;
+        }
+
+        @Override
+        public <T, K extends Serializable> T findById(Class<T> entityType, K id) {
+            _lookups++;
+            return null;
+        }
+
+        @Override
+        public <T> T findByUuid(Class<T> entityType, String uuid) {
+            return findByUuidIncludingRemoved(entityType, uuid);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T findByUuidIncludingRemoved(Class<T> entityType, String uuid) {
+            _lookups++;
+            return (T)entity(entityType);
+        }
+
+        @Override
+        public <T, K extends Serializable> Map<K, ? extends T> findByIds(Class<T> entityType, Collection<K> ids) {
+            _lookups++;
+            return new HashMap<K, T>();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Map<String, ? extends T> findByUuidsIncludingRemoved(Class<T> entityType, Collection<String> uuids) {
+            _lookups++;
+            Map<String, T> found = new HashMap<String, T>();
+            for (String uuid : uuids) {
+                found.put(uuid, (T)entity(entityType));
+            }
+            return found;
+        }
+
+        @Override
+        public <T> T findByXId(Class<T> entityType, String xid) {
+            return null;
+        }
+
+        @Override
+        public <T> List<? extends T> list(Class<T> entityType) {
+            return null;
+        }
+
+        @Override
+        public <T, K extends Serializable> void remove(Class<T> entityType, K id) {
+        }
+
+        @Override
+        public <T, K extends Serializable> T findByIdIncludingRemoved(Class<T> entityType, K id) {
+            return findById(entityType, id);
+        }
+    }
+}
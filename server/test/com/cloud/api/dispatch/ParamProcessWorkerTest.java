@@ -18,7 +18,11 @@
  */
 package com.cloud.api.dispatch;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -32,6 +36,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.UserVmResponse;
 import org.apache.cloudstack.context.CallContext;
 
 import com.cloud.exception.ConcurrentOperationException;
@@ -42,6 +47,8 @@ import com.cloud.exception.ResourceUnavailableException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.utils.db.EntityManager;
+import com.cloud.vm.VirtualMachine;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ParamProcessWorkerTest {
@@ -49,6 +56,9 @@ public class ParamProcessWorkerTest {
     @Mock
     protected AccountManager accountManager;
 
+    @Mock
+    protected EntityManager entityManager;
+
     protected ParamProcessWorker paramProcessWorker;
 
     public static class TestCmd extends BaseCmd {
@@ -62,6 +72,12 @@ public class ParamProcessWorkerTest {
         @Parameter(name = "boolparam1", type = CommandType.BOOLEAN)
         boolean boolparam1;
 
+        @Parameter(name = "vmids", type = CommandType.LIST, collectionType = CommandType.UUID, entityType = UserVmResponse.class, since = "4.5")
+        List<Long> vmIds;
+
+        @Parameter(name = "vmid", type = CommandType.UUID, entityType = UserVmResponse.class)
+        Long vmId;
+
         @Override
         public void execute() throws ResourceUnavailableException, InsufficientCapacityException, ServerApiException, ConcurrentOperationException,
             ResourceAllocationException, NetworkRuleConflictException {
@@ -70,7 +86,7 @@ public class ParamProcessWorkerTest {
 
         @Override
         public String getCommandName() {
-            return "test";
+            return "testresponse";
         }
 
         @Override
@@ -85,6 +101,7 @@ public class ParamProcessWorkerTest {
         CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
         paramProcessWorker = new ParamProcessWorker();
         paramProcessWorker._accountMgr = accountManager;
+        paramProcessWorker._entityMgr = entityManager;
     }
 
     @After
@@ -104,4 +121,54 @@ public class ParamProcessWorkerTest {
         Assert.assertEquals(100, cmd.intparam1);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void processUuidListInOneLookup() {
+        final String uuid1 = "0b4f1c52-0d3e-4e2a-8f5c-3a1c2b1d0e01";
+        final String uuid2 = "0b4f1c52-0d3e-4e2a-8f5c-3a1c2b1d0e02";
+        final VirtualMachine vm1 = Mockito.mock(VirtualMachine.class);
+        Mockito.when(vm1.getId()).thenReturn(1L);
+        final VirtualMachine vm2 = Mockito.mock(VirtualMachine.class);
+        Mockito.when(vm2.getId()).thenReturn(2L);
+        final Map<String, VirtualMachine> found = new HashMap<String, VirtualMachine>();
+        found.put(uuid1, vm1);
+        found.put(uuid2, vm2);
+        Mockito.doReturn(found).when(entityManager).findByUuidsIncludingRemoved(Mockito.eq(VirtualMachine.class), Mockito.anyCollection());
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("vmids", uuid2 + "," + uuid1 + "," + uuid2);
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+
+        Assert.assertEquals(Arrays.asList(2L, 1L, 2L), cmd.vmIds);
+        Mockito.verify(entityManager, Mockito.times(1)).findByUuidsIncludingRemoved(Mockito.eq(VirtualMachine.class), Mockito.any(Collection.class));
+    }
+
+    @Test
+    public void processUuidIgnoresCase() {
+        final String uuid = "0b4f1c52-0d3e-4e2a-8f5c-3a1c2b1d0e01";
+        final VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+        Mockito.when(vm.getId()).thenReturn(1L);
+        // the database matches the uuid regardless of case and returns it as it is stored
+        final Map<String, VirtualMachine> found = new HashMap<String, VirtualMachine>();
+        found.put(uuid, vm);
+        Mockito.doReturn(found).when(entityManager).findByUuidsIncludingRemoved(Mockito.eq(VirtualMachine.class), Mockito.anyCollection());
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("vmid", uuid.toUpperCase());
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+
+        Assert.assertEquals(Long.valueOf(1L), cmd.vmId);
+    }
+
+    @Test(expected = ServerApiException.class)
+    public void processUuidListWithUnknownUuid() {
+        Mockito.doReturn(new HashMap<String, VirtualMachine>()).when(entityManager)
+            .findByUuidsIncludingRemoved(Mockito.any(Class.class), Mockito.anyCollection());
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("vmids", "0b4f1c52-0d3e-4e2a-8f5c-3a1c2b1d0e01");
+        paramProcessWorker.processParameters(new TestCmd(), params);
+    }
 }
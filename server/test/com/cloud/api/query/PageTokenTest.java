@@ -0,0 +1,145 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import com.cloud.api.query.vo.BaseViewVO;
+import com.cloud.exception.InvalidParameterValueException;
+
+public class PageTokenTest {
+    private static final String KEY = "hash-key";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testRoundTrip() {
+        String encoded = new PageToken(true, 42).encode(KEY);
+        PageToken token = PageToken.decode(encoded, true, KEY);
+        assertTrue(token.isAscending());
+        assertEquals(42, token.getLastId());
+
+        token = PageToken.decode(new PageToken(false, 7).encode(KEY), false, KEY);
+        assertFalse(token.isAscending());
+        assertEquals(7, token.getLastId());
+    }
+
+    @Test
+    public void testTokenIsUrlSafe() {
+        String encoded = new PageToken(true, Long.MAX_VALUE).encode(KEY);
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testChangedIdIsRejected() {
+        String[] parts = decodeParts(new PageToken(true, 42).encode(KEY));
+        parts[3] = "0";
+        PageToken.decode(encodeParts(parts), true, KEY);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testChangedOrderIsRejected() {
+        String[] parts = decodeParts(new PageToken(true, 42).encode(KEY));
+        parts[2] = "desc";
+        PageToken.decode(encodeParts(parts), false, KEY);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testOtherKeyIsRejected() {
+        PageToken.decode(new PageToken(true, 42).encode(KEY), true, "other-key");
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testUnsignedTokenIsRejected() {
+        String unsigned = Base64.encodeBase64URLSafeString("1:id:asc:42".getBytes(UTF8));
+        PageToken.decode(unsigned, true, KEY);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testGarbageIsRejected() {
+        PageToken.decode("not a token", true, KEY);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testTokenOfTheOtherOrderIsRejected() {
+        PageToken.decode(new PageToken(true, 42).encode(KEY), false, KEY);
+    }
+
+    @Test
+    public void testNextOnlyForFullPages() {
+        assertNull(PageToken.next(rows(1, 2), null, true));
+        assertNull(PageToken.next(new ArrayList<Row>(), 2L, true));
+        assertNull(PageToken.next(rows(1, 2), 3L, true));
+
+        PageToken next = PageToken.next(rows(3, 1, 2), 3L, true);
+        assertEquals(3, next.getLastId());
+        next = PageToken.next(rows(9, 8, 7), 3L, false);
+        assertEquals(7, next.getLastId());
+    }
+
+    @Test
+    public void testNextCountsIdsNotRows() {
+        // join views return a row per detail, the page still has only two ids
+        assertNull(PageToken.next(rows(1, 1, 2), 3L, true));
+        assertEquals(2, PageToken.next(rows(1, 1, 2), 2L, true).getLastId());
+    }
+
+    private static String[] decodeParts(String token) {
+        return new String(Base64.decodeBase64(token), UTF8).split(":");
+    }
+
+    private static String encodeParts(String[] parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            if (sb.length() > 0) {
+                sb.append(':');
+            }
+            sb.append(part);
+        }
+        return Base64.encodeBase64URLSafeString(sb.toString().getBytes(UTF8));
+    }
+
+    private static List<Row> rows(long... ids) {
+        List<Row> rows = new ArrayList<Row>();
+        for (long id : ids) {
+            rows.add(new Row(id));
+        }
+        return rows;
+    }
+
+    static class Row extends BaseViewVO {
+        final long _id;
+
+        Row(long id) {
+            _id = id;
+        }
+
+        @Override
+        public long getId() {
+            return _id;
+        }
+    }
+}
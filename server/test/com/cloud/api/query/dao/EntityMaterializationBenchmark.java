@@ -0,0 +1,399 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query.dao;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+import net.sf.cglib.proxy.NoOp;
+
+import com.cloud.api.query.vo.UserVmJoinVO;
+import com.cloud.host.HostVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.FieldSetter;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.net.Ip;
+
+/**
+ * Measures how many HostVO and UserVmJoinVO rows per second GenericDaoBase
+ * turns into entities, with every column of the entity set:
+ *   per row     - columns resolved and setters built for every row, the way
+ *                 toEntityBean read rows before the setters were cached
+ *   reflective  - cached setters writing the fields through Field.set and
+ *                 parsing dates with DateUtil
+ *   offset      - the cached setters GenericDaoBase uses, writing the fields
+ *                 at their offsets
+ * and, for comparison, how many empty update tracking proxies and plain
+ * entities per second can be created.  Not run as part of the build, start it with
+ *   mvn -pl server test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.cloud.api.query.dao.EntityMaterializationBenchmark
+ * and optionally pass the measurement time per sample in milliseconds.
+ */
+public class EntityMaterializationBenchmark {
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+
+        System.out.println(String.format("%-15s %8s %12s %12s %12s %12s %12s", "entity", "columns", "per row/s", "reflective/s", "offset/s", "proxy/s",
+            "plain/s"));
+        measure("HostVO", new Hosts(), millis);
+        measure("UserVmJoinVO", new UserVms(), millis);
+    }
+
+    private static void measure(String name, final Materializer<?> materializer, long millis) throws Exception {
+        final SampleResultSet rs = materializer.newResultSet();
+        final FieldSetter[] offset = materializer.setters(rs.getMetaData());
+        final FieldSetter[] reflective = new FieldSetter[offset.length];
+        for (int i = 0; i < offset.length; i++) {
+            reflective[i] = offset[i] != null ? FieldSetter.reflective(offset[i].getField()) : null;
+        }
+
+        Row perRow = new Row() {
+            @Override
+            public Object read() throws SQLException {
+                return materializer.readResolvingColumns(rs, offset);
+            }
+        };
+        Row cachedReflective = new Row() {
+            @Override
+            public Object read() throws SQLException {
+                return materializer.read(rs, reflective);
+            }
+        };
+        Row cachedOffset = new Row() {
+            @Override
+            public Object read() throws SQLException {
+                return materializer.read(rs, offset);
+            }
+        };
+        Row proxy = new Row() {
+            @Override
+            public Object read() {
+                return materializer.createForUpdate();
+            }
+        };
+        Row plain = new Row() {
+            @Override
+            public Object read() throws Exception {
+                return materializer.newPlainEntity();
+            }
+        };
+
+        Row[] rows = new Row[] {perRow, cachedReflective, cachedOffset, proxy, plain};
+        for (Row row : rows) {
+            measure(row, millis / 2);
+        }
+        double[] rates = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rates[i] = measure(rows[i], millis);
+        }
+        System.out.println(String.format("%-15s %8d %12.0f %12.0f %12.0f %12.0f %12.0f", name, rs.getMetaData().getColumnCount(), rates[0], rates[1], rates[2],
+            rates[3], rates[4]));
+    }
+
+    private static double measure(Row row, long millis) throws Exception {
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                row.read();
+            }
+            count += 100;
+            now = System.nanoTime();
+        } while (now < end);
+        return count * 1e9 / (now - start);
+    }
+
+    private interface Row {
+        Object read() throws Exception;
+    }
+
+    /**
+     * Reads rows of the entity the way the dao does, from a result set that
+     * returns the same sample row for every column the entity maps.
+     */
+    abstract static class Materializer<T> extends GenericDaoBase<T, Long> {
+        SampleResultSet newResultSet() {
+            List<String[]> columns = new ArrayList<String[]>();
+            List<Class<?>> types = new ArrayList<Class<?>>();
+            for (Pair<String, String> column : _allColumns.keySet()) {
+                columns.add(new String[] {column.first(), column.second()});
+            }
+            SampleResultSet rs = SampleResultSet.create(columns);
+            try {
+                FieldSetter[] setters = getColumnSetters(rs.getMetaData());
+                for (FieldSetter setter : setters) {
+                    types.add(setter != null ? setter.getField().getType() : null);
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            rs.setRow(types);
+            return rs;
+        }
+
+        FieldSetter[] setters(ResultSetMetaData meta) throws SQLException {
+            return getColumnSetters(meta);
+        }
+
+        T read(ResultSet rs, FieldSetter[] setters) throws SQLException {
+            return toEntityBean(rs, false, setters);
+        }
+
+        T readResolvingColumns(ResultSet rs, FieldSetter[] setters) throws SQLException {
+            ResultSetMetaData meta = rs.getMetaData();
+            FieldSetter[] resolved = new FieldSetter[setters.length];
+            for (int i = 0; i < setters.length; i++) {
+                if (findAttributeByColumn(meta, i + 1) != null) {
+                    resolved[i] = FieldSetter.reflective(setters[i].getField());
+                }
+            }
+            return toEntityBean(rs, false, resolved);
+        }
+
+        T newPlainEntity() throws Exception {
+            Constructor<T> constructor = _entityBeanType.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        }
+    }
+
+    static class Hosts extends Materializer<HostVO> {
+    }
+
+    static class UserVms extends Materializer<UserVmJoinVO> {
+    }
+
+    /**
+     * A result set with one sample value per column.  Only the getters
+     * FieldSetter calls are implemented, CGLIB fills in the rest.
+     */
+    public abstract static class SampleResultSet implements ResultSet {
+        private List<String[]> _columns;
+        private Object[] _values;
+        private String[] _strings;
+        private byte[][] _bytes;
+        private java.sql.Date[] _dates;
+        private boolean _wasNull;
+        private ResultSetMetaData _meta;
+
+        static SampleResultSet create(List<String[]> columns) {
+            SampleResultSet rs = (SampleResultSet)unimplemented(SampleResultSet.class);
+            rs._columns = columns;
+            rs._meta = SampleMetaData.create(columns);
+            return rs;
+        }
+
+        void setRow(List<Class<?>> types) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            int count = _columns.size();
+            _values = new Object[count];
+            _strings = new String[count];
+            _bytes = new byte[count][];
+            _dates = new java.sql.Date[count];
+            for (int i = 0; i < count; i++) {
+                Object value = sampleValue(types.get(i), i + 1);
+                _values[i] = value;
+                if (value instanceof Date) {
+                    _strings[i] = format.format((Date)value);
+                    _dates[i] = new java.sql.Date(((Date)value).getTime());
+                } else if (value instanceof Enum) {
+                    _strings[i] = ((Enum<?>)value).name();
+                } else if (value != null) {
+                    _strings[i] = value.toString();
+                }
+                _bytes[i] = _strings[i] != null ? _strings[i].getBytes() : null;
+            }
+        }
+
+        private static Object sampleValue(Class<?> type, int column) {
+            if (type == null) {
+                return null;
+            } else if (type == long.class || type == Long.class) {
+                return Long.valueOf(column * 1000L);
+            } else if (type == int.class || type == Integer.class || type == short.class || type == Short.class || type == byte.class || type == Byte.class) {
+                return Integer.valueOf(column % 100);
+            } else if (type == float.class || type == Float.class || type == double.class || type == Double.class) {
+                return Double.valueOf(column * 1.5);
+            } else if (type == boolean.class || type == Boolean.class) {
+                return Boolean.TRUE;
+            } else if (type == String.class) {
+                return "value-" + column;
+            } else if (type == Date.class || type == Calendar.class) {
+                return new Timestamp(1400000000000L);
+            } else if (type.isEnum()) {
+                return type.getEnumConstants()[0];
+            } else if (type == Ip.class) {
+                return "10.1.1." + column % 250;
+            }
+            return null;
+        }
+
+        private Object value(int index) {
+            Object value = _values[index - 1];
+            _wasNull = value == null;
+            return value;
+        }
+
+        @Override
+        public boolean next() {
+            return true;
+        }
+
+        @Override
+        public boolean wasNull() {
+            return _wasNull;
+        }
+
+        @Override
+        public ResultSetMetaData getMetaData() {
+            return _meta;
+        }
+
+        @Override
+        public long getLong(int index) {
+            Object value = value(index);
+            return value instanceof Number ? ((Number)value).longValue() : 0;
+        }
+
+        @Override
+        public int getInt(int index) {
+            Object value = value(index);
+            if (value instanceof Enum) {
+                return ((Enum<?>)value).ordinal();
+            }
+            return value instanceof Number ? ((Number)value).intValue() : 0;
+        }
+
+        @Override
+        public short getShort(int index) {
+            return (short)getInt(index);
+        }
+
+        @Override
+        public byte getByte(int index) {
+            return (byte)getInt(index);
+        }
+
+        @Override
+        public float getFloat(int index) {
+            return (float)getDouble(index);
+        }
+
+        @Override
+        public double getDouble(int index) {
+            Object value = value(index);
+            return value instanceof Number ? ((Number)value).doubleValue() : 0;
+        }
+
+        @Override
+        public boolean getBoolean(int index) {
+            return Boolean.TRUE.equals(value(index));
+        }
+
+        @Override
+        public String getString(int index) {
+            value(index);
+            return _strings[index - 1];
+        }
+
+        @Override
+        public byte[] getBytes(int index) {
+            value(index);
+            return _bytes[index - 1];
+        }
+
+        @Override
+        public java.sql.Date getDate(int index) {
+            value(index);
+            return _dates[index - 1];
+        }
+
+        @Override
+        public Object getObject(int index) {
+            return value(index);
+        }
+    }
+
+    public abstract static class SampleMetaData implements ResultSetMetaData {
+        private List<String[]> _columns;
+
+        static SampleMetaData create(List<String[]> columns) {
+            SampleMetaData meta = (SampleMetaData)unimplemented(SampleMetaData.class);
+            meta._columns = columns;
+            return meta;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return _columns.size();
+        }
+
+        @Override
+        public String getTableName(int index) {
+            return _columns.get(index - 1)[0];
+        }
+
+        @Override
+        public String getColumnName(int index) {
+            return _columns.get(index - 1)[1];
+        }
+
+        @Override
+        public String getColumnLabel(int index) {
+            return _columns.get(index - 1)[1];
+        }
+    }
+
+    /**
+     * @return an instance of the abstract class whose abstract methods throw
+     */
+    private static Object unimplemented(Class<?> abstractClass) {
+        Enhancer enhancer = new Enhancer();
+        enhancer.setSuperclass(abstractClass);
+        enhancer.setCallbackFilter(new CallbackFilter() {
+            @Override
+            public int accept(Method method) {
+                return Modifier.isAbstract(method.getModifiers()) ? 1 : 0;
+            }
+        });
+        enhancer.setCallbacks(new Callback[] {NoOp.INSTANCE, new MethodInterceptor() {
+            @Override
+            public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }});
+        return enhancer.create();
+    }
+}
@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.HttpUtils;
+
+public class ApiResponseSerializerTest {
+
+    @Test
+    public void unescape() {
+        Assert.assertEquals("a<b>&c", ApiResponseSerializer.unescape("a\\u003cb\\u003e\\u0026c"));
+        Assert.assertEquals("plain", ApiResponseSerializer.unescape("plain"));
+        Assert.assertEquals("$1\\", ApiResponseSerializer.unescape("\\u00241\\u005c"));
+    }
+
+    @Test
+    public void streamedJsonMatchesString() throws Exception {
+        List<SuccessResponse> responses = new ArrayList<SuccessResponse>();
+        for (int i = 0; i < 3; i++) {
+            SuccessResponse response = new SuccessResponse("item");
+            response.setDisplayText("<item " + i + ">");
+            response.setObjectName("item");
+            responses.add(response);
+        }
+        ListResponse<SuccessResponse> list = new ListResponse<SuccessResponse>();
+        list.setResponses(responses, 10);
+        list.setResponseName("listitemsresponse");
+        list.setNextPageToken("abc");
+
+        StringWriter out = new StringWriter();
+        ApiResponseSerializer.writeSerialized(list, HttpUtils.RESPONSE_TYPE_JSON, out);
+        String json = ApiResponseSerializer.toSerializedString(list, HttpUtils.RESPONSE_TYPE_JSON);
+        Assert.assertEquals(json, out.toString());
+        Assert.assertTrue(json.startsWith("{\"listitemsresponse\":{\"count\":10,\"nextpagetoken\":\"abc\",\"item\":["));
+        Assert.assertTrue(json.contains("<item 2>"));
+    }
+
+    @Test
+    public void nextPageTokenDoesNotNeedACount() throws Exception {
+        ListResponse<SuccessResponse> list = new ListResponse<SuccessResponse>();
+        list.setResponses(new ArrayList<SuccessResponse>(), 0);
+        list.setResponseName("listitemsresponse");
+        list.setNextPageToken("abc");
+
+        Assert.assertEquals("{\"listitemsresponse\":{\"nextpagetoken\":\"abc\"}}", ApiResponseSerializer.toSerializedString(list, HttpUtils.RESPONSE_TYPE_JSON));
+
+        list.setNextPageToken(null);
+        Assert.assertEquals("{\"listitemsresponse\":{}}", ApiResponseSerializer.toSerializedString(list, HttpUtils.RESPONSE_TYPE_JSON));
+    }
+}
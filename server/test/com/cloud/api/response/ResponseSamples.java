@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.cloudstack.api.ResponseObject;
+import org.apache.cloudstack.api.response.HostResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.NicResponse;
+import org.apache.cloudstack.api.response.ResourceTagResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+
+import com.cloud.host.Host;
+import com.cloud.host.Status;
+
+/**
+ * List responses shared by the serializer tests and SerializationBenchmark.
+ */
+public class ResponseSamples {
+
+    public static List<UserVmResponse> userVms(int count) {
+        List<UserVmResponse> vms = new ArrayList<UserVmResponse>();
+        for (int i = 0; i < count; i++) {
+            UserVmResponse vm = new UserVmResponse();
+            vm.setObjectName("virtualmachine");
+            vm.setId(UUID.randomUUID().toString());
+            vm.setName("vm-" + i);
+            vm.setDisplayName("<vm " + i + "> & \"friends\"");
+            vm.setAccountName("admin");
+            vm.setDomainId(UUID.randomUUID().toString());
+            vm.setDomainName("ROOT");
+            vm.setCreated(new Date(1400000000000L + i));
+            vm.setState("Running");
+            vm.setHaEnable(i % 2 == 0);
+            // only admins get to see this one
+            vm.setDisplayVm(true);
+            vm.setZoneId(UUID.randomUUID().toString());
+            vm.setZoneName("zone1");
+            vm.setHostId(UUID.randomUUID().toString());
+            vm.setHostName("host-" + (i % 50));
+            vm.setTemplateId(UUID.randomUUID().toString());
+            vm.setTemplateName("template");
+            vm.setHypervisor("KVM");
+
+            NicResponse nic = new NicResponse();
+            nic.setId(UUID.randomUUID().toString());
+            nic.setNetworkid(UUID.randomUUID().toString());
+            nic.setNetworkName("guest network");
+            nic.setNetmask("255.255.255.0");
+            vm.addNic(nic);
+
+            ResourceTagResponse tag = new ResourceTagResponse();
+            tag.setKey("owner");
+            tag.setValue("team " + (i % 3));
+            tag.setResourceType("UserVm");
+            tag.setResourceId(vm.getId());
+            vm.addTag(tag);
+            vms.add(vm);
+        }
+        return vms;
+    }
+
+    public static List<HostResponse> hosts(int count) {
+        List<HostResponse> hosts = new ArrayList<HostResponse>();
+        for (int i = 0; i < count; i++) {
+            HostResponse host = new HostResponse();
+            host.setObjectName("host");
+            host.setId(UUID.randomUUID().toString());
+            host.setName("host-" + i);
+            host.setState(Status.Up);
+            host.setHostType(Host.Type.Routing);
+            host.setIpAddress("10.0." + (i / 250) + "." + (i % 250));
+            host.setZoneId(UUID.randomUUID().toString());
+            host.setZoneName("zone1");
+            host.setPodId(UUID.randomUUID().toString());
+            host.setPodName("pod1");
+            hosts.add(host);
+        }
+        return hosts;
+    }
+
+    public static <T extends ResponseObject> ListResponse<T> list(String name, List<T> elements) {
+        ListResponse<T> response = new ListResponse<T>();
+        response.setResponses(elements, elements.size());
+        response.setResponseName(name.toLowerCase() + "response");
+        return response;
+    }
+}
@@ -0,0 +1,230 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.ResponseObject;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.api.ApiResponseGsonHelper;
+import com.cloud.api.EncodedStringTypeAdapter;
+import com.cloud.api.ResponseObjectTypeAdapter;
+import com.cloud.serializer.Param;
+import com.cloud.server.ManagementServer;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.User;
+import com.cloud.user.UserVO;
+import com.cloud.utils.HttpUtils;
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Checks that serializing through the cached plans gives the same bytes as the
+ * serializer did when it reflected over every object, for callers who may and
+ * may not see the restricted fields.
+ */
+public class ResponseSerializationPlanTest {
+
+    @Before
+    public void setUp() throws Exception {
+        ManagementServer ms = Mockito.mock(ManagementServer.class);
+        Mockito.when(ms.getVersion()).thenReturn("4.5");
+        Field field = ApiDBUtils.class.getDeclaredField("s_ms");
+        field.setAccessible(true);
+        field.set(null, ms);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CallContext.unregister();
+        Field field = ApiDBUtils.class.getDeclaredField("s_ms");
+        field.setAccessible(true);
+        field.set(null, null);
+    }
+
+    @Test
+    public void testSameOutputForAdmin() throws Exception {
+        register(Account.ACCOUNT_TYPE_ADMIN);
+        String xml = assertSameOutput(ResponseSamples.list("listVirtualMachines", ResponseSamples.userVms(20)));
+        Assert.assertTrue(xml.contains("<displayvm>true</displayvm>"));
+        assertSameOutput(ResponseSamples.list("listHosts", ResponseSamples.hosts(20)));
+    }
+
+    @Test
+    public void testSameOutputForUser() throws Exception {
+        register(Account.ACCOUNT_TYPE_NORMAL);
+        String xml = assertSameOutput(ResponseSamples.list("listVirtualMachines", ResponseSamples.userVms(20)));
+        Assert.assertFalse(xml.contains("<displayvm>"));
+        assertSameOutput(ResponseSamples.list("listHosts", ResponseSamples.hosts(20)));
+    }
+
+    @Test
+    public void testPlanIsBuiltOnce() {
+        Assert.assertSame(ResponseSerializationPlan.get(StubResponse.class), ResponseSerializationPlan.get(StubResponse.class));
+    }
+
+    @Test
+    public void testPlanSkipsTransientAndUnnamedFields() {
+        List<ResponseSerializationPlan.FieldPlan> fields = ResponseSerializationPlan.get(StubResponse.class).getFields();
+        Assert.assertEquals("name", fields.get(0).getSerializedName());
+        Assert.assertFalse(fields.get(0).isRestricted());
+        Assert.assertEquals("secret", fields.get(1).getSerializedName());
+        Assert.assertTrue(fields.get(1).isRestricted());
+        for (ResponseSerializationPlan.FieldPlan field : fields) {
+            Assert.assertNotEquals("hidden", field.getSerializedName());
+        }
+    }
+
+    private String assertSameOutput(ListResponse<? extends ResponseObject> list) throws Exception {
+        Gson legacyGson = legacyGson();
+        for (ResponseObject element : list.getResponses()) {
+            Assert.assertEquals(legacyGson.toJson(element), ApiResponseGsonHelper.getGson().toJson(element));
+        }
+
+        StringBuilder expected = new StringBuilder();
+        expected.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        expected.append("<").append(list.getResponseName()).append(" cloud-stack-version=\"4.5\">");
+        expected.append("<count>").append(list.getCount()).append("</count>");
+        for (ResponseObject element : list.getResponses()) {
+            legacyXml(expected, element);
+        }
+        expected.append("</").append(list.getResponseName()).append(">");
+
+        String xml = ApiResponseSerializer.toSerializedString(list, HttpUtils.RESPONSE_TYPE_XML);
+        Assert.assertEquals(expected.toString(), xml);
+        return xml;
+    }
+
+    private static void register(short accountType) {
+        Account account = new AccountVO("caller", 1, "networkdomain", accountType, UUID.randomUUID().toString());
+        UserVO user = new UserVO(1, "caller", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString(), User.Source.UNKNOWN);
+        CallContext.register(user, account);
+    }
+
+    /**
+     * The Gson the serializer used to build for every response.
+     */
+    private static Gson legacyGson() {
+        GsonBuilder builder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        builder.setVersion(1.3);
+        builder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
+        builder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
+        builder.setExclusionStrategies(new ExclusionStrategy() {
+            @Override
+            public boolean shouldSkipClass(Class<?> clz) {
+                return false;
+            }
+
+            @Override
+            public boolean shouldSkipField(FieldAttributes f) {
+                Param param = f.getAnnotation(Param.class);
+                return param != null && !allowed(param.authorized());
+            }
+        });
+        return builder.excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+    }
+
+    /**
+     * The per object XML the serializer wrote when it reflected over every object, for
+     * the kinds of fields the samples have.
+     */
+    private static void legacyXml(StringBuilder sb, ResponseObject obj) throws Exception {
+        sb.append("<").append(obj.getObjectName()).append(">");
+        for (Field field : ApiResponseSerializer.getFlattenFields(obj.getClass())) {
+            if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
+                continue;
+            }
+            SerializedName serializedName = field.getAnnotation(SerializedName.class);
+            if (serializedName == null) {
+                continue;
+            }
+            Param param = field.getAnnotation(Param.class);
+            if (param != null && !allowed(param.authorized())) {
+                continue;
+            }
+            field.setAccessible(true);
+            Object fieldValue = field.get(obj);
+            if (fieldValue == null) {
+                continue;
+            }
+            if (fieldValue instanceof ResponseObject) {
+                legacyXml(sb, (ResponseObject)fieldValue);
+            } else if (fieldValue instanceof Collection<?>) {
+                for (Object value : (Collection<?>)fieldValue) {
+                    if (value instanceof ResponseObject) {
+                        ((ResponseObject)value).setObjectName(serializedName.value());
+                        legacyXml(sb, (ResponseObject)value);
+                    } else if (value instanceof String) {
+                        sb.append("<").append(serializedName.value()).append(">").append((String)value).append("</").append(serializedName.value()).append(">");
+                    }
+                }
+            } else if (fieldValue instanceof Date) {
+                sb.append("<").append(serializedName.value()).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName.value()).append(">");
+            } else {
+                String escaped = fieldValue.toString().replace("&", "&amp;").replace("\"", "&quot;").replace("'", "&apos;").replace("<", "&lt;").replace(">", "&gt;");
+                sb.append("<").append(serializedName.value()).append(">").append(escaped).append("</").append(serializedName.value()).append(">");
+            }
+        }
+        sb.append("</").append(obj.getObjectName()).append(">");
+    }
+
+    private static boolean allowed(RoleType[] roles) {
+        if (roles.length == 0) {
+            return true;
+        }
+        Account caller = CallContext.current().getCallingAccount();
+        for (RoleType role : roles) {
+            if (role.getValue() == caller.getType()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class StubResponse extends org.apache.cloudstack.api.BaseResponse {
+        @SerializedName("name")
+        String name;
+
+        @SerializedName("secret")
+        @Param(authorized = {RoleType.Admin})
+        String secret;
+
+        @SerializedName("hidden")
+        transient String hidden;
+
+        String unnamed;
+    }
+}
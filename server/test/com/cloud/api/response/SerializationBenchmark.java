@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.UUID;
+
+import org.apache.cloudstack.api.ResponseObject;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.mockito.Mockito;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.server.ManagementServer;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.User;
+import com.cloud.user.UserVO;
+import com.cloud.utils.HttpUtils;
+
+/**
+ * Measures serialization throughput of list responses with many elements.  Not
+ * run as part of the build, start it with
+ *   mvn -pl server test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.cloud.api.response.SerializationBenchmark
+ * and optionally pass the number of elements per list.
+ */
+public class SerializationBenchmark {
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int elements = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        Account account = new AccountVO("admin", 1, "networkdomain", Account.ACCOUNT_TYPE_ADMIN, UUID.randomUUID().toString());
+        UserVO user = new UserVO(1, "admin", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString(), User.Source.UNKNOWN);
+        CallContext.register(user, account);
+
+        ManagementServer ms = Mockito.mock(ManagementServer.class);
+        Mockito.when(ms.getVersion()).thenReturn("4.5");
+        Field field = ApiDBUtils.class.getDeclaredField("s_ms");
+        field.setAccessible(true);
+        field.set(null, ms);
+
+        try {
+            measure(ResponseSamples.list("listVirtualMachines", ResponseSamples.userVms(elements)));
+            measure(ResponseSamples.list("listHosts", ResponseSamples.hosts(elements)));
+        } finally {
+            CallContext.unregister();
+        }
+    }
+
+    private static <T extends ResponseObject> void measure(ListResponse<T> response) throws Exception {
+        int elements = response.getResponses().size();
+        for (String type : new String[] {HttpUtils.RESPONSE_TYPE_JSON, HttpUtils.RESPONSE_TYPE_XML}) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                ApiResponseSerializer.writeSerialized(response, type, new NullWriter());
+            }
+            long before = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                ApiResponseSerializer.writeSerialized(response, type, new NullWriter());
+            }
+            long elapsed = System.nanoTime() - before;
+            System.out.println(response.getResponseName() + " " + type + ": " + (ROUNDS * (long)elements * 1000000000L / elapsed) + " objects/s");
+        }
+    }
+
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.naming.ConfigurationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.agent.api.HostStatsEntry;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine;
+
+public class GraphiteStatsExporterTest {
+    private File _file;
+    private GraphiteStatsExporter _exporter;
+    private Host _host;
+
+    @Before
+    public void setUp() throws Exception {
+        _file = File.createTempFile("stats", ".txt");
+        _exporter = new GraphiteStatsExporter();
+        _host = mock(Host.class);
+        when(_host.getName()).thenReturn("kvm1.example.com");
+    }
+
+    @After
+    public void tearDown() {
+        _exporter.stop();
+        _file.delete();
+    }
+
+    @Test
+    public void testLinesAreWrittenToFile() throws Exception {
+        _exporter.init(_file.toURI().toString(), "cs", 10000);
+        _exporter.start();
+
+        HostStatsEntry hostStats = new HostStatsEntry(1L, 12.5, 100, 200, "host", 4096, 1024, 3072, 0);
+        _exporter.exportHostStats(_host, hostStats, 1400000000000L);
+
+        VirtualMachine vm = mock(VirtualMachine.class);
+        when(vm.getInstanceName()).thenReturn("i-2-10-VM");
+        VmStatsEntry vmStats = new VmStatsEntry(50, 10, 20, 30, 40, 2, "vm");
+        vmStats.setDiskWriteIOs(6);
+        _exporter.exportVmStats(_host, vm, vmStats, 1400000000000L);
+        _exporter.stop();
+
+        List<String> lines = Files.readAllLines(_file.toPath(), Charset.forName("UTF-8"));
+        assertEquals(13, lines.size());
+        assertTrue(lines.contains("cs.hosts.kvm1_example_com.cpu.utilization 12.5 1400000000"));
+        assertTrue(lines.contains("cs.vms.i-2-10-VM.disk.write_ios 6.0 1400000000"));
+        assertEquals(13, _exporter.getSentCount());
+        assertEquals(0, _exporter.getDroppedCount());
+    }
+
+    @Test
+    public void testDropsWhenBufferIsFull() throws Exception {
+        // the sender is not started, nothing drains the buffer
+        _exporter.init(_file.toURI().toString(), null, 0);
+        HostStatsEntry hostStats = new HostStatsEntry(1L, 12.5, 100, 200, "host", 4096, 1024, 3072, 0);
+        for (int i = 0; i < 100; i++) {
+            _exporter.exportHostStats(_host, hostStats, 1400000000000L);
+        }
+        // the buffer holds at least one batch
+        assertEquals(600 - 500, _exporter.getDroppedCount());
+    }
+
+    @Test
+    public void testNotConfigured() {
+        // without stats.output.uri the exporter does nothing
+        _exporter.exportHostStats(_host, new HostStatsEntry(), 0);
+        assertEquals(0, _exporter.getSentCount());
+        assertEquals(0, _exporter.getDroppedCount());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testUnsupportedScheme() throws Exception {
+        GraphiteStatsExporter.createSink("http://graphite:2003");
+    }
+
+    @Test
+    public void testSanitize() {
+        assertEquals("my_pool_1", GraphiteStatsExporter.sanitize("my pool.1"));
+    }
+}
@@ -0,0 +1,230 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.agent.api.VmDiskStatsEntry;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.host.Host;
+import com.cloud.host.HostStats;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.vm.UserVmManager;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.dao.UserVmDao;
+
+public class StatsCollectorTest {
+    private StatsCollector _collector;
+    private HostDao _hostDao;
+    private UserVmDao _userVmDao;
+    private UserVmManager _userVmMgr;
+    private VolumeDao _volsDao;
+    private ExecutorService _hostStatsExecutor;
+    private final CountDownLatch _slowHostReleased = new CountDownLatch(1);
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        _hostDao = Mockito.mock(HostDao.class);
+        _userVmDao = Mockito.mock(UserVmDao.class);
+        _userVmMgr = Mockito.mock(UserVmManager.class);
+        _volsDao = Mockito.mock(VolumeDao.class);
+        Mockito.when(_hostDao.createSearchCriteria()).thenReturn(Mockito.mock(SearchCriteria.class));
+        Mockito.when(_volsDao.createSearchCriteria()).thenReturn(Mockito.mock(SearchCriteria.class));
+        _hostStatsExecutor = Executors.newFixedThreadPool(4);
+
+        _collector = new StatsCollector();
+        _collector.vmStatsHostTimeout = 500;
+        set("_hostDao", _hostDao);
+        set("_userVmDao", _userVmDao);
+        set("_userVmMgr", _userVmMgr);
+        set("_volsDao", _volsDao);
+        set("_hostStatsExecutor", _hostStatsExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        _slowHostReleased.countDown();
+        _hostStatsExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowHostIsReportedAndSkippedOnTheNextCycle() throws Exception {
+        List<HostVO> hosts = hosts(3);
+        for (HostVO host : hosts) {
+            long vmId = host.getId() * 10;
+            Mockito.when(_userVmMgr.getVirtualMachineStatistics(Mockito.eq(host.getId()), Mockito.anyString(), Mockito.anyListOf(Long.class))).thenReturn(
+                new HashMap<Long, VmStatsEntry>(Collections.singletonMap(vmId, new VmStatsEntry(0.5, 1, 1, 1, "vm"))));
+        }
+        blockOn(_userVmMgr.getVirtualMachineStatistics(Mockito.eq(2L), Mockito.anyString(), Mockito.anyListOf(Long.class)));
+
+        long before = System.currentTimeMillis();
+        _collector.new VmStatsCollector().run();
+        long elapsed = System.currentTimeMillis() - before;
+
+        // the cycle gives up on host 2 at the deadline, the other hosts' stats are in
+        assertTrue("cycle took " + elapsed + "ms", elapsed >= 500 && elapsed < 5000);
+        assertNotNull(_collector.getVmStats(10));
+        assertNull(_collector.getVmStats(20));
+        assertNotNull(_collector.getVmStats(30));
+        assertEquals(Arrays.asList("host2"), mbean().getVmStatsStragglers());
+
+        // host 2 still holds its worker, the next cycle does not ask it again nor wait for it
+        before = System.currentTimeMillis();
+        _collector.new VmStatsCollector().run();
+        elapsed = System.currentTimeMillis() - before;
+
+        assertTrue("cycle took " + elapsed + "ms", elapsed < 500);
+        assertEquals(Arrays.asList("host2"), mbean().getVmStatsStragglers());
+        assertEquals(2, mbean().getStragglerCount());
+        Mockito.verify(_userVmMgr).getVirtualMachineStatistics(Mockito.eq(2L), Mockito.anyString(), Mockito.anyListOf(Long.class));
+        Mockito.verify(_userVmMgr, Mockito.times(2)).getVirtualMachineStatistics(Mockito.eq(1L), Mockito.anyString(), Mockito.anyListOf(Long.class));
+        Mockito.verify(_userVmMgr, Mockito.times(2)).getVirtualMachineStatistics(Mockito.eq(3L), Mockito.anyString(), Mockito.anyListOf(Long.class));
+    }
+
+    @Test
+    public void testDiskStatsAreWrittenInBatchesOf100() throws Exception {
+        List<HostVO> hosts = hosts(3);
+        Mockito.when(_userVmMgr.getVmDiskStatistics(Mockito.eq(1L), Mockito.anyString(), Mockito.anyListOf(Long.class))).thenReturn(diskStats(1, 150));
+        Mockito.when(_userVmMgr.getVmDiskStatistics(Mockito.eq(2L), Mockito.anyString(), Mockito.anyListOf(Long.class))).thenReturn(diskStats(2, 100));
+        blockOn(_userVmMgr.getVmDiskStatistics(Mockito.eq(3L), Mockito.anyString(), Mockito.anyListOf(Long.class)));
+
+        // each vm written looks itself up in the transaction of its batch, which Transaction.execute names
+        final Map<String, List<Long>> written = new HashMap<String, List<Long>>();
+        Mockito.when(_userVmDao.findById(Mockito.anyLong())).thenAnswer(new Answer<UserVmVO>() {
+            @Override
+            public UserVmVO answer(InvocationOnMock invocation) {
+                String txn = TransactionLegacy.currentTxn().toString();
+                if (!written.containsKey(txn)) {
+                    written.put(txn, new ArrayList<Long>());
+                }
+                written.get(txn).add((Long)invocation.getArguments()[0]);
+                return Mockito.mock(UserVmVO.class);
+            }
+        });
+
+        _collector.new VmDiskStatsTask().run();
+
+        List<Integer> batchSizes = new ArrayList<Integer>();
+        int fromHost3 = 0;
+        for (List<Long> batch : written.values()) {
+            batchSizes.add(batch.size());
+            for (Long vmId : batch) {
+                if (vmId / 1000 == 3) {
+                    fromHost3++;
+                }
+            }
+        }
+        Collections.sort(batchSizes);
+        assertEquals(Arrays.asList(50, 100, 100), batchSizes);
+        assertEquals(0, fromHost3);
+        assertEquals(Arrays.asList("host3"), mbean().getVmDiskStatsStragglers());
+    }
+
+    @Test
+    public void testFailingExporterDoesNotStopTheOthers() {
+        final Host host = Mockito.mock(Host.class);
+        final HostStats stats = Mockito.mock(HostStats.class);
+        StatsExporter failing = Mockito.mock(StatsExporter.class);
+        Mockito.doThrow(new RuntimeException("sink is gone")).when(failing).exportHostStats(host, stats, 1000L);
+        StatsExporter working = Mockito.mock(StatsExporter.class);
+
+        StatsCollector collector = new StatsCollector();
+        collector.setStatsExporters(Arrays.asList(failing, working));
+        collector.export("host 1", new StatsCollector.StatsExport() {
+            @Override
+            public void export(StatsExporter exporter) {
+                exporter.exportHostStats(host, stats, 1000L);
+            }
+        });
+
+        Mockito.verify(failing).exportHostStats(host, stats, 1000L);
+        Mockito.verify(working).exportHostStats(host, stats, 1000L);
+    }
+
+    private List<HostVO> hosts(int count) {
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        for (long id = 1; id <= count; id++) {
+            HostVO host = Mockito.mock(HostVO.class);
+            Mockito.when(host.getId()).thenReturn(id);
+            Mockito.when(host.getName()).thenReturn("host" + id);
+            hosts.add(host);
+        }
+        Mockito.when(_hostDao.search(Mockito.<SearchCriteria<HostVO>>any(), Mockito.any(Filter.class))).thenReturn(hosts);
+        return hosts;
+    }
+
+    private static HashMap<Long, List<VmDiskStatsEntry>> diskStats(long hostId, int vms) {
+        HashMap<Long, List<VmDiskStatsEntry>> stats = new HashMap<Long, List<VmDiskStatsEntry>>();
+        for (long vmId = hostId * 1000; vmId < hostId * 1000 + vms; vmId++) {
+            stats.put(vmId, Arrays.asList(new VmDiskStatsEntry("vm" + vmId, "path" + vmId, 1, 1, 1, 1)));
+        }
+        return stats;
+    }
+
+    /**
+     * Makes the stubbed call wait until the test is over, as a hypervisor
+     * that does not answer.
+     */
+    private <T> void blockOn(T call) {
+        Mockito.when(call).thenAnswer(new Answer<T>() {
+            @Override
+            public T answer(InvocationOnMock invocation) throws InterruptedException {
+                _slowHostReleased.await();
+                return null;
+            }
+        });
+    }
+
+    private StatsCollectorMBeanImpl mbean() throws Exception {
+        Field field = StatsCollector.class.getDeclaredField("_statsMBean");
+        field.setAccessible(true);
+        return (StatsCollectorMBeanImpl)field.get(_collector);
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = StatsCollector.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(_collector, value);
+    }
+}
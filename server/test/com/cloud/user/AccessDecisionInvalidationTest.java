@@ -0,0 +1,159 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.apache.cloudstack.acl.ControlledEntity;
+import org.apache.cloudstack.acl.SecurityChecker;
+import org.apache.cloudstack.acl.SecurityChecker.AccessType;
+import org.apache.cloudstack.api.command.admin.domain.UpdateDomainCmd;
+import org.apache.cloudstack.context.CallContext;
+
+import com.cloud.acl.AccessChecksMBeanImpl;
+import com.cloud.acl.AccessDecisionCache;
+import com.cloud.domain.Domain;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.exception.PermissionDeniedException;
+import com.cloud.projects.ProjectAccountVO;
+import com.cloud.projects.ProjectManagerImpl;
+import com.cloud.projects.dao.ProjectAccountDao;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.db.SearchCriteria;
+
+/**
+ * Drives the changes that revoke access through the managers that make them
+ * and checks that AccountManagerImpl asks the security checkers again
+ * instead of answering from its access cache.
+ */
+public class AccessDecisionInvalidationTest {
+    private AccountManagerImpl _accountMgr;
+    private AccessDecisionCache _accessCache;
+    private SecurityChecker _checker;
+    private DomainManager _domainMgr;
+    private AccountVO _caller;
+    private DomainVO _domain;
+
+    @Before
+    public void setUp() throws Exception {
+        _caller = new AccountVO("caller", 5L, null, Account.ACCOUNT_TYPE_NORMAL, "caller-uuid");
+        _caller.setId(2L);
+
+        _domain = Mockito.mock(DomainVO.class);
+        Mockito.when(_domain.getId()).thenReturn(5L);
+        Mockito.when(_domain.getParent()).thenReturn(1L);
+        Mockito.when(_domain.getPath()).thenReturn("/old/");
+
+        AccountDao accountDao = Mockito.mock(AccountDao.class);
+        Mockito.when(accountDao.findById(2L)).thenReturn(_caller);
+        _domainMgr = Mockito.mock(DomainManager.class);
+        Mockito.when(_domainMgr.getDomain(5L)).thenReturn(_domain);
+        _checker = Mockito.mock(SecurityChecker.class);
+        Mockito.when(_checker.checkAccess(_caller, (Domain)_domain)).thenReturn(true);
+
+        _accountMgr = new AccountManagerImpl();
+        _accountMgr.setSecurityCheckers(Arrays.asList(_checker));
+        _accessCache = new AccessDecisionCache(100, 60000);
+        set(_accountMgr, "_accessCache", _accessCache);
+        set(_accountMgr, "_accountDao", accountDao);
+        set(_accountMgr, "_domainMgr", _domainMgr);
+
+        CallContext.register(Mockito.mock(User.class), _caller);
+    }
+
+    @After
+    public void tearDown() {
+        CallContext.unregister();
+    }
+
+    @Test
+    public void removingProjectMemberDropsEntityGrants() throws Exception {
+        ControlledEntity entity = Mockito.mock(ControlledEntity.class);
+        Mockito.when(entity.getAccountId()).thenReturn(3L);
+        Mockito.when(entity.getDomainId()).thenReturn(5L);
+        Mockito.when(_checker.checkAccess(_caller, entity, AccessType.OperateEntry, null)).thenReturn(true);
+
+        _accountMgr.checkAccess(_caller, AccessType.OperateEntry, true, entity);
+        _accountMgr.checkAccess(_caller, AccessType.OperateEntry, true, entity);
+        Mockito.verify(_checker, Mockito.times(1)).checkAccess(_caller, entity, AccessType.OperateEntry, null);
+        assertEquals(50.0, new AccessChecksMBeanImpl(_accessCache).getHitRate(), 0.001);
+
+        ProjectAccountDao projectAccountDao = Mockito.mock(ProjectAccountDao.class);
+        ProjectAccountVO membership = Mockito.mock(ProjectAccountVO.class);
+        Mockito.when(membership.getId()).thenReturn(11L);
+        Mockito.when(projectAccountDao.findByProjectIdAccountId(7L, 2L)).thenReturn(membership);
+        Mockito.when(projectAccountDao.remove(11L)).thenReturn(true);
+        ProjectManagerImpl projectMgr = new ProjectManagerImpl();
+        set(projectMgr, "_projectAccountDao", projectAccountDao);
+        set(projectMgr, "_accountMgr", _accountMgr);
+
+        projectMgr.unassignAccountFromProject(7L, 2L);
+
+        Mockito.when(_checker.checkAccess(_caller, entity, AccessType.OperateEntry, null)).thenThrow(new PermissionDeniedException("not a member"));
+        try {
+            _accountMgr.checkAccess(_caller, AccessType.OperateEntry, true, entity);
+            fail("access granted out of the cache after the membership was removed");
+        } catch (PermissionDeniedException e) {
+            assertEquals("not a member", e.getMessage());
+        }
+    }
+
+    @Test
+    public void movingDomainDropsDomainGrants() throws Exception {
+        _accountMgr.checkAccess(_caller, _domain);
+        Mockito.verify(_checker, Mockito.times(1)).checkAccess(_caller, (Domain)_domain);
+
+        DomainDao domainDao = Mockito.mock(DomainDao.class);
+        Mockito.when(domainDao.findById(5L)).thenReturn(_domain);
+        @SuppressWarnings("unchecked")
+        SearchCriteria<DomainVO> sc = Mockito.mock(SearchCriteria.class);
+        Mockito.when(domainDao.createSearchCriteria()).thenReturn(sc);
+        Mockito.when(domainDao.search(sc, null)).thenReturn(new ArrayList<DomainVO>());
+        Mockito.when(domainDao.findAllChildren("/old/", 5L)).thenReturn(new ArrayList<DomainVO>());
+        DomainManagerImpl domainMgr = new DomainManagerImpl();
+        set(domainMgr, "_domainDao", domainDao);
+        set(domainMgr, "_accountMgr", _accountMgr);
+
+        UpdateDomainCmd cmd = Mockito.mock(UpdateDomainCmd.class);
+        Mockito.when(cmd.getId()).thenReturn(5L);
+        Mockito.when(cmd.getDomainName()).thenReturn("new");
+        domainMgr.updateDomain(cmd);
+        Mockito.verify(_domain).setPath("/new/");
+        // the update itself was allowed out of the cache
+        Mockito.verify(_checker, Mockito.times(1)).checkAccess(_caller, (Domain)_domain);
+
+        _accountMgr.checkAccess(_caller, _domain);
+        Mockito.verify(_checker, Mockito.times(2)).checkAccess(_caller, (Domain)_domain);
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
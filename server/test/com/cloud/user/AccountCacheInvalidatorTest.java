@@ -0,0 +1,115 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.ClusterServicePdu;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class AccountCacheInvalidatorTest {
+    private ClusterManager _clusterMgr;
+    private AccountCacheInvalidator _invalidator;
+    private final AtomicInteger _invalidations = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        _clusterMgr = Mockito.mock(ClusterManager.class);
+        _invalidator = new AccountCacheInvalidator();
+        _invalidator.register("cache", new Runnable() {
+            @Override
+            public void run() {
+                _invalidations.incrementAndGet();
+            }
+        });
+        _invalidator.setClusterManager(_clusterMgr);
+    }
+
+    @Test
+    public void registersAsNamedDispatcher() {
+        Mockito.verify(_clusterMgr).registerNamedDispatcher(_invalidator);
+    }
+
+    @Test
+    public void invalidatesRightAwayWithoutTransaction() {
+        _invalidator.invalidate("cache");
+
+        assertEquals(2, _invalidations.get());
+        Mockito.verify(_clusterMgr).broadcast(AccountCacheInvalidator.DISPATCHER_NAME, "cache");
+    }
+
+    @Test
+    public void invalidatesAgainAndPublishesOnCommit() {
+        TransactionLegacy txn = TransactionLegacy.open("invalidatesAgainAndPublishesOnCommit");
+        try {
+            txn.start();
+            _invalidator.invalidate("cache");
+
+            assertEquals(1, _invalidations.get());
+            Mockito.verify(_clusterMgr, Mockito.never()).broadcast(Mockito.anyString(), Mockito.anyString());
+
+            txn.commit();
+            assertEquals(2, _invalidations.get());
+            Mockito.verify(_clusterMgr).broadcast(AccountCacheInvalidator.DISPATCHER_NAME, "cache");
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void rollbackDoesNotPublish() {
+        TransactionLegacy txn = TransactionLegacy.open("rollbackDoesNotPublish");
+        try {
+            txn.start();
+            _invalidator.invalidate("cache");
+            txn.rollback();
+        } finally {
+            txn.close();
+        }
+
+        assertEquals(1, _invalidations.get());
+        Mockito.verify(_clusterMgr, Mockito.never()).broadcast(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void appliesPeerInvalidationWithoutPublishing() {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("peer");
+        pdu.setJsonPackage("cache");
+
+        assertNull(_invalidator.dispatch(pdu));
+        assertEquals(1, _invalidations.get());
+        Mockito.verify(_clusterMgr, Mockito.never()).broadcast(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void ignoresUnknownPeerInvalidation() {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setJsonPackage("other");
+
+        assertNull(_invalidator.dispatch(pdu));
+        assertEquals(0, _invalidations.get());
+    }
+}
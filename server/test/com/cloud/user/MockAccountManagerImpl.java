@@ -259,6 +259,15 @@ public class MockAccountManagerImpl extends ManagerBase implements Manager, Acco
         return null;
     }
 
+    @Override
+    public User findUserForRequest(long userId) {
+        return null;
+    }
+
+    @Override
+    public void invalidateAccessDecisions() {
+    }
+
     @Override
     public String[] createApiKeyAndSecretKey(RegisterCmd cmd) {
         return null;
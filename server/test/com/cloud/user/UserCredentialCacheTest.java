@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.utils.Pair;
+
+public class UserCredentialCacheTest {
+
+    private Pair<User, Account> userAccount() {
+        return new Pair<User, Account>(Mockito.mock(User.class), Mockito.mock(Account.class));
+    }
+
+    @Test
+    public void cachesUntilInvalidated() {
+        UserCredentialCache cache = new UserCredentialCache(10, 60000);
+        Pair<User, Account> userAccount = userAccount();
+        cache.putByApiKey("key", userAccount);
+        cache.putByUserId(1L, userAccount.first());
+        assertSame(userAccount, cache.getByApiKey("key"));
+        assertSame(userAccount.first(), cache.getByUserId(1L));
+
+        cache.invalidateAll();
+        assertNull(cache.getByApiKey("key"));
+        assertNull(cache.getByUserId(1L));
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        UserCredentialCache cache = new UserCredentialCache(10, 1);
+        cache.putByApiKey("key", userAccount());
+        Thread.sleep(10);
+        assertNull(cache.getByApiKey("key"));
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsed() {
+        UserCredentialCache cache = new UserCredentialCache(2, 60000);
+        Pair<User, Account> first = userAccount();
+        cache.putByApiKey("first", first);
+        cache.putByApiKey("second", userAccount());
+        cache.getByApiKey("first");
+        cache.putByApiKey("third", userAccount());
+        assertSame(first, cache.getByApiKey("first"));
+        assertNull(cache.getByApiKey("second"));
+    }
+
+    @Test
+    public void disabledWithoutTtl() {
+        UserCredentialCache cache = new UserCredentialCache(10, 0);
+        cache.putByApiKey("key", userAccount());
+        assertNull(cache.getByApiKey("key"));
+    }
+}
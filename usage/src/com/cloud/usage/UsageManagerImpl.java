@@ -21,10 +21,14 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -67,6 +71,7 @@ import com.cloud.usage.parser.LoadBalancerUsageParser;
 import com.cloud.usage.parser.NetworkOfferingUsageParser;
 import com.cloud.usage.parser.NetworkUsageParser;
 import com.cloud.usage.parser.PortForwardingUsageParser;
+import com.cloud.usage.parser.UsageRecordBuffer;
 import com.cloud.usage.parser.SecurityGroupUsageParser;
 import com.cloud.usage.parser.StorageUsageParser;
 import com.cloud.usage.parser.VMInstanceUsageParser;
@@ -81,6 +86,8 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -88,6 +95,7 @@ import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Component
 @Local(value = {UsageManager.class})
@@ -101,6 +109,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private static final int HOURLY_TIME = 60;
     private static final int DAILY_TIME = 60 * 24;
     private static final int THREE_DAYS_IN_MINUTES = 60 * 24 * 3;
+    private static final int ACCOUNTS_PER_PARSE_TASK = 50;
+    private static final int USAGE_RECORD_BATCH_SIZE = 500;
 
     @Inject
     private AccountDao _accountDao;
@@ -149,6 +159,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final Calendar _jobExecTime = Calendar.getInstance();
     private int _aggregationDuration = 0;
     private int _sanityCheckInterval = 0;
+    private int _parseWorkers = 0;
+    private int _eventBatchSize = 1000;
     String _hostname = null;
     int _pid = 0;
     TimeZone _usageTimezone = TimeZone.getTimeZone("GMT");;
@@ -159,6 +171,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Job"));
     private final ScheduledExecutorService _heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-HB"));
     private final ScheduledExecutorService _sanityExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Sanity"));
+    private ExecutorService _parseExecutor = null;
     private Future _scheduledFuture = null;
     private Future _heartbeat = null;
     private Future _sanity = null;
@@ -202,6 +215,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
+        _parseWorkers = NumbersUtil.parseInt(configs.get("usage.parse.workers"), 0);
+        _eventBatchSize = Math.max(NumbersUtil.parseInt(configs.get("usage.event.batch.size"), 1000), 1);
 
         if (aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()) {
             _usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
@@ -277,6 +292,11 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             _sanity = _sanityExecutor.scheduleAtFixedRate(new SanityCheck(), 1, _sanityCheckInterval, TimeUnit.DAYS);
         }
 
+        if (_parseWorkers > 1) {
+            _parseExecutor = Executors.newFixedThreadPool(_parseWorkers, new NamedThreadFactory("Usage-Parse"));
+            s_logger.info("Parsing usage with " + _parseWorkers + " workers");
+        }
+
         TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
         try {
             if (_heartbeatLock.lock(3)) { // 3 second timeout
@@ -306,6 +326,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (_sanity != null) {
             _sanity.cancel(true);
         }
+        if (_parseExecutor != null) {
+            _parseExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -407,6 +430,12 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 startDateMillis = lastSuccess + 1; // 1 millisecond after
             }
 
+            // a run of this job that did not get through may have processed events older than that, it recorded
+            // the start it moved back to for them with its first batch of events
+            if ((job.getStartMillis() != 0) && (job.getStartMillis() < startDateMillis)) {
+                startDateMillis = job.getStartMillis();
+            }
+
             if (startDateMillis >= endDateMillis) {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("not parsing usage records since start time mills (" + startDateMillis + ") is on or after end time millis (" + endDateMillis + ")");
@@ -574,16 +603,17 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 userTxn.close();
             }
 
-            // TODO:  Fetch a maximum number of events and process them before moving on to the next range of events
-
-            // - get a list of the latest events
             // - insert the latest events into the usage.events table
-            List<UsageEventVO> events = _usageEventDao.getRecentEvents(new Date(endDateMillis));
+            _usageEventDao.copyRecentEvents(new Date(endDateMillis));
 
             TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+            long checkpointMillis = 0;
             try {
                 usageTxn.start();
 
+                // - get the un-processed events in batches, oldest first
+                List<UsageEventVO> events = _usageEventDao.listLatestEvents(new Date(endDateMillis), _eventBatchSize);
+
                 // make sure start date is before all of our un-processed events (the events are ordered oldest
                 // to newest, so just test against the first event)
                 if ((events != null) && (events.size() > 0)) {
@@ -592,14 +622,36 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         startDateMillis = oldestEventDate.getTime();
                         startDate = new Date(startDateMillis);
                     }
+                }
 
-                    // - loop over the list of events and create entries in the helper tables
-                    // - create the usage records using the parse methods below
+                // - loop over the events and create entries in the helper tables
+                // - each batch is committed with its events marked as processed, so a job that does not
+                //   get through resumes after the last committed batch instead of starting over
+                // - create the usage records using the parse methods below
+                long eventsStart = System.currentTimeMillis();
+                int numEventsProcessed = 0;
+                while ((events != null) && !events.isEmpty()) {
+                    if (numEventsProcessed == 0) {
+                        // once the events are marked as processed they no longer move the start back, keep it on the job
+                        _usageJobDao.updateJobStart(job.getId(), startDateMillis);
+                    }
                     for (UsageEventVO event : events) {
                         event.setProcessed(true);
                         _usageEventDao.update(event.getId(), event);
                         createHelperRecord(event);
                     }
+                    numEventsProcessed += events.size();
+                    usageTxn.commit();
+                    usageTxn.start();
+
+                    if (events.size() < _eventBatchSize) {
+                        break;
+                    }
+                    events = _usageEventDao.listLatestEvents(new Date(endDateMillis), _eventBatchSize);
+                }
+
+                if (s_logger.isInfoEnabled()) {
+                    s_logger.info("Processed " + numEventsProcessed + " usage events in " + (System.currentTimeMillis() - eventsStart) + "ms");
                 }
 
                 // TODO:  Fetch a maximum number of user stats and process them before moving on to the next range of user stats
@@ -711,6 +763,10 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                 boolean parsed = false;
                 numAcctsProcessed = 0;
+                Map<HelperParser, LatencyHistogram> timings = new EnumMap<HelperParser, LatencyHistogram>(HelperParser.class);
+                for (HelperParser parser : HelperParser.values()) {
+                    timings.put(parser, new LatencyHistogram());
+                }
 
                 Date currentStartDate = startDate;
                 Date currentEndDate = endDate;
@@ -726,6 +782,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 }
 
                 while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
+                    long rangeStart = System.currentTimeMillis();
                     Long offset = Long.valueOf(0);
                     Long limit = Long.valueOf(500);
 
@@ -733,9 +790,14 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
                         accounts = _accountDao.listAll(filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
+                            if (_parseExecutor != null) {
+                                parsed = parseHelperTables(accounts, currentStartDate, currentEndDate, timings);
+                                numAcctsProcessed += accounts.size();
+                            } else {
+                                for (AccountVO account : accounts) {
+                                    parsed = parseHelperTables(account, currentStartDate, currentEndDate, timings);
+                                    numAcctsProcessed++;
+                                }
                             }
                         }
                         offset = new Long(offset.longValue() + limit.longValue());
@@ -755,8 +817,13 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
 
                         if ((accounts != null) && !accounts.isEmpty()) {
+                            if (_parseExecutor != null) {
+                                parsed = parseHelperTables(accounts, currentStartDate, currentEndDate, timings);
+                            }
                             for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
+                                if (_parseExecutor == null) {
+                                    parsed = parseHelperTables(account, currentStartDate, currentEndDate, timings);
+                                }
                                 List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
                                 for (Long templateId : publicTemplates) {
                                     //mark public templates owned by deleted accounts as deleted
@@ -779,6 +846,25 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
 
+                    // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
+                    //        do we want to break out of processing accounts and rollback if there are errors?
+                    if (!parsed) {
+                        usageTxn.rollback();
+                        break;
+                    }
+
+                    // commit the usage records of the range together with the job's checkpoint, a job that
+                    // fails later on resumes from the next range; the parse workers also need the templates
+                    // of deleted accounts marked as deleted committed to see them in the next range
+                    checkpointMillis = Math.min(currentEndDate.getTime(), endDateMillis);
+                    _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, checkpointMillis, System.currentTimeMillis() - timeStart, true);
+                    usageTxn.commit();
+                    usageTxn.start();
+
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Parsed usage between " + currentStartDate + " and " + currentEndDate + " in " + (System.currentTimeMillis() - rangeStart) + "ms");
+                    }
+
                     currentStartDate = new Date(currentEndDate.getTime() + 1);
                     aggregateCal.setTime(currentEndDate);
                     aggregateCal.add(Calendar.MINUTE, _aggregationDuration);
@@ -789,19 +875,27 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
                 }
 
-                // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
-                //        do we want to break out of processing accounts and rollback if there are errors?
-                if (!parsed) {
-                    usageTxn.rollback();
-                } else {
+                if (s_logger.isInfoEnabled()) {
+                    for (Map.Entry<HelperParser, LatencyHistogram> timing : timings.entrySet()) {
+                        s_logger.info("Parsed " + timing.getKey().getDescription() + " in " + timing.getValue().getSum() + "ms, per account: " + timing.getValue());
+                    }
+                }
+
+                if (parsed) {
                     success = true;
                 }
             } catch (Exception ex) {
                 s_logger.error("Exception in usage manager", ex);
                 usageTxn.rollback();
             } finally {
-                // everything seemed to work...set endDate as the last success date
-                _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, endDateMillis, System.currentTimeMillis() - timeStart, success);
+                if (!success && checkpointMillis != 0) {
+                    // keep the ranges that were committed, the next job starts after the last one
+                    s_logger.warn("Usage job " + job.getId() + " failed, the usage up to " + new Date(checkpointMillis) + " is kept");
+                    _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, checkpointMillis, System.currentTimeMillis() - timeStart, true);
+                } else {
+                    // everything seemed to work...set endDate as the last success date
+                    _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, endDateMillis, System.currentTimeMillis() - timeStart, success);
+                }
 
                 // create a new job if this is a recurring job
                 if (job.getJobType() == UsageJobVO.JOB_TYPE_RECURRING) {
@@ -826,91 +920,241 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
+    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate, Map<HelperParser, LatencyHistogram> timings) {
         boolean parsed = false;
-
-        parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        for (HelperParser parser : HelperParser.values()) {
+            parsed = parseHelperTable(parser, account, currentStartDate, currentEndDate, timings);
         }
+        return parsed;
+    }
+
+    private static boolean parseHelperTable(HelperParser parser, AccountVO account, Date currentStartDate, Date currentEndDate,
+            Map<HelperParser, LatencyHistogram> timings) {
+        long startTime = System.currentTimeMillis();
+        boolean parsed = parser.parse(account, currentStartDate, currentEndDate);
+        timings.get(parser).record(System.currentTimeMillis() - startTime);
 
-        parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
-                s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+                s_logger.debug(parser.getDescription() + " successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        return parsed;
+    }
 
-        parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    /**
+     * Parses the accounts on the parse workers, each task runs one of the
+     * independent parsers for a slice of the accounts.  The usage records
+     * are saved on this thread, in batches, in the order the accounts are
+     * parsed one at a time.
+     */
+    private boolean parseHelperTables(List<AccountVO> accounts, Date currentStartDate, Date currentEndDate, Map<HelperParser, LatencyHistogram> timings) {
+        List<Map<HelperParser, Future<List<ParsedAccount>>>> slices = new ArrayList<Map<HelperParser, Future<List<ParsedAccount>>>>();
+        for (int i = 0; i < accounts.size(); i += ACCOUNTS_PER_PARSE_TASK) {
+            List<AccountVO> slice = accounts.subList(i, Math.min(i + ACCOUNTS_PER_PARSE_TASK, accounts.size()));
+            Map<HelperParser, Future<List<ParsedAccount>>> futures = new EnumMap<HelperParser, Future<List<ParsedAccount>>>(HelperParser.class);
+            for (HelperParser parser : HelperParser.values()) {
+                if (parser.isIndependent()) {
+                    futures.put(parser, _parseExecutor.submit(new HelperParseTask(parser, slice, currentStartDate, currentEndDate, timings)));
+                }
             }
+            slices.add(futures);
         }
 
-        parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        boolean parsed = false;
+        List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+        UsageRecordBuffer.start();
+        try {
+            for (int i = 0; i < slices.size(); i++) {
+                Map<HelperParser, List<ParsedAccount>> results = new EnumMap<HelperParser, List<ParsedAccount>>(HelperParser.class);
+                for (Map.Entry<HelperParser, Future<List<ParsedAccount>>> future : slices.get(i).entrySet()) {
+                    results.put(future.getKey(), future.getValue().get());
+                }
+
+                List<AccountVO> slice = accounts.subList(i * ACCOUNTS_PER_PARSE_TASK, Math.min((i + 1) * ACCOUNTS_PER_PARSE_TASK, accounts.size()));
+                for (int j = 0; j < slice.size(); j++) {
+                    for (HelperParser parser : HelperParser.values()) {
+                        if (parser.isIndependent()) {
+                            ParsedAccount result = results.get(parser).get(j);
+                            parsed = result.isParsed();
+                            usageRecords.addAll(result.getUsageRecords());
+                        } else {
+                            parsed = parseHelperTable(parser, slice.get(j), currentStartDate, currentEndDate, timings);
+                            usageRecords.addAll(UsageRecordBuffer.drain());
+                        }
+                    }
+
+                    if (usageRecords.size() >= USAGE_RECORD_BATCH_SIZE) {
+                        _usageDao.saveUsageRecords(usageRecords);
+                        usageRecords.clear();
+                    }
+                }
+            }
+            if (!usageRecords.isEmpty()) {
+                _usageDao.saveUsageRecords(usageRecords);
+            }
+        } catch (InterruptedException e) {
+            throw new CloudRuntimeException("Interrupted while parsing usage", e);
+        } catch (ExecutionException e) {
+            throw new CloudRuntimeException("Unable to parse usage", e.getCause());
+        } finally {
+            UsageRecordBuffer.stop();
+            for (Map<HelperParser, Future<List<ParsedAccount>>> futures : slices) {
+                for (Future<List<ParsedAccount>> future : futures.values()) {
+                    future.cancel(true);
+                }
             }
         }
+        return parsed;
+    }
 
-        parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    /**
+     * The parsers, in the order they run for an account.  The independent
+     * ones only read their helper table and can run on the parse workers,
+     * the others also update it and run on the usage job thread.
+     */
+    private enum HelperParser {
+        VM_INSTANCE("vm usage instances", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return VMInstanceUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        NETWORK("network usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return NetworkUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        VM_DISK("vm disk usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return VmDiskUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        VOLUME("volume usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return VolumeUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        STORAGE("storage usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return StorageUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        SECURITY_GROUP("Security Group usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return SecurityGroupUsageParser.parse(account, startDate, endDate);
             }
+        },
+        LOAD_BALANCER("load balancer usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return LoadBalancerUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        PORT_FORWARDING("port forwarding usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return PortForwardingUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        NETWORK_OFFERING("network offering usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return NetworkOfferingUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        IP_ADDRESS("IPAddress usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return IPAddressUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        VPN_USER("VPN user usage", true) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return VPNUserUsageParser.parse(account, startDate, endDate);
+            }
+        },
+        VM_SNAPSHOT("VM Snapshot usage", false) {
+            @Override
+            boolean parse(AccountVO account, Date startDate, Date endDate) {
+                return VMSnapshotUsageParser.parse(account, startDate, endDate);
+            }
+        };
+
+        private final String _description;
+        private final boolean _independent;
+
+        private HelperParser(String description, boolean independent) {
+            _description = description;
+            _independent = independent;
         }
 
-        parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        public String getDescription() {
+            return _description;
         }
 
-        parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        public boolean isIndependent() {
+            return _independent;
         }
 
-        parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        abstract boolean parse(AccountVO account, Date startDate, Date endDate);
+    }
+
+    private static class ParsedAccount {
+        private final boolean _parsed;
+        private final List<UsageVO> _usageRecords;
+
+        public ParsedAccount(boolean parsed, List<UsageVO> usageRecords) {
+            _parsed = parsed;
+            _usageRecords = usageRecords;
         }
 
-        parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        public boolean isParsed() {
+            return _parsed;
         }
 
-        parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        public List<UsageVO> getUsageRecords() {
+            return _usageRecords;
         }
-        parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+    }
+
+    private static class HelperParseTask implements Callable<List<ParsedAccount>> {
+        private final HelperParser _parser;
+        private final List<AccountVO> _accounts;
+        private final Date _startDate;
+        private final Date _endDate;
+        private final Map<HelperParser, LatencyHistogram> _timings;
+
+        public HelperParseTask(HelperParser parser, List<AccountVO> accounts, Date startDate, Date endDate, Map<HelperParser, LatencyHistogram> timings) {
+            _parser = parser;
+            _accounts = accounts;
+            _startDate = startDate;
+            _endDate = endDate;
+            _timings = timings;
         }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+
+        @Override
+        public List<ParsedAccount> call() {
+            List<ParsedAccount> results = new ArrayList<ParsedAccount>(_accounts.size());
+            TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+            UsageRecordBuffer.start();
+            try {
+                for (AccountVO account : _accounts) {
+                    boolean parsed = parseHelperTable(_parser, account, _startDate, _endDate, _timings);
+                    results.add(new ParsedAccount(parsed, UsageRecordBuffer.drain()));
+                }
+            } finally {
+                UsageRecordBuffer.stop();
+                txn.close();
             }
+            return results;
         }
-        return parsed;
     }
 
     private void createHelperRecord(UsageEventVO event) {
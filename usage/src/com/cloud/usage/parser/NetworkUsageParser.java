@@ -136,7 +136,7 @@ public class NetworkUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        UsageRecordBuffer.saveAll(s_usageDao, usageRecords);
 
         return true;
     }
@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.usage.UsageVO;
+import com.cloud.usage.dao.UsageDao;
+
+/**
+ * Holds on to the usage records the parsers create on the current thread
+ * instead of saving them right away, so the caller can save them later in
+ * batches and in an order of its choosing.  Without a buffer started on the
+ * thread the records are saved as they are created.
+ */
+public class UsageRecordBuffer {
+    private static final ThreadLocal<List<UsageVO>> s_records = new ThreadLocal<List<UsageVO>>();
+
+    private UsageRecordBuffer() {
+    }
+
+    public static void start() {
+        s_records.set(new ArrayList<UsageVO>());
+    }
+
+    /**
+     * @return the records created since the buffer was started or last drained
+     */
+    public static List<UsageVO> drain() {
+        List<UsageVO> records = s_records.get();
+        if (records == null) {
+            return new ArrayList<UsageVO>();
+        }
+        s_records.set(new ArrayList<UsageVO>());
+        return records;
+    }
+
+    public static void stop() {
+        s_records.remove();
+    }
+
+    static void save(UsageDao usageDao, UsageVO usageRecord) {
+        List<UsageVO> records = s_records.get();
+        if (records != null) {
+            records.add(usageRecord);
+        } else {
+            usageDao.persist(usageRecord);
+        }
+    }
+
+    static void saveAll(UsageDao usageDao, List<UsageVO> usageRecords) {
+        List<UsageVO> records = s_records.get();
+        if (records != null) {
+            records.addAll(usageRecords);
+        } else {
+            usageDao.saveUsageRecords(usageRecords);
+        }
+    }
+}
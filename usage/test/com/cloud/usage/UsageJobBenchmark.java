@@ -0,0 +1,227 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.alert.AlertManager;
+import com.cloud.event.EventTypes;
+import com.cloud.event.UsageEventVO;
+import com.cloud.event.dao.UsageEventDao;
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.dao.UsageJobDao;
+import com.cloud.user.AccountVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.db.Filter;
+
+/**
+ * Replays a synthetic month of usage events through UsageManagerImpl.parse()
+ * on mocked daos and reports the job time, the hourly ranges parsed and the
+ * most events committed in one transaction, once for a clean month and once
+ * for a job that dies half way and is run again.  "before" processes all the
+ * events in one transaction and only keeps a job that got through, "after"
+ * commits the events in batches and keeps the ranges parsed up to the
+ * failure.  Not run as part of the build, start it with
+ *   mvn -pl usage test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.cloud.usage.UsageJobBenchmark
+ * and optionally pass the number of accounts and of days.
+ */
+public class UsageJobBenchmark {
+    private static final long HOUR = 3600000L;
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+        long end = System.currentTimeMillis() / HOUR * HOUR - 1;
+        long start = end - days * 24 * HOUR + 1;
+
+        new Replay(accounts, start, end, false).run(-1);
+
+        System.out.println(String.format("%d accounts, %d days, %d events", accounts, days, 4 * accounts * days));
+        System.out.println(String.format("%-26s %10s %8s %16s", "", "job ms", "ranges", "events per txn"));
+        int crashAt = days * 24 / 2;
+        for (boolean checkpointing : new boolean[] {false, true}) {
+            String mode = checkpointing ? "after" : "before";
+            print("one pass, " + mode, new Replay(accounts, start, end, checkpointing).run(-1));
+            print("crash at day " + (days / 2) + ", " + mode, new Replay(accounts, start, end, checkpointing).run(crashAt));
+        }
+    }
+
+    private static void print(String name, Replay replay) {
+        System.out.println(String.format("%-26s %10d %8d %16d", name, replay._elapsed / 1000000, replay._ranges, replay._largestBatch));
+    }
+
+    private static class Replay {
+        private final UsageManagerImpl _mgr;
+        private final List<AccountVO> _accounts = new ArrayList<AccountVO>();
+        private final List<UsageEventVO> _events = new ArrayList<UsageEventVO>();
+        private final long _start;
+        private final long _end;
+        private final boolean _checkpointing;
+        private long _lastSuccess;
+        private int _crashAtRange = -1;
+        private int _ranges;
+        private int _largestBatch;
+        private long _elapsed;
+
+        Replay(int accounts, long start, long end, boolean checkpointing) throws Exception {
+            _start = start;
+            _end = end;
+            _checkpointing = checkpointing;
+            _lastSuccess = start - 1;
+
+            // every account creates two volumes each day and deletes them some hours later
+            for (long id = 1; id <= accounts; id++) {
+                _accounts.add(UsageSamples.account(id));
+            }
+            for (long day = start; day < end; day += 24 * HOUR) {
+                for (long id = 1; id <= accounts; id++) {
+                    long resourceId = (day / HOUR * 1000 + id) * 2;
+                    long created = day + id * 60000;
+                    _events.add(event(EventTypes.EVENT_VOLUME_CREATE, id, resourceId, created));
+                    _events.add(event(EventTypes.EVENT_VOLUME_CREATE, id, resourceId + 1, created + 1000));
+                    _events.add(event(EventTypes.EVENT_VOLUME_DELETE, id, resourceId + 1, created + 5 * HOUR));
+                    _events.add(event(EventTypes.EVENT_VOLUME_DELETE, id, resourceId, created + 6 * HOUR));
+                }
+            }
+            Collections.sort(_events, new Comparator<UsageEventVO>() {
+                @Override
+                public int compare(UsageEventVO a, UsageEventVO b) {
+                    return a.getCreateDate().compareTo(b.getCreateDate());
+                }
+            });
+
+            UsageDao usageDao = Mockito.mock(UsageDao.class);
+            UsageSamples.mockParserDaos(usageDao);
+            _mgr = UsageSamples.newManager(usageDao);
+            UsageSamples.set(_mgr, "_usageJobDao", jobDao());
+            UsageSamples.set(_mgr, "_usageEventDao", eventDao());
+            UsageSamples.set(_mgr, "_accountDao", accountDao());
+            UsageSamples.set(_mgr, "_alertMgr", Mockito.mock(AlertManager.class));
+            UsageSamples.set(_mgr, "_aggregationDuration", 60);
+            UsageSamples.set(_mgr, "_eventBatchSize", checkpointing ? 1000 : _events.size());
+        }
+
+        Replay run(int crashAtRange) {
+            _crashAtRange = crashAtRange;
+            parse();
+            if (crashAtRange > 0) {
+                if (!_checkpointing) {
+                    // the events were rolled back with the rest of the job
+                    for (UsageEventVO event : _events) {
+                        event.setProcessed(false);
+                    }
+                }
+                parse();
+            }
+            return this;
+        }
+
+        private void parse() {
+            UsageJobVO job = new UsageJobVO();
+            job.setId(1L);
+            long before = System.nanoTime();
+            _mgr.parse(job, _start, _end);
+            _elapsed += System.nanoTime() - before;
+        }
+
+        private static UsageEventVO event(String type, long accountId, long resourceId, long created) {
+            UsageEventVO event = new UsageEventVO(type, accountId, 1, resourceId, "resource-" + resourceId, 2L, 3L, 1024L);
+            event.setCreatedDate(new Date(created));
+            return event;
+        }
+
+        private UsageJobDao jobDao() {
+            UsageJobDao jobDao = Mockito.mock(UsageJobDao.class);
+            Mockito.when(jobDao.getLastJobSuccessDateMillis()).thenAnswer(new Answer<Long>() {
+                @Override
+                public Long answer(InvocationOnMock invocation) {
+                    return _lastSuccess;
+                }
+            });
+            Mockito.doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    long endMillis = (Long)invocation.getArguments()[2];
+                    boolean success = (Boolean)invocation.getArguments()[4];
+                    // without checkpoints only a job that got to the end of the month counts
+                    if (success && (_checkpointing || endMillis >= _end)) {
+                        _lastSuccess = Math.max(_lastSuccess, endMillis);
+                    }
+                    return null;
+                }
+            }).when(jobDao).updateJobSuccess(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong(), Mockito.anyBoolean());
+            return jobDao;
+        }
+
+        private UsageEventDao eventDao() {
+            UsageEventDao eventDao = Mockito.mock(UsageEventDao.class);
+            Mockito.when(eventDao.listLatestEvents(Mockito.any(Date.class), Mockito.anyLong())).thenAnswer(new Answer<List<UsageEventVO>>() {
+                @Override
+                public List<UsageEventVO> answer(InvocationOnMock invocation) {
+                    Date endDate = (Date)invocation.getArguments()[0];
+                    long limit = (Long)invocation.getArguments()[1];
+                    List<UsageEventVO> batch = new ArrayList<UsageEventVO>();
+                    for (UsageEventVO event : _events) {
+                        if (batch.size() >= limit) {
+                            break;
+                        }
+                        if (!event.isProcessed() && !event.getCreateDate().after(endDate)) {
+                            batch.add(event);
+                        }
+                    }
+                    _largestBatch = Math.max(_largestBatch, batch.size());
+                    return batch;
+                }
+            });
+            return eventDao;
+        }
+
+        private AccountDao accountDao() {
+            AccountDao accountDao = Mockito.mock(AccountDao.class, Mockito.RETURNS_MOCKS);
+            Mockito.when(accountDao.listAll(Mockito.any(Filter.class))).thenAnswer(new Answer<List<AccountVO>>() {
+                @Override
+                public List<AccountVO> answer(InvocationOnMock invocation) {
+                    Filter filter = (Filter)invocation.getArguments()[0];
+                    if (filter.getOffset() != 0) {
+                        return new ArrayList<AccountVO>();
+                    }
+                    if (++_ranges == _crashAtRange) {
+                        _crashAtRange = -1;
+                        throw new RuntimeException("usage server went away");
+                    }
+                    return _accounts;
+                }
+            });
+            Mockito.when(accountDao.findByIdIncludingRemoved(Mockito.anyLong())).thenAnswer(new Answer<AccountVO>() {
+                @Override
+                public AccountVO answer(InvocationOnMock invocation) {
+                    return _accounts.get(((Long)invocation.getArguments()[0]).intValue() - 1);
+                }
+            });
+            return accountDao;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.apache.cloudstack.usage.UsageTypes;
+
+import com.cloud.alert.AlertManager;
+import com.cloud.event.UsageEventVO;
+import com.cloud.event.dao.UsageEventDao;
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.dao.UsageIPAddressDao;
+import com.cloud.usage.dao.UsageJobDao;
+import com.cloud.usage.dao.UsageVMInstanceDao;
+import com.cloud.usage.dao.UsageVolumeDao;
+import com.cloud.usage.parser.IPAddressUsageParser;
+import com.cloud.usage.parser.VMInstanceUsageParser;
+import com.cloud.usage.parser.VolumeUsageParser;
+import com.cloud.user.AccountVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class UsageManagerImplTest {
+    private static final Date RANGE_START = new Date(1400000000000L);
+    private static final Date RANGE_END = new Date(RANGE_START.getTime() + 3600000L - 1);
+
+    private UsageManagerImpl _mgr;
+    private UsageDao _usageDao;
+    private final List<UsageVO> _saved = Collections.synchronizedList(new ArrayList<UsageVO>());
+    private ExecutorService _parseExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        _usageDao = Mockito.mock(UsageDao.class);
+        Mockito.when(_usageDao.persist(Mockito.any(UsageVO.class))).thenAnswer(new Answer<UsageVO>() {
+            @Override
+            public UsageVO answer(InvocationOnMock invocation) {
+                UsageVO record = (UsageVO)invocation.getArguments()[0];
+                _saved.add(record);
+                return record;
+            }
+        });
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) {
+                _saved.addAll((List<UsageVO>)invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(_usageDao).saveUsageRecords(Mockito.anyListOf(UsageVO.class));
+
+        UsageSamples.mockParserDaos(_usageDao);
+        _mgr = UsageSamples.newManager(_usageDao);
+    }
+
+    @After
+    public void tearDown() {
+        if (_parseExecutor != null) {
+            _parseExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelParseMatchesSequentialParse() throws Throwable {
+        List<AccountVO> accounts = new ArrayList<AccountVO>();
+        for (long id = 1; id <= 120; id++) {
+            accounts.add(UsageSamples.account(id));
+
+            Date created = new Date(RANGE_START.getTime() - id * 1000);
+            if (id % 3 == 0) {
+                Mockito.when(UsageSamples.parserDao(VolumeUsageParser.class, UsageVolumeDao.class).getUsageRecords(id, 1L, RANGE_START, RANGE_END, false, 0)).thenReturn(
+                    Arrays.asList(new UsageVolumeVO(id * 10, 1, id, 1, 2L, null, id * 1024, created, null),
+                        new UsageVolumeVO(id * 10 + 1, 1, id, 1, 2L, null, 2048, created, new Date(RANGE_START.getTime() + id * 1000))));
+            }
+            if (id % 4 == 0) {
+                Mockito.when(UsageSamples.parserDao(VMInstanceUsageParser.class, UsageVMInstanceDao.class).getUsageRecords(id, RANGE_START, RANGE_END)).thenReturn(
+                    Arrays.asList(new UsageVMInstanceVO(UsageTypes.RUNNING_VM, 1, id, id * 10, "vm-" + id, 3, 4, "KVM", created, null),
+                        new UsageVMInstanceVO(UsageTypes.ALLOCATED_VM, 1, id, id * 10, "vm-" + id, 3, 4, "KVM", created, null)));
+            }
+            if (id % 5 == 0) {
+                Mockito.when(UsageSamples.parserDao(IPAddressUsageParser.class, UsageIPAddressDao.class).getUsageRecords(id, 1L, RANGE_START, RANGE_END)).thenReturn(
+                    Arrays.asList(new UsageIPAddressVO(id * 10, id, 1, 1, "10.0.0." + id, false, false, created, null)));
+            }
+        }
+
+        Method sequential = UsageManagerImpl.class.getDeclaredMethod("parseHelperTables", AccountVO.class, Date.class, Date.class, Map.class);
+        sequential.setAccessible(true);
+        for (AccountVO account : accounts) {
+            assertTrue((Boolean)invoke(sequential, account, RANGE_START, RANGE_END, timings()));
+        }
+        List<String> sequentialRecords = describe(_saved);
+        _saved.clear();
+
+        _parseExecutor = Executors.newFixedThreadPool(4);
+        UsageSamples.set(_mgr, "_parseExecutor", _parseExecutor);
+        Method parallel = UsageManagerImpl.class.getDeclaredMethod("parseHelperTables", List.class, Date.class, Date.class, Map.class);
+        parallel.setAccessible(true);
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try {
+            assertTrue((Boolean)invoke(parallel, accounts, RANGE_START, RANGE_END, timings()));
+        } finally {
+            txn.close();
+        }
+        List<String> parallelRecords = describe(_saved);
+
+        // 40 accounts with two volumes, 30 with a running and an allocated vm and 24 with an ip address
+        assertEquals(40 * 2 + 30 * 2 + 24, sequentialRecords.size());
+        assertEquals(sequentialRecords, parallelRecords);
+    }
+
+    @Test
+    public void testResumedJobStartsWhereFailedJobMovedBack() throws Throwable {
+        UsageJobDao jobDao = Mockito.mock(UsageJobDao.class);
+        UsageEventDao eventDao = Mockito.mock(UsageEventDao.class);
+        AccountDao accountDao = Mockito.mock(AccountDao.class, Mockito.RETURNS_MOCKS);
+        UsageSamples.set(_mgr, "_usageJobDao", jobDao);
+        UsageSamples.set(_mgr, "_usageEventDao", eventDao);
+        UsageSamples.set(_mgr, "_accountDao", accountDao);
+        UsageSamples.set(_mgr, "_alertMgr", Mockito.mock(AlertManager.class));
+        UsageSamples.set(_mgr, "_aggregationDuration", 60);
+        UsageSamples.set(_mgr, "_eventBatchSize", 2);
+
+        long now = System.currentTimeMillis();
+        long lastSuccess = now - 3 * 3600000L;
+        long oldestEvent = lastSuccess - 2 * 3600000L;
+        Mockito.when(jobDao.getLastJobSuccessDateMillis()).thenReturn(lastSuccess);
+        UsageJobVO job = new UsageJobVO();
+        job.setId(7L);
+
+        // the first batch of events is processed and committed, then the job dies
+        UsageEventVO first = new UsageEventVO("TEST.EVENT", 1, 1, 1, "first");
+        first.setCreatedDate(new Date(oldestEvent));
+        UsageEventVO second = new UsageEventVO("TEST.EVENT", 1, 1, 2, "second");
+        second.setCreatedDate(new Date(oldestEvent + 1000));
+        Mockito.when(eventDao.listLatestEvents(Mockito.any(Date.class), Mockito.eq(2L))).thenReturn(Arrays.asList(first, second)).thenThrow(
+            new RuntimeException("usage server went away"));
+        _mgr.parse(job, lastSuccess + 1, now - 3600000L);
+
+        InOrder order = Mockito.inOrder(jobDao, eventDao);
+        order.verify(jobDao).updateJobStart(7L, oldestEvent);
+        order.verify(eventDao, Mockito.times(2)).update(Mockito.anyLong(), Mockito.any(UsageEventVO.class));
+
+        // the job is picked up again with its row as it was committed, the processed events are gone
+        job.setStartMillis(oldestEvent);
+        Mockito.reset(eventDao);
+        Mockito.when(eventDao.listLatestEvents(Mockito.any(Date.class), Mockito.eq(2L))).thenReturn(new ArrayList<UsageEventVO>());
+        final AccountVO account = UsageSamples.account(1);
+        Mockito.when(accountDao.listAll(Mockito.any(Filter.class))).thenAnswer(new Answer<List<AccountVO>>() {
+            @Override
+            public List<AccountVO> answer(InvocationOnMock invocation) {
+                Filter filter = (Filter)invocation.getArguments()[0];
+                return filter.getOffset() == 0 ? Arrays.asList(account) : new ArrayList<AccountVO>();
+            }
+        });
+        _mgr.parse(job, lastSuccess + 1, now - 3600000L);
+
+        Mockito.verify(jobDao, Mockito.atLeastOnce()).updateJobSuccess(Mockito.eq(7L), Mockito.eq(oldestEvent), Mockito.anyLong(), Mockito.anyLong(), Mockito.eq(true));
+        Mockito.verify(jobDao, Mockito.never()).updateJobSuccess(Mockito.eq(7L), Mockito.eq(lastSuccess + 1), Mockito.anyLong(), Mockito.anyLong(),
+            Mockito.anyBoolean());
+    }
+
+    private Object timings() throws Exception {
+        Class<?> helperParser = Class.forName(UsageManagerImpl.class.getName() + "$HelperParser");
+        return newTimings(helperParser);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map newTimings(Class helperParser) {
+        Map timings = new EnumMap(helperParser);
+        for (Object parser : helperParser.getEnumConstants()) {
+            timings.put(parser, new LatencyHistogram());
+        }
+        return timings;
+    }
+
+    private static List<String> describe(List<UsageVO> records) throws Exception {
+        List<String> described = new ArrayList<String>();
+        for (UsageVO record : records) {
+            StringBuilder sb = new StringBuilder();
+            for (Field field : UsageVO.class.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    sb.append(field.getName()).append('=').append(field.get(record)).append(' ');
+                }
+            }
+            described.add(sb.toString());
+        }
+        return described;
+    }
+
+    private Object invoke(Method method, Object... args) throws Throwable {
+        try {
+            return method.invoke(_mgr, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.mockito.Mockito;
+
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.parser.IPAddressUsageParser;
+import com.cloud.usage.parser.LoadBalancerUsageParser;
+import com.cloud.usage.parser.NetworkOfferingUsageParser;
+import com.cloud.usage.parser.NetworkUsageParser;
+import com.cloud.usage.parser.PortForwardingUsageParser;
+import com.cloud.usage.parser.SecurityGroupUsageParser;
+import com.cloud.usage.parser.StorageUsageParser;
+import com.cloud.usage.parser.VMInstanceUsageParser;
+import com.cloud.usage.parser.VMSnapshotUsageParser;
+import com.cloud.usage.parser.VPNUserUsageParser;
+import com.cloud.usage.parser.VmDiskUsageParser;
+import com.cloud.usage.parser.VolumeUsageParser;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+
+/**
+ * Wires UsageManagerImpl and the usage parsers to mocked daos, shared by
+ * UsageManagerImplTest and UsageJobBenchmark.
+ */
+public class UsageSamples {
+    private static final Class<?>[] PARSERS = {VMInstanceUsageParser.class, NetworkUsageParser.class, VmDiskUsageParser.class, VolumeUsageParser.class,
+        StorageUsageParser.class, SecurityGroupUsageParser.class, LoadBalancerUsageParser.class, PortForwardingUsageParser.class,
+        NetworkOfferingUsageParser.class, IPAddressUsageParser.class, VPNUserUsageParser.class, VMSnapshotUsageParser.class};
+
+    private UsageSamples() {
+    }
+
+    /**
+     * Gives every parser usageDao and a mock of each of its other daos.
+     */
+    public static void mockParserDaos(UsageDao usageDao) throws Exception {
+        for (Class<?> parser : PARSERS) {
+            for (Field field : parser.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) && field.getName().startsWith("s_") && field.getType().isInterface()) {
+                    field.setAccessible(true);
+                    field.set(null, field.getType() == UsageDao.class ? usageDao : Mockito.mock(field.getType(), Mockito.RETURNS_MOCKS));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the dao of daoType the parser was given
+     */
+    public static <T> T parserDao(Class<?> parser, Class<T> daoType) throws Exception {
+        for (Field field : parser.getDeclaredFields()) {
+            if (field.getType() == daoType && Modifier.isStatic(field.getModifiers())) {
+                field.setAccessible(true);
+                return daoType.cast(field.get(null));
+            }
+        }
+        throw new IllegalArgumentException(parser + " has no " + daoType);
+    }
+
+    /**
+     * Gives the manager usageDao and a mock of each of its other daos.
+     */
+    public static UsageManagerImpl newManager(UsageDao usageDao) throws Exception {
+        UsageManagerImpl mgr = new UsageManagerImpl();
+        for (Field field : UsageManagerImpl.class.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && field.getType().isInterface() && field.getName().endsWith("Dao")) {
+                set(mgr, field.getName(), field.getType() == UsageDao.class ? usageDao : Mockito.mock(field.getType(), Mockito.RETURNS_MOCKS));
+            }
+        }
+        return mgr;
+    }
+
+    public static AccountVO account(long id) {
+        AccountVO account = new AccountVO("account" + id, 1, null, Account.ACCOUNT_TYPE_NORMAL, "uuid-" + id);
+        account.setId(id);
+        return account;
+    }
+
+    public static void set(UsageManagerImpl mgr, String name, Object value) throws Exception {
+        Field field = UsageManagerImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mgr, value);
+    }
+}
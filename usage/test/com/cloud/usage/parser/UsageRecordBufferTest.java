@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.usage.UsageVO;
+import com.cloud.usage.dao.UsageDao;
+
+public class UsageRecordBufferTest {
+
+    @After
+    public void tearDown() {
+        UsageRecordBuffer.stop();
+    }
+
+    @Test
+    public void testSavedWithoutBuffer() {
+        UsageDao usageDao = Mockito.mock(UsageDao.class);
+        UsageVO record = new UsageVO();
+        List<UsageVO> records = Arrays.asList(new UsageVO(), new UsageVO());
+
+        UsageRecordBuffer.save(usageDao, record);
+        UsageRecordBuffer.saveAll(usageDao, records);
+
+        Mockito.verify(usageDao).persist(record);
+        Mockito.verify(usageDao).saveUsageRecords(records);
+        assertTrue(UsageRecordBuffer.drain().isEmpty());
+    }
+
+    @Test
+    public void testBufferedInOrder() {
+        UsageDao usageDao = Mockito.mock(UsageDao.class);
+        UsageVO first = new UsageVO();
+        UsageVO second = new UsageVO();
+        UsageVO third = new UsageVO();
+
+        UsageRecordBuffer.start();
+        UsageRecordBuffer.save(usageDao, first);
+        UsageRecordBuffer.saveAll(usageDao, Arrays.asList(second, third));
+
+        List<UsageVO> drained = UsageRecordBuffer.drain();
+        assertEquals(3, drained.size());
+        assertSame(first, drained.get(0));
+        assertSame(third, drained.get(2));
+        assertTrue(UsageRecordBuffer.drain().isEmpty());
+        Mockito.verifyZeroInteractions(usageDao);
+    }
+}
@@ -0,0 +1,109 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in memory cache whose entries are trusted for a time to live.
+ * Once full the least recently used entry is dropped.  A cache without a
+ * size or a time to live keeps nothing.
+ */
+public class ExpiringLruCache<K, V> {
+    private final int _maxSize;
+    private final long _ttl;
+    private final Map<K, Entry<V>> _entries;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    private static class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param maxSize entries kept, least recently used ones are dropped first
+     * @param ttl milliseconds an entry is trusted
+     */
+    public ExpiringLruCache(final int maxSize, long ttl) {
+        _maxSize = maxSize;
+        _ttl = ttl;
+        _entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return _ttl > 0 && _maxSize > 0;
+    }
+
+    /**
+     * @return the value, or null if there is none or it has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = _entries.get(key);
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            _entries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (isEnabled()) {
+            _entries.put(key, new Entry<V>(value, System.currentTimeMillis() + _ttl));
+        }
+    }
+
+    public synchronized void clear() {
+        _entries.clear();
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+}
@@ -0,0 +1,108 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts latencies in milliseconds into fixed, roughly
+ * exponential buckets.  Recording is lock free and does not allocate.
+ * Percentiles are approximate, they report the upper bound of the bucket
+ * the percentile falls in.
+ */
+public class LatencyHistogram {
+    private static final long[] s_bounds = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000, 120000, 300000, 600000, 1800000,
+        3600000};
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(s_bounds.length + 1);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+
+        _buckets.incrementAndGet(bucketOf(millis));
+        _count.incrementAndGet();
+        _sum.addAndGet(millis);
+
+        long max = _max.get();
+        while (millis > max && !_max.compareAndSet(max, millis)) {
+            max = _max.get();
+        }
+    }
+
+    protected static int bucketOf(long millis) {
+        for (int i = 0; i < s_bounds.length; i++) {
+            if (millis <= s_bounds[i]) {
+                return i;
+            }
+        }
+        return s_bounds.length;
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getSum() {
+        return _sum.get();
+    }
+
+    public long getMax() {
+        return _max.get();
+    }
+
+    public long getMean() {
+        long count = _count.get();
+        return count == 0 ? 0 : _sum.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket the percentile falls in, or the
+     * maximum seen if that is lower
+     */
+    public long getPercentile(double percentile) {
+        long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < s_bounds.length; i++) {
+            seen += _buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(s_bounds[i], getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMean() + "ms, p50=" + getPercentile(50) + "ms, p95=" + getPercentile(95) + "ms, p99=" + getPercentile(99) +
+            "ms, max=" + getMax() + "ms";
+    }
+}
@@ -0,0 +1,208 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * TimerWheel schedules a large number of timeouts that are mostly
+ * cancelled before they expire, such as command timeouts.
+ *
+ * A single thread advances a wheel of buckets one tick at a time.
+ * Scheduling and cancelling cost O(1) and a cancelled timeout is dropped
+ * the next time the wheel passes its bucket.  Timeouts fire up to one tick
+ * late.  Expired tasks are handed to the executor, so a slow task does not
+ * hold up the wheel.
+ */
+public class TimerWheel {
+    private static final Logger s_logger = Logger.getLogger(TimerWheel.class);
+
+    private final long _tickMs;
+    private final Queue<Timeout>[] _buckets;
+    private final Queue<Timeout> _added = new ConcurrentLinkedQueue<Timeout>();
+    private final Executor _executor;
+    private final Thread _thread;
+    private final AtomicInteger _pending = new AtomicInteger();
+
+    private volatile boolean _running = true;
+    private long _tick;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(String name, long tickMs, int wheelSize, Executor executor) {
+        _tickMs = tickMs;
+        _buckets = new Queue[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            _buckets[i] = new LinkedList<Timeout>();
+        }
+        _executor = executor;
+        _thread = new Thread(new Worker(), name);
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Schedules the task to run after the delay.
+     * @return handle to cancel the task with.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() + unit.toMillis(delay));
+        _pending.incrementAndGet();
+        _added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return timeouts scheduled and neither expired nor cancelled yet.
+     */
+    public int getPendingCount() {
+        return _pending.get();
+    }
+
+    public void stop() {
+        _running = false;
+        _thread.interrupt();
+    }
+
+    private void place(Timeout timeout, long now) {
+        long ticks = Math.max(0, (timeout._deadline - now + _tickMs - 1) / _tickMs);
+        timeout._rounds = ticks / _buckets.length;
+        _buckets[(int)((_tick + ticks) % _buckets.length)].add(timeout);
+    }
+
+    private void expire(long now) {
+        List<Timeout> early = null;
+        Iterator<Timeout> it = _buckets[(int)(_tick % _buckets.length)].iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout._cancelled) {
+                it.remove();
+            } else if (timeout._rounds > 0) {
+                timeout._rounds--;
+            } else if (timeout._deadline > now) {
+                // still early after a clock jump, placed again once the bucket has been walked
+                it.remove();
+                if (early == null) {
+                    early = new ArrayList<Timeout>();
+                }
+                early.add(timeout);
+            } else {
+                it.remove();
+                if (timeout.expire()) {
+                    try {
+                        _executor.execute(timeout._task);
+                    } catch (Exception e) {
+                        s_logger.warn("Unable to run the expired task " + timeout._task, e);
+                    }
+                }
+            }
+        }
+
+        if (early != null) {
+            for (Timeout timeout : early) {
+                place(timeout, now);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            long next = System.currentTimeMillis();
+            while (_running) {
+                long now = System.currentTimeMillis();
+                if (now < next) {
+                    try {
+                        Thread.sleep(next - now);
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                    now = System.currentTimeMillis();
+                }
+
+                Timeout added;
+                while ((added = _added.poll()) != null) {
+                    if (!added._cancelled) {
+                        place(added, now);
+                    }
+                }
+
+                expire(now);
+                _tick++;
+                next += _tickMs;
+                if (next < now - _tickMs * _buckets.length) {
+                    // the thread fell far behind, do not spin to catch up
+                    next = now;
+                }
+            }
+        }
+    }
+
+    public class Timeout {
+        private final Runnable _task;
+        private final long _deadline;
+        private long _rounds;
+        private volatile boolean _cancelled;
+        private boolean _expired;
+
+        Timeout(Runnable task, long deadline) {
+            _task = task;
+            _deadline = deadline;
+        }
+
+        /**
+         * @return false if the task has already been handed over to run.
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (_expired || _cancelled) {
+                    return false;
+                }
+                _cancelled = true;
+            }
+            _pending.decrementAndGet();
+            return true;
+        }
+
+        private boolean expire() {
+            synchronized (this) {
+                if (_cancelled) {
+                    return false;
+                }
+                _expired = true;
+            }
+            _pending.decrementAndGet();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return _cancelled;
+        }
+    }
+}
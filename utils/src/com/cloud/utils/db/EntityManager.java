@@ -20,7 +20,9 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Generic Entity Manager to retrieve database objects.
@@ -55,6 +57,25 @@ public interface EntityManager {
      */
     public <T> T findByUuidIncludingRemoved(Class<T> entityType, String uuid);
 
+    /**
+     * Finds entities by id in one query.
+     * @param <T> entity class
+     * @param <K> class of the id that the entity uses.
+     * @param entityType type of entity you're looking for.
+     * @param ids id values
+     * @return the entities found keyed by id, ids of missing or removed entities are absent.
+     */
+    public <T, K extends Serializable> Map<K, ? extends T> findByIds(Class<T> entityType, Collection<K> ids);
+
+    /**
+     * Finds entities by uuid string in one query, including those removed entries
+     * @param <T> entity class
+     * @param entityType type of entity you're looking for.
+     * @param uuids the unique ids
+     * @return the entities found keyed by uuid, uuids that match nothing are absent.
+     */
+    public <T> Map<String, ? extends T> findByUuidsIncludingRemoved(Class<T> entityType, Collection<String> uuids);
+
     /**
      * Finds an entity by external id which is always String
      * @param <T> entity class
@@ -0,0 +1,118 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPool hands out direct buffers of a fixed size so that links do not
+ * allocate a fresh buffer for every SSL packet they read or write.  Direct
+ * buffers also spare the channel the copy into its own temporary direct
+ * buffer it makes for heap buffers.
+ *
+ * Requests larger than the pool's buffer size get a heap buffer that is
+ * simply dropped on release.  At most maxPooled buffers are kept idle.
+ */
+public class BufferPool {
+    // large enough for an SSL packet or application buffer, even with large fragments enabled
+    public static final int DEFAULT_BUFFER_SIZE = 34 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 256;
+
+    private static final BufferPool s_default = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int _bufferSize;
+    private final int _maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> _free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _freeCount = new AtomicInteger();
+    private final AtomicLong _allocated = new AtomicLong();
+    private final AtomicLong _reused = new AtomicLong();
+    private final AtomicLong _oversized = new AtomicLong();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        _bufferSize = bufferSize;
+        _maxPooled = maxPooled;
+    }
+
+    public static BufferPool getDefault() {
+        return s_default;
+    }
+
+    /**
+     * @param capacity minimum capacity needed
+     * @return a cleared buffer of at least capacity bytes, to be given back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity > _bufferSize) {
+            _oversized.incrementAndGet();
+            return ByteBuffer.allocate(capacity);
+        }
+
+        ByteBuffer buffer = _free.poll();
+        if (buffer != null) {
+            _freeCount.decrementAndGet();
+            _reused.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        _allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(_bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != _bufferSize) {
+            return;
+        }
+        if (_freeCount.incrementAndGet() > _maxPooled) {
+            _freeCount.decrementAndGet();
+            return;
+        }
+        _free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    public int getFreeCount() {
+        return _freeCount.get();
+    }
+
+    public long getAllocatedCount() {
+        return _allocated.get();
+    }
+
+    public long getReusedCount() {
+        return _reused.get();
+    }
+
+    public long getOversizedCount() {
+        return _oversized.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[size=" + _bufferSize + ", free=" + getFreeCount() + ", allocated=" + getAllocatedCount() + ", reused=" + getReusedCount() +
+            ", oversized=" + getOversizedCount() + "]";
+    }
+}
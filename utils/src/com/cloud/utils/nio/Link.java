@@ -34,6 +34,8 @@ import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -59,19 +61,31 @@ public class Link {
     private final NioConnection _connection;
     private SelectionKey _key;
     private final ConcurrentLinkedQueue<ByteBuffer[]> _writeQueue;
+    private final ByteBuffer _headerBuffer;
+    // pooled, only held while a packet is being read
     private ByteBuffer _readBuffer;
+    // pooled, only held while a frame is being assembled from its packets
     private ByteBuffer _plaintextBuffer;
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
 
+    private final AtomicLong _bytesRead = new AtomicLong();
+    private final AtomicLong _bytesWritten = new AtomicLong();
+    private final AtomicLong _framesRead = new AtomicLong();
+    private final AtomicLong _framesWritten = new AtomicLong();
+    private final AtomicInteger _writeQueueDepth = new AtomicInteger();
+
+    private static final BufferPool s_bufferPool = BufferPool.getDefault();
+    private static final ByteBuffer[] CLOSE_REQUEST = new ByteBuffer[0];
+
     private SSLEngine _sslEngine;
     public static String keystoreFile = "/cloudmanagementserver.keystore";
 
     public Link(InetSocketAddress addr, NioConnection connection) {
         _addr = addr;
         _connection = connection;
-        _readBuffer = ByteBuffer.allocate(2048);
+        _headerBuffer = ByteBuffer.allocate(4);
         _attach = null;
         _key = null;
         _writeQueue = new ConcurrentLinkedQueue<ByteBuffer[]>();
@@ -95,6 +109,9 @@ public class Link {
         synchronized (this) {
             _key = key;
         }
+        if (key != null && _connection != null) {
+            _connection.linkOpened(this, key);
+        }
     }
 
     public void setSSLEngine(SSLEngine sslEngine) {
@@ -144,57 +161,58 @@ public class Link {
     }
      */
 
-    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
+    /**
+     * Wraps the buffers into SSL packets, each written out together with its
+     * header from a single pooled buffer.
+     *
+     * @return number of bytes written to the channel.
+     */
+    private static long doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        ByteBuffer pkgBuf = s_bufferPool.acquire(sslSession.getPacketBufferSize() + 44);
         SSLEngineResult engResult;
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
-
-        int totalLen = 0;
-        for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
-        }
-
-        int processedLen = 0;
-        while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
-            engResult = sslEngine.wrap(buffers, pkgBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-
-            processedLen = 0;
+        try {
+            int totalLen = 0;
             for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
+                totalLen += buffer.limit();
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
-            pkgBuf.flip();
-            if (processedLen < totalLen) {
-                header = header | HEADER_FLAG_FOLLOWING;
-            }
-            headBuf.putInt(header);
-            headBuf.flip();
+            long written = 0;
+            int processedLen = 0;
+            while (processedLen < totalLen) {
+                pkgBuf.clear();
+                // leave room for the header in front of the packet
+                pkgBuf.position(4);
+                engResult = sslEngine.wrap(buffers, pkgBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
 
-            while (headRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                processedLen = 0;
+                for (ByteBuffer buffer : buffers) {
+                    processedLen += buffer.position();
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
+
+                int header = pkgBuf.position() - 4;
+                if (processedLen < totalLen) {
+                    header = header | HEADER_FLAG_FOLLOWING;
                 }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
+                pkgBuf.flip();
+                pkgBuf.putInt(0, header);
+
+                while (pkgBuf.hasRemaining()) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Writing packet " + pkgBuf.remaining());
+                    }
+                    ch.write(pkgBuf);
+                }
+                written += pkgBuf.limit();
             }
+            return written;
+        } finally {
+            s_bufferPool.release(pkgBuf);
         }
     }
 
@@ -219,20 +237,17 @@ public class Link {
 
     public byte[] read(SocketChannel ch) throws IOException {
         if (_readHeader) {   // Start of a packet
-            if (_readBuffer.position() == 0) {
-                _readBuffer.limit(4);
-            }
-
-            if (ch.read(_readBuffer) == -1) {
+            if (ch.read(_headerBuffer) == -1) {
                 throw new IOException("Connection closed with -1 on reading size.");
             }
 
-            if (_readBuffer.hasRemaining()) {
+            if (_headerBuffer.hasRemaining()) {
                 s_logger.trace("Need to read the rest of the packet length");
                 return null;
             }
-            _readBuffer.flip();
-            int header = _readBuffer.getInt();
+            _headerBuffer.flip();
+            int header = _headerBuffer.getInt();
+            _headerBuffer.clear();
             int readSize = (short)header;
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("Packet length is " + readSize);
@@ -242,25 +257,14 @@ public class Link {
                 throw new IOException("Wrong packet size: " + readSize);
             }
 
-            if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
-            }
-
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
                 _gotFollowingPacket = true;
             } else {
                 _gotFollowingPacket = false;
             }
 
-            _readBuffer.clear();
             _readHeader = false;
-
-            if (_readBuffer.capacity() < readSize) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Resizing the byte buffer from " + _readBuffer.capacity());
-                }
-                _readBuffer = ByteBuffer.allocate(readSize);
-            }
+            _readBuffer = s_bufferPool.acquire(readSize);
             _readBuffer.limit(readSize);
         }
 
@@ -276,17 +280,22 @@ public class Link {
         }
 
         _readBuffer.flip();
-
-        ByteBuffer appBuf;
+        _bytesRead.addAndGet(4 + _readBuffer.limit());
 
         SSLSession sslSession = _sslEngine.getSession();
+        int appBufferSize = sslSession.getApplicationBufferSize() + 40;
         SSLEngineResult engResult;
         int remaining = 0;
 
+        if (_plaintextBuffer == null) {
+            _plaintextBuffer = s_bufferPool.acquire(appBufferSize);
+        }
+
+        // unwrap straight into the frame being assembled
         while (_readBuffer.hasRemaining()) {
             remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+            ensurePlaintextCapacity(appBufferSize);
+            engResult = _sslEngine.unwrap(_readBuffer, _plaintextBuffer);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
                     engResult.getStatus() != SSLEngineResult.Status.OK) {
                 throw new IOException("SSL: SSLEngine return bad result! " + engResult);
@@ -294,28 +303,22 @@ public class Link {
             if (remaining == _readBuffer.remaining()) {
                 throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
             }
-
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
             if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                s_logger.trace("Done with packet: " + engResult.bytesProduced());
             }
         }
 
-        _readBuffer.clear();
+        s_bufferPool.release(_readBuffer);
+        _readBuffer = null;
         _readHeader = true;
 
         if (!_gotFollowingPacket) {
             _plaintextBuffer.flip();
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
+            s_bufferPool.release(_plaintextBuffer);
+            _plaintextBuffer = null;
+            _framesRead.incrementAndGet();
             return result;
         } else {
             if (s_logger.isTraceEnabled()) {
@@ -325,6 +328,17 @@ public class Link {
         }
     }
 
+    private void ensurePlaintextCapacity(int needed) {
+        if (_plaintextBuffer.remaining() < needed) {
+            // We need to expand _plaintextBuffer for more data
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + needed));
+            _plaintextBuffer.flip();
+            newBuffer.put(_plaintextBuffer);
+            s_bufferPool.release(_plaintextBuffer);
+            _plaintextBuffer = newBuffer;
+        }
+    }
+
     public void send(byte[] data) throws ClosedChannelException {
         send(data, false);
     }
@@ -334,24 +348,18 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        _writeQueueDepth.incrementAndGet();
+        _writeQueue.add(data);
         if (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE_REQUEST);
         }
         synchronized (this) {
             if (_key == null) {
@@ -374,21 +382,49 @@ public class Link {
     public boolean write(SocketChannel ch) throws IOException {
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE_REQUEST) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
-
-            doWrite(ch, raw_data, _sslEngine);
+            _writeQueueDepth.decrementAndGet();
+            _bytesWritten.addAndGet(doWrite(ch, data, _sslEngine));
+            _framesWritten.incrementAndGet();
         }
         return false;
     }
 
+    /**
+     * @return bytes read from the channel, headers and SSL overhead included.
+     */
+    public long getBytesRead() {
+        return _bytesRead.get();
+    }
+
+    /**
+     * @return bytes written to the channel, headers and SSL overhead included.
+     */
+    public long getBytesWritten() {
+        return _bytesWritten.get();
+    }
+
+    public long getFramesRead() {
+        return _framesRead.get();
+    }
+
+    public long getFramesWritten() {
+        return _framesWritten.get();
+    }
+
+    /**
+     * @return frames queued by send() and not yet written out.
+     */
+    public int getWriteQueueDepth() {
+        return _writeQueueDepth.get();
+    }
+
     public InetSocketAddress getSocketAddress() {
         return _addr;
     }
@@ -397,8 +433,13 @@ public class Link {
         return _addr.getAddress().toString();
     }
 
-    public synchronized void terminated() {
-        _key = null;
+    public void terminated() {
+        synchronized (this) {
+            _key = null;
+        }
+        if (_connection != null) {
+            _connection.linkClosed(this);
+        }
     }
 
     public synchronized void schedule(Task task) throws ClosedChannelException {
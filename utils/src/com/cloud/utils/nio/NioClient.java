@@ -39,6 +39,7 @@ public class NioClient extends NioConnection {
     protected String _host;
     protected String _bindAddress;
     protected SocketChannel _clientConnection;
+    protected int _connectTimeout;
 
     public NioClient(String name, String host, int port, int workers, HandlerFactory factory) {
         super(name, port, workers, factory);
@@ -49,6 +50,13 @@ public class NioClient extends NioConnection {
         _bindAddress = ipAddress;
     }
 
+    /**
+     * @param millis how long to wait for the TCP connection, 0 leaves it to the OS
+     */
+    public void setConnectTimeout(int millis) {
+        _connectTimeout = millis;
+    }
+
     @Override
     protected void init() throws IOException {
         _selector = Selector.open();
@@ -67,7 +75,11 @@ public class NioClient extends NioConnection {
             }
 
             InetSocketAddress peerAddr = new InetSocketAddress(_host, _port);
-            _clientConnection.connect(peerAddr);
+            if (_connectTimeout > 0) {
+                _clientConnection.socket().connect(peerAddr, _connectTimeout);
+            } else {
+                _clientConnection.connect(peerAddr);
+            }
 
             SSLEngine sslEngine = null;
             // Begin SSL handshake in BLOCKING mode
@@ -99,7 +111,7 @@ public class NioClient extends NioConnection {
             throw e;
         }
 
-        _executor.execute(task);
+        scheduleTask(task);
     }
 
     @Override
@@ -29,14 +29,22 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -45,38 +53,70 @@ import org.apache.cloudstack.utils.security.SSLUtils;
 
 import org.apache.log4j.Logger;
 
+import com.cloud.utils.LatencyHistogram;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
  * NioConnection abstracts the NIO socket operations.  The Java implementation
  * provides that.
+ *
+ * The selector set up by init() accepts new connections.  Accepted links are
+ * spread over a configurable number of selector loops, each with its own
+ * thread, so that reading from a large number of links is not bound to a
+ * single thread.
+ *
+ * Decoded data is handed to a pool of handler threads.  When its queue is
+ * bounded and full, the link the data came from stops being read until
+ * the queue drains again, which pushes back on that peer through TCP.
+ * Connects and disconnects are held back the same way; a selector loop
+ * never waits for room in the handler queue.
  */
 public abstract class NioConnection implements Runnable {
     private static final Logger s_logger = Logger.getLogger(NioConnection.class);;
 
+    // how often a loop retries handing over data held back from a full handler queue
+    protected static final long STALLED_RETRY_INTERVAL = 100;
+
     protected Selector _selector;
     protected Thread _thread;
-    protected boolean _isRunning;
+    protected volatile boolean _isRunning;
     protected boolean _isStartup;
     protected int _port;
-    protected List<ChangeRequest> _todos;
     protected HandlerFactory _factory;
     protected String _name;
     protected ExecutorService _executor;
+    protected final int _selectorCount;
+    protected volatile SelectorLoop[] _loops;
+    private final AtomicInteger _nextLoop = new AtomicInteger();
+    private final AtomicLong _stallCount = new AtomicLong();
+    // links with a key and the selector of the key, plus the traffic of the links already closed
+    private final Map<Link, Selector> _links = new ConcurrentHashMap<Link, Selector>();
+    private final AtomicLong _closedBytesRead = new AtomicLong();
+    private final AtomicLong _closedBytesWritten = new AtomicLong();
+    private final AtomicLong _closedFramesRead = new AtomicLong();
+    private final AtomicLong _closedFramesWritten = new AtomicLong();
 
     public NioConnection(String name, int port, int workers, HandlerFactory factory) {
+        this(name, port, workers, 1, 0, factory);
+    }
+
+    /**
+     * @param selectors number of selector loops reading from the links.
+     * @param queueSize capacity of the handler queue, unbounded if not positive.
+     */
+    public NioConnection(String name, int port, int workers, int selectors, int queueSize, HandlerFactory factory) {
         _name = name;
         _isRunning = false;
         _thread = null;
         _selector = null;
         _port = port;
         _factory = factory;
-        _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
+        _selectorCount = Math.max(1, selectors);
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new LinkedBlockingQueue<Runnable>(queueSize) : new LinkedBlockingQueue<Runnable>();
+        _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, queue, new NamedThreadFactory(name + "-Handler"));
     }
 
     public void start() {
-        _todos = new ArrayList<ChangeRequest>();
-
         _thread = new Thread(this, _name + "-Selector");
         _isRunning = true;
         _thread.start();
@@ -96,6 +136,12 @@ public abstract class NioConnection implements Runnable {
         if (_thread != null) {
             _thread.interrupt();
         }
+        SelectorLoop[] loops = _loops;
+        if (loops != null) {
+            for (int i = 1; i < loops.length; i++) {
+                loops[i].getThread().interrupt();
+            }
+        }
     }
 
     public boolean isRunning() {
@@ -111,6 +157,7 @@ public abstract class NioConnection implements Runnable {
         synchronized (_thread) {
             try {
                 init();
+                initLoops();
             } catch (ConnectException e) {
                 s_logger.warn("Unable to connect to remote: is there a server running on port " + _port);
                 return;
@@ -125,55 +172,28 @@ public abstract class NioConnection implements Runnable {
             _thread.notifyAll();
         }
 
-        while (_isRunning) {
-            try {
-                _selector.select();
-
-                // Someone is ready for I/O, get the ready keys
-                Set<SelectionKey> readyKeys = _selector.selectedKeys();
-                Iterator<SelectionKey> i = readyKeys.iterator();
-
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Keys Processing: " + readyKeys.size());
-                }
-                // Walk through the ready keys collection.
-                while (i.hasNext()) {
-                    SelectionKey sk = i.next();
-                    i.remove();
-
-                    if (!sk.isValid()) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Selection Key is invalid: " + sk.toString());
-                        }
-                        Link link = (Link)sk.attachment();
-                        if (link != null) {
-                            link.terminated();
-                        } else {
-                            closeConnection(sk);
-                        }
-                    } else if (sk.isReadable()) {
-                        read(sk);
-                    } else if (sk.isWritable()) {
-                        write(sk);
-                    } else if (sk.isAcceptable()) {
-                        accept(sk);
-                    } else if (sk.isConnectable()) {
-                        connect(sk);
-                    }
-                }
-
-                s_logger.trace("Keys Done Processing.");
+        _loops[0].run();
 
-                processTodos();
-            } catch (Throwable e) {
-                s_logger.warn("Caught an exception but continuing on.", e);
-            }
-        }
         synchronized (_thread) {
             _isStartup = false;
         }
     }
 
+    private void initLoops() throws IOException {
+        SelectorLoop[] loops = new SelectorLoop[_selectorCount];
+        loops[0] = new SelectorLoop(_selector, _thread);
+        for (int i = 1; i < loops.length; i++) {
+            Selector selector = SelectorProvider.provider().openSelector();
+            loops[i] = new SelectorLoop(selector, null);
+        }
+        _loops = loops;
+        for (int i = 1; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], _name + "-Selector-" + i);
+            loops[i].setThread(thread);
+            thread.start();
+        }
+    }
+
     abstract void init() throws IOException;
 
     abstract void registerLink(InetSocketAddress saddr, Link link);
@@ -223,20 +243,39 @@ public abstract class NioConnection implements Runnable {
         InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
         Link link = new Link(saddr, this);
         link.setSSLEngine(sslEngine);
-        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+
+        SelectorLoop loop = nextLoop();
+        if (loop.getSelector() == key.selector()) {
+            SelectionKey linkKey = socketChannel.register(key.selector(), SelectionKey.OP_READ, link);
+            link.setKey(linkKey);
+            linkAccepted(linkKey, link);
+        } else {
+            // only the loop's own thread can register with its selector without blocking
+            loop.addTodo(new ChangeRequest(socketChannel, ChangeRequest.ACCEPT, SelectionKey.OP_READ, link));
+        }
+    }
+
+    private void linkAccepted(SelectionKey key, Link link) {
         Task task = _factory.create(Task.Type.CONNECT, link, null);
-        registerLink(saddr, link);
-        _executor.execute(task);
+        registerLink(link.getSocketAddress(), link);
+        scheduleFromLoop(key, task);
     }
 
     protected void terminate(SelectionKey key) {
         Link link = (Link)key.attachment();
+        SelectorLoop loop = getLoop(key.selector());
         closeConnection(key);
+        if (loop != null) {
+            // data already read still goes ahead of the disconnect
+            loop.defer(loop.unstall(key));
+        }
         if (link != null) {
             link.terminated();
             Task task = _factory.create(Task.Type.DISCONNECT, link, null);
             unregisterLink(link.getSocketAddress());
-            _executor.execute(task);
+            if (!offerTask(task) && loop != null) {
+                loop.defer(task);
+            }
         }
     }
 
@@ -255,7 +294,9 @@ public abstract class NioConnection implements Runnable {
                 return;
             }
             Task task = _factory.create(Task.Type.DATA, link, data);
-            _executor.execute(task);
+            if (!offerTask(task)) {
+                getLoop(key.selector()).stall(key, task);
+            }
         } catch (Exception e) {
             logDebug(e, key, 1);
             terminate(key);
@@ -290,17 +331,12 @@ public abstract class NioConnection implements Runnable {
         }
     }
 
-    protected void processTodos() {
-        List<ChangeRequest> todos;
-        if (_todos.size() == 0) {
+    protected void processTodos(SelectorLoop loop) {
+        List<ChangeRequest> todos = loop.takeTodos();
+        if (todos == null) {
             return;             // Nothing to do.
         }
 
-        synchronized (this) {
-            todos = _todos;
-            _todos = new ArrayList<ChangeRequest>();
-        }
-
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Todos Processing: " + todos.size());
         }
@@ -323,11 +359,15 @@ public abstract class NioConnection implements Runnable {
                     }
                     break;
                 case ChangeRequest.REGISTER:
+                case ChangeRequest.ACCEPT:
                     try {
-                        key = ((SocketChannel)(todo.key)).register(_selector, todo.ops, todo.att);
+                        key = ((SocketChannel)(todo.key)).register(loop.getSelector(), todo.ops, todo.att);
                         if (todo.att != null) {
                             Link link = (Link)todo.att;
                             link.setKey(key);
+                            if (todo.type == ChangeRequest.ACCEPT) {
+                                linkAccepted(key, link);
+                            }
                         }
                     } catch (ClosedChannelException e) {
                         s_logger.warn("Couldn't register socket: " + todo.key);
@@ -347,6 +387,7 @@ public abstract class NioConnection implements Runnable {
                     key = (SelectionKey)todo.key;
                     closeConnection(key);
                     if (key != null) {
+                        loop.defer(loop.unstall(key));
                         Link link = (Link)key.attachment();
                         if (link != null) {
                             link.terminated();
@@ -378,15 +419,55 @@ public abstract class NioConnection implements Runnable {
             link.setKey(key);
             key.attach(link);
             Task task = _factory.create(Task.Type.CONNECT, link, null);
-            _executor.execute(task);
+            scheduleFromLoop(key, task);
         } catch (IOException e) {
             logTrace(e, key, 2);
             terminate(key);
         }
     }
 
+    /**
+     * Hands a task to the handler threads, waiting for room in the handler
+     * queue if it is full.  Not to be called from a selector loop, which
+     * holds back the key instead, see scheduleFromLoop().
+     */
     protected void scheduleTask(Task task) {
-        _executor.execute(task);
+        while (!offerTask(task)) {
+            if (_executor.isShutdown()) {
+                throw new RejectedExecutionException("Handlers of " + _name + " are shut down");
+            }
+            try {
+                Thread.sleep(STALLED_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                s_logger.warn("Interrupted while waiting to schedule " + task.getType() + " task for " + task.getLink().getSocketAddress());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands a task for a link to the handler threads from its selector loop.
+     * If the handler queue is full the link stops being read until the task
+     * got through, so nothing read later overtakes it.
+     */
+    protected void scheduleFromLoop(SelectionKey key, Task task) {
+        if (!offerTask(task)) {
+            getLoop(key.selector()).stall(key, task);
+        }
+    }
+
+    /**
+     * Hands a task to the handler threads if there is room for it.
+     *
+     * @return false if the handler queue is full.
+     */
+    protected boolean offerTask(Task task) {
+        try {
+            _executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
     }
 
     protected void write(SelectionKey key) throws IOException {
@@ -400,7 +481,8 @@ public abstract class NioConnection implements Runnable {
                 closeConnection(key);
                 link.terminated();
             } else {
-                key.interestOps(SelectionKey.OP_READ);
+                SelectorLoop loop = getLoop(key.selector());
+                key.interestOps(loop != null && loop.isStalled(key) ? 0 : SelectionKey.OP_READ);
             }
         } catch (Exception e) {
             logDebug(e, key, 3);
@@ -425,27 +507,167 @@ public abstract class NioConnection implements Runnable {
     }
 
     public void register(int ops, SocketChannel key, Object att) {
-        ChangeRequest todo = new ChangeRequest(key, ChangeRequest.REGISTER, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        addTodo(_selector, new ChangeRequest(key, ChangeRequest.REGISTER, ops, att));
     }
 
     public void change(int ops, SelectionKey key, Object att) {
-        ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        addTodo(key.selector(), new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att));
     }
 
     public void close(SelectionKey key) {
-        ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CLOSE, 0, null);
-        synchronized (this) {
-            _todos.add(todo);
+        addTodo(key.selector(), new ChangeRequest(key, ChangeRequest.CLOSE, 0, null));
+    }
+
+    private void addTodo(Selector selector, ChangeRequest todo) {
+        SelectorLoop loop = getLoop(selector);
+        if (loop == null) {
+            s_logger.warn("No selector loop to take the change request for " + todo.key);
+            return;
+        }
+        loop.addTodo(todo);
+    }
+
+    protected SelectorLoop getLoop(Selector selector) {
+        SelectorLoop[] loops = _loops;
+        if (loops != null) {
+            for (SelectorLoop loop : loops) {
+                if (loop.getSelector() == selector) {
+                    return loop;
+                }
+            }
+        }
+        return null;
+    }
+
+    protected SelectorLoop nextLoop() {
+        return _loops[(_nextLoop.getAndIncrement() & Integer.MAX_VALUE) % _loops.length];
+    }
+
+    public int getSelectorCount() {
+        return _selectorCount;
+    }
+
+    /**
+     * @return time spent handling the ready keys of each select, per selector loop.
+     */
+    public LatencyHistogram getSelectorLatency(int index) {
+        return _loops != null ? _loops[index].getLatency() : null;
+    }
+
+    public int getSelectorLinkCount(int index) {
+        SelectorLoop[] loops = _loops;
+        if (loops == null) {
+            return 0;
+        }
+        // the key set of a selector is not safe to read from other threads
+        int count = 0;
+        for (Selector selector : _links.values()) {
+            if (selector == loops[index].getSelector()) {
+                count++;
+            }
         }
-        _selector.wakeup();
+        return count;
+    }
+
+    /**
+     * @return links currently not read from because the handler queue is full.
+     */
+    public int getStalledLinkCount() {
+        int count = 0;
+        SelectorLoop[] loops = _loops;
+        if (loops != null) {
+            for (SelectorLoop loop : loops) {
+                count += loop.getStalledCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of times a link has been stalled on a full handler queue.
+     */
+    public long getStallCount() {
+        return _stallCount.get();
+    }
+
+    void linkOpened(Link link, SelectionKey key) {
+        _links.put(link, key.selector());
+    }
+
+    void linkClosed(Link link) {
+        if (_links.remove(link) == null) {
+            return;
+        }
+        _closedBytesRead.addAndGet(link.getBytesRead());
+        _closedBytesWritten.addAndGet(link.getBytesWritten());
+        _closedFramesRead.addAndGet(link.getFramesRead());
+        _closedFramesWritten.addAndGet(link.getFramesWritten());
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Link to " + link.getSocketAddress() + " closed after reading " + link.getFramesRead() + " frames (" + link.getBytesRead() +
+                " bytes) and writing " + link.getFramesWritten() + " frames (" + link.getBytesWritten() + " bytes), " + link.getWriteQueueDepth() +
+                " frames left unwritten");
+        }
+    }
+
+    public int getLinkCount() {
+        return _links.size();
+    }
+
+    /**
+     * @return bytes read from all links since start, headers and SSL overhead included.
+     */
+    public long getBytesRead() {
+        long bytes = _closedBytesRead.get();
+        for (Link link : _links.keySet()) {
+            bytes += link.getBytesRead();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return bytes written to all links since start, headers and SSL overhead included.
+     */
+    public long getBytesWritten() {
+        long bytes = _closedBytesWritten.get();
+        for (Link link : _links.keySet()) {
+            bytes += link.getBytesWritten();
+        }
+        return bytes;
+    }
+
+    public long getFramesRead() {
+        long frames = _closedFramesRead.get();
+        for (Link link : _links.keySet()) {
+            frames += link.getFramesRead();
+        }
+        return frames;
+    }
+
+    public long getFramesWritten() {
+        long frames = _closedFramesWritten.get();
+        for (Link link : _links.keySet()) {
+            frames += link.getFramesWritten();
+        }
+        return frames;
+    }
+
+    /**
+     * @return frames queued on the open links and not yet written out.
+     */
+    public int getWriteQueueDepth() {
+        int depth = 0;
+        for (Link link : _links.keySet()) {
+            depth += link.getWriteQueueDepth();
+        }
+        return depth;
+    }
+
+    public int getHandlerQueueSize() {
+        return ((ThreadPoolExecutor)_executor).getQueue().size();
+    }
+
+    public int getActiveHandlerCount() {
+        return ((ThreadPoolExecutor)_executor).getActiveCount();
     }
 
     /* Release the resource used by the instance */
@@ -453,12 +675,197 @@ public abstract class NioConnection implements Runnable {
         if (_selector != null) {
             _selector.close();
         }
+        SelectorLoop[] loops = _loops;
+        if (loops != null) {
+            for (int i = 1; i < loops.length; i++) {
+                loops[i].getSelector().close();
+            }
+        }
+    }
+
+    /**
+     * One selector with the thread that selects on it, the pending changes
+     * to its keys and the links and tasks held back on a full handler queue.
+     * Keys are only ever touched from the loop's own thread.
+     */
+    protected class SelectorLoop implements Runnable {
+        private final Selector _loopSelector;
+        private Thread _loopThread;
+        private List<ChangeRequest> _todos = new ArrayList<ChangeRequest>();
+        private final Map<SelectionKey, Task> _stalled = new ConcurrentHashMap<SelectionKey, Task>();
+        // tasks of closed links, in order, only touched from the loop's thread
+        private final ArrayDeque<Task> _deferred = new ArrayDeque<Task>();
+        private final LatencyHistogram _latency = new LatencyHistogram();
+
+        protected SelectorLoop(Selector selector, Thread thread) {
+            _loopSelector = selector;
+            _loopThread = thread;
+        }
+
+        public Selector getSelector() {
+            return _loopSelector;
+        }
+
+        public Thread getThread() {
+            return _loopThread;
+        }
+
+        void setThread(Thread thread) {
+            _loopThread = thread;
+        }
+
+        public LatencyHistogram getLatency() {
+            return _latency;
+        }
+
+        public int getStalledCount() {
+            return _stalled.size();
+        }
+
+        void addTodo(ChangeRequest todo) {
+            synchronized (this) {
+                _todos.add(todo);
+            }
+            _loopSelector.wakeup();
+        }
+
+        synchronized List<ChangeRequest> takeTodos() {
+            if (_todos.size() == 0) {
+                return null;
+            }
+            List<ChangeRequest> todos = _todos;
+            _todos = new ArrayList<ChangeRequest>();
+            return todos;
+        }
+
+        void stall(SelectionKey key, Task task) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            _stalled.put(key, task);
+            _stallCount.incrementAndGet();
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Handler queue is full, stop reading from " + task.getLink().getSocketAddress());
+            }
+        }
+
+        /**
+         * @return the task held back for the key, if any.
+         */
+        Task unstall(SelectionKey key) {
+            return _stalled.remove(key);
+        }
+
+        /**
+         * Holds back a task that has no key left to stall.
+         */
+        void defer(Task task) {
+            if (task != null) {
+                _deferred.add(task);
+            }
+        }
+
+        int getDeferredCount() {
+            return _deferred.size();
+        }
+
+        boolean hasHeldBack() {
+            return !_stalled.isEmpty() || !_deferred.isEmpty();
+        }
+
+        boolean isStalled(SelectionKey key) {
+            return _stalled.containsKey(key);
+        }
+
+        /**
+         * Retries handing over the held back data, resuming reads from each
+         * link whose data got through.
+         */
+        void resumeStalled() {
+            while (!_deferred.isEmpty()) {
+                if (!offerTask(_deferred.peek())) {
+                    return;
+                }
+                _deferred.poll();
+            }
+
+            Iterator<Map.Entry<SelectionKey, Task>> it = _stalled.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<SelectionKey, Task> entry = it.next();
+                SelectionKey key = entry.getKey();
+                if (!key.isValid()) {
+                    it.remove();
+                    continue;
+                }
+                if (!offerTask(entry.getValue())) {
+                    return;
+                }
+                it.remove();
+                try {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                } catch (CancelledKeyException e) {
+                    s_logger.debug("key has been cancelled");
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (_isRunning) {
+                try {
+                    _loopSelector.select(hasHeldBack() ? STALLED_RETRY_INTERVAL : 0);
+                    long start = System.currentTimeMillis();
+
+                    // Someone is ready for I/O, get the ready keys
+                    Set<SelectionKey> readyKeys = _loopSelector.selectedKeys();
+                    Iterator<SelectionKey> i = readyKeys.iterator();
+
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Keys Processing: " + readyKeys.size());
+                    }
+                    // Walk through the ready keys collection.
+                    while (i.hasNext()) {
+                        SelectionKey sk = i.next();
+                        i.remove();
+
+                        if (!sk.isValid()) {
+                            if (s_logger.isTraceEnabled()) {
+                                s_logger.trace("Selection Key is invalid: " + sk.toString());
+                            }
+                            Link link = (Link)sk.attachment();
+                            if (link != null) {
+                                link.terminated();
+                            } else {
+                                closeConnection(sk);
+                            }
+                        } else if (sk.isReadable()) {
+                            read(sk);
+                        } else if (sk.isWritable()) {
+                            write(sk);
+                        } else if (sk.isAcceptable()) {
+                            accept(sk);
+                        } else if (sk.isConnectable()) {
+                            connect(sk);
+                        }
+                    }
+
+                    s_logger.trace("Keys Done Processing.");
+
+                    processTodos(this);
+                    if (hasHeldBack()) {
+                        resumeStalled();
+                    }
+                    _latency.record(System.currentTimeMillis() - start);
+                } catch (Throwable e) {
+                    s_logger.warn("Caught an exception but continuing on.", e);
+                }
+            }
+        }
     }
 
     public class ChangeRequest {
         public static final int REGISTER = 1;
         public static final int CHANGEOPS = 2;
         public static final int CLOSE = 3;
+        public static final int ACCEPT = 4;
 
         public Object key;
         public int type;
@@ -0,0 +1,51 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.util.Map;
+
+public interface NioConnectionMBean {
+    /**
+     * @return time spent handling the ready keys of each select, per selector loop
+     */
+    public Map<String, String> getSelectorLatency();
+
+    public Map<String, Integer> getSelectorLinkCount();
+
+    public int getStalledLinkCount();
+
+    public long getStallCount();
+
+    public int getHandlerQueueSize();
+
+    public int getActiveHandlerCount();
+
+    public int getLinkCount();
+
+    public long getBytesRead();
+
+    public long getBytesWritten();
+
+    public long getFramesRead();
+
+    public long getFramesWritten();
+
+    public int getWriteQueueDepth();
+}
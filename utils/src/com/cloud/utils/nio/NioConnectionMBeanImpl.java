@@ -0,0 +1,107 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.StandardMBean;
+
+import com.cloud.utils.LatencyHistogram;
+
+public class NioConnectionMBeanImpl extends StandardMBean implements NioConnectionMBean {
+    private final NioConnection _connection;
+
+    public NioConnectionMBeanImpl(NioConnection connection) {
+        super(NioConnectionMBean.class, false);
+        _connection = connection;
+    }
+
+    @Override
+    public Map<String, String> getSelectorLatency() {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (int i = 0; i < _connection.getSelectorCount(); i++) {
+            LatencyHistogram latency = _connection.getSelectorLatency(i);
+            if (latency != null) {
+                result.put("selector-" + i, latency.toString());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Integer> getSelectorLinkCount() {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (int i = 0; i < _connection.getSelectorCount(); i++) {
+            result.put("selector-" + i, _connection.getSelectorLinkCount(i));
+        }
+        return result;
+    }
+
+    @Override
+    public int getStalledLinkCount() {
+        return _connection.getStalledLinkCount();
+    }
+
+    @Override
+    public long getStallCount() {
+        return _connection.getStallCount();
+    }
+
+    @Override
+    public int getHandlerQueueSize() {
+        return _connection.getHandlerQueueSize();
+    }
+
+    @Override
+    public int getActiveHandlerCount() {
+        return _connection.getActiveHandlerCount();
+    }
+
+    @Override
+    public int getLinkCount() {
+        return _connection.getLinkCount();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return _connection.getBytesRead();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return _connection.getBytesWritten();
+    }
+
+    @Override
+    public long getFramesRead() {
+        return _connection.getFramesRead();
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return _connection.getFramesWritten();
+    }
+
+    @Override
+    public int getWriteQueueDepth() {
+        return _connection.getWriteQueueDepth();
+    }
+}
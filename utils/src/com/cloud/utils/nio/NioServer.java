@@ -38,7 +38,15 @@ public class NioServer extends NioConnection {
     protected WeakHashMap<InetSocketAddress, Link> _links;
 
     public NioServer(String name, int port, int workers, HandlerFactory factory) {
-        super(name, port, workers, factory);
+        this(name, port, workers, 1, 0, factory);
+    }
+
+    /**
+     * @param selectors number of selector loops the accepted links are spread over.
+     * @param queueSize capacity of the handler queue, unbounded if not positive.
+     */
+    public NioServer(String name, int port, int workers, int selectors, int queueSize, HandlerFactory factory) {
+        super(name, port, workers, selectors, queueSize, factory);
         _localAddr = null;
         _links = new WeakHashMap<InetSocketAddress, Link>(1024);
     }
@@ -69,12 +77,16 @@ public class NioServer extends NioConnection {
 
     @Override
     protected void registerLink(InetSocketAddress addr, Link link) {
-        _links.put(addr, link);
+        synchronized (_links) {
+            _links.put(addr, link);
+        }
     }
 
     @Override
     protected void unregisterLink(InetSocketAddress saddr) {
-        _links.remove(saddr);
+        synchronized (_links) {
+            _links.remove(saddr);
+        }
     }
 
     /**
@@ -87,7 +99,10 @@ public class NioServer extends NioConnection {
      * @return null if not sent.  attach object in link if sent.
      */
     public Object send(InetSocketAddress saddr, byte[] data) throws ClosedChannelException {
-        Link link = _links.get(saddr);
+        Link link;
+        synchronized (_links) {
+            link = _links.get(saddr);
+        }
         if (link == null) {
             return null;
         }
@@ -0,0 +1,82 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ExpiringLruCacheTest {
+
+    @Test
+    public void keepsUntilCleared() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<String, String>(10, 60000);
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<String, String>(10, 1);
+        cache.put("key", "value");
+        Thread.sleep(10);
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsed() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<String, String>(2, 60000);
+        cache.put("first", "1");
+        cache.put("second", "2");
+        cache.get("first");
+        cache.put("third", "3");
+        assertEquals("1", cache.get("first"));
+        assertNull(cache.get("second"));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<String, String>(10, 60000);
+        cache.get("key");
+        cache.put("key", "value");
+        cache.get("key");
+        cache.get("key");
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void keepsNothingWhenDisabled() {
+        ExpiringLruCache<String, String> noSize = new ExpiringLruCache<String, String>(0, 60000);
+        noSize.put("key", "value");
+        assertNull(noSize.get("key"));
+
+        ExpiringLruCache<String, String> noTtl = new ExpiringLruCache<String, String>(10, 0);
+        noTtl.put("key", "value");
+        assertNull(noTtl.get("key"));
+    }
+}
@@ -0,0 +1,97 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimerWheelTest {
+    private static final Executor s_direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final TimerWheel _wheel = new TimerWheel("TimerWheelTest", 10, 8, s_direct);
+
+    @After
+    public void tearDown() {
+        _wheel.stop();
+    }
+
+    @Test
+    public void testExpires() throws InterruptedException {
+        final CountDownLatch fired = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        _wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(fired.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+        Assert.assertEquals(0, _wheel.getPendingCount());
+    }
+
+    @Test
+    public void testExpiresAfterSeveralRounds() throws InterruptedException {
+        final CountDownLatch fired = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        // the wheel turns once every 80ms
+        _wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 250, TimeUnit.MILLISECONDS);
+
+        Assert.assertFalse(fired.await(150, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(fired.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 250);
+    }
+
+    @Test
+    public void testCancelled() throws InterruptedException {
+        final AtomicInteger fired = new AtomicInteger();
+        TimerWheel.Timeout timeout = _wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.incrementAndGet();
+            }
+        }, 30, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(1, _wheel.getPendingCount());
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertEquals(0, _wheel.getPendingCount());
+
+        Thread.sleep(150);
+        Assert.assertEquals(0, fired.get());
+    }
+}
@@ -0,0 +1,71 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer buffer = pool.acquire(100);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(1024, buffer.capacity());
+        buffer.put((byte)1);
+        pool.release(buffer);
+        Assert.assertEquals(1, pool.getFreeCount());
+
+        ByteBuffer again = pool.acquire(1024);
+        Assert.assertSame(buffer, again);
+        Assert.assertEquals(0, again.position());
+        Assert.assertEquals(1024, again.limit());
+        Assert.assertEquals(1, pool.getAllocatedCount());
+        Assert.assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void testOversized() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer buffer = pool.acquire(2048);
+        Assert.assertFalse(buffer.isDirect());
+        Assert.assertEquals(2048, buffer.capacity());
+        pool.release(buffer);
+        Assert.assertEquals(0, pool.getFreeCount());
+        Assert.assertEquals(1, pool.getOversizedCount());
+    }
+
+    @Test
+    public void testMaxPooled() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(1024);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        Assert.assertEquals(2, pool.getFreeCount());
+        pool.release(ByteBuffer.allocate(1024));
+        Assert.assertEquals(2, pool.getFreeCount());
+    }
+}
@@ -0,0 +1,202 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.utils.nio;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class NioConnectionTest {
+    private HandlerFactory _factory;
+    private NioServer _server;
+    private Selector _selector;
+    private NioConnection.SelectorLoop _loop;
+    private CountDownLatch _release;
+
+    @Before
+    public void setUp() throws Exception {
+        _factory = Mockito.mock(HandlerFactory.class);
+        // one core handler, at most five and a queue of one
+        _server = new NioServer("NioConnectionTest", 0, 1, 1, 1, _factory);
+        _selector = SelectorProvider.provider().openSelector();
+        _loop = _server.new SelectorLoop(_selector, null);
+        _server._loops = new NioConnection.SelectorLoop[] {_loop};
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (_release != null) {
+            _release.countDown();
+        }
+        _server.stop();
+        _selector.close();
+    }
+
+    @Test
+    public void testLinksAreCountedWhileOpen() throws Exception {
+        Link link = new Link(new InetSocketAddress("127.0.0.1", 8250), _server);
+        Assert.assertEquals(0, _server.getLinkCount());
+
+        link.setKey(mockKey(null));
+        link.setKey(mockKey(null));
+        Assert.assertEquals(1, _server.getLinkCount());
+
+        link.send(new byte[10]);
+        link.send(new byte[10]);
+        Assert.assertEquals(2, _server.getWriteQueueDepth());
+
+        link.terminated();
+        link.terminated();
+        Assert.assertEquals(0, _server.getLinkCount());
+        Assert.assertEquals(0, _server.getWriteQueueDepth());
+        Assert.assertEquals(0, _server.getFramesWritten());
+    }
+
+    @Test
+    public void testScheduleTaskWaitsForRoom() throws Exception {
+        fillHandlers();
+        final CountDownLatch ran = new CountDownLatch(1);
+        final Task task = new CountingTask(Task.Type.OTHER, ran);
+        Thread scheduler = new Thread() {
+            @Override
+            public void run() {
+                _server.scheduleTask(task);
+            }
+        };
+        scheduler.start();
+        scheduler.join(300);
+        Assert.assertTrue(scheduler.isAlive());
+
+        _release.countDown();
+        scheduler.join(10000);
+        Assert.assertFalse(scheduler.isAlive());
+        Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLoopStopsReadingInsteadOfWaiting() throws Exception {
+        SelectionKey key = mockKey(null);
+        fillHandlers();
+        CountDownLatch ran = new CountDownLatch(1);
+
+        _server.scheduleFromLoop(key, new CountingTask(Task.Type.CONNECT, ran));
+        Mockito.verify(key).interestOps(0);
+        Assert.assertTrue(_loop.isStalled(key));
+
+        _release.countDown();
+        waitForIdleHandlers();
+        _loop.resumeStalled();
+        Assert.assertFalse(_loop.isStalled(key));
+        Mockito.verify(key).interestOps(SelectionKey.OP_READ);
+        Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDisconnectIsDeferredAfterHeldBackData() throws Exception {
+        Link link = new Link(new InetSocketAddress("127.0.0.1", 8250), _server);
+        SelectionKey key = mockKey(link);
+        CountDownLatch ran = new CountDownLatch(2);
+        Mockito.when(_factory.create(Mockito.eq(Task.Type.DISCONNECT), Mockito.any(Link.class), Mockito.any(byte[].class))).thenReturn(
+            new CountingTask(Task.Type.DISCONNECT, ran));
+        fillHandlers();
+
+        _server.scheduleFromLoop(key, new CountingTask(Task.Type.DATA, ran));
+        _server.terminate(key);
+        Assert.assertFalse(_loop.isStalled(key));
+        Assert.assertEquals(2, _loop.getDeferredCount());
+
+        _release.countDown();
+        waitForIdleHandlers();
+        // the queue takes one task at a time, the loop keeps retrying the rest
+        long deadline = System.currentTimeMillis() + 10000;
+        while (_loop.getDeferredCount() > 0) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            _loop.resumeStalled();
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+    }
+
+    private SelectionKey mockKey(Link link) {
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        Mockito.when(key.selector()).thenReturn(_selector);
+        Mockito.when(key.isValid()).thenReturn(true);
+        Mockito.when(key.interestOps()).thenReturn(SelectionKey.OP_READ, 0);
+        if (link != null) {
+            key.attach(link);
+            link.setKey(key);
+        }
+        return key;
+    }
+
+    private void fillHandlers() {
+        _release = new CountDownLatch(1);
+        final CountDownLatch release = _release;
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        while (true) {
+            try {
+                _server._executor.execute(blocker);
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    private void waitForIdleHandlers() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (_server.getActiveHandlerCount() > 0 || _server.getHandlerQueueSize() > 0) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class CountingTask extends Task {
+        private final CountDownLatch _ran;
+
+        CountingTask(Task.Type type, CountDownLatch ran) {
+            super(type, new Link(new InetSocketAddress("127.0.0.1", 8250), null), (byte[])null);
+            _ran = ran;
+        }
+
+        @Override
+        protected void doTask(Task task) throws Exception {
+            _ran.countDown();
+        }
+    }
+}